@@ -0,0 +1,284 @@
+import java.util.Map;
+
+/** Runs AccumulatorCompiler's code on a machine with one register, the accumulator, which every operation
+ * other than a jump works on. The one operand an instruction names is a number or a word in memory:
+ * 	load x / store x	copy x into the accumulator, or the accumulator into x
+ * 	add, sub, mul, muli, div, slt, slti x	set the accumulator to accumulator op x
+ * 	lw offset(base)	load the word at offset plus the value of base
+ * 	beq x / bne x	execute the next instruction (the jump the compiler always puts after them) only if
+ * 			the accumulator is equal, or not equal, to x
+ * 	j label / jal label / jr x	jump, call (with the return address in returnAddress0), return to the address in x
+ * 
+ * The compiler counts one access to the accumulator for every instruction that isn't a jump.
+ * The interpreter counts the ones each instruction actually makes, reads and writes apart,
+ * so an add (which reads and then writes it) is two and a beq is one.
+ * 
+ */
+public class AccumulatorInterpreter extends Interpreter {
+	
+	private static final String[] OPERATIONS = {"load", "store", "add", "sub", "mul", "muli", "div", "slt", "slti", "lw",
+		"beq", "bne", "j", "jal", "jr"};
+	private static final int LOAD = 0, STORE = 1, ADD = 2, SUB = 3, MUL = 4, MULI = 5, DIV = 6, SLT = 7, SLTI = 8, LW = 9,
+			BEQ = 10, BNE = 11, J = 12, JAL = 13, JR = 14;
+	/** The superinstructions (see fuse()): a store and a load, a load and a store, and a branch and the jump after it */
+	private static final int STORE_LOAD = 15, LOAD_STORE = 16, BRANCH_JUMP = 17;
+	private static final int[][] SUPERINSTRUCTIONS = {{STORE_LOAD, STORE, LOAD}, {LOAD_STORE, LOAD, STORE},
+		{BRANCH_JUMP, BEQ, J}, {BRANCH_JUMP, BNE, J}};
+	
+	/** The register the accumulator is kept in between runs of dispatch(), so translated blocks can work on it */
+	private static final int ACCUMULATOR = 0;
+	
+	/** Where returnAddress0 is, so a call doesn't have to look it up */
+	private final int returnAddress;
+	
+	/**
+	 * @param code Code written by AccumulatorCompiler
+	 * @throws IllegalArgumentException if the code uses an operation AccumulatorCompiler doesn't write
+	 */
+	public AccumulatorInterpreter(String code) {
+		super(ISA.ACCUMULATOR, code);
+		returnAddress = variable(RETURN_ADDRESS);
+		decode();
+		for (int i = 0; i < opcodes.length; i++) {
+			int o = i * SLOTS;
+			switch (opcodes[i]) {
+			case STORE:
+				countWrite(o);
+				break;
+			case J:
+				break;
+			case JAL:
+				// the return address, unless it's a call to a function that isn't declared
+				writes[i] = targets[o] < 0 ? 0 : 1;
+				break;
+			default:
+				countRead(o);
+			}
+		}
+		fuse(SUPERINSTRUCTIONS);
+	}
+	
+	protected boolean fusible(int superinstruction, int pc) {
+		// a jump that faults is left on its own
+		return superinstruction != BRANCH_JUMP || targets[(pc + 1) * SLOTS] >= 0;
+	}
+	
+	protected Instruction decode(int index, String operation, String[] operands) {
+		int opcode = opcode(OPERATIONS, operation);
+		expect(operands, 0, 1);
+		// the compiler writes nothing for a value it couldn't work out, eg. "load", which is 0
+		String operand = operands.length == 0 ? "" : operands[0];
+		switch (opcode) {
+		case J:
+		case JAL:
+			return new Instruction(opcode, label(operand, index));
+		case LW:
+			return new Instruction(opcode, word(operand));
+		default:
+			return new Instruction(opcode, data(operand));
+		}
+	}
+	
+	protected void dispatch(long limit) throws ExecutionFault {
+		int[] opcodes = this.opcodes, handlers = this.handlers, targets = this.targets;
+		long[] hits = this.hits;
+		int pc = position, accumulator = registers[ACCUMULATOR];
+		long count = executed, started = count, fusable = limit - 1;
+		TranslatedBlock[] blocks = this.blocks;
+		try {
+			while (pc != STOP && pc < opcodes.length && count < limit) {
+				if (TRANSLATE_THRESHOLD > 0 && blocks[pc] != null && count != started) {
+					// the block runs it
+					break;
+				}
+				int next = pc + 1, o = pc * SLOTS;
+				switch (count < fusable ? handlers[pc] : opcodes[pc]) {
+				case STORE_LOAD:
+					write(o, accumulator);
+					hits[pc++]++;
+					count++;
+					accumulator = read(o + SLOTS);
+					next = pc + 1;
+					break;
+				case LOAD_STORE:
+					accumulator = read(o);
+					hits[pc++]++;
+					count++;
+					write(o + SLOTS, accumulator);
+					next = pc + 1;
+					break;
+				case BRANCH_JUMP:
+					if ((accumulator == read(o)) != (opcodes[pc] == BEQ)) {
+						next = pc + 2;
+					} else {
+						hits[pc++]++;
+						count++;
+						next = targets[o + SLOTS];
+					}
+					break;
+				case LOAD:
+				case LW:
+					accumulator = read(o);
+					break;
+				case STORE:
+					write(o, accumulator);
+					break;
+				case ADD:
+					accumulator += read(o);
+					break;
+				case SUB:
+					accumulator -= read(o);
+					break;
+				case MUL:
+				case MULI:
+					accumulator *= read(o);
+					break;
+				case DIV:
+					int divisor = read(o);
+					if (divisor == 0) {
+						throw new ExecutionFault("Division by zero");
+					}
+					accumulator /= divisor;
+					break;
+				case SLT:
+				case SLTI:
+					accumulator = accumulator < read(o) ? 1 : 0;
+					break;
+				case BEQ:
+				case BNE:
+					if ((accumulator == read(o)) != (opcodes[pc] == BEQ)) {
+						// skip the jump after it
+						next = pc + 2;
+					}
+					break;
+				case J:
+					next = jump(o);
+					break;
+				case JAL:
+					if (targets[o] >= 0) {
+						memory.write(returnAddress, addressOf(pc + 1));
+						next = targets[o];
+					}
+					break;
+				default:
+					next = indexOf(read(o));
+				}
+				hits[pc]++;
+				count++;
+				pc = after(pc, next);
+			}
+		} finally {
+			position = pc;
+			executed = count;
+			registers[ACCUMULATOR] = accumulator;
+		}
+	}
+	
+	protected boolean translate(int pc, BlockTranslator translator) {
+		int o = pc * SLOTS, opcode = opcodes[pc];
+		switch (opcode) {
+		case LOAD:
+		case LW:
+			translateRead(o, translator);
+			translator.toRegister(ACCUMULATOR);
+			return true;
+		case STORE:
+			translator.register(ACCUMULATOR);
+			return translateWrite(o, translator);
+		case ADD:
+		case SUB:
+		case MUL:
+		case MULI:
+		case SLT:
+		case SLTI:
+			translator.register(ACCUMULATOR);
+			translateRead(o, translator);
+			if (opcode == ADD) {
+				translator.add();
+			} else if (opcode == SUB) {
+				translator.subtract();
+			} else if (opcode == SLT || opcode == SLTI) {
+				translator.lessThan();
+			} else {
+				translator.multiply();
+			}
+			translator.toRegister(ACCUMULATOR);
+			return true;
+		case BEQ:
+		case BNE:
+			translator.register(ACCUMULATOR);
+			translateRead(o, translator);
+			// skip the jump after it
+			translator.branch(opcode == BNE, pc + 2);
+			return true;
+		case J:
+			if (kinds[o] != Operand.LABEL || targets[o] < 0) {
+				return false;
+			}
+			translator.jump(targets[o]);
+			return true;
+		case JAL:
+			if (targets[o] >= 0) {
+				translator.number(addressOf(pc + 1));
+				translator.toWord(returnAddress);
+				translator.jump(targets[o]);
+			}
+			return true;
+		default:
+			// jr and div, which can fault in ways a block doesn't
+			return false;
+		}
+	}
+	
+	protected void start(int[] arguments) {
+		startInMemory(arguments);
+	}
+	
+	protected int returnValue() {
+		return get(RETURN_VALUE);
+	}
+	
+	protected void addCounts(Map<String, Long> counts) {
+		long accumulatorReads = 0, accumulatorWrites = 0, memoryAccesses = 0, externalCalls = 0;
+		for (int i = 0; i < hits.length; i++) {
+			switch (opcodes[i]) {
+			case LOAD:
+			case LW:
+				accumulatorWrites += hits[i];
+				break;
+			case STORE:
+			case BEQ:
+			case BNE:
+				accumulatorReads += hits[i];
+				break;
+			case J:
+			case JR:
+				break;
+			case JAL:
+				externalCalls += targets[i * SLOTS] < 0 ? hits[i] : 0;
+				break;
+			default:
+				// the arithmetic reads the accumulator and writes the result back to it
+				accumulatorReads += hits[i];
+				accumulatorWrites += hits[i];
+			}
+			memoryAccesses += hits[i] * (reads[i] + writes[i]);
+		}
+		counts.put("Accumulator reads", accumulatorReads);
+		counts.put("Accumulator writes", accumulatorWrites);
+		// what AccumulatorCompiler's count of memory accesses stands for
+		counts.put("# of memory and accumulator accesses", memoryAccesses + accumulatorReads + accumulatorWrites);
+		counts.put("Calls to undeclared functions", externalCalls);
+	}
+	
+	/** Decodes the word lw loads, eg. "4(sum)", at a number plus the value of a variable
+	 * 
+	 */
+	private Operand word(String text) {
+		int open = text.indexOf('(');
+		if (open < 0 || !text.endsWith(")")) {
+			return data(text);
+		}
+		return new Operand(data(text.substring(0, open).trim()), data(text.substring(open + 1, text.length() - 1).trim()), text);
+	}
+}
@@ -0,0 +1,76 @@
+import java.util.Arrays;
+
+/** A map from ints to ints that are never negative, eg. from code addresses to the instructions at them,
+ * kept in two arrays with open addressing, so a lookup boxes nothing and usually finds its key in the first slot it tries.
+ * 
+ * A key goes in the slot its hash picks, or if that's taken, the next free one after it (wrapping round).
+ * The arrays are at least twice the number of keys, so runs of taken slots stay short. Nothing is ever removed.
+ * 
+ */
+public class AddressMap {
+	
+	/** What get() returns for a key that isn't in the map, and the value of an empty slot */
+	public static final int NONE = -1;
+	
+	private final int[] keys, values;
+	private final int mask, shift;
+	private int size;
+	
+	/**
+	 * @param capacity The most keys the map will hold
+	 */
+	public AddressMap(int capacity) {
+		int slots = Integer.highestOneBit(Math.max(capacity, 1)) << 2;
+		keys = new int[slots];
+		values = new int[slots];
+		Arrays.fill(values, NONE);
+		mask = slots - 1;
+		shift = Integer.numberOfLeadingZeros(mask);
+	}
+	
+	/** Maps the key to the value, replacing any value it had
+	 * 
+	 * @throws IllegalArgumentException if the value is negative
+	 * @throws IllegalStateException if the map already has as many keys as its capacity allows for
+	 */
+	public void put(int key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Negative value " + value + " for key " + key);
+		}
+		int slot = slot(key);
+		if (values[slot] == NONE) {
+			if (2 * (size + 1) > keys.length) {
+				throw new IllegalStateException("More than " + keys.length / 2 + " keys");
+			}
+			size++;
+			keys[slot] = key;
+		}
+		values[slot] = value;
+	}
+	
+	/** Returns the value the key is mapped to, or NONE if it isn't in the map
+	 * 
+	 */
+	public int get(int key) {
+		return values[slot(key)];
+	}
+	
+	/** Returns the number of keys
+	 * 
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/** Returns the slot that holds the key, or the empty one it would go in
+	 * 
+	 */
+	private int slot(int key) {
+		// Fibonacci hashing, which spreads out evenly spaced keys like the addresses of instructions
+		int slot = (key * 0x9E3779B9) >>> shift;
+		while (values[slot] != NONE && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+}
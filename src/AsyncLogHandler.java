@@ -0,0 +1,150 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/** A log handler that hands records to a background thread instead of writing them to the file itself,
+ * so logging from the compile threads never waits on the disk.
+ * 
+ * Records go into a fixed size ring buffer: each publish claims the next slot with one atomic increment and
+ * drops the record in. The writer thread takes the records out in order, formats them, and writes everything it
+ * finds in one go before flushing. If the writer falls a whole buffer behind, publish waits for it to catch up
+ * rather than dropping records. flush() and close() wait until everything published so far has been written.
+ * 
+ */
+public class AsyncLogHandler extends Handler {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int CAPACITY = 1024;
+	/** How long the writer sleeps when there is nothing to write, unless a record wakes it first */
+	private static final long IDLE_NANOS = 50L * 1000L * 1000L;
+	
+	private final AtomicReferenceArray<LogRecord> ring = new AtomicReferenceArray<LogRecord>(CAPACITY);
+	/** The next slot to publish into, and the next slot to write out */
+	private final AtomicLong claimed = new AtomicLong(), written = new AtomicLong();
+	private final Writer out;
+	private final Thread writer;
+	private volatile boolean idle = false, closed = false;
+	
+	/**
+	 * @param filename The file to append the log to
+	 * @throws IOException if the file can't be opened
+	 */
+	public AsyncLogHandler(String filename) throws IOException {
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename, true), UTF8));
+		setFormatter(new SimpleFormatter());
+		writer = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "AsyncLogHandler");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	public void publish(LogRecord record) {
+		if (closed || !isLoggable(record)) {
+			return;
+		}
+		// the caller is found by walking the stack, which has to happen on the thread that logged
+		record.getSourceClassName();
+		
+		long sequence = claimed.getAndIncrement();
+		while (sequence - written.get() >= CAPACITY) {
+			// the writer is a whole buffer behind
+			LockSupport.unpark(writer);
+			Thread.yield();
+		}
+		ring.set((int) (sequence & (CAPACITY - 1)), record);
+		if (idle) {
+			LockSupport.unpark(writer);
+		}
+	}
+	
+	/** Waits until every record published so far has been written to the file
+	 * 
+	 */
+	public void flush() {
+		long target = claimed.get();
+		while (written.get() < target && writer.isAlive()) {
+			LockSupport.unpark(writer);
+			Thread.yield();
+		}
+		if (writer.isAlive()) {
+			try {
+				out.flush();
+			} catch (IOException ioe) {
+				reportError(null, ioe, ErrorManager.FLUSH_FAILURE);
+			}
+		}
+	}
+	
+	public void close() {
+		if (closed) {
+			return;
+		}
+		flush();
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/** Runs on the writer thread: writes records out in order until the handler is closed
+	 * 
+	 */
+	private void drain() {
+		long next = 0;
+		try {
+			while (!closed || next < claimed.get()) {
+				int slot = (int) (next & (CAPACITY - 1));
+				LogRecord record = ring.get(slot);
+				if (record == null) {
+					if (next < claimed.get()) {
+						// claimed, but the record isn't in yet
+						Thread.yield();
+						continue;
+					}
+					out.flush();
+					idle = true;
+					if (next == claimed.get() && !closed) {
+						LockSupport.parkNanos(this, IDLE_NANOS);
+					}
+					idle = false;
+					continue;
+				}
+				
+				ring.set(slot, null);
+				try {
+					out.write(getFormatter().format(record));
+				} catch (RuntimeException re) {
+					reportError(null, re, ErrorManager.FORMAT_FAILURE);
+				}
+				written.set(++next);
+			}
+			out.flush();
+		} catch (IOException ioe) {
+			reportError(null, ioe, ErrorManager.WRITE_FAILURE);
+		} finally {
+			// don't leave flush() or publish() waiting on a writer that's gone
+			written.set(Long.MAX_VALUE / 2);
+			try {
+				out.close();
+			} catch (IOException ioe) {
+				reportError(null, ioe, ErrorManager.CLOSE_FAILURE);
+			}
+		}
+	}
+}
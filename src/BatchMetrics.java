@@ -0,0 +1,81 @@
+/** Running totals for a batch run, per architecture.
+ * Only the thread writing the results in order updates these, so they aren't synchronized.
+ * 
+ */
+public class BatchMetrics {
+	
+	public static final String CSV_HEADER = "file,architecture,instructions,bits,memory accesses,compile micros\n";
+	
+	private final long start = System.nanoTime();
+	private long files = 0;
+	private final long[] compiled, instructions, bits, memAccesses, errors, compileNanos;
+	
+	public BatchMetrics() {
+		int n = ISA.values().length;
+		compiled = new long[n];
+		instructions = new long[n];
+		bits = new long[n];
+		memAccesses = new long[n];
+		errors = new long[n];
+		compileNanos = new long[n];
+	}
+	
+	/** Counts one more file, whatever happened when compiling it
+	 * 
+	 */
+	public void addFile() {
+		files++;
+	}
+	
+	public void add(ISA architecture, CompilationResult result, long nanos) {
+		int i = architecture.ordinal();
+		compiled[i]++;
+		instructions[i] += result.getNumInstructions();
+		bits[i] += result.getProgramBits();
+		memAccesses[i] += result.getMemAccesses();
+		compileNanos[i] += nanos;
+	}
+	
+	public void addError(ISA architecture) {
+		errors[architecture.ordinal()]++;
+	}
+	
+	public long getFiles() {
+		return files;
+	}
+	
+	/** Returns the number of files finished per second since the batch started
+	 * 
+	 */
+	public double getFilesPerSecond() {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return seconds > 0 ? files / seconds : 0;
+	}
+	
+	/** Returns a CSV row (see CSV_HEADER) for one compiled file
+	 * 
+	 */
+	public static String toCsv(String file, ISA architecture, CompilationResult result, long nanos) {
+		return "\"" + file.replace("\"", "\"\"") + "\"," + architecture + "," + result.getNumInstructions() + ","
+				+ result.getProgramBits() + "," + result.getMemAccesses() + "," + (nanos / 1000) + "\n";
+	}
+	
+	/** Returns the totals for every architecture, one line each
+	 * 
+	 */
+	public String toString() {
+		StringBuffer sb = new StringBuffer();
+		sb.append("Files:\t" + files + " (" + String.format("%.1f", getFilesPerSecond()) + " files/s)\n");
+		for (ISA a : ISA.values()) {
+			int i = a.ordinal();
+			sb.append("Architecture: " + a
+					+ "\tcompiled: " + compiled[i]
+					+ "\terrors: " + errors[i]
+					+ "\tinstructions: " + instructions[i]
+					+ "\tbits: " + bits[i]
+					+ "\tmemory accesses: " + memAccesses[i]
+					+ "\tcompile ms: " + (compileNanos[i] / 1000000) + "\n");
+		}
+		return sb.toString();
+	}
+}
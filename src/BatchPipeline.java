@@ -0,0 +1,336 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Compiles a batch of files in every architecture as a pipeline of stages, each on threads of its own,
+ * so that reading files, splitting them up, compiling them, and writing the report all overlap:
+ * 
+ * read (1 thread) -> parse (1 thread) -> lower (N threads, one task per architecture) -> write (the calling thread)
+ * 
+ * The stages are joined by BoundedQueues, and the writer puts the files back into the order they were read in.
+ * At most WINDOW files are between being read and being written, so however far the reader gets ahead
+ * of the writer the pipeline never holds more than that many files and their results.
+ * Each file is only parsed once (see ParsedProgram), and the same ParsedProgram is lowered into every architecture.
+ * 
+ * Each stage counts what it did and how long it was busy, and the queues keep track of how full they got,
+ * see toString().
+ * 
+ */
+public class BatchPipeline {
+	
+	/** How many files can be in the pipeline at once */
+	private static final int WINDOW = 256;
+	private static final int QUEUE_CAPACITY = 64;
+	private static final ISA[] ARCHITECTURES = ISA.values();
+	/** Passed down the pipeline after the last file, so the stages know to stop */
+	private static final Job END = new Job(-1, null, null);
+	
+	private final Logger logger;
+	private final int threads;
+	private final BoundedQueue<Job> parseQueue = new BoundedQueue<Job>(QUEUE_CAPACITY),
+			lowerQueue = new BoundedQueue<Job>(QUEUE_CAPACITY * ARCHITECTURES.length),
+			writeQueue = new BoundedQueue<Job>(QUEUE_CAPACITY);
+	private final Stage reading = new Stage("read", 1, null), parsing = new Stage("parse", 1, parseQueue),
+			lowering, writing = new Stage("write", 1, writeQueue);
+	/** How many files have been written, so the reader knows when there's room for more */
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private final List<Thread> stageThreads = new ArrayList<Thread>();
+	private Thread writer;
+	private volatile boolean stopping = false;
+	
+	/**
+	 * @param logger Where to log errors and progress
+	 * @param threads The number of threads to lower files into the architectures on
+	 */
+	public BatchPipeline(Logger logger, int threads) {
+		this.logger = logger;
+		this.threads = Math.max(threads, 1);
+		lowering = new Stage("lower", this.threads, lowerQueue);
+	}
+	
+	/** Compiles every file in every architecture, writing the same report and metrics as Simulator.simulateBatch.
+	 * An error in one file or architecture is reported and counted, and the batch carries on.
+	 * Anything worse stops every stage and is thrown from here.
+	 * 
+	 * @param files The paths to files containing C-like code
+	 * @param report Where to write the compiled codes
+	 * @param metrics Where to write the metrics for each compiled file, or null
+	 * @return The totals for the whole batch
+	 * @throws IOException if report or metrics can't be written to
+	 */
+	public BatchMetrics run(final Iterator<String> files, Appendable report, Appendable metrics) throws IOException {
+		writer = Thread.currentThread();
+		start("BatchPipeline-read", new Runnable() {
+			public void run() {
+				read(files);
+			}
+		});
+		start("BatchPipeline-parse", new Runnable() {
+			public void run() {
+				parse();
+			}
+		});
+		final AtomicInteger lowerersLeft = new AtomicInteger(threads);
+		for (int t = 1; t <= threads; t++) {
+			start("BatchPipeline-lower-" + t, new Runnable() {
+				public void run() {
+					lower(lowerersLeft);
+				}
+			});
+		}
+		
+		BatchMetrics totals = new BatchMetrics();
+		try {
+			if (metrics != null) {
+				metrics.append(BatchMetrics.CSV_HEADER);
+			}
+			write(report, metrics, totals);
+		} catch (InterruptedException ie) {
+			if (failure.get() == null) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while writing the batch", ie);
+			}
+		} finally {
+			stopping = true;
+			for (Thread t : stageThreads) {
+				t.interrupt();
+			}
+			boolean interrupted = false;
+			for (Thread t : stageThreads) {
+				try {
+					t.join();
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		Throwable t = failure.get();
+		if (t instanceof Error) {
+			throw (Error) t;
+		} else if (t != null) {
+			throw new IllegalStateException(t);
+		}
+		return totals;
+	}
+	
+	/** Reads each file once there's room for it in the pipeline
+	 * 
+	 */
+	private void read(Iterator<String> files) {
+		try {
+			long next = 0;
+			while (files.hasNext()) {
+				for (int tries = 0; next - written.get() >= WINDOW; tries++) {
+					// the writer is a whole window behind
+					reading.waitFor(tries);
+				}
+				long start = System.nanoTime();
+				String file = files.next();
+				// each file is only read once in a batch, so don't fill up the cache with it
+				Job job = new Job(next++, file, FileHelper.readContents(file, false));
+				reading.done(start);
+				parseQueue.put(job);
+			}
+			parseQueue.put(END);
+		} catch (Throwable t) {
+			fail(t);
+		}
+	}
+	
+	/** Splits each file up once, and passes it on to be lowered into every architecture
+	 * 
+	 */
+	private void parse() {
+		try {
+			Job job;
+			while ((job = parseQueue.take()) != END) {
+				long start = System.nanoTime();
+				try {
+					job.program = new ParsedProgram(job.code);
+				} catch (RuntimeException re) {
+					job.parseError = re;
+				}
+				parsing.done(start);
+				// one task per architecture, each lowerer takes the next architecture off the job
+				for (int i = 0; i < ARCHITECTURES.length; i++) {
+					lowerQueue.put(job);
+				}
+			}
+			for (int t = 0; t < threads; t++) {
+				lowerQueue.put(END);
+			}
+		} catch (Throwable t) {
+			fail(t);
+		}
+	}
+	
+	/** Lowers files into one architecture at a time, and passes on each file once all of its architectures are done
+	 * 
+	 */
+	private void lower(AtomicInteger lowerersLeft) {
+		try {
+			Job job;
+			while ((job = lowerQueue.take()) != END) {
+				ISA i = ARCHITECTURES[job.nextArchitecture.getAndIncrement()];
+				long start = System.nanoTime();
+				try {
+					if (job.parseError != null) {
+						throw job.parseError;
+					}
+					job.result.results[i.ordinal()] = Compiler.getCompiler(i).compileProgram(job.program, null);
+				} catch (Exception e) {
+					job.result.errors[i.ordinal()] = String.valueOf(e.getMessage());
+					logger.log(Level.SEVERE, job.result.file+" ("+i+"): "+e.getMessage(), e);
+				}
+				job.result.nanos[i.ordinal()] = System.nanoTime() - start;
+				lowering.done(start);
+				
+				if (job.architecturesLeft.decrementAndGet() == 0) {
+					job.program = null;
+					writeQueue.put(job);
+				}
+			}
+			if (lowerersLeft.decrementAndGet() == 0) {
+				writeQueue.put(END);
+			}
+		} catch (Throwable t) {
+			fail(t);
+		}
+	}
+	
+	/** Writes each file's results once every file read before it has been written
+	 * 
+	 */
+	private void write(Appendable report, Appendable metrics, BatchMetrics totals) throws IOException, InterruptedException {
+		Job[] waiting = new Job[WINDOW];
+		long next = 0;
+		Job job;
+		while ((job = writeQueue.take()) != END) {
+			waiting[(int) (job.sequence % WINDOW)] = job;
+			int slot;
+			while ((job = waiting[slot = (int) (next % WINDOW)]) != null) {
+				long start = System.nanoTime();
+				waiting[slot] = null;
+				job.result.writeTo(report, metrics, totals);
+				writing.done(start);
+				written.set(++next);
+				
+				if (totals.getFiles() % Simulator.PROGRESS_INTERVAL == 0) {
+					logger.info(totals.getFiles()+" files compiled ("+String.format("%.1f", totals.getFilesPerSecond())+" files/s), queued: "
+							+parseQueue.size()+" to parse, "+lowerQueue.size()+" to lower, "+writeQueue.size()+" to write");
+				}
+			}
+		}
+	}
+	
+	private void start(String name, Runnable stage) {
+		Thread t = new Thread(stage, name);
+		t.setDaemon(true);
+		stageThreads.add(t);
+		t.start();
+	}
+	
+	/** Stops the pipeline after a stage fails, keeping the first failure to throw from run()
+	 * 
+	 */
+	private void fail(Throwable t) {
+		if (stopping || (t instanceof InterruptedException && failure.get() != null)) {
+			// stopped by the writer, or because another stage failed
+			return;
+		}
+		if (failure.compareAndSet(null, t)) {
+			writer.interrupt();
+		}
+	}
+	
+	/** Returns how much each stage did, how busy it was, and how full its queue got
+	 * 
+	 */
+	public String toString() {
+		return reading + "\n" + parsing + "\n" + lowering + "\n" + writing;
+	}
+	
+	/** A file on its way through the pipeline
+	 * 
+	 */
+	private static class Job {
+		final long sequence;
+		final String code;
+		final BatchResult result;
+		ParsedProgram program;
+		RuntimeException parseError;
+		/** Which architecture the next lowerer to take this file compiles it for */
+		final AtomicInteger nextArchitecture = new AtomicInteger();
+		final AtomicInteger architecturesLeft = new AtomicInteger(ARCHITECTURES.length);
+		
+		Job(long sequence, String file, String code) {
+			this.sequence = sequence;
+			this.code = code;
+			result = new BatchResult(file, ARCHITECTURES.length);
+		}
+	}
+	
+	/** What one stage of the pipeline did
+	 * 
+	 */
+	private static class Stage {
+		private final String name;
+		private final int threads;
+		private final BoundedQueue<Job> input;
+		private final long started = System.nanoTime();
+		private final AtomicLong items = new AtomicLong(), busyNanos = new AtomicLong();
+		
+		/**
+		 * @param input The queue the stage takes its work from, or null
+		 */
+		Stage(String name, int threads, BoundedQueue<Job> input) {
+			this.name = name;
+			this.threads = threads;
+			this.input = input;
+		}
+		
+		/** Counts an item finished, that was started at the given time
+		 * 
+		 */
+		void done(long start) {
+			items.incrementAndGet();
+			busyNanos.addAndGet(System.nanoTime() - start);
+		}
+		
+		/** Waits a little longer for the stage to be able to carry on
+		 * 
+		 */
+		void waitFor(int tries) throws InterruptedException {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (tries < 64) {
+				Thread.yield();
+			} else {
+				Thread.sleep(1);
+			}
+		}
+		
+		public String toString() {
+			double seconds = (System.nanoTime() - started) / 1e9;
+			String stats = name + ":\t" + items + " items, " + String.format("%.1f", items.get() / seconds) + " per second, busy "
+					+ String.format("%.0f", 100 * busyNanos.get() / 1e9 / seconds / threads) + "% of the time on " + threads + " thread(s)";
+			if (input != null) {
+				stats += ", queue of " + input.capacity() + " held up to " + input.getMaxSize()
+						+ " (" + String.format("%.1f", input.getAverageSize()) + " on average)";
+			}
+			return stats;
+		}
+	}
+}
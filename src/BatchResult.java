@@ -0,0 +1,38 @@
+import java.io.IOException;
+
+/** One file compiled in every architecture, see Simulator.simulateBatch and BatchPipeline
+ * 
+ */
+class BatchResult {
+	final String file;
+	final CompilationResult[] results;
+	final String[] errors;
+	final long[] nanos;
+	
+	BatchResult(String file, int architectures) {
+		this.file = file;
+		results = new CompilationResult[architectures];
+		errors = new String[architectures];
+		nanos = new long[architectures];
+	}
+	
+	void writeTo(Appendable report, Appendable metrics, BatchMetrics totals) throws IOException {
+		totals.addFile();
+		report.append("File: " + file + "\n");
+		for (ISA i : ISA.values()) {
+			CompilationResult r = results[i.ordinal()];
+			report.append("Architecture: " + i + "\nCode:\n");
+			if (r == null) {
+				report.append(errors[i.ordinal()] + "\n\n");
+				totals.addError(i);
+				continue;
+			}
+			report.append(r.getCode() + "\n");
+			totals.add(i, r, nanos[i.ordinal()]);
+			if (metrics != null) {
+				metrics.append(BatchMetrics.toCsv(file, i, r, nanos[i.ordinal()]));
+			}
+		}
+		report.append("\n");
+	}
+}
@@ -0,0 +1,627 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Translates a block of a program's instructions, one after the other from the one it starts at, into a TranslatedBlock.
+ * The interpreter describes each instruction (see Interpreter.translate) in operations on a stack of words, the JVM's own:
+ * number(), register(), and word() push a value, add() and the others like it work on the top two,
+ * toRegister() and toWord() pop one into where it goes, and branch() and jump() say where the instruction goes next,
+ * which is otherwise the one after it. An instruction that can't be described is left for the interpreter, and ends the block.
+ * 
+ * Inside the block, a jump forward to one of its instructions goes straight there, and a jump back to its start goes round
+ * again (as long as the budget allows for another time through), so a loop of straight-line code runs as a loop of bytecode.
+ * Any other jump leaves the block. Every instruction adds 1 to its hits, as the interpreter does, so the counts come out the same.
+ * 
+ * A jump that always goes to the same instruction (a goto, or a call) chains the block on to it: the block goes on
+ * with the instruction it jumps to (see next()) rather than ending, so code that gotos from one place to the next
+ * runs as one block instead of going back to the interpreter in between. When a jump forward in the block goes past
+ * the goto (a branch round it), the block only follows the goto if it has been taken more often than the instruction
+ * after it has been run, and the jumps past it leave the block.
+ * The instructions are then in the order they run in rather than the order they're written in, and a jump inside
+ * the block only goes straight to one that comes later in it.
+ * 
+ * The class file is written here by hand, at version 49 so it needs no stack map frames, and defined as a hidden class
+ * (MethodHandles.Lookup.defineHiddenClass, from Java 15 on, found by reflection so this still compiles for Java 7),
+ * or before that by a class loader of its own.
+ * 
+ */
+public class BlockTranslator {
+	
+	private static final Logger logger = Logger.getLogger(BlockTranslator.class.getName());
+	
+	/** The most instructions a block has */
+	public static final int MAX_LENGTH = 64;
+	
+	private static final String BLOCK = "TranslatedBlock", NAME = BLOCK + "$Block", MEMORY_CLASS = "Memory",
+			FAULT = "ExecutionFault", RUN = "(LMemory;[I[JI)I";
+	private static final int VERSION = 49, PUBLIC = 0x0001, FINAL = 0x0010, SUPER = 0x0020;
+	private static final int ICONST_0 = 0x03, LCONST_1 = 0x0a, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, ILOAD = 0x15, ALOAD = 0x19,
+			IALOAD = 0x2e, LALOAD = 0x2f, ISTORE = 0x36, IASTORE = 0x4f, LASTORE = 0x50, POP = 0x57, DUP_X2 = 0x5b, DUP2 = 0x5c,
+			SWAP = 0x5f, IADD = 0x60, LADD = 0x61, ISUB = 0x64, LSUB = 0x65, IMUL = 0x68, LUSHR = 0x7d, IINC = 0x84, I2L = 0x85,
+			L2I = 0x88, IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPGT = 0xa3, GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1,
+			PUTFIELD = 0xb5, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7;
+	/** run()'s locals: its arguments, then how many instructions it has executed, the one it's executing, and a spare word */
+	private static final int THIS = 0, MEMORY = 1, REGISTERS = 2, HITS = 3, BUDGET = 4, DONE = 5, AT = 6, TEMPORARY = 7;
+	private static final int MAX_STACK = 16, MAX_LOCALS = 8;
+	
+	/** MethodHandles.Lookup.defineHiddenClass, and no options for it, or null before Java 15 */
+	private static final Method DEFINE_HIDDEN_CLASS;
+	private static final Object NO_OPTIONS;
+	static {
+		Method define = null;
+		Object options = null;
+		try {
+			Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			options = Array.newInstance(option, 0);
+			define = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+		} catch (ReflectiveOperationException roe) {
+			// before Java 15
+		}
+		DEFINE_HIDDEN_CLASS = define;
+		NO_OPTIONS = options;
+	}
+	
+	private final int entry, mainEnd;
+	private final long[] hits;
+	/** run()'s bytecode so far */
+	private byte[] code = new byte[1024];
+	private int size;
+	/** Each instruction in the block, in the order they're translated, and where its bytecode starts */
+	private final int[] instructions = new int[MAX_LENGTH], starts = new int[MAX_LENGTH];
+	/** The jumps whose offsets finish() fills in: where each one is, which instruction in the block it's from, and where it goes */
+	private final List<int[]> jumps = new ArrayList<int[]>();
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream constants = new DataOutputStream(pool);
+	private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+	private int constantCount;
+	private int length;
+	/** The instruction being translated, whether it has added to its hits yet, and whether it goes on to the next one */
+	private int pc;
+	private boolean counted, fallsThrough;
+	/** The furthest instruction a jump forward in the block goes to */
+	private int furthest = -1;
+	/** The instruction the last one's goto or call chains the block on to, or -1 */
+	private int chained = -1;
+	/** What begin() saved, for rollBack() */
+	private int markSize, markJumps, markFurthest, markPc, markChained;
+	private boolean markFallsThrough;
+	
+	/**
+	 * @param entry The instruction the block starts at
+	 * @param mainEnd Where the main program ends, which running off the end of stops the program
+	 * @param hits How many times each instruction has been executed so far, for choosing which way a block goes on
+	 */
+	public BlockTranslator(int entry, int mainEnd, long[] hits) {
+		this.entry = entry;
+		this.mainEnd = mainEnd;
+		this.hits = hits;
+		// nothing executed yet, and a fault before the first instruction is one in it
+		code(ICONST_0);
+		local(ISTORE, DONE);
+		number(entry);
+		local(ISTORE, AT);
+	}
+	
+	/** Returns whether the block has another instruction, ie. it isn't MAX_LENGTH long yet, and the last one goes on
+	 * to the next, a jump forward goes past it, or it chains the block on to another (but not off the end of the main program)
+	 * 
+	 */
+	public boolean continues() {
+		if (length == 0) {
+			return true;
+		} else if (length == MAX_LENGTH) {
+			return false;
+		} else if (chained >= 0) {
+			return true;
+		}
+		return (fallsThrough || furthest > pc) && pc + 1 != mainEnd;
+	}
+	
+	/** Returns the instruction to translate next, if continues() says there is one: the one the last one chains the block on to,
+	 * or the one after it
+	 * 
+	 */
+	public int next() {
+		return chained >= 0 ? chained : pc + 1;
+	}
+	
+	/** Starts translating the instruction at pc, which is the one next() returned
+	 * 
+	 */
+	public void begin(int pc) {
+		markPc = this.pc;
+		this.pc = pc;
+		markSize = size;
+		markJumps = jumps.size();
+		markFurthest = furthest;
+		markFallsThrough = fallsThrough;
+		markChained = chained;
+		chained = -1;
+		counted = false;
+		fallsThrough = true;
+		instructions[length] = pc;
+		starts[length] = size;
+		number(pc);
+		local(ISTORE, AT);
+	}
+	
+	/** Finishes translating the instruction begin() started, counting it if a branch or jump hasn't already
+	 * 
+	 */
+	public void end() {
+		count();
+		length++;
+	}
+	
+	/** Forgets everything since begin(), for an instruction that can't be translated after all, which ends the block
+	 * 
+	 */
+	public void rollBack() {
+		size = markSize;
+		while (jumps.size() > markJumps) {
+			jumps.remove(jumps.size() - 1);
+		}
+		furthest = markFurthest;
+		pc = markPc;
+		fallsThrough = markFallsThrough;
+		chained = markChained;
+	}
+	
+	/** Pushes a number
+	 * 
+	 */
+	public void number(int value) {
+		if (value >= -1 && value <= 5) {
+			code(ICONST_0 + value);
+		} else if (value == (byte) value) {
+			code(BIPUSH);
+			code(value);
+		} else if (value == (short) value) {
+			code(SIPUSH);
+			code2(value);
+		} else {
+			code(LDC_W);
+			code2(constant("I" + value));
+		}
+	}
+	
+	/** Pushes the value of a register
+	 * 
+	 */
+	public void register(int register) {
+		local(ALOAD, REGISTERS);
+		number(register);
+		code(IALOAD);
+	}
+	
+	/** Pushes the word at an address, which faults if it's outside of memory
+	 * 
+	 */
+	public void word(int address) {
+		local(ALOAD, MEMORY);
+		number(address);
+		read();
+	}
+	
+	/** Pops an address and pushes the word there
+	 * 
+	 */
+	public void wordAt() {
+		local(ALOAD, MEMORY);
+		code(SWAP);
+		read();
+	}
+	
+	/** Pops b, pops a, and pushes a + b. subtract(), multiply(), and lessThan() (1 if a < b, otherwise 0) are the same.
+	 * 
+	 */
+	public void add() {
+		code(IADD);
+	}
+	
+	public void subtract() {
+		code(ISUB);
+	}
+	
+	public void multiply() {
+		code(IMUL);
+	}
+	
+	public void lessThan() {
+		// the sign of a - b, worked out in a long so it can't overflow
+		local(ISTORE, TEMPORARY);
+		code(I2L);
+		local(ILOAD, TEMPORARY);
+		code(I2L);
+		code(LSUB);
+		code(BIPUSH);
+		code(63);
+		code(LUSHR);
+		code(L2I);
+	}
+	
+	/** Swaps the top two values
+	 * 
+	 */
+	public void swap() {
+		code(SWAP);
+	}
+	
+	/** Pops a value and throws it away
+	 * 
+	 */
+	public void discard() {
+		code(POP);
+	}
+	
+	/** Pops a value into a register
+	 * 
+	 */
+	public void toRegister(int register) {
+		local(ALOAD, REGISTERS);
+		code(SWAP);
+		number(register);
+		code(SWAP);
+		code(IASTORE);
+	}
+	
+	/** Pops a value into the word at an address
+	 * 
+	 */
+	public void toWord(int address) {
+		local(ALOAD, MEMORY);
+		code(SWAP);
+		number(address);
+		code(SWAP);
+		write();
+	}
+	
+	/** Pops a value, pops an address, and puts the value in the word there
+	 * 
+	 */
+	public void toWordAt() {
+		local(ALOAD, MEMORY);
+		code(DUP_X2);
+		code(POP);
+		write();
+	}
+	
+	/** Pops b, pops a, and goes to the given instruction if a and b are equal (or if they aren't, when equal is false).
+	 * If they aren't, the instruction goes on as it would have.
+	 * 
+	 */
+	public void branch(boolean equal, int target) {
+		count();
+		jump(equal ? IF_ICMPEQ : IF_ICMPNE, target);
+	}
+	
+	/** Goes to the given instruction, which ends this one, and chains the block on to it if it isn't the start
+	 * or already in the block, and nothing in the block jumps past this one or this one is the more often run
+	 * 
+	 */
+	public void jump(int target) {
+		count();
+		boolean ends = furthest <= pc || pc + 1 < hits.length && hits[pc] > hits[pc + 1];
+		jump(GOTO, target);
+		fallsThrough = false;
+		if (ends && target >= 0 && target != entry && target != pc && indexOf(target) < 0
+				&& !(target == mainEnd && pc == mainEnd - 1)) {
+			chained = target;
+			// what jumps forward there were end here
+			furthest = -1;
+		}
+	}
+	
+	/** Returns where an instruction is in the block, or -1 if it isn't in it
+	 * 
+	 */
+	private int indexOf(int instruction) {
+		for (int i = 0; i < length; i++) {
+			if (instructions[i] == instruction) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/** Returns the block, or null if there's nothing in it or it can't be defined
+	 * 
+	 */
+	public TranslatedBlock finish() {
+		if (length == 0) {
+			return null;
+		}
+		if (fallsThrough) {
+			// pc is the last instruction translated
+			jump(GOTO, pc + 1);
+		}
+		
+		// where each jump goes: an instruction in the block, back to the start, or out of the block
+		Map<Integer, Integer> exits = new HashMap<Integer, Integer>();
+		List<int[]> outward = new ArrayList<int[]>();
+		int back = -1;
+		for (int[] jump : jumps) {
+			int from = jump[1], target = jump[2], to = indexOf(target);
+			if (target == entry) {
+				if (back < 0) {
+					// another time through, if the budget allows for one
+					back = size;
+					local(ILOAD, DONE);
+					number(length);
+					code(IADD);
+					local(ILOAD, BUDGET);
+					outward.add(new int[] {size, entry});
+					code(IF_ICMPGT);
+					code2(0);
+					code(GOTO);
+					code2(0);
+					patch(size - 3, starts[0]);
+				}
+				patch(jump[0], back);
+			} else if (to > from) {
+				patch(jump[0], starts[to]);
+			} else {
+				outward.add(new int[] {jump[0], target});
+			}
+		}
+		for (int[] jump : outward) {
+			Integer exit = exits.get(jump[1]);
+			if (exit == null) {
+				exit = size;
+				exits.put(jump[1], exit);
+				local(ALOAD, THIS);
+				local(ILOAD, DONE);
+				executed(PUTFIELD);
+				number(jump[1]);
+				code(IRETURN);
+			}
+			patch(jump[0], exit);
+		}
+		// an instruction that faults goes back to the interpreter, which executes it again
+		int handler = size;
+		code(POP);
+		local(ALOAD, THIS);
+		local(ILOAD, DONE);
+		executed(PUTFIELD);
+		local(ILOAD, AT);
+		code(IRETURN);
+		
+		try {
+			TranslatedBlock block = define(classFile(starts[0], handler));
+			block.length = length;
+			return block;
+		} catch (ReflectiveOperationException roe) {
+			logger.log(Level.WARNING, "Couldn't define the block at instruction " + entry + ": " + roe, roe);
+		} catch (LinkageError le) {
+			logger.log(Level.WARNING, "Couldn't define the block at instruction " + entry + ": " + le, le);
+		}
+		return null;
+	}
+	
+	/** Adds 1 to the hits of the instruction being translated, and to how many run() has executed, unless that's been done
+	 * 
+	 */
+	private void count() {
+		if (counted) {
+			return;
+		}
+		counted = true;
+		local(ALOAD, HITS);
+		number(pc);
+		code(DUP2);
+		code(LALOAD);
+		code(LCONST_1);
+		code(LADD);
+		code(LASTORE);
+		code(IINC);
+		code(DONE);
+		code(1);
+	}
+	
+	/** Writes a jump from the instruction being translated to the given one, whose offset finish() fills in
+	 * 
+	 */
+	private void jump(int opcode, int target) {
+		// running off the end of the main program stops it, as Interpreter.after() has it
+		int to = target == mainEnd && pc == mainEnd - 1 ? Interpreter.STOP : target;
+		if (to > pc) {
+			furthest = Math.max(furthest, to);
+		}
+		jumps.add(new int[] {size, length, to});
+		code(opcode);
+		code2(0);
+	}
+	
+	/** Fills in the offset of the jump at the given place
+	 * 
+	 */
+	private void patch(int at, int to) {
+		int offset = to - at;
+		code[at + 1] = (byte) (offset >> 8);
+		code[at + 2] = (byte) offset;
+	}
+	
+	private void read() {
+		code(INVOKEVIRTUAL);
+		code2(constant("M" + MEMORY_CLASS + ".read(I)I"));
+	}
+	
+	private void write() {
+		code(INVOKEVIRTUAL);
+		code2(constant("M" + MEMORY_CLASS + ".write(II)V"));
+	}
+	
+	private void executed(int opcode) {
+		code(opcode);
+		code2(constant("F" + BLOCK + ".executed:I"));
+	}
+	
+	private void local(int opcode, int local) {
+		code(opcode);
+		code(local);
+	}
+	
+	private void code(int b) {
+		if (size == code.length) {
+			code = Arrays.copyOf(code, 2 * size);
+		}
+		code[size++] = (byte) b;
+	}
+	
+	private void code2(int u2) {
+		code(u2 >> 8);
+		code(u2);
+	}
+	
+	/** Returns the index of a constant in the constant pool, adding it if it isn't there yet. Constants are written as
+	 * "U" and a name (UTF8), "I" and a number, "C" and a class, or "F" or "M" and class.name:type or class.name(arguments)type
+	 * for a field or a method.
+	 * 
+	 */
+	private int constant(String key) {
+		Integer index = indexes.get(key);
+		if (index != null) {
+			return index;
+		}
+		String value = key.substring(1);
+		try {
+			switch (key.charAt(0)) {
+			case 'U':
+				index = add(1);
+				constants.writeUTF(value);
+				break;
+			case 'I':
+				index = add(3);
+				constants.writeInt(Integer.parseInt(value));
+				break;
+			case 'C':
+				int name = constant("U" + value);
+				index = add(7);
+				constants.writeShort(name);
+				break;
+			default:
+				// a field or a method: its class, then its name and type
+				int dot = value.indexOf('.'), type = value.indexOf(key.charAt(0) == 'F' ? ':' : '(');
+				int owner = constant("C" + value.substring(0, dot)), member = constant("U" + value.substring(dot + 1, type));
+				int descriptor = constant("U" + value.substring(key.charAt(0) == 'F' ? type + 1 : type));
+				int nameAndType = add(12);
+				constants.writeShort(member);
+				constants.writeShort(descriptor);
+				index = add(key.charAt(0) == 'F' ? 9 : 10);
+				constants.writeShort(owner);
+				constants.writeShort(nameAndType);
+			}
+		} catch (IOException ioe) {
+			// it's written to memory
+			throw new IllegalStateException(ioe);
+		}
+		indexes.put(key, index);
+		return index;
+	}
+	
+	/** Starts a new constant with the given tag, and returns its index
+	 * 
+	 */
+	private int add(int tag) throws IOException {
+		constants.writeByte(tag);
+		return ++constantCount;
+	}
+	
+	/** Returns the class file, of a final class extending TranslatedBlock with a constructor and run()
+	 * 
+	 * @param tryStart Where the code an ExecutionFault is caught in starts
+	 * @param handler Where the code that catches it starts, and that code ends
+	 */
+	private byte[] classFile(int tryStart, int handler) {
+		try {
+			int thisClass = constant("C" + NAME), superClass = constant("C" + BLOCK), fault = constant("C" + FAULT);
+			int initName = constant("U<init>"), initType = constant("U()V"), superInit = constant("M" + BLOCK + ".<init>()V");
+			int runName = constant("Urun"), runType = constant("U" + RUN), codeName = constant("UCode");
+			
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			constants.flush();
+			out.writeShort(constantCount + 1);
+			pool.writeTo(out);
+			out.writeShort(PUBLIC | FINAL | SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0);
+			out.writeShort(0);
+			out.writeShort(2);
+			
+			byte[] init = {(byte) ALOAD, THIS, (byte) INVOKESPECIAL, (byte) (superInit >> 8), (byte) superInit, (byte) RETURN};
+			method(out, initName, initType, codeName, 1, 1, init, init.length, null);
+			method(out, runName, runType, codeName, MAX_STACK, MAX_LOCALS, code, size, new int[] {tryStart, handler, handler, fault});
+			out.writeShort(0);
+			return bytes.toByteArray();
+		} catch (IOException ioe) {
+			throw new IllegalStateException(ioe);
+		}
+	}
+	
+	/** Writes a public method with the given code, and the exception it catches (start, end, handler, and class), if any
+	 * 
+	 */
+	private static void method(DataOutputStream out, int name, int type, int codeName, int maxStack, int maxLocals,
+			byte[] code, int size, int[] caught) throws IOException {
+		out.writeShort(PUBLIC);
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(2 + 2 + 4 + size + 2 + (caught == null ? 0 : 8) + 2);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(size);
+		out.write(code, 0, size);
+		out.writeShort(caught == null ? 0 : 1);
+		if (caught != null) {
+			for (int c : caught) {
+				out.writeShort(c);
+			}
+		}
+		out.writeShort(0);
+	}
+	
+	/** Defines the class, and returns a new one of it
+	 * 
+	 */
+	private static TranslatedBlock define(byte[] classFile) throws ReflectiveOperationException {
+		Class<?> defined;
+		if (DEFINE_HIDDEN_CLASS != null) {
+			MethodHandles.Lookup lookup = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(MethodHandles.lookup(), classFile, true, NO_OPTIONS);
+			defined = lookup.lookupClass();
+		} else {
+			defined = new BlockLoader(BlockTranslator.class.getClassLoader()).define(classFile);
+		}
+		return (TranslatedBlock) defined.getConstructor().newInstance();
+	}
+	
+	/** Defines one block's class, before hidden classes
+	 * 
+	 */
+	private static class BlockLoader extends ClassLoader {
+		
+		BlockLoader(ClassLoader parent) {
+			super(parent);
+		}
+		
+		Class<?> define(byte[] classFile) {
+			return defineClass(NAME, classFile, 0, classFile.length);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/** A fixed size queue that any number of threads can put into and take from without locking,
+ * for connecting the stages of a BatchPipeline.
+ * 
+ * Each slot has a sequence number saying whose turn it is: the producer that claimed position p
+ * may fill the slot once its sequence is p, and the consumer that claimed p may empty it once its sequence is p+1.
+ * Claiming a position is a single compare-and-set on the head or tail. A full queue makes put() wait,
+ * which is what keeps a fast stage from running away from a slow one. Waiting spins briefly, then yields, then parks.
+ * 
+ * @param <T> The type of the items
+ */
+public class BoundedQueue<T> {
+	
+	private static final int SPINS = 64, YIELDS = 64;
+	private static final long PARK_NANOS = 50L * 1000L;
+	
+	private final Object[] items;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	/** The next position to take from, and the next to put into */
+	private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+	/** The size after each put, for getMaxSize() and getAverageSize() */
+	private final AtomicLong puts = new AtomicLong(), sizes = new AtomicLong(), maxSize = new AtomicLong();
+	
+	/**
+	 * @param capacity The most items the queue can hold, rounded up to a power of two
+	 */
+	public BoundedQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		items = new Object[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+	}
+	
+	/** Adds the item to the end of the queue if there's room
+	 * 
+	 * @return true if the item was added, false if the queue is full
+	 */
+	public boolean offer(T item) {
+		long position = tail.get();
+		while (true) {
+			int slot = (int) (position & mask);
+			long difference = sequences.get(slot) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					items[slot] = item;
+					// publishes the item to whichever consumer claims this position
+					sequences.set(slot, position + 1);
+					recordSize(position + 1 - head.get());
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				// the consumer a whole lap behind hasn't emptied the slot yet
+				return false;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+	
+	/** Removes the item at the front of the queue, if there is one
+	 * 
+	 * @return The item, or null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		long position = head.get();
+		while (true) {
+			int slot = (int) (position & mask);
+			long difference = sequences.get(slot) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					T item = (T) items[slot];
+					items[slot] = null;
+					// hands the slot to the producer of the next lap
+					sequences.set(slot, position + items.length);
+					return item;
+				}
+				position = head.get();
+			} else if (difference < 0) {
+				return null;
+			} else {
+				position = head.get();
+			}
+		}
+	}
+	
+	/** Adds the item to the end of the queue, waiting for room if it's full
+	 * 
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void put(T item) throws InterruptedException {
+		for (int tries = 0; !offer(item); tries++) {
+			backOff(tries);
+		}
+	}
+	
+	/** Removes the item at the front of the queue, waiting for one if it's empty
+	 * 
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public T take() throws InterruptedException {
+		T item;
+		for (int tries = 0; (item = poll()) == null; tries++) {
+			backOff(tries);
+		}
+		return item;
+	}
+	
+	/** Returns about how many items are in the queue (it can change at any moment)
+	 * 
+	 */
+	public int size() {
+		long size = tail.get() - head.get();
+		return (int) Math.max(0, Math.min(size, items.length));
+	}
+	
+	public int capacity() {
+		return items.length;
+	}
+	
+	/** Returns the most items the queue has held
+	 * 
+	 */
+	public long getMaxSize() {
+		return maxSize.get();
+	}
+	
+	/** Returns how many items the queue held on average, just after each put
+	 * 
+	 */
+	public double getAverageSize() {
+		long n = puts.get();
+		return n == 0 ? 0 : sizes.get() / (double) n;
+	}
+	
+	private void recordSize(long size) {
+		puts.incrementAndGet();
+		sizes.addAndGet(size);
+		long max = maxSize.get();
+		while (size > max && !maxSize.compareAndSet(max, size)) {
+			max = maxSize.get();
+		}
+	}
+	
+	private static void backOff(int tries) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		if (tries < SPINS) {
+			// the other side is probably mid-way through its put or take
+			return;
+		} else if (tries < SPINS + YIELDS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Holds all of the mutable state used while compiling a single program.
+ * A Compiler keeps no state of its own, so one instance can be shared between threads
+ * as long as every compile uses its own context.
+ * 
+ * Contexts are pooled: acquire() hands out a cleared context and release() returns it,
+ * so compiling many programs reuses the same collections instead of reallocating them.
+ * The pool only keeps about as many as there are threads compiling (see setPoolSize()), and not ones
+ * that a big program has grown past MAX_POOLED_CHARS, which would otherwise be kept for as long as the pool is.
+ * 
+ */
+public class CompilationContext {
+	
+	private static final String[] NO_TOKENS = new String[0];
+	/** How many characters a context's buffers can hold, or names its sets, and still be pooled */
+	private static final int MAX_POOLED_CHARS = 1 << 18, MAX_POOLED_NAMES = 1 << 12;
+	private static final ConcurrentLinkedQueue<CompilationContext> pool = new ConcurrentLinkedQueue<CompilationContext>();
+	/** How many contexts are in the pool, and the most it keeps */
+	private static final AtomicInteger pooled = new AtomicInteger();
+	private static volatile int poolSize = Runtime.getRuntime().availableProcessors();
+	
+	protected Set<String> vars = new HashSet<String>(), labels = new HashSet<String>(),
+			calls = new LinkedHashSet<String>(); // the functions called, see ObjectUnit
+	protected int programBits = 0, instructionSize = 0, programCounter = 0,
+			numInstructions = 0, memAccesses = 0;
+	protected LinkedList<String> tempAddrs = new LinkedList<String>(),
+			labelsToPrepend = new LinkedList<String>(),
+			ifLabels = new LinkedList<String>(),
+			jumpLabels = new LinkedList<String>(),
+			currentArgs = new LinkedList<String>(),
+			stack = new LinkedList<String>(),
+			returns = new LinkedList<String>(),
+			elseLookups = new LinkedList<String>(), // pairs of an if statement and the else it found, see Compiler.handleElse
+			sRegisters = new LinkedList<String>(); // only used by register architectures
+	protected StringBuffer output = new StringBuffer(),
+			bracketStatement = new StringBuffer(),
+			functionsToAdd = new StringBuffer();
+	protected String fullCode = "";
+	protected ElseIndex elses; // where the elses in fullCode are
+	protected String[] toRemove = NO_TOKENS;
+	protected HashMap<String, LinkedList<String>> functions = new HashMap<String, LinkedList<String>>(); // name -> args
+	protected LinkedList<Definition> definitions = new LinkedList<Definition>(); // the functions written to functionsToAdd
+	protected boolean insideBrackets = false, insideFunctionDeclaration = false, inSubline = false;
+	
+	/** Returns a cleared context, reusing a pooled one if there is one available.
+	 * 
+	 * @return A context ready to compile a new program
+	 */
+	public static CompilationContext acquire() {
+		CompilationContext ctx = pool.poll();
+		if (ctx == null) {
+			ctx = new CompilationContext();
+		} else {
+			pooled.decrementAndGet();
+		}
+		return ctx;
+	}
+	
+	/** Clears the context and returns it to the pool so a later compile can reuse it,
+	 * unless the pool is full or the context has grown too big to keep.
+	 * 
+	 * @param ctx A context that is no longer in use
+	 */
+	public static void release(CompilationContext ctx) {
+		if (ctx.output.capacity() + ctx.functionsToAdd.capacity() + ctx.bracketStatement.capacity() > MAX_POOLED_CHARS
+				|| ctx.vars.size() + ctx.labels.size() + ctx.functions.size() > MAX_POOLED_NAMES) {
+			return;
+		}
+		if (pooled.incrementAndGet() > poolSize) {
+			pooled.decrementAndGet();
+			return;
+		}
+		ctx.clear();
+		pool.offer(ctx);
+	}
+	
+	/** Sets how many contexts the pool keeps, about the number of threads compiling at once
+	 * (by default, the number of processors)
+	 * 
+	 */
+	public static void setPoolSize(int size) {
+		poolSize = Math.max(size, 1);
+	}
+	
+	/** Clear out all the stored data in this context to prepare to compile a new program
+	 * 
+	 */
+	protected void clear() {
+		vars.clear();
+		labels.clear();
+		calls.clear();
+		instructionSize = 0;
+		memAccesses = 0;
+		programBits = 0;
+		programCounter = 0;
+		numInstructions = 0;
+		tempAddrs.clear();
+		labelsToPrepend.clear();
+		ifLabels.clear();
+		jumpLabels.clear();
+		functions.clear();
+		definitions.clear();
+		currentArgs.clear();
+		stack.clear();
+		returns.clear();
+		elseLookups.clear();
+		sRegisters.clear();
+		output.setLength(0);
+		bracketStatement.setLength(0);
+		functionsToAdd.setLength(0);
+		fullCode = "";
+		elses = null;
+		toRemove = NO_TOKENS;
+		insideBrackets = false;
+		insideFunctionDeclaration = false;
+		inSubline = false;
+	}
+	
+	/** A function declaration's code in functionsToAdd, and what it added to the counts
+	 * (which includes any code it left in the main program, see Compiler.appendFunction)
+	 * 
+	 */
+	public static class Definition {
+		final String name;
+		final int start, numInstructions, programBits, memAccesses;
+		/** Where the code the declaration left in the main program is in output, from mainStart up to mainEnd */
+		final int mainStart, mainEnd;
+		
+		/**
+		 * @param name The function's name
+		 * @param start Where its code starts in functionsToAdd (it runs up to the next definition's)
+		 */
+		Definition(String name, int start, int numInstructions, int programBits, int memAccesses) {
+			this(name, start, numInstructions, programBits, memAccesses, 0, 0);
+		}
+		
+		private Definition(String name, int start, int numInstructions, int programBits, int memAccesses, int mainStart, int mainEnd) {
+			this.name = name;
+			this.start = start;
+			this.numInstructions = numInstructions;
+			this.programBits = programBits;
+			this.memAccesses = memAccesses;
+			this.mainStart = mainStart;
+			this.mainEnd = mainEnd;
+		}
+		
+		/** Returns the same definition, starting further into functionsToAdd,
+		 * and having left the code from mainStart to mainEnd in the main program
+		 * 
+		 */
+		Definition movedBy(int offset, int mainStart, int mainEnd) {
+			return new Definition(name, start + offset, numInstructions, programBits, memAccesses, mainStart, mainEnd);
+		}
+	}
+}
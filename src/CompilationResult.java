@@ -0,0 +1,56 @@
+import java.nio.ByteBuffer;
+
+/** The compiled form of a program in one architecture, along with the counts the compiler reports for it.
+ * 
+ */
+public class CompilationResult {
+	
+	private final String code;
+	private final int numInstructions, programBits, memAccesses;
+	
+	public CompilationResult(String code, int numInstructions, int programBits, int memAccesses) {
+		this.code = code;
+		this.numInstructions = numInstructions;
+		this.programBits = programBits;
+		this.memAccesses = memAccesses;
+	}
+	
+	/** Returns the compiled code, as returned by Compiler.compile
+	 * 
+	 */
+	public String getCode() {
+		return code;
+	}
+	
+	public int getNumInstructions() {
+		return numInstructions;
+	}
+	
+	public int getProgramBits() {
+		return programBits;
+	}
+	
+	public int getMemAccesses() {
+		return memAccesses;
+	}
+	
+	/** Returns the result as a record for DiskCache
+	 * 
+	 */
+	public ByteBuffer toRecord() {
+		return new DiskCache.Record().putInt(numInstructions).putInt(programBits).putInt(memAccesses)
+				.putString(code).toBuffer();
+	}
+	
+	/** Reads a result written by toRecord()
+	 * 
+	 */
+	public static CompilationResult fromRecord(ByteBuffer record) {
+		int numInstructions = DiskCache.getInt(record), programBits = DiskCache.getInt(record), memAccesses = DiskCache.getInt(record);
+		return new CompilationResult(DiskCache.getString(record), numInstructions, programBits, memAccesses);
+	}
+	
+	public String toString() {
+		return code;
+	}
+}
@@ -0,0 +1,326 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Keeps the compilers loaded (and the JIT warm) between compiles, taking requests as lines of text
+ * so that a program doesn't have to pay for a fresh JVM every time it is compiled.
+ * 
+ * Requests, one per line:
+ * 	FILE <id> <architectures> <path>		compile the file at path
+ * 	SOURCE <id> <architectures> <n>			compile the n lines that follow (n >= 0)
+ * 	STATS									report the number of requests and their latencies so far, once every request before it is done
+ * 	QUIT									finish the requests in flight and stop (as does the end of the input)
+ * <id> is any word, and is echoed back in the response. <architectures> is ALL or a comma separated list, eg. MM4ADDRESS,STACK
+ * 
+ * Responses:
+ * 	RESULT <id> <architecture> <instructions> <bits> <memory accesses> <n>	followed by the n lines of compiled code
+ * 	ERROR <id> <architecture> <message>	for each architecture, if it couldn't be compiled or the file couldn't be read
+ * 	DONE <id> <micros>						after every architecture of the request, with the time since it was read
+ * 	BAD <id> <message>						for a request that couldn't be understood
+ * 
+ * Requests are pipelined: the next one is read while earlier ones are still compiling,
+ * so responses can come back out of order. Every response for a request is written in one piece, ending with DONE.
+ * Files are read afresh for every request, rather than kept in FileHelper's cache for as long as the server runs.
+ * 
+ */
+public class CompileServer {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** How many requests each thread can have queued or running before reading more of the input waits */
+	private static final int REQUESTS_PER_THREAD = 4;
+	/** How many times each warm-up program is compiled for each architecture before taking requests */
+	private static final int WARM_UP_ROUNDS = 200;
+	/** Small programs that go through most of each compiler, taken from the sample inputs */
+	private static final String[] WARM_UP_PROGRAMS = {
+		"A = (B + C) * D - E;",
+		"If (I == J) F = G + H;\nElse F = G - H;",
+		"Loop: G = G + A[I];\n      I = I + J;\n      If (I != H) Goto Loop;",
+		"While (save[I] == K)\n      I = I + J;",
+		"switch (k) {\n\tcase 0: f = i + j; break;\n\tcase 1: f = g + h; break;\n\tcase 2: f = g - h; break;\n}",
+		"sum(a, b);\nint sum(int x, int y) {\n    return x + y;\n}"
+	};
+	
+	private final Logger logger;
+	private final PrintStream out;
+	private final ExecutorService workers;
+	private final Semaphore inFlight;
+	/** How many requests can be in flight at once, the permits inFlight starts with */
+	private final int maxInFlight;
+	private final AtomicLong requests = new AtomicLong(), totalMicros = new AtomicLong(), maxMicros = new AtomicLong();
+	
+	/**
+	 * @param logger Where to log errors and timings
+	 * @param out Where to write responses
+	 * @param threads The number of requests to compile at once
+	 */
+	public CompileServer(Logger logger, PrintStream out, int threads) {
+		this.logger = logger;
+		this.out = out;
+		threads = Math.max(threads, 1);
+		workers = Executors.newFixedThreadPool(threads);
+		maxInFlight = threads * REQUESTS_PER_THREAD;
+		inFlight = new Semaphore(maxInFlight);
+	}
+	
+	/** Compiles the warm-up programs enough times for the JIT to compile the hot paths of every compiler.
+	 * The function and disk caches are turned off meanwhile, so the compilers really run (rather than the caches
+	 * answering) and the warm-up programs aren't kept, which is why nothing else may compile until it returns.
+	 * 
+	 * @param logger Where to log how long it took
+	 */
+	public static void warmUp(Logger logger) {
+		long start = System.nanoTime();
+		FunctionCache functions = Compiler.getFunctionCache();
+		DiskCache disk = Compiler.getDiskCache();
+		Compiler.setFunctionCache(null);
+		Compiler.setDiskCache(null);
+		try {
+			for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+				for (ISA i : ISA.values()) {
+					for (String program : WARM_UP_PROGRAMS) {
+						try {
+							Compiler.getCompiler(i).compileProgram(program, null);
+						} catch (Exception e) {
+							// only the time spent matters here
+						}
+					}
+				}
+			}
+		} finally {
+			Compiler.setFunctionCache(functions);
+			Compiler.setDiskCache(disk);
+		}
+		logger.info("Warmed up in " + ((System.nanoTime() - start) / 1000000) + " ms");
+	}
+	
+	/** Reads and answers requests until QUIT or the end of the input, then waits for the ones still compiling
+	 * 
+	 * @param in Where to read requests from
+	 * @throws IOException if in can't be read
+	 */
+	public void serve(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+		String line;
+		
+		try {
+			while ((line = reader.readLine()) != null) {
+				long received = System.nanoTime();
+				String[] words = line.trim().split("\\s+", 4);
+				String command = words[0].toUpperCase();
+				
+				if (command.isEmpty()) {
+					continue;
+				} else if (command.contentEquals("QUIT")) {
+					break;
+				} else if (command.contentEquals("STATS")) {
+					// taking every permit waits for the requests still compiling, so they're counted
+					inFlight.acquireUninterruptibly(maxInFlight);
+					try {
+						write(stats());
+					} finally {
+						inFlight.release(maxInFlight);
+					}
+					continue;
+				} else if (words.length < 4 || !(command.contentEquals("FILE") || command.contentEquals("SOURCE"))) {
+					write("BAD " + (words.length > 1 ? words[1] : "-") + " expected FILE|SOURCE <id> <architectures> <path|lines>\n");
+					continue;
+				}
+				
+				String id = words[1];
+				EnumSet<ISA> architectures;
+				try {
+					architectures = parseArchitectures(words[2]);
+				} catch (IllegalArgumentException iae) {
+					write("BAD " + id + " unknown architecture in " + words[2] + "\n");
+					skipSource(reader, words);
+					continue;
+				}
+				
+				String source;
+				if (command.contentEquals("SOURCE")) {
+					int lines = lineCount(words);
+					if (lines < 0) {
+						write("BAD " + id + " expected a line count, not " + words[3] + "\n");
+						continue;
+					}
+					source = readLines(reader, lines);
+					if (source == null) {
+						write("BAD " + id + " the input ended before the " + lines + " lines of source\n");
+						break;
+					}
+				} else {
+					source = null;
+				}
+				
+				inFlight.acquireUninterruptibly();
+				workers.execute(new Request(id, architectures, words[3], source, received));
+			}
+		} finally {
+			workers.shutdown();
+			try {
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			logger.info(stats().trim());
+		}
+	}
+	
+	/** Returns the STATS response: the number of requests finished, their mean and worst latency,
+	 * and how the function cache is doing if there is one
+	 * 
+	 */
+	public String stats() {
+		long n = requests.get();
+		FunctionCache cache = Compiler.getFunctionCache();
+		return "STATS " + n + " requests, mean " + (n > 0 ? totalMicros.get() / n : 0) + " us, max " + maxMicros.get() + " us"
+				+ (cache != null ? ", " + cache : "") + "\n";
+	}
+	
+	/** Returns the architectures in a list like "MM4ADDRESS,STACK", or all of them for "ALL"
+	 * 
+	 * @throws IllegalArgumentException if one of them isn't an architecture
+	 */
+	public static EnumSet<ISA> parseArchitectures(String list) {
+		if (list.equalsIgnoreCase("ALL")) {
+			return EnumSet.allOf(ISA.class);
+		}
+		EnumSet<ISA> architectures = EnumSet.noneOf(ISA.class);
+		for (String name : list.split(",")) {
+			architectures.add(ISA.valueOf(name.trim().toUpperCase()));
+		}
+		return architectures;
+	}
+	
+	/** Returns the line count of a SOURCE request, or -1 if it isn't a whole number, at least 0
+	 * 
+	 */
+	private static int lineCount(String[] words) {
+		try {
+			return Math.max(Integer.parseInt(words[3].trim()), -1);
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+	
+	/** Reads the given number of lines of source, or returns null if the input ends first
+	 * 
+	 */
+	private static String readLines(BufferedReader reader, int lines) throws IOException {
+		StringBuffer source = new StringBuffer();
+		for (int i = 0; i < lines; i++) {
+			String line = reader.readLine();
+			if (line == null) {
+				return null;
+			}
+			source.append(line).append('\n');
+		}
+		return source.toString();
+	}
+	
+	/** Skips the lines of a SOURCE request that is being rejected, so they aren't read as requests
+	 * 
+	 */
+	private static void skipSource(BufferedReader reader, String[] words) throws IOException {
+		int lines = lineCount(words);
+		if (words[0].equalsIgnoreCase("SOURCE") && lines > 0) {
+			readLines(reader, lines);
+		}
+	}
+	
+	private void write(String response) {
+		synchronized (out) {
+			out.print(response);
+			out.flush();
+		}
+	}
+	
+	private void record(long micros) {
+		requests.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		long max;
+		while ((max = maxMicros.get()) < micros && !maxMicros.compareAndSet(max, micros)) {
+			// another request raised the max first, try again
+		}
+	}
+	
+	/** Compiles one request in each of its architectures and writes the response
+	 * 
+	 */
+	private class Request implements Runnable {
+		private final String id, path, source;
+		private final EnumSet<ISA> architectures;
+		private final long received;
+		
+		Request(String id, EnumSet<ISA> architectures, String path, String source, long received) {
+			this.id = id;
+			this.architectures = architectures;
+			this.path = path;
+			this.source = source;
+			this.received = received;
+		}
+		
+		public void run() {
+			StringBuffer response = new StringBuffer();
+			try {
+				String code = source;
+				if (code == null) {
+					try {
+						code = FileHelper.readUncached(path);
+					} catch (Exception e) {
+						// eg. NoSuchFileException, or InvalidPathException for a path that can't be one
+						String message = "Can't read " + path + " (" + e.getClass().getSimpleName() + ")";
+						for (ISA i : architectures) {
+							response.append("ERROR " + id + " " + i + " " + message.replace('\n', ' ') + "\n");
+						}
+						logger.warning(id + ": " + message);
+						return;
+					}
+				}
+				for (ISA i : architectures) {
+					try {
+						CompilationResult result = Compiler.getCompiler(i).compileProgram(code, null);
+						String compiled = result.getCode();
+						response.append("RESULT " + id + " " + i + " " + result.getNumInstructions() + " " + result.getProgramBits()
+								+ " " + result.getMemAccesses() + " " + countLines(compiled) + "\n");
+						response.append(compiled);
+						if (!compiled.endsWith("\n")) {
+							response.append('\n');
+						}
+					} catch (Exception e) {
+						response.append("ERROR " + id + " " + i + " " + String.valueOf(e.getMessage()).replace('\n', ' ') + "\n");
+						logger.log(Level.SEVERE, id + " (" + i + "): " + e.getMessage(), e);
+					}
+				}
+			} finally {
+				// whatever happened, the client is waiting for this
+				long micros = (System.nanoTime() - received) / 1000;
+				record(micros);
+				response.append("DONE " + id + " " + micros + "\n");
+				write(response.toString());
+				inFlight.release();
+			}
+		}
+	}
+	
+	private static int countLines(String code) {
+		int lines = 0;
+		for (int i = 0; i < code.length(); i++) {
+			if (code.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		return code.endsWith("\n") || code.isEmpty() ? lines : lines + 1;
+	}
+}
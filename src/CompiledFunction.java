@@ -0,0 +1,107 @@
+import java.nio.ByteBuffer;
+
+/** A function declaration compiled in a context of its own, holding everything Compiler.appendFunction
+ * needs to stitch it into a program. Instances are immutable, so the same one can be stitched into
+ * any number of programs (see FunctionCache).
+ * 
+ */
+public class CompiledFunction {
+	
+	final String output, functionsToAdd;
+	final int numInstructions, programBits, memAccesses, programCounter;
+	/** Labels the function left pending, which belong to whatever is written after it */
+	final String[] labelsToPrepend, jumpLabels;
+	/** The if statements that looked for an else in the rest of the program, and the else each one found (or null) */
+	final String[] elseLookups, elsesFound;
+	/** The functions it called, and where its definition is in functionsToAdd (see ObjectUnit) */
+	final String[] calls;
+	final CompilationContext.Definition[] definitions;
+	
+	/** Copies the result of compiling a function out of its context, so the context can be released
+	 * 
+	 * @param function The context the function declaration was compiled in
+	 */
+	public CompiledFunction(CompilationContext function) {
+		output = function.output.toString();
+		functionsToAdd = function.functionsToAdd.toString();
+		numInstructions = function.numInstructions;
+		programBits = function.programBits;
+		memAccesses = function.memAccesses;
+		programCounter = function.programCounter;
+		labelsToPrepend = function.labelsToPrepend.toArray(new String[function.labelsToPrepend.size()]);
+		jumpLabels = function.jumpLabels.toArray(new String[function.jumpLabels.size()]);
+		elseLookups = new String[function.elseLookups.size() / 2];
+		elsesFound = new String[elseLookups.length];
+		for (int i = 0; i < elseLookups.length; i++) {
+			elseLookups[i] = function.elseLookups.get(2*i);
+			elsesFound[i] = function.elseLookups.get(2*i + 1);
+		}
+		calls = function.calls.toArray(new String[function.calls.size()]);
+		definitions = function.definitions.toArray(new CompilationContext.Definition[function.definitions.size()]);
+	}
+	
+	/** Reads a function written by toRecord()
+	 * 
+	 */
+	public CompiledFunction(ByteBuffer record) {
+		numInstructions = DiskCache.getInt(record);
+		programBits = DiskCache.getInt(record);
+		memAccesses = DiskCache.getInt(record);
+		programCounter = DiskCache.getInt(record);
+		output = DiskCache.getString(record);
+		functionsToAdd = DiskCache.getString(record);
+		labelsToPrepend = DiskCache.getStrings(record);
+		jumpLabels = DiskCache.getStrings(record);
+		elseLookups = DiskCache.getStrings(record);
+		elsesFound = DiskCache.getStrings(record);
+		calls = DiskCache.getStrings(record);
+		definitions = new CompilationContext.Definition[DiskCache.getInt(record)];
+		for (int i = 0; i < definitions.length; i++) {
+			String name = DiskCache.getString(record);
+			definitions[i] = new CompilationContext.Definition(name, DiskCache.getInt(record), DiskCache.getInt(record),
+					DiskCache.getInt(record), DiskCache.getInt(record));
+		}
+	}
+	
+	/** Returns the function as a record for DiskCache
+	 * 
+	 */
+	public ByteBuffer toRecord() {
+		DiskCache.Record record = new DiskCache.Record().putInt(numInstructions).putInt(programBits).putInt(memAccesses).putInt(programCounter)
+				.putString(output).putString(functionsToAdd).putStrings(labelsToPrepend).putStrings(jumpLabels)
+				.putStrings(elseLookups).putStrings(elsesFound).putStrings(calls).putInt(definitions.length);
+		for (CompilationContext.Definition d : definitions) {
+			record.putString(d.name).putInt(d.start).putInt(d.numInstructions).putInt(d.programBits).putInt(d.memAccesses);
+		}
+		return record.toBuffer();
+	}
+	
+	/** Returns true if compiling this function as part of the given program would give the same result,
+	 * ie. every else it looked for outside of its own lines is still the same.
+	 * 
+	 * @param program The program, as stored in CompilationContext.elses
+	 */
+	public boolean isValidIn(ElseIndex program) {
+		for (int i = 0; i < elseLookups.length; i++) {
+			String found = program.find(elseLookups[i]);
+			if (found == null ? elsesFound[i] != null : !found.equals(elsesFound[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** Returns roughly how many bytes of memory this function takes up
+	 * 
+	 */
+	public long size() {
+		long size = 64 + 2L * (output.length() + functionsToAdd.length());
+		for (String[] strings : new String[][] {labelsToPrepend, jumpLabels, elseLookups, elsesFound, calls}) {
+			for (String s : strings) {
+				size += 48 + (s == null ? 0 : 2L * s.length());
+			}
+		}
+		size += 64L * definitions.length;
+		return size;
+	}
+}
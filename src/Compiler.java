@@ -1,136 +1,440 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.EnumMap;
 import java.util.LinkedList;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 // The size of memory is such that each memory address is 24 bits
 // If there are registers, we use 32 (so they can be addressed with 5 bits)
+//
+// Compilers hold no state of their own: everything used while compiling a program
+// lives in the CompilationContext passed through the methods below, so a single
+// instance can be shared between threads.
 public abstract class Compiler {
 	
 	protected static final String[] KEYWORDS = {"+", "-", "/", "*", "goto", "if", "else", "while", "switch", "return"};
 	protected static final String[] IDENTIFIERS = {"byte", "short", "int", "long", "float", "double", "boolean", "char", "void"};
 	protected enum Operation { ADD, SUB, MUL, DIV, GOTO, NULL }
 	protected enum IfCondition { EQ, NE, LE }
-	protected Set<String> vars, labels;
-	protected int programBits = 0, instructionSize = 0, programCounter = 0, 
-			numInstructions = 0, memAccesses = 0;
-	protected LinkedList<String> tempAddrs = new LinkedList<String>(),
-			labelsToPrepend = new LinkedList<String>(),
-			ifLabels = new LinkedList<String>(),
-			jumpLabels = new LinkedList<String>(),
-			currentArgs = new LinkedList<String>(),
-			stack = new LinkedList<String>(),
-			returns = new LinkedList<String>();
-	protected StringBuffer output = new StringBuffer(), 
-			bracketStatement = new StringBuffer(),
-			functionsToAdd = new StringBuffer();
-	protected String fullCode;
-	protected String[] toRemove = new String[0];
-	protected HashMap<String, LinkedList<String>> functions = new HashMap<String, LinkedList<String>>(); // name -> args
-	protected boolean insideBrackets = false, insideFunctionDeclaration = false, inSubline = false;
+	protected static final Pattern FUNCTION_DECLARATION = Pattern.compile("^\\s*\\w+\\s+\\w+\\s*\\([^)]*\\)\\s*\\{");
+	private static final Pattern OPERATION = Pattern.compile("[\\-*+\\/]|goto"), NUMERIC = Pattern.compile("[-+]?\\d*\\.?\\d+");
+	private static final Pattern FUNCTION_NAME = Pattern.compile("(\\w+)\\s*\\(");
+	/** What compiled programs and function declarations are kept under in the disk cache. Both are changed together
+	 * whenever what a compiler writes, or CompilationResult's or CompiledFunction's record, does */
+	private static final String PROGRAM_RECORD = "program.1", FUNCTION_RECORD = "function.2";
+	
+	private static final Logger logger = Logger.getLogger(Compiler.class.getName());
+	private static final EnumMap<ISA, Compiler> compilers = new EnumMap<ISA, Compiler>(ISA.class);
+	static {
+		compilers.put(ISA.MM4ADDRESS, new MM4AddressCompiler());
+		compilers.put(ISA.MM3ADDRESS, new MM3AddressCompiler());
+		compilers.put(ISA.MM2ADDRESS, new MM2AddressCompiler());
+		compilers.put(ISA.ACCUMULATOR, new AccumulatorCompiler());
+		compilers.put(ISA.STACK, new StackCompiler());
+		compilers.put(ISA.LOADSTORE, new LoadStoreCompiler());
+	}
+	/** Compiled function declarations to reuse when compiling, or null to always compile them */
+	private static volatile FunctionCache functionCache;
+	/** Compiled programs and function declarations kept between runs, or null */
+	private static volatile DiskCache diskCache;
 	
 	/** Returns a compiler for the given architecture.
+	 * The same instance is returned on every call, and is safe to share between threads.
 	 * 
 	 * @param architecture An ISA architecture 
 	 * @return A compiler for the given architecture
 	 */
 	public static Compiler getCompiler(ISA architecture) {
-		Compiler c;
-		switch(architecture) {
-		case MM4ADDRESS: c = new MM4AddressCompiler(); break;
-		case MM3ADDRESS: c = new MM3AddressCompiler(); break;
-		case MM2ADDRESS: c = new MM2AddressCompiler(); break;
-		case ACCUMULATOR: c = new AccumulatorCompiler(); break;
-		case STACK: c = new StackCompiler(); break;
-		case LOADSTORE: c = new LoadStoreCompiler(); break;
-		default: c = new MM4AddressCompiler();
+		Compiler c = compilers.get(architecture);
+		if (c == null) {
+			c = compilers.get(ISA.MM4ADDRESS);
 		}
 		
 		return c;
 	}
 	
+	/** Sets the cache that compiled function declarations are looked up in and added to, 
+	 * so recompiling a program only compiles the functions that changed.
+	 * 
+	 * @param cache The cache to share between all of the compilers, or null to turn caching off
+	 */
+	public static void setFunctionCache(FunctionCache cache) {
+		functionCache = cache;
+	}
+	
+	public static FunctionCache getFunctionCache() {
+		return functionCache;
+	}
+	
+	/** Sets the cache that compiled programs and function declarations are kept in between runs.
+	 * An unchanged program is read back from it without being compiled at all.
+	 * 
+	 * @param cache The cache to share between all of the compilers, or null to turn it off
+	 */
+	public static void setDiskCache(DiskCache cache) {
+		diskCache = cache;
+	}
+	
+	public static DiskCache getDiskCache() {
+		return diskCache;
+	}
+	
+	/** Returns the architecture this compiler translates to
+	 * 
+	 */
+	public ISA getArchitecture() {
+		for (ISA i : ISA.values()) {
+			if (compilers.get(i) == this) {
+				return i;
+			}
+		}
+		return null;
+	}
+	
 	/** Translates C-like code into assembly code. 
 	 * 
 	 * @param code A string of code written in a C-like language
 	 * @return The translation of the input into assembly code
 	 */
 	public String compile(String code) throws StringNotFoundException {
-		clear();
-		fullCode = code.replaceAll("\n", "");
-		String errorLine = "";
+		return compile(code, null);
+	}
+	
+	/** Translates C-like code into assembly code. 
+	 * If a pool is given, the bodies of the program's function declarations are compiled 
+	 * concurrently on it and stitched back together in source order.
+	 * 
+	 * @param code A string of code written in a C-like language
+	 * @param pool The pool to compile function declarations on, or null to compile everything on this thread
+	 * @return The translation of the input into assembly code
+	 */
+	public String compile(String code, ForkJoinPool pool) throws StringNotFoundException {
+		return compileProgram(code, pool).getCode();
+	}
+	
+	/** Same as compile(code, pool), but also returns the instruction count, code size, and memory accesses
+	 * without having to read them back out of the compiled code.
+	 * 
+	 * @param code A string of code written in a C-like language
+	 * @param pool The pool to compile function declarations on, or null to compile everything on this thread
+	 * @return The translation of the input into assembly code, and its counts
+	 */
+	public CompilationResult compileProgram(String code, ForkJoinPool pool) throws StringNotFoundException {
+		return compileProgram(new ParsedProgram(code), pool);
+	}
+	
+	/** Same as compileProgram(code, pool), for a program that has already been split up, 
+	 * so that compiling it in several architectures only has to do that once.
+	 * 
+	 * @param program A program written in a C-like language
+	 * @param pool The pool to compile function declarations on, or null to compile everything on this thread
+	 * @return The translation of the input into assembly code, and its counts
+	 */
+	public CompilationResult compileProgram(ParsedProgram program, ForkJoinPool pool) throws StringNotFoundException {
+		DiskCache disk = diskCache;
+		byte[] key = null;
+		if (disk != null) {
+			key = DiskCache.key(PROGRAM_RECORD, getArchitecture().name(), program.getCode());
+			ByteBuffer cached = disk.get(key);
+			if (cached != null) {
+				return CompilationResult.fromRecord(cached);
+			}
+		}
+		
+		CompilationContext ctx = CompilationContext.acquire();
+		CompilationResult result;
+		try {
+			String compiled = compile(ctx, program, pool);
+			result = new CompilationResult(compiled, ctx.numInstructions, ctx.programBits, ctx.memAccesses);
+		} finally {
+			CompilationContext.release(ctx);
+		}
+		
+		if (disk != null) {
+			try {
+				disk.put(key, result.toRecord());
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+		return result;
+	}
+	
+	/** Translates C-like code into assembly code using the given context for all intermediate state.
+	 * 
+	 * Each function declaration is compiled in a context of its own, so its code does not depend on 
+	 * anything compiled before it, and the declarations can be compiled in any order (or at the same time).
+	 * 
+	 * @param ctx A cleared context, see CompilationContext.acquire()
+	 * @param program A program written in a C-like language
+	 * @param pool The pool to compile function declarations on, or null to compile everything on this thread
+	 * @return The translation of the input into assembly code
+	 */
+	protected String compile(CompilationContext ctx, ParsedProgram program, ForkJoinPool pool) throws StringNotFoundException {
+		translate(ctx, program, pool);
+		if (ctx.functionsToAdd.length() > 0) {
+			// these functions appear later in the code than our original program
+			ctx.output.append("...\n");
+			ctx.output.append(ctx.functionsToAdd);
+			// and we already counted the instructions size/number when we put them in functionsToAdd
+		}
+		layout(ctx);
+		ctx.output.append("\nInstruction count:\t"+ctx.numInstructions+"\n"
+				+ "Size of resulting code:\t"+ctx.programBits+" bits\n"
+				+ "# of memory accesses:\t"+ctx.memAccesses+"\n");
+		
+		return ctx.output.toString();
+	}
+	
+	/** Translates a program into an object unit, to be linked with others by a Linker.
+	 * Unlike compile(), the function declarations are kept apart from the main program 
+	 * and nothing is given its final address.
+	 * 
+	 * @param file The name of the file the program came from
+	 * @param program A program written in a C-like language
+	 * @param pool The pool to compile function declarations on, or null to compile everything on this thread
+	 * @return The translated program, with its symbols and relocations
+	 */
+	public ObjectUnit compileUnit(String file, ParsedProgram program, ForkJoinPool pool) throws StringNotFoundException {
+		CompilationContext ctx = CompilationContext.acquire();
+		try {
+			translate(ctx, program, pool);
+			return new ObjectUnit(file, getArchitecture(), ctx);
+		} finally {
+			CompilationContext.release(ctx);
+		}
+	}
+	
+	/** Translates the program into ctx: the main program into ctx.output and the function declarations 
+	 * into ctx.functionsToAdd, without laying them out.
+	 * 
+	 */
+	private void translate(CompilationContext ctx, ParsedProgram program, ForkJoinPool pool) throws StringNotFoundException {
+		ctx.elses = program.getElses();
+		ctx.fullCode = ctx.elses.getCode();
+		String[] lines = program.getLines();
+		FunctionDeclaration[] declarations = findFunctionDeclarations(program);
+		
+		if (pool != null) {
+			// start all of the function bodies now, the main program is translated while they compile
+			LinkedList<FunctionDeclaration> toFork = new LinkedList<FunctionDeclaration>();
+			for (FunctionDeclaration d : declarations) {
+				if (d != null) {
+					toFork.add(d);
+				}
+			}
+			if (toFork.size() > 1) {
+				for (FunctionDeclaration d : toFork) {
+					d.task = pool.submit(d);
+				}
+			}
+		}
+		
+		int current = -1; // the line being translated, the error context is only built from it if something fails
 		try {
-			String[] lines = fullCode.split("(?<=[;}])"); // split lines by semi-colon
-			
 			// translate each line into ISA code
 			for (int i=0; i<lines.length; i++) {
-				if (lines[i].replaceAll("\\s+", "").length() < 1) {
+				if (isBlank(lines[i])) {
 					// line contains only ; or nothing
 					continue;
 				}
 				
-				if (i-2 >= 0) {
-					errorLine = lines[i-2] +"\n"+ lines[i-1] +"\n"+ lines[i];
-				} else if (i-1 >= 0) {
-					errorLine = lines[i-1] +"\n"+ lines[i];
-				} else {
-					errorLine = lines[i];
+				current = i;
+				if (declarations[i] != null) {
+					appendFunction(ctx, declarations[i].get());
+					i = declarations[i].end;
+					continue;
 				}
-				translateAndAppendLine(lines[i]);
-			}
-			if (!labelsToPrepend.isEmpty()) {
-				output.append(labelsToPrepend.pollLast()+":\n");
-				numInstructions++;
+				translateAndAppendLine(ctx, lines[i]);
 			}
-			if (!jumpLabels.isEmpty()) {
-				output.append(jumpLabels.pollLast()+":\n");
-				numInstructions++;
+			if (!ctx.labelsToPrepend.isEmpty()) {
+				ctx.output.append(ctx.labelsToPrepend.pollLast()+":\n");
+				ctx.numInstructions++;
 			}
-			if (functionsToAdd.length() > 0) {
-				// these functions appear later in the code than our original program
-				output.append("...\n");
-				output.append(functionsToAdd);
-				// and we already counted the instructions size/number when we put them in functionsToAdd
+			if (!ctx.jumpLabels.isEmpty()) {
+				ctx.output.append(ctx.jumpLabels.pollLast()+":\n");
+				ctx.numInstructions++;
 			}
-			output.append("\nInstruction count:\t"+numInstructions+"\n"
-					+ "Size of resulting code:\t"+programBits+" bits\n"
-					+ "# of memory accesses:\t"+memAccesses+"\n");
 		} catch (Exception e) {
-			System.out.println("Error in lines:\n"+errorLine);
+			if (logger.isLoggable(Level.WARNING)) {
+				logger.log(Level.WARNING, "Error in lines:\n"+errorLines(lines, current), e);
+			}
+			for (FunctionDeclaration d : declarations) {
+				if (d != null && d.task != null) {
+					d.task.cancel(false);
+				}
+			}
 			throw e;
 		}
+	}
+	
+	/** Returns the line that failed to compile and the two before it, to show where a compile error happened
+	 * 
+	 * @param lines The program split into lines
+	 * @param i The line that failed, or -1 if it failed before the first line
+	 */
+	protected static String errorLines(String[] lines, int i) {
+		if (i < 0) {
+			return "";
+		} else if (i-2 >= 0) {
+			return lines[i-2] +"\n"+ lines[i-1] +"\n"+ lines[i];
+		} else if (i-1 >= 0) {
+			return lines[i-1] +"\n"+ lines[i];
+		}
+		return lines[i];
+	}
+	
+	/** Returns the program's top-level function declarations, ready to compile in this architecture
+	 * 
+	 * @param program The whole program
+	 * @return An array parallel to the program's lines, holding a declaration at the index of the line it starts on
+	 */
+	protected FunctionDeclaration[] findFunctionDeclarations(ParsedProgram program) {
+		String[] lines = program.getLines();
+		FunctionDeclaration[] declarations = new FunctionDeclaration[lines.length];
+		for (int i=0; i<lines.length; i++) {
+			int end = program.getFunctionEnd(i);
+			if (end >= 0) {
+				declarations[i] = new FunctionDeclaration(program.getElses(), lines, i, end);
+				i = end;
+			}
+		}
+		return declarations;
+	}
+	
+	/** Appends a function declaration that was compiled in its own context to the program being compiled in ctx.
+	 * 
+	 * @param ctx The context of the whole program
+	 * @param function The compiled function declaration
+	 */
+	protected void appendFunction(CompilationContext ctx, CompiledFunction function) {
+		// the code compiling the declaration left in the main program goes with its first definition, see Linker
+		int mainStart = ctx.output.length(), mainEnd = mainStart + function.output.length();
+		for (CompilationContext.Definition d : function.definitions) {
+			ctx.definitions.add(d.movedBy(ctx.functionsToAdd.length(), mainStart, mainEnd));
+			mainStart = mainEnd;
+		}
+		ctx.calls.addAll(Arrays.asList(function.calls));
+		ctx.output.append(function.output);
+		ctx.functionsToAdd.append(function.functionsToAdd);
+		ctx.numInstructions += function.numInstructions;
+		ctx.programBits += function.programBits;
+		ctx.memAccesses += function.memAccesses;
+		ctx.programCounter += function.programCounter;
+		// labels the function left pending still belong to whatever is written next
+		ctx.labelsToPrepend.addAll(Arrays.asList(function.labelsToPrepend));
+		ctx.jumpLabels.addAll(Arrays.asList(function.jumpLabels));
+	}
+	
+	/** Assigns final addresses once the whole program, including the functions after the "...", is in ctx.output.
+	 * Architectures that refer to addresses symbolically while compiling override this.
+	 * 
+	 * @param ctx The context holding the whole program
+	 */
+	protected void layout(CompilationContext ctx) {
+		// nothing to do by default
+	}
+	
+	/** The lines of one function declaration, which are compiled in a fresh context 
+	 * either when the main program reaches them or ahead of time on a pool.
+	 * If there is a function cache, an unchanged declaration is taken from it instead.
+	 * 
+	 */
+	protected class FunctionDeclaration implements Callable<CompiledFunction> {
+		protected final ElseIndex program;
+		protected final String[] lines;
+		protected final int start, end;
+		protected ForkJoinTask<CompiledFunction> task;
+		
+		protected FunctionDeclaration(ElseIndex program, String[] lines, int start, int end) {
+			this.program = program;
+			this.lines = lines;
+			this.start = start;
+			this.end = end;
+		}
+		
+		public CompiledFunction call() throws StringNotFoundException {
+			FunctionCache cache = functionCache;
+			DiskCache disk = diskCache;
+			String key = null;
+			if (cache != null || disk != null) {
+				key = FunctionCache.key(getArchitecture(), lines, start, end);
+			}
+			if (cache != null) {
+				CompiledFunction cached = cache.get(key, program);
+				if (cached != null) {
+					return cached;
+				}
+			}
+			if (disk != null) {
+				ByteBuffer record = disk.get(DiskCache.key(FUNCTION_RECORD, key));
+				CompiledFunction stored = record != null ? new CompiledFunction(record) : null;
+				if (stored != null && stored.isValidIn(program)) {
+					if (cache != null) {
+						cache.put(key, stored);
+					}
+					return stored;
+				}
+			}
+			
+			CompilationContext function = CompilationContext.acquire();
+			try {
+				function.fullCode = program.getCode();
+				function.elses = program;
+				for (int i=start; i<=end; i++) {
+					if (!isBlank(lines[i])) {
+						translateAndAppendLine(function, lines[i]);
+					}
+				}
+				CompiledFunction compiled = new CompiledFunction(function);
+				if (cache != null) {
+					cache.put(key, compiled);
+				}
+				if (disk != null) {
+					try {
+						disk.put(DiskCache.key(FUNCTION_RECORD, key), compiled.toRecord());
+					} catch (IOException ioe) {
+						ioe.printStackTrace();
+					}
+				}
+				return compiled;
+			} finally {
+				CompilationContext.release(function);
+			}
+		}
 		
-		return output.toString();
-	}
-	
-	/** Clear out all the stored data in this compiler to prepare to compile a new program
-	 * 
-	 */
-	protected void clear() {
-		vars = new HashSet<String>();
-		labels = new HashSet<String>();
-		instructionSize = 0;
-		memAccesses = 0;
-		programBits = 0;
-		programCounter = 0;
-		numInstructions = 0;
-		tempAddrs.clear();
-		labelsToPrepend.clear();
-		ifLabels.clear();
-		jumpLabels.clear();
-		functions.clear();
-		currentArgs.clear();
-		stack.clear();
-		returns.clear();
-		output.delete(0, output.length());
-		bracketStatement.delete(0, bracketStatement.length());
-		functionsToAdd.delete(0, functionsToAdd.length());
-		fullCode = "";
-		toRemove = new String[0];
-		insideBrackets = false;
-		insideFunctionDeclaration = false;
-		inSubline = false;
+		/** Returns the compiled function, waiting for it if it was started on a pool
+		 * 
+		 */
+		protected CompiledFunction get() throws StringNotFoundException {
+			if (task == null) {
+				return call();
+			}
+			try {
+				return task.get();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while compiling a function declaration", ie);
+			} catch (ExecutionException ee) {
+				Throwable cause = ee.getCause();
+				if (cause instanceof StringNotFoundException) {
+					throw (StringNotFoundException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IllegalStateException(cause);
+			}
+		}
 	}
 	
 	/** Translates a line to 4-address assembly code and returns the result
@@ -141,21 +445,26 @@ public abstract class Compiler {
 	 * @param programCounter	the address of the line
 	 * @return	the line in ISA code
 	 */
-	protected void translateAndAppendLine(String line) throws StringNotFoundException {
+	protected void translateAndAppendLine(CompilationContext ctx, String line) throws StringNotFoundException {
 		if (line.isEmpty()) {
 			return;
-		} else if (insideBrackets) {
+		} else if (ctx.insideBrackets) {
 			// put all the lines inside brackets into 1 line to deal with them together
 			if (line.contains("}")) {
 				int bracket = line.indexOf("}")+1;
-				bracketStatement.append(line.substring(0, bracket));
-				insideBrackets = false;
-				if (bracketStatement.indexOf("switch") > -1) {
-					handleSwitchStatement(bracketStatement.toString());
+				ctx.bracketStatement.append(line.substring(0, bracket));
+				ctx.insideBrackets = false;
+				if (ctx.bracketStatement.indexOf("switch") > -1) {
+					handleSwitchStatement(ctx, ctx.bracketStatement.toString());
 				} else {
-					handleFunctionDeclaration(bracketStatement.toString());
+					String declaration = ctx.bracketStatement.toString();
+					int start = ctx.functionsToAdd.length(), instructions = ctx.numInstructions, bits = ctx.programBits, accesses = ctx.memAccesses;
+					handleFunctionDeclaration(ctx, declaration);
+					Matcher name = FUNCTION_NAME.matcher(declaration);
+					ctx.definitions.add(new CompilationContext.Definition(name.find() ? name.group(1) : "", start, 
+							ctx.numInstructions - instructions, ctx.programBits - bits, ctx.memAccesses - accesses));
 				}
-				bracketStatement.delete(0, bracketStatement.length());
+				ctx.bracketStatement.delete(0, ctx.bracketStatement.length());
 				
 				// exit if we're done with this line 
 				line = line.substring(bracket, line.length());
@@ -163,14 +472,14 @@ public abstract class Compiler {
 					return;
 				}
 			} else {
-				bracketStatement.append(line);
+				ctx.bracketStatement.append(line);
 				return;
 			}
 		}
 		String operation = "", result = "", oper1 = "", oper2 = "";
 		LinkedList<String> operands = new LinkedList<String>(), temps = new LinkedList<String>();
 		boolean passedAssignmentOperator = false, ignoreFirstParenthesis = false, ignoreFirstLabel = false;
-		loadVars(line);
+		loadVars(ctx, line);
 		
 		// divide string into tokens that can be analyzed
 		String[] tokens = line.split("\\s|(?=[-+*/()=:;])|(?<=[^-+*/=:;][-+*/=:;])|(?<=[()])");
@@ -189,8 +498,8 @@ public abstract class Compiler {
 					continue;
 				}
 				// previous token was a label
-				labelsToPrepend.add(tokens[i-1]);
-				labels.add(labelsToPrepend.peekLast());
+				ctx.labelsToPrepend.add(tokens[i-1]);
+				ctx.labels.add(ctx.labelsToPrepend.peekLast());
 				tokens[i-1] = " ";
 				tokens[i] = " ";
 			} else if (tokens[i].endsWith(":")) {
@@ -198,8 +507,8 @@ public abstract class Compiler {
 					ignoreFirstLabel = false;
 					continue;
 				}
-				labelsToPrepend.add(tokens[i].substring(0, tokens[i].length()-1)); // exlcude the ":" from the label
-				labels.add(labelsToPrepend.peekLast());
+				ctx.labelsToPrepend.add(tokens[i].substring(0, tokens[i].length()-1)); // exlcude the ":" from the label
+				ctx.labels.add(ctx.labelsToPrepend.peekLast());
 				tokens[i] = " ";
 			}
 		}
@@ -222,8 +531,8 @@ public abstract class Compiler {
 				tokens[i] = " ";
 				// enumerate a new register, and translate the subline
 				// between parenthesis as another line
-				temps.add(getTempAddr());
-				tempAddrs.add(tokens[i]);
+				temps.add(getTempAddr(ctx));
+				ctx.tempAddrs.add(tokens[i]);
 				
 				// search for close parens
 				int cpi = i + 1;
@@ -243,9 +552,9 @@ public abstract class Compiler {
 				// replace a token instead of adding it to operands so it isn't counted twice below
 				tokens[i+1] = temps.peekLast();
 				
-				inSubline = true;
-				translateAndAppendLine(subLine.toString());
-				inSubline = false;
+				ctx.inSubline = true;
+				translateAndAppendLine(ctx, subLine.toString());
+				ctx.inSubline = false;
 				subLine.delete(0, subLine.length());
 			}
 		}
@@ -258,8 +567,8 @@ public abstract class Compiler {
 			
 			// enumerate a new register, and translate the subline
 			// between parenthesis as another line
-			temps.add(getTempAddr()); 
-			tempAddrs.add(tokens[i]);
+			temps.add(getTempAddr(ctx)); 
+			ctx.tempAddrs.add(tokens[i]);
 			
 			StringBuffer subLine = new StringBuffer();
 			subLine.append(temps.peekLast()+" = ");
@@ -290,9 +599,9 @@ public abstract class Compiler {
 			tokens[subStart] = temps.peekLast();
 			
 			// make a separate instruction out of the new subLine
-			inSubline = true;
-			translateAndAppendLine(subLine.toString());
-			inSubline = false;
+			ctx.inSubline = true;
+			translateAndAppendLine(ctx, subLine.toString());
+			ctx.inSubline = false;
 			subLine.delete(0, subLine.length());
 		}
 		
@@ -313,8 +622,8 @@ public abstract class Compiler {
 					(i-1 >= 0 && tokens[i-1].contentEquals("="))) {
 					// equality check, not assignment
 					operation = "beq";
-					jumpLabels.add("True"+jumpLabels.size());
-					labels.add(jumpLabels.peekLast());
+					ctx.jumpLabels.add("True"+ctx.jumpLabels.size());
+					ctx.labels.add(ctx.jumpLabels.peekLast());
 				} else {
 					passedAssignmentOperator = true;
 				}
@@ -328,7 +637,7 @@ public abstract class Compiler {
 					temp.append(tokens[numi]);
 					tokens[numi] = " ";
 				}
-
+				
 				if (!passedAssignmentOperator) {
 					result = temp.toString();
 				} else {
@@ -344,77 +653,78 @@ public abstract class Compiler {
 					operation = "j";
 				} else if (tokens[i].toLowerCase().contentEquals("if")) {
 					// if statement, handle separately
-					handleIfStatement(line);
+					handleIfStatement(ctx, line);
 					
 					// skip the rest of this line
 					// cleanup
 					while (!temps.isEmpty()) {
-						String var = ISAVarToVar(temps.pollLast());
-						tempAddrs.remove(var);
+						String var = ISAVarToVar(ctx, temps.pollLast());
+						ctx.tempAddrs.remove(var);
 					}
 					return;
 				} else if (tokens[i].toLowerCase().contentEquals("else")) {
 					// an else statement, presumably one we reached already
-					if (toRemove.length > 0) {
+					if (ctx.toRemove.length > 0) {
 						int ti = i;
 						
 						// check if this else statement is one we should remove
 						for (; ti < tokens.length; ti++) {
-							if (tokens[ti].contentEquals(toRemove[0])) {
+							if (tokens[ti].contentEquals(ctx.toRemove[0])) {
 								break;
 							}
 						}
 						
 						// make sure we have a match
 						int tempIndex = 0;
-						for (; tempIndex < toRemove.length && ti+tempIndex < tokens.length; tempIndex++) {
-							if (!tokens[ti+tempIndex].contentEquals(toRemove[tempIndex])) {
+						for (; tempIndex < ctx.toRemove.length && ti+tempIndex < tokens.length; tempIndex++) {
+							if (!tokens[ti+tempIndex].contentEquals(ctx.toRemove[tempIndex])) {
 								break;
 							}
 						}
 						
-						if (ti < tokens.length && tempIndex >= toRemove.length) {
+						if (ti < tokens.length && tempIndex >= ctx.toRemove.length) {
 							// found a match, stop looking at this line
 							return;
 						}
 					}
 				} else if (tokens[i].toLowerCase().contentEquals("while")) {
 					// if statement, handle separately
-					handleWhileStatement(line);
+					handleWhileStatement(ctx, line);
 					
 					// skip the rest of this line
 					// cleanup
 					while (!temps.isEmpty()) {
-						String var = ISAVarToVar(temps.pollLast());
-						tempAddrs.remove(var);
+						String var = ISAVarToVar(ctx, temps.pollLast());
+						ctx.tempAddrs.remove(var);
 					}
 					return;
 				} else if (tokens[i].toLowerCase().contentEquals("switch")) {
 					// switch statement, handle separately
 					if (line.contains("{")) {
-						bracketStatement.append(line);
-						insideBrackets = true;
+						ctx.bracketStatement.append(line);
+						ctx.insideBrackets = true;
 					}
 					// cleanup
 					while (!temps.isEmpty()) {
-						String var = ISAVarToVar(temps.pollLast());
-						tempAddrs.remove(var);
+						String var = ISAVarToVar(ctx, temps.pollLast());
+						ctx.tempAddrs.remove(var);
 					}
 					return;
 				} else if (i+1 < tokens.length && tokens[i+1].contentEquals("(")) {
 					if (line.contains("{")) {
 						// function declaration
-						bracketStatement.append(line);
-						insideBrackets = true;
+						ctx.bracketStatement.append(line);
+						ctx.insideBrackets = true;
 						// cleanup
 						while (!temps.isEmpty()) {
-							String var = ISAVarToVar(temps.pollLast());
-							tempAddrs.remove(var);
+							String var = ISAVarToVar(ctx, temps.pollLast());
+							ctx.tempAddrs.remove(var);
 						}
 						return;
 					} else {
 						// function call
-						handleFunctionCall(line.substring(line.indexOf(tokens[i]), line.indexOf(")")+1));
+						ctx.calls.add(tokens[i].trim());
+						handleFunctionCall(ctx, line.substring(line.indexOf(tokens[i]), line.indexOf(")")+1));
 						if (line.substring(line.indexOf(")")+1).matches(".*\\w.*")) {
 							// line contains something beside white spaces and semicolon
 							for (int j = i; !line.substring(line.indexOf(")")+1).contains(tokens[j]); j++) {
@@ -422,31 +732,31 @@ public abstract class Compiler {
 								tokens[j] = " ";
 							}
 							operands.add(getReturnValueName());
-							if (!insideFunctionDeclaration) {
-								labelsToPrepend.add(jumpLabels.pollLast());
+							if (!ctx.insideFunctionDeclaration) {
+								ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 							}
-							addReturnAddressLabel();
+							addReturnAddressLabel(ctx);
 						} else {
 							// otherwise line contains nothing else
 							// cleanup
 							while (!temps.isEmpty()) {
-								String var = ISAVarToVar(temps.pollLast());
-								tempAddrs.remove(var);
+								String var = ISAVarToVar(ctx, temps.pollLast());
+								ctx.tempAddrs.remove(var);
 							}
 							return;
 						}
 					}
 				} else if (tokens[i].contains("[")) {
 					// an array index
-					temps.add(getTempAddr());
+					temps.add(getTempAddr(ctx));
 					if (!passedAssignmentOperator) {
-						result = varToISAVar(temps.peekLast());
+						result = varToISAVar(ctx, temps.peekLast());
 					} else {
 						operands.add(temps.peekLast());
 					}
 					
 					// add lines to load the indexed value into the tregister
-					addArrayLoadingLine(tokens[i], temps.peekLast());
+					addArrayLoadingLine(ctx, tokens[i], temps.peekLast());
 				} else if (isIdentifier(tokens[i])) {
 					// ignore it for now
 				} else if (tokens[i].toLowerCase().contentEquals("return")) {
@@ -454,7 +764,7 @@ public abstract class Compiler {
 					passedAssignmentOperator = true;
 				} else {
 					if (!passedAssignmentOperator) {
-						result = varToISAVar(tokens[i]);
+						result = varToISAVar(ctx, tokens[i]);
 					} else {
 						operands.add(tokens[i]);
 					}
@@ -462,7 +772,7 @@ public abstract class Compiler {
 			} else if (Character.isLetter(tokens[i].charAt(0))) {
 				// a letter (a variable)
 				if (!passedAssignmentOperator) {
-					result = varToISAVar(tokens[i]);
+					result = varToISAVar(ctx, tokens[i]);
 				} else {
 					operands.add(tokens[i]);
 				}
@@ -479,8 +789,8 @@ public abstract class Compiler {
 				}
 				// enumerate a new register, and translate the subline
 				// between parenthesis as another line
-				temps.add(getTempAddr()); 
-				tempAddrs.add(tokens[i]);
+				temps.add(getTempAddr(ctx)); 
+				ctx.tempAddrs.add(tokens[i]);
 				operands.add(temps.peekLast());
 				
 				// search for close parens
@@ -498,7 +808,7 @@ public abstract class Compiler {
 					subLine.append(";"); // make sure it ends with a ;
 				}
 				
-				translateAndAppendLine(subLine.toString());
+				translateAndAppendLine(ctx, subLine.toString());
 				subLine.delete(0, subLine.length());
 			} else if (isOperation(tokens[i])) {
 				// an operation
@@ -518,28 +828,28 @@ public abstract class Compiler {
 		
 		// create the output line
 		if (result == getReturnValueName()) {
-			setReturnValue(result, operands);
+			setReturnValue(ctx, result, operands);
 		} else {		
 			if (!operands.isEmpty()) {
-				oper1 = varToISAVar(operands.poll());
+				oper1 = varToISAVar(ctx, operands.poll());
 			}
 			if (!operands.isEmpty()) {
-				oper2 = varToISAVar(operands.poll());
+				oper2 = varToISAVar(ctx, operands.poll());
 			}
 			if (oper2.isEmpty()) {
-				addOneOperLine(result, oper1);
+				addOneOperLine(ctx, result, oper1);
 			} else {
-				writeLine(operation, result, oper1, oper2);
+				writeLine(ctx, operation, result, oper1, oper2);
 			}
-			if (!inSubline && !result.isEmpty()) {
-				store(result);
+			if (!ctx.inSubline && !result.isEmpty()) {
+				store(ctx, result);
 			}
 		}
 		
 		// cleanup
 		while (!temps.isEmpty()) {
-			String var = ISAVarToVar(temps.pollLast());
-			tempAddrs.remove(var);
+			String var = ISAVarToVar(ctx, temps.pollLast());
+			ctx.tempAddrs.remove(var);
 		}
 	}
 	
@@ -548,7 +858,7 @@ public abstract class Compiler {
 	 * @param operation The operation of the line
 	 * @param operands	The operands for an assignment
 	 */
-	protected abstract void writeLine(String operation, String... operands);
+	protected abstract void writeLine(CompilationContext ctx, String operation, String... operands);
 	
 	/** Returns the register that holds the variable var.
 	 * If the input is already a register, returns var unchanged.
@@ -556,8 +866,8 @@ public abstract class Compiler {
 	 * @param var The name of a variable to translate to a register
 	 * @return The name of the register where the variable is stored
 	 */
-	protected String varToISAVar(char var) {
-		return varToISAVar(String.valueOf(var));
+	protected String varToISAVar(CompilationContext ctx, char var) {
+		return varToISAVar(ctx, String.valueOf(var));
 	}
 	
 	/** Returns the ISA version of the variable. 
@@ -567,7 +877,7 @@ public abstract class Compiler {
 	 * @param var The name of a variable to translate to a register
 	 * @return The name of the register where the variable is stored
 	 */
-	protected abstract String varToISAVar(String var);
+	protected abstract String varToISAVar(CompilationContext ctx, String var);
 	
 	/** Translates the variable currently in ISA format back to its C-like format
 	 * eg. In LoadStore, the variable that is held in the register reg.
@@ -576,7 +886,7 @@ public abstract class Compiler {
 	 * @param reg The name of a register to translate to a variable
 	 * @return The name of the variable held in reg
 	 */
-	protected abstract String ISAVarToVar(String isaVar);
+	protected abstract String ISAVarToVar(CompilationContext ctx, String isaVar);
 	
 	/** Prepends the current line of code with the lines to initialize an array
 	 * 
@@ -584,56 +894,56 @@ public abstract class Compiler {
 	 * @param tempName The name of the temporary address that will replace the array name in the current line 
 	 * @return the new programCounter after adding the lines
 	 */
-	protected abstract void addArrayLoadingLine(String token, String tempName);
+	protected abstract void addArrayLoadingLine(CompilationContext ctx, String token, String tempName);
 	
 	/** Parses, translates, and appends the if statement into ISA code
 	 * 
 	 * @param line An if statement
 	 * @throws StringNotFoundException 
 	 */
-	protected abstract void handleIfStatement(String line) throws StringNotFoundException;
+	protected abstract void handleIfStatement(CompilationContext ctx, String line) throws StringNotFoundException;
 	
 	/** Parses, translates, and appends the while statement into ISA code
 	 * 
 	 * @param line A while statement
 	 * @throws StringNotFoundException 
 	 */
-	protected abstract void handleWhileStatement(String line) throws StringNotFoundException;
+	protected abstract void handleWhileStatement(CompilationContext ctx, String line) throws StringNotFoundException;
 	
 	/** Parses, translates, and appends the switch statement into ISA code
 	 * 
 	 * @param line A switch statement
 	 * @throws StringNotFoundException 
 	 */
-	protected abstract void handleSwitchStatement(String line) throws StringNotFoundException;
+	protected abstract void handleSwitchStatement(CompilationContext ctx, String line) throws StringNotFoundException;
 	
 	/** Parses, translates, and appends the function call into ISA code
 	 * 
 	 * @param line A function call
 	 * @throws StringNotFoundException 
 	 */
-	protected abstract void handleFunctionCall(String line) throws StringNotFoundException;
+	protected abstract void handleFunctionCall(CompilationContext ctx, String line) throws StringNotFoundException;
 	
 	/** Parses, translates, and appends the function declaration and the function's code into ISA code
 	 * 
 	 * @param line A function declaration, including the body of the function
 	 * @throws StringNotFoundException 
 	 */
-	protected abstract void handleFunctionDeclaration(String line) throws StringNotFoundException;
+	protected abstract void handleFunctionDeclaration(CompilationContext ctx, String line) throws StringNotFoundException;
 	
 	/** Returns the operands in parenthesis to be compared in a while/if statement
 	 * 
 	 * @param line a line containing a while/if statement and a condition in parenthesis
 	 * @return the operands to compare
 	 */
-	protected abstract LinkedList<String> getOperandsToCompare(String line);
+	protected abstract LinkedList<String> getOperandsToCompare(CompilationContext ctx, String line);
 	
 	/** Gets the variables in a line of code and loads them as appropriate for the compiler 
 	 * Variables are identified by being single, capital-letter characters.
 	 * 
 	 * @param code C-like code
 	 */
-	protected abstract void loadVars(String line);
+	protected abstract void loadVars(CompilationContext ctx, String line);
 	
 	/** Returns the name of the "return value" variable in ISA code to the output.
 	 * Eg. in LoadStore it would be $v0, or in MM 4 Address it would be returnValue 
@@ -645,35 +955,35 @@ public abstract class Compiler {
 	 * Eg. in LoadStore it would be $ra, or in MM 4 Address it would be returnAddress 
 	 * 
 	 */
-	protected abstract String getReturnAddressName();
+	protected abstract String getReturnAddressName(CompilationContext ctx);
 	
 	/** Adds a store command in ISA code for the given variable 
 	 * 
 	 */
-	protected abstract void store(String word);
+	protected abstract void store(CompilationContext ctx, String word);
 	
 	/** Adds a jump command in ISA code for the given address/label
 	 * 
 	 * @param address
 	 */
-	protected abstract void jump(String address);
+	protected abstract void jump(CompilationContext ctx, String address);
 	
 	/** Adds a return address label to the line if needed by the architecture
 	 * 
 	 */
-	protected abstract void addReturnAddressLabel();
+	protected abstract void addReturnAddressLabel(CompilationContext ctx);
 	
 	/** Loads the result of the operation in the return value
 	 * 
 	 */
-	protected abstract void setReturnValue(String result, LinkedList<String> operands);
+	protected abstract void setReturnValue(CompilationContext ctx, String result, LinkedList<String> operands);
 	
 	/** Adds a line for result = operand statements
 	 * 
 	 * @param result
 	 * @param operand
 	 */
-	protected abstract void addOneOperLine(String result, String operand);
+	protected abstract void addOneOperLine(CompilationContext ctx, String result, String operand);
 	
 	/** Returns the name of the variable/label that is the result of this line's operation.
 	 * e.g. In "A = B + C;" the result is A.
@@ -681,11 +991,11 @@ public abstract class Compiler {
 	 * @param line
 	 * @return
 	 */
-	protected String getResult(String line) {
+	protected String getResult(CompilationContext ctx, String line) {
 		int start = line.indexOf('=');
 		if (start > -1) {
 			String part = line.substring(0, start);
-			for (String v : vars) {
+			for (String v : ctx.vars) {
 				if (part.contains(v)) {
 					// assume there is only 1 result
 					return v;
@@ -738,7 +1048,7 @@ public abstract class Compiler {
 	 * @return
 	 */
 	protected boolean isOperation(String token) {
-		return token.toLowerCase().matches("[\\-*+\\/]|goto");
+		return OPERATION.matcher(token.toLowerCase()).matches();
 	}
 	
 	/** Returns true if the line contains an operation recognized by this compiler
@@ -769,7 +1079,7 @@ public abstract class Compiler {
 	
 	// credit to stackoverflow for this method
 	protected static boolean isNumeric(String str)	{
-		return str.matches("[-+]?\\d*\\.?\\d+");
+		return NUMERIC.matcher(str).matches();
 	}
 	
 	/** Checks for the first else after the given if statement (if found), and handles any it finds
@@ -777,27 +1087,41 @@ public abstract class Compiler {
 	 * @param ifStatement 
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleElse(String ifStatement) throws StringNotFoundException {
-		int start = Math.max(fullCode.indexOf(ifStatement), 0);
-		String code = fullCode.substring(start);
-		int elseStart = code.toLowerCase().indexOf("else"); 
-		if (elseStart < 0) {
+	protected void handleElse(CompilationContext ctx, String ifStatement) throws StringNotFoundException {
+		if (ctx.elses == null) {
+			ctx.elses = new ElseIndex(ctx.fullCode);
+		}
+		String subCode = ctx.elses.find(ifStatement);
+		// the else can be outside of the lines being compiled, so remember what was found (see CompiledFunction)
+		ctx.elseLookups.add(ifStatement);
+		ctx.elseLookups.add(subCode);
+		if (subCode == null) {
 			return;
 		}
 		
 		// otherwise we found an else statement
-		String subCode = code.substring(elseStart);
-		int elseStop = subCode.indexOf(';')+1;
-		if (elseStop == 0) {
-			elseStop = subCode.length();
-		}
+		int elseStop = subCode.length();
 		
-		jumpLabels.add("Exit"+jumpLabels.size());
-		labels.add(jumpLabels.peekLast());
-		translateAndAppendLine(subCode.substring(5, elseStop)); // +5 to start after "else "
-		jump(jumpLabels.peekLast());
+		ctx.jumpLabels.add("Exit"+ctx.jumpLabels.size());
+		ctx.labels.add(ctx.jumpLabels.peekLast());
+		translateAndAppendLine(ctx, subCode.substring(5, elseStop)); // +5 to start after "else "
+		jump(ctx, ctx.jumpLabels.peekLast());
 		
-		toRemove = subCode.substring(5, elseStop).split("\\s|(?=[-+*/()=:;])|(?<=[^-+*/=:;][-+*/=:;])|(?<=[()])");
+		ctx.toRemove = subCode.substring(5, elseStop).split("\\s|(?=[-+*/()=:;])|(?<=[^-+*/=:;][-+*/=:;])|(?<=[()])");
+	}
+	
+	/** Returns true if the line holds nothing but whitespace, like line.replaceAll("\\s+", "").isEmpty()
+	 * without compiling a regular expression for every line
+	 * 
+	 */
+	protected static boolean isBlank(String line) {
+		for (int i=0; i<line.length(); i++) {
+			char c = line.charAt(i);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+				return false;
+			}
+		}
+		return true;
 	}
 	
 	/** Returns true if the word is a keyword for this compiler
@@ -815,8 +1139,8 @@ public abstract class Compiler {
 	 * @param word
 	 * @return
 	 */
-	protected boolean isLabel(String word) {
-		return labels.contains(word);
+	protected boolean isLabel(CompilationContext ctx, String word) {
+		return ctx.labels.contains(word);
 	}
 	
 	protected boolean isIdentifier(String word) {
@@ -827,5 +1151,5 @@ public abstract class Compiler {
 	 * 
 	 * @return
 	 */
-	protected abstract String getTempAddr();
+	protected abstract String getTempAddr(CompilationContext ctx);
 }
@@ -0,0 +1,572 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/** Keeps compiled code between runs in a directory, as binary records looked up by a 32 byte key.
+ * 
+ * The directory holds two files:
+ * 	units.dat	the records, one after another: payload length, CRC32 of the payload, key, payload
+ * 	units.idx	an open addressing hash table (linear probing) of 16 byte slots: the first 8 bytes of a key,
+ * 				and the offset of its record in units.dat
+ * Both are memory mapped, so a hit is read straight out of the page cache without copying it into a buffer first.
+ * units.dat is mapped in windows of SEGMENT bytes (plus MAX_RECORD, so every record is whole in the window it starts in),
+ * and records are found by their long offsets, so it can grow past the 2 GB one mapping can hold.
+ * The file is grown ahead of the records written to it, doubling (up to a SEGMENT at a time), so the window at its end
+ * is only mapped again every so often rather than for every record; the zeros past the last record are cut off
+ * when the cache is closed, or opened again after a crash. That's why a record can't have an empty payload.
+ * Records are only ever appended, and a record is written before the slot that points to it,
+ * so the worst a crash can leave behind is a record with no slot (or a torn one at the end, which fails its CRC).
+ * A record's CRC is checked the first time it's hit, and not again while the cache is open, so opening the cache
+ * doesn't read all of units.dat. Only the records past where the index was last known to match units.dat
+ * (written just before a crash) are all checked when it's opened, as they're added to the index.
+ * The index only holds what can be found in units.dat, so if it is missing or damaged it is rebuilt from there.
+ * 
+ * Lookups share a read lock, so compiler threads can read the cache at the same time, and only put() takes the write lock.
+ * A cache that can't be read or mapped is a miss rather than a failure. Only one process can use a directory at a time.
+ * 
+ */
+public class DiskCache implements Closeable {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long DATA_MAGIC = 0x5049534144415431L, INDEX_MAGIC = 0x5049534149445831L; // "PISADAT1", "PISAIDX1"
+	private static final int KEY_BYTES = 32, RECORD_HEADER = 8 + KEY_BYTES, INDEX_HEADER = 32, SLOT = 16;
+	private static final int INITIAL_CAPACITY = 1024;
+	/** How far apart the windows units.dat is mapped in start, and how much further each goes on, the most a record can take up */
+	private static final long SEGMENT = 1L << 30;
+	private static final int MAX_RECORD = 1 << 26;
+	private static final Logger logger = Logger.getLogger(DiskCache.class.getName());
+	private static final ThreadLocal<MessageDigest> sha256 = new ThreadLocal<MessageDigest>() {
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException nsae) {
+				throw new IllegalStateException(nsae);
+			}
+		}
+	};
+	
+	private final Path dataPath, indexPath;
+	private final FileChannel data, lockChannel;
+	private final FileLock lock;
+	/** Held to read the index, and to change it or units.dat */
+	private final ReadWriteLock access = new ReentrantReadWriteLock();
+	/** The windows of units.dat mapped so far, by segment, replaced rather than changed so lookups can map more at once */
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	private MappedByteBuffer index;
+	private FileChannel indexChannel;
+	/** Where the last record ends, and how big units.dat has been grown to */
+	private long dataSize, fileSize;
+	private int capacity, count;
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+	private long writes = 0;
+	/** The offsets of the records whose CRCs have been checked, or that were written, since the cache was opened */
+	private final Set<Long> checked = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+	
+	/** Opens (or creates) the cache in the given directory
+	 * 
+	 * @param directory Where to keep the cache
+	 * @throws IOException if the directory can't be used, or another process is using it
+	 */
+	public DiskCache(String directory) throws IOException {
+		Path dir = Paths.get(directory);
+		Files.createDirectories(dir);
+		dataPath = dir.resolve("units.dat");
+		indexPath = dir.resolve("units.idx");
+		
+		lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock locked;
+		try {
+			locked = lockChannel.tryLock();
+		} catch (OverlappingFileLockException ofle) {
+			// this process has it open already
+			locked = null;
+		}
+		lock = locked;
+		if (lock == null) {
+			lockChannel.close();
+			throw new IOException("The cache in " + directory + " is already being used, by this process or another");
+		}
+		
+		FileChannel opened = null;
+		try {
+			opened = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			data = opened;
+			if (data.size() < 8) {
+				ByteBuffer magic = ByteBuffer.allocate(8);
+				magic.putLong(DATA_MAGIC).flip();
+				data.truncate(0);
+				data.write(magic, 0);
+			}
+			dataSize = fileSize = data.size();
+			if (map(0, 8).getLong() != DATA_MAGIC) {
+				throw new IOException(dataPath + " is not a compile cache");
+			}
+			
+			if (openIndex()) {
+				indexTail(index.getLong(16));
+			} else {
+				rebuildIndex();
+			}
+		} catch (IOException | RuntimeException e) {
+			if (opened != null) {
+				opened.close();
+			}
+			if (indexChannel != null) {
+				indexChannel.close();
+			}
+			lock.release();
+			lockChannel.close();
+			throw e;
+		}
+	}
+	
+	/** Returns a key for the given strings, eg. the architecture and the code compiled for it
+	 * 
+	 */
+	public static byte[] key(String... parts) {
+		MessageDigest digest = sha256.get();
+		digest.reset();
+		for (String part : parts) {
+			digest.update(part.getBytes(UTF8));
+			digest.update((byte) 0);
+		}
+		return digest.digest();
+	}
+	
+	/** Returns the payload stored under key, as a read only view of the mapped file, or null if there isn't one
+	 * or units.dat can't be mapped
+	 * 
+	 * @param key A 32 byte key, see key()
+	 */
+	public ByteBuffer get(byte[] key) {
+		long tag = tag(key);
+		access.readLock().lock();
+		try {
+			for (int slot = (int) tag & (capacity - 1);; slot = (slot + 1) & (capacity - 1)) {
+				long slotTag = index.getLong(INDEX_HEADER + slot * SLOT);
+				if (slotTag == 0) {
+					misses.incrementAndGet();
+					return null;
+				}
+				if (slotTag == tag) {
+					ByteBuffer payload = read(index.getLong(INDEX_HEADER + slot * SLOT + 8), key);
+					if (payload != null) {
+						hits.incrementAndGet();
+						return payload;
+					}
+				}
+			}
+		} catch (IOException ioe) {
+			logger.log(Level.WARNING, "Can't read " + dataPath + ", so it's a miss: " + ioe.getMessage(), ioe);
+			misses.incrementAndGet();
+			return null;
+		} finally {
+			access.readLock().unlock();
+		}
+	}
+	
+	/** Stores a payload under key, replacing whatever was stored under it before
+	 * 
+	 * @param key A 32 byte key, see key()
+	 * @param payload The bytes between its position and limit are stored
+	 * @throws IOException if the record can't be written, or is empty or too big for the cache
+	 */
+	public void put(byte[] key, ByteBuffer payload) throws IOException {
+		if (payload.remaining() == 0 || payload.remaining() > MAX_RECORD - RECORD_HEADER) {
+			throw new IOException("A record of " + payload.remaining() + " bytes can't be cached");
+		}
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+		header.putInt(payload.remaining()).putInt(crc(payload)).put(key).flip();
+		
+		access.writeLock().lock();
+		try {
+			long offset = dataSize;
+			long length = header.remaining() + payload.remaining();
+			if (offset + length > fileSize) {
+				fileSize = Math.max(offset + length, Math.min(fileSize * 2, fileSize + SEGMENT));
+				data.write(ByteBuffer.allocate(1), fileSize - 1);
+			}
+			ByteBuffer[] record = {header, payload.duplicate()};
+			data.position(offset);
+			while (header.hasRemaining() || record[1].hasRemaining()) {
+				data.write(record);
+			}
+			dataSize += length;
+			writes++;
+			checked.add(offset);
+			
+			if ((count + 1) * 2 > capacity) {
+				growIndex();
+			}
+			insert(index, capacity, tag(key), offset);
+			count = index.getInt(12);
+			// the index is only known to match units.dat up to here, see openIndex()
+			index.putLong(16, dataSize);
+		} finally {
+			access.writeLock().unlock();
+		}
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	public String toString() {
+		access.readLock().lock();
+		try {
+			return "Disk cache: " + count + " records (" + (dataSize / 1024) + " KB), " + hits + " hits, "
+					+ misses + " misses, " + writes + " written";
+		} finally {
+			access.readLock().unlock();
+		}
+	}
+	
+	public void close() throws IOException {
+		access.writeLock().lock();
+		try {
+			index.force();
+			indexChannel.close();
+			try {
+				data.truncate(dataSize);
+			} catch (IOException ioe) {
+				// eg. a window is still mapped on a system that won't truncate it, so the zeros are cut off next time instead
+				logger.log(Level.FINE, "Can't truncate " + dataPath, ioe);
+			}
+			data.close();
+		} finally {
+			access.writeLock().unlock();
+			lock.release();
+			lockChannel.close();
+		}
+	}
+	
+	/** Reads an int written by Record.putInt */
+	public static int getInt(ByteBuffer payload) {
+		return payload.getInt();
+	}
+	
+	/** Reads a string written by Record.putString, decoding it straight out of the payload */
+	public static String getString(ByteBuffer payload) {
+		int length = payload.getInt();
+		if (length < 0) {
+			return null;
+		}
+		ByteBuffer bytes = payload.slice();
+		bytes.limit(length);
+		payload.position(payload.position() + length);
+		return UTF8.decode(bytes).toString();
+	}
+	
+	/** Reads an array written by Record.putStrings */
+	public static String[] getStrings(ByteBuffer payload) {
+		String[] strings = new String[payload.getInt()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = getString(payload);
+		}
+		return strings;
+	}
+	
+	/** Builds the payload of a record: ints, and strings as their length followed by their UTF-8 bytes (-1 for null)
+	 * 
+	 */
+	public static class Record {
+		private ByteBuffer buffer = ByteBuffer.allocate(256);
+		
+		public Record putInt(int i) {
+			ensure(4);
+			buffer.putInt(i);
+			return this;
+		}
+		
+		public Record putString(String s) {
+			if (s == null) {
+				return putInt(-1);
+			}
+			byte[] bytes = s.getBytes(UTF8);
+			putInt(bytes.length);
+			ensure(bytes.length);
+			buffer.put(bytes);
+			return this;
+		}
+		
+		public Record putStrings(String[] strings) {
+			putInt(strings.length);
+			for (String s : strings) {
+				putString(s);
+			}
+			return this;
+		}
+		
+		/** Returns the payload, ready to be passed to put() */
+		public ByteBuffer toBuffer() {
+			ByteBuffer payload = buffer.duplicate();
+			payload.flip();
+			return payload;
+		}
+		
+		private void ensure(int bytes) {
+			if (buffer.remaining() < bytes) {
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+				buffer.flip();
+				bigger.put(buffer);
+				buffer = bigger;
+			}
+		}
+	}
+	
+	/** Returns the payload of the record at offset if it has the given key and is intact, or null.
+	 * Its CRC is only checked the first time.
+	 * 
+	 */
+	private ByteBuffer read(long offset, byte[] key) throws IOException {
+		int length = length(offset);
+		if (length < 0) {
+			return null;
+		}
+		ByteBuffer record = map(offset + 8, offset + RECORD_HEADER + length);
+		for (int i = 0; i < KEY_BYTES; i++) {
+			if (record.get() != key[i]) {
+				return null;
+			}
+		}
+		ByteBuffer payload = record.slice().asReadOnlyBuffer();
+		if (!checked.contains(offset)) {
+			if (crc(payload) != map(offset + 4, offset + 8).getInt()) {
+				return null;
+			}
+			checked.add(offset);
+		}
+		return payload;
+	}
+	
+	/** Returns the payload length of the record at offset, or -1 if there isn't a whole one there
+	 * 
+	 */
+	private int length(long offset) throws IOException {
+		if (offset < 8 || offset + RECORD_HEADER > dataSize) {
+			return -1;
+		}
+		int length = map(offset, offset + 4).getInt();
+		// 0 would be the zeros the file is grown by
+		if (length <= 0 || length > MAX_RECORD - RECORD_HEADER || offset + RECORD_HEADER + length > dataSize) {
+			return -1;
+		}
+		return length;
+	}
+	
+	/** Returns the payload length of the record at offset if it's whole and its CRC matches, otherwise -1
+	 * 
+	 */
+	private int intactLength(long offset) throws IOException {
+		int length = length(offset);
+		if (length >= 0 && crc(map(offset + RECORD_HEADER, offset + RECORD_HEADER + length)) != map(offset + 4, offset + 8).getInt()) {
+			return -1;
+		}
+		return length;
+	}
+	
+	private static int crc(ByteBuffer payload) {
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[Math.min(payload.remaining(), 8192)];
+		ByteBuffer view = payload.duplicate();
+		while (view.hasRemaining()) {
+			int n = Math.min(chunk.length, view.remaining());
+			view.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+		}
+		return (int) crc.getValue();
+	}
+	
+	/** Returns a view of the bytes of units.dat from offset to end (no more than MAX_RECORD apart, and not past dataSize),
+	 * mapping the window they're in, as far as the file has been grown, if it hasn't been or doesn't reach end
+	 * 
+	 */
+	private ByteBuffer map(long offset, long end) throws IOException {
+		int segment = (int) (offset / SEGMENT);
+		long base = segment * SEGMENT;
+		MappedByteBuffer[] mapped = segments;
+		MappedByteBuffer window = segment < mapped.length ? mapped[segment] : null;
+		if (window == null || base + window.capacity() < end) {
+			window = data.map(FileChannel.MapMode.READ_ONLY, base, Math.min(fileSize, base + SEGMENT + MAX_RECORD) - base);
+			// another lookup may be mapping too, and whichever is published last is as good
+			mapped = Arrays.copyOf(mapped, Math.max(mapped.length, segment + 1));
+			mapped[segment] = window;
+			segments = mapped;
+		}
+		ByteBuffer view = window.duplicate();
+		view.limit((int) (end - base));
+		view.position((int) (offset - base));
+		return view;
+	}
+	
+	/** The first 8 bytes of a key, which is what the index stores (0 marks an empty slot) */
+	private static long tag(byte[] key) {
+		long tag = ByteBuffer.wrap(key).getLong();
+		return tag == 0 ? 1 : tag;
+	}
+	
+	private boolean sameKey(long offset1, long offset2) throws IOException {
+		ByteBuffer key1 = map(offset1 + 8, offset1 + RECORD_HEADER), key2 = map(offset2 + 8, offset2 + RECORD_HEADER);
+		return key1.equals(key2);
+	}
+	
+	/** Maps the existing index, and returns false if there isn't one that matches units.dat, at least up to where it says
+	 * 
+	 */
+	private boolean openIndex() throws IOException {
+		if (!Files.exists(indexPath) || Files.size(indexPath) < INDEX_HEADER) {
+			return false;
+		}
+		indexChannel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+		capacity = index.getInt(8);
+		count = index.getInt(12);
+		if (index.getLong(0) != INDEX_MAGIC || Integer.bitCount(capacity) != 1
+				|| index.capacity() != INDEX_HEADER + (long) capacity * SLOT || index.getLong(16) < 8 || index.getLong(16) > dataSize) {
+			indexChannel.close();
+			return false;
+		}
+		return true;
+	}
+	
+	/** Writes a new index of the given capacity to a temporary file, and returns it mapped
+	 * 
+	 */
+	private MappedByteBuffer createIndex(Path path, int tableCapacity) throws IOException {
+		Files.deleteIfExists(path);
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) tableCapacity * SLOT);
+			table.putLong(0, INDEX_MAGIC);
+			table.putInt(8, tableCapacity);
+			return table;
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/** Replaces the index with one listing every intact record in units.dat, dropping a torn record at the end
+	 * 
+	 */
+	private void rebuildIndex() throws IOException {
+		Path tmp = Paths.get(indexPath + ".tmp");
+		capacity = INITIAL_CAPACITY;
+		MappedByteBuffer table = createIndex(tmp, capacity);
+		count = 0;
+		install(table, tmp, 8);
+		indexTail(8);
+	}
+	
+	/** Adds the records from offset on to the index, checking their CRCs, and cuts units.dat off at the first one
+	 * that isn't intact, eg. one that was only partly written
+	 * 
+	 * @param offset Where the index was last known to match units.dat
+	 */
+	private void indexTail(long offset) throws IOException {
+		while (offset < dataSize) {
+			int length = intactLength(offset);
+			if (length < 0) {
+				break;
+			}
+			if ((count + 1) * 2 > capacity) {
+				growIndex();
+			}
+			byte[] key = new byte[KEY_BYTES];
+			map(offset + 8, offset + RECORD_HEADER).get(key);
+			insert(index, capacity, tag(key), offset);
+			count = index.getInt(12);
+			checked.add(offset);
+			offset += RECORD_HEADER + length;
+		}
+		if (offset != dataSize) {
+			// a record was only partly written, or is damaged, and so is everything after it
+			data.truncate(offset);
+			dataSize = fileSize = offset;
+			segments = new MappedByteBuffer[0];
+		}
+		index.putLong(16, dataSize);
+	}
+	
+	/** Puts the offset in the first free slot for tag, or in the slot already holding a record with the same key,
+	 * and keeps the count in the table's header
+	 * 
+	 */
+	private void insert(MappedByteBuffer table, int tableCapacity, long tag, long offset) throws IOException {
+		int slot = (int) tag & (tableCapacity - 1);
+		while (true) {
+			long slotTag = table.getLong(INDEX_HEADER + slot * SLOT);
+			if (slotTag == 0) {
+				table.putLong(INDEX_HEADER + slot * SLOT + 8, offset);
+				table.putLong(INDEX_HEADER + slot * SLOT, tag);
+				table.putInt(12, table.getInt(12) + 1);
+				return;
+			}
+			if (slotTag == tag && sameKey(table.getLong(INDEX_HEADER + slot * SLOT + 8), offset)) {
+				// a later record for the same key replaces the earlier one
+				table.putLong(INDEX_HEADER + slot * SLOT + 8, offset);
+				return;
+			}
+			slot = (slot + 1) & (tableCapacity - 1);
+		}
+	}
+	
+	private MappedByteBuffer rehash(MappedByteBuffer from, int fromCapacity, int toCapacity, Path path) throws IOException {
+		Path grown = Paths.get(path + ".grow");
+		MappedByteBuffer to = createIndex(grown, toCapacity);
+		for (int slot = 0; slot < fromCapacity; slot++) {
+			long tag = from.getLong(INDEX_HEADER + slot * SLOT);
+			if (tag != 0) {
+				insert(to, toCapacity, tag, from.getLong(INDEX_HEADER + slot * SLOT + 8));
+			}
+		}
+		Files.move(grown, path, StandardCopyOption.REPLACE_EXISTING);
+		return to;
+	}
+	
+	private void growIndex() throws IOException {
+		Path tmp = Paths.get(indexPath + ".tmp");
+		MappedByteBuffer table = rehash(index, capacity, capacity * 2, tmp);
+		capacity *= 2;
+		long indexed = index.getLong(16);
+		indexChannel.close();
+		install(table, tmp, indexed);
+	}
+	
+	/** Makes a finished table the live index, replacing units.idx
+	 * 
+	 * @param indexed How far into units.dat the table is known to match it
+	 */
+	private void install(MappedByteBuffer table, Path tmp, long indexed) throws IOException {
+		table.putLong(16, indexed);
+		table.force();
+		Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		indexChannel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index = table;
+	}
+}
@@ -0,0 +1,67 @@
+import java.util.Arrays;
+
+/** The text of a program, with where every "else" in it is, so that finding the else that goes with an if statement
+ * (see Compiler.handleElse) doesn't have to scan the rest of the program each time.
+ * 
+ */
+public class ElseIndex {
+	
+	private final String code;
+	private int[] elses;
+	
+	/**
+	 * @param code The whole program, as stored in CompilationContext.fullCode
+	 */
+	public ElseIndex(String code) {
+		this.code = code;
+	}
+	
+	public String getCode() {
+		return code;
+	}
+	
+	/** Returns the first else statement after the given if statement,
+	 * from the "else" up to and including its semi-colon, or null if there isn't one.
+	 * 
+	 * @param ifStatement
+	 */
+	public String find(String ifStatement) {
+		int start = Math.max(code.indexOf(ifStatement), 0);
+		int[] positions = positions();
+		int i = Arrays.binarySearch(positions, start);
+		if (i < 0) {
+			i = -i - 1;
+		}
+		if (i >= positions.length) {
+			return null;
+		}
+		
+		int elseStart = positions[i];
+		int elseStop = code.indexOf(';', elseStart)+1;
+		if (elseStop == 0) {
+			elseStop = code.length();
+		}
+		return code.substring(elseStart, elseStop);
+	}
+	
+	/** Returns where every "else" (in any case) starts, in order, finding them the first time it's called
+	 * 
+	 */
+	private synchronized int[] positions() {
+		if (elses == null) {
+			int[] found = new int[16];
+			int n = 0;
+			for (int i = 0; i <= code.length()-4; i++) {
+				char c = code.charAt(i);
+				if ((c == 'e' || c == 'E') && code.regionMatches(true, i, "else", 0, 4)) {
+					if (n == found.length) {
+						found = Arrays.copyOf(found, n * 2);
+					}
+					found[n++] = i;
+				}
+			}
+			elses = Arrays.copyOf(found, n);
+		}
+		return elses;
+	}
+}
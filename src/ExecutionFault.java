@@ -0,0 +1,11 @@
+/** Thrown when a program being run by an Interpreter does something the machine can't,
+ * eg. reads outside of memory, divides by zero, or jumps to a label that isn't there.
+ * 
+ */
+public class ExecutionFault extends Exception {
+	private static final long serialVersionUID = 1L;
+	public ExecutionFault() { super(); }
+	public ExecutionFault(String message) { super(message); }
+	public ExecutionFault(String message, Throwable cause) { super(message, cause); }
+	public ExecutionFault(Throwable cause) { super(cause); }
+}
\ No newline at end of file
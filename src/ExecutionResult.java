@@ -0,0 +1,117 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** What happened when an Interpreter ran a program: how it stopped, what it returned,
+ * and what it actually did, as opposed to the counts the compiler reports for the code it wrote.
+ * 
+ */
+public class ExecutionResult {
+	
+	/** How a run stopped */
+	public enum Outcome {
+		/** The program returned, or ran off the end of its code */
+		FINISHED,
+		/** The program was still running after the most instructions it was allowed */
+		LIMIT,
+		/** The program did something the machine can't, see getMessage() */
+		FAULT
+	}
+	
+	private final Outcome outcome;
+	private final String message;
+	private final int returnValue;
+	private final long instructions, memoryReads, memoryWrites, nanos;
+	private final Map<String, Long> counts;
+	
+	/**
+	 * @param message Why the run stopped, if it was a fault, otherwise null
+	 * @param counts Counts of the architecture's own (eg. how deep a stack got), by what they count
+	 */
+	public ExecutionResult(Outcome outcome, String message, int returnValue, long instructions, long memoryReads, long memoryWrites,
+			long nanos, Map<String, Long> counts) {
+		this.outcome = outcome;
+		this.message = message;
+		this.returnValue = returnValue;
+		this.instructions = instructions;
+		this.memoryReads = memoryReads;
+		this.memoryWrites = memoryWrites;
+		this.nanos = nanos;
+		this.counts = Collections.unmodifiableMap(new LinkedHashMap<String, Long>(counts));
+	}
+	
+	public Outcome getOutcome() {
+		return outcome;
+	}
+	
+	/** Returns what the fault was, or null if the run didn't stop on one
+	 * 
+	 */
+	public String getMessage() {
+		return message;
+	}
+	
+	/** Returns what was in the return value when the run stopped
+	 * 
+	 */
+	public int getReturnValue() {
+		return returnValue;
+	}
+	
+	/** Returns the number of instructions executed
+	 * 
+	 */
+	public long getInstructions() {
+		return instructions;
+	}
+	
+	public long getMemoryReads() {
+		return memoryReads;
+	}
+	
+	public long getMemoryWrites() {
+		return memoryWrites;
+	}
+	
+	public long getMemoryAccesses() {
+		return memoryReads + memoryWrites;
+	}
+	
+	/** Returns how long the run took, in nanoseconds
+	 * 
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+	
+	/** Returns how fast the program was simulated, in millions of instructions per second
+	 * 
+	 */
+	public double getMips() {
+		return nanos == 0 ? 0 : instructions * 1000.0 / nanos;
+	}
+	
+	/** Returns the counts of the architecture's own, by what they count
+	 * 
+	 */
+	public Map<String, Long> getCounts() {
+		return counts;
+	}
+	
+	public String toString() {
+		StringBuffer s = new StringBuffer();
+		s.append("Executed instructions:\t"+instructions+"\n");
+		s.append("# of memory accesses:\t"+getMemoryAccesses()+" ("+memoryReads+" reads, "+memoryWrites+" writes)\n");
+		for (Map.Entry<String, Long> count : counts.entrySet()) {
+			s.append(count.getKey()+":\t"+count.getValue()+"\n");
+		}
+		s.append("Return value:\t"+returnValue+"\n");
+		s.append("Simulation speed:\t"+String.format("%.1f", getMips())+" MIPS ("+(nanos/1000000)+" ms)\n");
+		if (outcome == Outcome.LIMIT) {
+			s.append("Stopped:\tafter the instruction limit\n");
+		} else if (outcome == Outcome.FAULT) {
+			s.append("Stopped:\t"+message+"\n");
+		}
+		return s.toString();
+	}
+}
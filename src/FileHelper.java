@@ -6,28 +6,172 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class FileHelper { 
 	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/** The contents of every file read so far in this run, by absolute path */
+	private static final ConcurrentHashMap<Path, CachedFile> cache = new ConcurrentHashMap<Path, CachedFile>();
+	
+	/** Decoding state reused by every read on the same thread */
+	private static final ThreadLocal<CharsetDecoder> decoders = new ThreadLocal<CharsetDecoder>() {
+		protected CharsetDecoder initialValue() {
+			return UTF8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+	};
+	/** How many chars each thread's buffer holds: files bigger than that are decoded into one of their own */
+	private static final int BUFFER_CHARS = 8192;
+	private static final ThreadLocal<CharBuffer> charBuffers = new ThreadLocal<CharBuffer>() {
+		protected CharBuffer initialValue() {
+			return CharBuffer.allocate(BUFFER_CHARS);
+		}
+	};
+	
 	public static StringBuffer readFile(String path) {
-		StringBuffer sb = new StringBuffer();
-		
+		return new StringBuffer(readContents(path));
+	}
+	
+	/** Returns the contents of the file at path with any \r removed, or an empty string if it can't be read.
+	 * Contents are cached for the rest of the run, and read again only if the file's 
+	 * modification time or size changes.
+	 * 
+	 * @param path The path to a text file
+	 * @return The contents of the file
+	 */
+	public static String readContents(String path) {
+		return readContents(path, true);
+	}
+	
+	/** Same as readContents(path), but the cache can be skipped, 
+	 * eg. for a batch of files that will each only be read once.
+	 * 
+	 * @param path The path to a text file
+	 * @param useCache Whether to look in and add to the cache
+	 * @return The contents of the file
+	 */
+	public static String readContents(String path, boolean useCache) {
 		try {
-			byte[] encoded = Files.readAllBytes(Paths.get(path));
-			String temp = new String(encoded, "UTF-8");
+			Path p = Paths.get(path).toAbsolutePath();
+			BasicFileAttributes attributes = Files.readAttributes(p, BasicFileAttributes.class);
+			long modified = attributes.lastModifiedTime().toMillis(), size = attributes.size();
 			
-			// clean it up a bit for the loader
-			temp.replaceAll("\r", "");
-			sb.append(temp);
+			if (!useCache) {
+				return mapAndDecode(p, size);
+			}
+			CachedFile cached = cache.get(p);
+			if (cached != null && cached.modified == modified && cached.size == size) {
+				return cached.contents;
+			}
 			
+			String contents = mapAndDecode(p, size);
+			cache.put(p, new CachedFile(modified, size, contents));
+			return contents;
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		}
 		
-		return sb;
+		return "";
+	}
+	
+	/** Returns the contents of the file at path with any \r removed, without looking in or adding to the cache,
+	 * eg. for a long-lived process that shouldn't keep every file it's asked for
+	 * 
+	 * @param path The path to a text file
+	 * @return The contents of the file
+	 * @throws IOException if the file can't be read, so a missing file can be told from an empty one
+	 * @throws InvalidPathException if path can't be a path
+	 */
+	public static String readUncached(String path) throws IOException {
+		Path p = Paths.get(path).toAbsolutePath();
+		return mapAndDecode(p, Files.size(p));
+	}
+	
+	/** Forgets every file read so far, eg. between runs of a long-lived process
+	 * 
+	 */
+	public static void clearCache() {
+		cache.clear();
+	}
+	
+	/** Memory-maps the file and decodes it as UTF-8 into this thread's CharBuffer (or, for a bigger file,
+	 * one that isn't kept afterwards), dropping \r characters on the way.
+	 * ASCII (nearly all of our input) is copied straight from the mapped bytes in the same pass;
+	 * anything after the first non-ASCII byte goes through the decoder.
+	 * 
+	 */
+	private static String mapAndDecode(Path p, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("File too large to read: "+p);
+		} else if (size == 0) {
+			return "";
+		}
+		
+		FileChannel channel = FileChannel.open(p, StandardOpenOption.READ);
+		try {
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			// a UTF-8 file never decodes to more chars than it has bytes
+			CharBuffer chars = size <= BUFFER_CHARS ? charBuffers.get() : CharBuffer.allocate((int) size);
+			char[] out = chars.array();
+			int length = 0, i = 0, limit = (int) size;
+			
+			for (; i < limit; i++) {
+				byte b = bytes.get(i);
+				if (b < 0) {
+					break;
+				} else if (b != '\r') {
+					out[length++] = (char) b;
+				}
+			}
+			
+			if (i < limit) {
+				// hand the rest to the decoder, then drop any \r it produced
+				CharsetDecoder decoder = decoders.get();
+				decoder.reset();
+				bytes.position(i);
+				chars.clear();
+				chars.position(length);
+				decoder.decode(bytes, chars, true);
+				decoder.flush(chars);
+				int end = chars.position();
+				for (int j = length; j < end; j++) {
+					if (out[j] != '\r') {
+						out[length++] = out[j];
+					}
+				}
+			}
+			
+			return new String(out, 0, length);
+		} finally {
+			channel.close();
+		}
+	}
+	
+	private static class CachedFile {
+		final long modified, size;
+		final String contents;
+		
+		CachedFile(long modified, long size, String contents) {
+			this.modified = modified;
+			this.size = size;
+			this.contents = contents;
+		}
 	}
 	
 	public static Object readObjectFile(String path) {
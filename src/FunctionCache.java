@@ -0,0 +1,124 @@
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Remembers compiled function declarations by a hash of their text, so that recompiling a program
+ * after an edit only has to compile the functions that changed.
+ * 
+ * The key is the architecture plus a SHA-256 of the function's lines exactly as written
+ * (the translator is sensitive to whitespace, so nothing more than line endings is normalised).
+ * A function can also depend on the rest of the program when one of its if statements looks for
+ * an else, so each entry records those lookups and is only reused while they still find the same thing.
+ * 
+ * The least recently used functions are dropped once the cache holds more than maxBytes.
+ * 
+ */
+public class FunctionCache {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final ThreadLocal<MessageDigest> sha256 = new ThreadLocal<MessageDigest>() {
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException nsae) {
+				throw new IllegalStateException(nsae);
+			}
+		}
+	};
+	
+	private final long maxBytes;
+	private long bytes = 0, hits = 0, misses = 0, evictions = 0;
+	private final LinkedHashMap<String, CompiledFunction> functions = new LinkedHashMap<String, CompiledFunction>(256, 0.75f, true);
+	
+	/**
+	 * @param maxBytes Roughly how much memory the cached functions may take up
+	 */
+	public FunctionCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+	
+	/** Returns the key a function declaration is cached under
+	 * 
+	 * @param architecture The architecture the function is compiled for
+	 * @param lines The program split into lines
+	 * @param start The line the declaration starts on
+	 * @param end The line holding its closing bracket
+	 */
+	public static String key(ISA architecture, String[] lines, int start, int end) {
+		MessageDigest digest = sha256.get();
+		digest.reset();
+		for (int i=start; i<=end; i++) {
+			digest.update(lines[i].getBytes(UTF8));
+			digest.update((byte) 0);
+		}
+		byte[] hash = digest.digest();
+		
+		StringBuffer key = new StringBuffer(architecture.name().length() + 1 + 2*hash.length);
+		key.append(architecture.name()).append(':');
+		for (byte b : hash) {
+			key.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+		}
+		return key.toString();
+	}
+	
+	/** Returns the function cached under key if it can be used in the given program, or null
+	 * 
+	 * @param key See key()
+	 * @param program The program the function is being compiled in, as stored in CompilationContext.elses
+	 */
+	public synchronized CompiledFunction get(String key, ElseIndex program) {
+		CompiledFunction function = functions.get(key);
+		if (function == null || !function.isValidIn(program)) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return function;
+	}
+	
+	public synchronized void put(String key, CompiledFunction function) {
+		CompiledFunction old = functions.put(key, function);
+		if (old != null) {
+			bytes -= old.size();
+		}
+		bytes += function.size();
+		
+		// drop the least recently used functions until we fit again
+		Iterator<Map.Entry<String, CompiledFunction>> eldest = functions.entrySet().iterator();
+		while (bytes > maxBytes && eldest.hasNext()) {
+			CompiledFunction evicted = eldest.next().getValue();
+			if (evicted == function) {
+				break;
+			}
+			bytes -= evicted.size();
+			eldest.remove();
+			evictions++;
+		}
+	}
+	
+	public synchronized void clear() {
+		functions.clear();
+		bytes = 0;
+	}
+	
+	public synchronized int size() {
+		return functions.size();
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	public synchronized String toString() {
+		return "Function cache: " + functions.size() + " functions (" + (bytes / 1024) + " KB), "
+				+ hits + " hits, " + misses + " misses, " + evictions + " evicted";
+	}
+}
@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+/** Measures how long recompiling a program takes after editing some of its functions,
+ * with and without the function cache, for programs of different sizes.
+ * 
+ * Usage: java IncrementalBenchmark [REPEATS]
+ * 
+ * With the cache the time should follow the number of edited functions rather than the size of the program.
+ * 
+ */
+public class IncrementalBenchmark {
+	
+	private static final int[] FUNCTIONS = {100, 500, 2000};
+	private static final int[] EDITS = {1, 10, 100};
+	
+	public static void main(String[] args) throws StringNotFoundException {
+		int repeats = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		
+		// warm up the compilers before timing anything
+		for (int i = 0; i < 5; i++) {
+			compileAll(program(200, 0, i));
+		}
+		
+		System.out.println("functions\tedited\tfull ms\tincremental ms");
+		for (int functions : FUNCTIONS) {
+			Compiler.setFunctionCache(null);
+			long[] full = new long[repeats];
+			for (int r = 0; r < repeats; r++) {
+				full[r] = compileAll(program(functions, functions, r + 1));
+			}
+			
+			for (int edits : EDITS) {
+				if (edits > functions) {
+					continue;
+				}
+				Compiler.setFunctionCache(new FunctionCache(256L * 1024L * 1024L));
+				compileAll(program(functions, 0, 0));
+				long[] incremental = new long[repeats];
+				for (int r = 0; r < repeats; r++) {
+					// a different edit each time, so every edited function really is recompiled
+					incremental[r] = compileAll(program(functions, edits, r + 1));
+				}
+				System.out.println(functions + "\t\t" + edits + "\t" + median(full) / 1000 + "\t" + median(incremental) / 1000
+						+ "\t\t" + Compiler.getFunctionCache());
+			}
+		}
+		Compiler.setFunctionCache(null);
+	}
+	
+	/** Compiles the program for every architecture and returns how long it took in microseconds
+	 * 
+	 */
+	private static long compileAll(String program) throws StringNotFoundException {
+		long start = System.nanoTime();
+		for (ISA i : ISA.values()) {
+			Compiler.getCompiler(i).compileProgram(program, null);
+		}
+		return (System.nanoTime() - start) / 1000;
+	}
+	
+	/** Returns a program with the given number of functions (in the style of the sample inputs),
+	 * where the first edited functions have been changed by the given edit number
+	 * 
+	 */
+	private static String program(int functions, int edited, int edit) {
+		StringBuffer program = new StringBuffer();
+		for (int f = 0; f < functions; f++) {
+			int constant = f < edited ? 1000 * edit + f : f;
+			switch (f % 3) {
+			case 0:
+				program.append("int square" + f + "(int x) {\n\td = x * x + " + constant + ";\n\treturn d;\n}\n");
+				break;
+			case 1:
+				program.append("int clamp" + f + "(int x) {\n\tif (x < " + constant + ") \n\t\td = 1;\n\telse \n\t\td = 0;\n"
+						+ "\treturn d;\n}\n");
+				break;
+			default:
+				program.append("int count" + f + "(int x) {\n\ty = 0;\n\twhile (y < " + constant + ") y = y + x;\n"
+						+ "\treturn y;\n}\n");
+			}
+		}
+		program.append("a = square0(b);\n");
+		return program.toString();
+	}
+	
+	private static long median(long[] times) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/** Expands the simulator's file arguments into the files to compile, one at a time.
+ * An argument can be:
+ * 	a file				compiled as is
+ * 	a directory			every .txt file under it (see DIRECTORY_FILES), recursively, in name order
+ * 	a glob pattern		eg. "corpus/**.txt", every file under the pattern's directory that matches it
+ * 	@manifest			a text file with one of the above per line (blank lines and lines starting with # are skipped),
+ * 						relative to the manifest's directory
+ * 
+ * The files the simulator writes itself (its log, and its output and metrics reports) are left out of directories,
+ * so running it over a directory twice doesn't compile the first run's reports. A file named as an argument
+ * is always compiled.
+ * 
+ * Directories are only listed when the iterator reaches them, so walking a large corpus
+ * never holds more than one directory listing per level.
+ * 
+ */
+public class InputFiles implements Iterator<String> {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** The files a directory given without a pattern expands to, by name */
+	public static final String DIRECTORY_FILES = "*.txt";
+	/** The names of the files the simulator writes, see Simulator */
+	private static final PathMatcher OUTPUT = FileSystems.getDefault().getPathMatcher(
+			"glob:{SimulatorLogFile.log*,Simulator Output *,Simulator Metrics *}");
+	/** Keeps the files in a directory given without a pattern */
+	private static final PathMatcher IN_DIRECTORY = new PathMatcher() {
+		private final PathMatcher name = FileSystems.getDefault().getPathMatcher("glob:" + DIRECTORY_FILES);
+		
+		public boolean matches(Path path) {
+			Path file = path.getFileName();
+			return file != null && name.matches(file);
+		}
+	};
+	
+	/** What's left to expand, innermost first */
+	private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+	private String next;
+	
+	public InputFiles(List<String> args) {
+		ArrayList<Path> paths = new ArrayList<Path>(args.size());
+		for (String a : args) {
+			paths.add(Paths.get(a));
+		}
+		push(paths.iterator(), null);
+	}
+	
+	/** Returns every file the arguments expand to
+	 * 
+	 * @param args Files, directories, glob patterns, and @manifests
+	 * @return The files, in the order they should be compiled
+	 */
+	public static List<String> list(List<String> args) {
+		ArrayList<String> files = new ArrayList<String>();
+		for (InputFiles i = new InputFiles(args); i.hasNext();) {
+			files.add(i.next());
+		}
+		return files;
+	}
+	
+	/** Returns true if the argument is a glob pattern rather than a path
+	 * 
+	 */
+	protected static boolean isPattern(String arg) {
+		return arg.matches(".*[*?\\[{].*");
+	}
+	
+	public boolean hasNext() {
+		while (next == null && !pending.isEmpty()) {
+			Iterator<Path> i = pending.peek().paths;
+			PathMatcher matcher = pending.peek().matcher;
+			if (!i.hasNext()) {
+				pending.pop();
+				continue;
+			}
+			Path p = i.next();
+			String name = p.toString();
+			
+			if (matcher == null && name.startsWith("@")) {
+				Path manifest = Paths.get(name.substring(1));
+				push(readManifest(manifest).iterator(), null);
+			} else if (matcher == null && isPattern(name)) {
+				// walk the directory before the first wildcard and keep the files that match
+				Path base = Paths.get(name.replaceAll("[*?\\[{].*", "") + "x").getParent();
+				push(Collections.singletonList(base == null ? Paths.get(".") : base).iterator(),
+						FileSystems.getDefault().getPathMatcher("glob:" + name));
+			} else if (Files.isDirectory(p)) {
+				push(listDirectory(p).iterator(), matcher == null ? IN_DIRECTORY : matcher);
+			} else if (matcher == null || matcher.matches(p) || matcher.matches(p.normalize())) {
+				next = name;
+			}
+		}
+		return next != null;
+	}
+	
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		String n = next;
+		next = null;
+		return n;
+	}
+	
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	private void push(Iterator<Path> paths, PathMatcher matcher) {
+		pending.push(new Pending(paths, matcher));
+	}
+	
+	private static List<Path> listDirectory(Path dir) {
+		ArrayList<Path> entries = new ArrayList<Path>();
+		try {
+			DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+			try {
+				for (Path p : stream) {
+					Path file = p.getFileName();
+					if (file == null || !OUTPUT.matches(file)) {
+						entries.add(p);
+					}
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+		Collections.sort(entries);
+		return entries;
+	}
+	
+	private static List<Path> readManifest(Path manifest) {
+		ArrayList<Path> entries = new ArrayList<Path>();
+		Path dir = manifest.getParent();
+		try {
+			for (String line : Files.readAllLines(manifest, UTF8)) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String prefix = line.startsWith("@")? "@" : "";
+				line = line.substring(prefix.length());
+				if (dir != null && !Paths.get(line.replaceAll("[*?\\[{].*", "x")).isAbsolute()) {
+					line = dir.resolve(line).toString();
+				}
+				line = prefix + line;
+				entries.add(Paths.get(line));
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+		return entries;
+	}
+	
+	/** The paths left to look at in one directory, manifest, or argument list */
+	private static class Pending {
+		final Iterator<Path> paths;
+		/** The glob pattern these paths were found under, or null */
+		final PathMatcher matcher;
+		
+		Pending(Iterator<Path> paths, PathMatcher matcher) {
+			this.paths = paths;
+			this.matcher = matcher;
+		}
+	}
+}
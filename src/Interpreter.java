@@ -0,0 +1,876 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Runs the code a Compiler wrote, counting what the program actually does: how many instructions it executes
+ * and how often it goes to memory, where the compiler can only count the instructions it wrote.
+ * 
+ * The code is decoded once, when the interpreter is made: the main program, then (after the "...") the function
+ * declarations, each line into an Instruction whose operands are already worked out (see Operand). Those are then
+ * flattened into arrays of ints, with every label already resolved to the instruction it's on, and that's what runs:
+ * each architecture's dispatch() is one loop that switches on the opcodes and reads operands out of the arrays,
+ * without a call or an object per instruction, which the JIT compiles into tight code.
+ * 
+ * What an instruction reads and writes doesn't depend on the values it works on, so the loop doesn't count memory accesses
+ * as it goes: it only counts how many times each instruction is executed (hits), and the accesses, like the counts
+ * of the architecture's own, are worked out from those once the run stops. The instruction that faults isn't counted.
+ * Pairs of instructions the code often has one after the other (eg. a branch and the jump after it) are fused into
+ * superinstructions (see fuse()), which dispatch() runs in one go round its loop.
+ * 
+ * The interpreter is the first tier. Every so often (PROFILE_INTERVAL instructions) it looks at the hits of the instructions
+ * a block can start at (the ones jumps go to, and the ones after jumps), and has BlockTranslator translate the block of each
+ * that has been executed TRANSLATE_THRESHOLD times this run into JVM bytecode, as far as translate() can describe
+ * its instructions, following gotos and calls from one place in the code to the next. From then on, reaching
+ * the start of a block runs that instead, and a block that leaves off at the start of another goes straight on into it.
+ * A block hands back to the interpreter (deoptimizes) at an instruction it can't run, when the limit is near,
+ * and at an instruction that faults, which the interpreter then executes again to fault the way it always does.
+ * Blocks are kept from one run to the next. Memory isn't: a run takes memory that's all 0 (see Memory.take()),
+ * and gives it back when it stops.
+ * 
+ * Every variable the code names gets a word of memory of its own, from DATA_START on.
+ * A label can be written more than once (the compilers reuse names like Exit0), so a jump goes to the nearest
+ * one after it, or failing that the last one before it. A jump on a label of its own name (eg. "Exit0: beq a, b, Exit0"
+ * on MM4ADDRESS, where the branch names its label) goes on to the next one, as it does where a separate jump follows the branch.
+ * 
+ * A run starts at the main program or at a function, and stops when the main program runs off its end,
+ * the function returns, the program faults, or it has executed as many instructions as it's allowed.
+ * A call to a function the code doesn't declare (eg. sin) does nothing, and is counted.
+ * 
+ * Each architecture's interpreter decodes and executes its own operations. Interpreters keep the state
+ * of the program they run, so one can't be shared between threads.
+ * 
+ */
+public abstract class Interpreter {
+	
+	/** How many instructions a run may execute unless it's told otherwise, so a program that never stops still does */
+	public static final long DEFAULT_LIMIT = 100000000L;
+	/** How many times an instruction has to be executed in a run before the block it starts is translated into bytecode,
+	 * the simulator.translate system property if it is set, or 0 not to translate any */
+	public static final int TRANSLATE_THRESHOLD = Integer.getInteger("simulator.translate", 1000);
+	/** Whether dispatch() runs superinstructions (see fuse()), the simulator.fuse system property if it is set */
+	public static final boolean FUSE = Boolean.parseBoolean(System.getProperty("simulator.fuse", "true"));
+	/** How many instructions the interpreter executes between looking for blocks to translate */
+	protected static final int PROFILE_INTERVAL = 10000;
+	/** The architectures there's an interpreter for */
+	public static final EnumSet<ISA> ARCHITECTURES = EnumSet.allOf(ISA.class);
+	/** Where the program's variables are put in memory, one word each in the order the code first uses them */
+	protected static final int DATA_START = 1 << 16;
+	/** The return address a run starts with, so returning to it ends the run */
+	protected static final int HOST_ADDRESS = -1;
+	/** What execute() returns to end the run */
+	protected static final int STOP = -1;
+	/** The number of registers, on an architecture that has them */
+	protected static final int REGISTERS = 32;
+	/** The most operands an instruction has, and so how far apart each instruction's are in the operand arrays */
+	protected static final int SLOTS = 4;
+	/** The variables the architectures without registers pass arguments, return values, and return addresses in */
+	protected static final String ARGUMENT = "arg", RETURN_VALUE = "returnValue", RETURN_ADDRESS_PREFIX = "returnAddress",
+			RETURN_ADDRESS = RETURN_ADDRESS_PREFIX + "0";
+	
+	protected final ISA architecture;
+	/** The memory of the run going on, taken for it and given back once it stops (see Memory.take()) */
+	protected Memory memory;
+	/** The registers, which an architecture can add to (eg. registers that hold numbers), all set to 0 before a run */
+	protected int[] registers = new int[REGISTERS];
+	protected Instruction[] instructions;
+	/** The instructions flattened (see decode()): the opcode and number of operands of each, and for operand n
+	 * of instruction i, at i * SLOTS + n, its kind, value, and for a label the instruction it's on (see Operand) */
+	protected int[] opcodes, operandCounts, kinds, values, targets;
+	/** For each INDEXED operand, whose value is where it is in here: the kind and value of its offset, then of its base */
+	protected int[] indexed;
+	/** The text of each instruction, for saying which one faulted */
+	protected final String[] texts;
+	/** Where the main program ends and the function declarations start */
+	protected final int mainEnd;
+	/** How many times each instruction has been executed this run, which is all dispatch() counts */
+	protected long[] hits;
+	/** How many words of memory each instruction reads, and writes, every time it's executed, see countRead() and countWrite() */
+	protected int[] reads, writes;
+	/** Where dispatch() is in the code, and how many instructions it has executed */
+	protected int position;
+	protected long executed;
+	/** What dispatch() switches on for each instruction: its opcode, or the superinstruction it starts (see fuse()) */
+	protected int[] handlers;
+	/** The blocks translated into bytecode, by the instruction they start at, which dispatch() stops at
+	 * unless TRANSLATE_THRESHOLD is 0 */
+	protected TranslatedBlock[] blocks;
+	/** The instructions a block can start at that haven't been translated yet: the ones jumps go to, and the ones after jumps */
+	private boolean[] leaders;
+	
+	/** Where each label is written, in order */
+	private final Map<String, int[]> labels = new HashMap<String, int[]>();
+	private final Map<String, Integer> variables = new LinkedHashMap<String, Integer>();
+	
+	/** Splits the code up into instructions and finds its labels. The subclass's constructor then calls decode().
+	 * 
+	 * @param code Code as written by the architecture's compiler, with or without the counts after it
+	 */
+	protected Interpreter(ISA architecture, String code) {
+		this.architecture = architecture;
+		List<String> found = new ArrayList<String>();
+		Map<String, List<Integer>> labelled = new HashMap<String, List<Integer>>();
+		int end = -1;
+		for (String line : code.split("\n")) {
+			if (line.startsWith("Instruction count:")) {
+				// the counts the compiler adds at the end
+				break;
+			} else if (line.contentEquals("...")) {
+				end = found.size();
+				continue;
+			}
+			String label = ObjectUnit.label(line);
+			String instruction = (label == null ? line : line.substring(label.length() + 1)).trim();
+			if (label != null) {
+				// a label on a line of its own is on the next instruction
+				if (!labelled.containsKey(label)) {
+					labelled.put(label, new ArrayList<Integer>());
+				}
+				labelled.get(label).add(found.size());
+			}
+			if (!instruction.isEmpty()) {
+				found.add(instruction);
+			}
+		}
+		texts = found.toArray(new String[found.size()]);
+		mainEnd = end < 0 ? texts.length : end;
+		for (Map.Entry<String, List<Integer>> l : labelled.entrySet()) {
+			int[] at = new int[l.getValue().size()];
+			for (int i = 0; i < at.length; i++) {
+				at[i] = l.getValue().get(i);
+			}
+			labels.put(l.getKey(), at);
+		}
+	}
+	
+	/** Returns an interpreter for code written by the given architecture's compiler
+	 * 
+	 * @param code The code, as returned by Compiler.compile
+	 * @throws IllegalArgumentException if there's no interpreter for the architecture, or the code uses something it can't run
+	 */
+	public static Interpreter create(ISA architecture, String code) {
+		switch (architecture) {
+		case STACK:
+			return new StackInterpreter(code);
+		case ACCUMULATOR:
+			return new AccumulatorInterpreter(code);
+		case MM2ADDRESS:
+		case MM3ADDRESS:
+		case MM4ADDRESS:
+			return new MemoryMemoryInterpreter(architecture, code);
+		case LOADSTORE:
+			return new LoadStoreInterpreter(code);
+		default:
+			throw new IllegalArgumentException("There is no interpreter for " + architecture);
+		}
+	}
+	
+	/** Decodes every instruction, see decode(int, String, String[]), and flattens them into the arrays dispatch() runs
+	 * 
+	 * @throws IllegalArgumentException if an instruction can't be decoded
+	 */
+	protected final void decode() {
+		instructions = new Instruction[texts.length];
+		for (int i = 0; i < texts.length; i++) {
+			String text = texts[i];
+			int space = text.indexOf(' ');
+			String operation = space < 0 ? text : text.substring(0, space);
+			String[] operands = space < 0 ? new String[0] : text.substring(space + 1).split(",", -1);
+			for (int o = 0; o < operands.length; o++) {
+				operands[o] = operands[o].trim();
+			}
+			try {
+				instructions[i] = decode(i, operation, operands);
+			} catch (IllegalArgumentException iae) {
+				throw new IllegalArgumentException(iae.getMessage() + " in instruction " + i + " (" + text + ")", iae);
+			}
+		}
+		
+		opcodes = new int[texts.length];
+		operandCounts = new int[texts.length];
+		hits = new long[texts.length];
+		reads = new int[texts.length];
+		writes = new int[texts.length];
+		kinds = new int[texts.length * SLOTS];
+		values = new int[texts.length * SLOTS];
+		targets = new int[texts.length * SLOTS];
+		List<Operand> indexedOperands = new ArrayList<Operand>();
+		for (int i = 0; i < texts.length; i++) {
+			Operand[] operands = instructions[i].operands;
+			if (operands.length > SLOTS) {
+				throw new IllegalArgumentException("More than " + SLOTS + " operands in instruction " + i + " (" + texts[i] + ")");
+			}
+			opcodes[i] = instructions[i].opcode;
+			operandCounts[i] = operands.length;
+			for (int o = 0; o < operands.length; o++) {
+				int slot = i * SLOTS + o;
+				kinds[slot] = operands[o].kind;
+				values[slot] = operands[o].value;
+				targets[slot] = operands[o].target;
+				if (operands[o].kind == Operand.INDEXED) {
+					values[slot] = indexedOperands.size() * 4;
+					indexedOperands.add(operands[o]);
+				}
+			}
+		}
+		blocks = new TranslatedBlock[texts.length];
+		leaders = new boolean[texts.length];
+		for (int slot = 0; slot < kinds.length; slot++) {
+			int i = slot / SLOTS;
+			if (kinds[slot] == Operand.LABEL && targets[slot] >= 0 && targets[slot] < texts.length && targets[slot] != i + 1) {
+				leaders[targets[slot]] = true;
+				if (i + 1 < texts.length) {
+					leaders[i + 1] = true;
+				}
+			}
+		}
+		indexed = new int[indexedOperands.size() * 4];
+		for (int i = 0; i < indexedOperands.size(); i++) {
+			Operand o = indexedOperands.get(i);
+			indexed[4 * i] = o.offset.kind;
+			indexed[4 * i + 1] = o.offset.value;
+			indexed[4 * i + 2] = o.base.kind;
+			indexed[4 * i + 3] = o.base.value;
+		}
+	}
+	
+	/** Decodes one instruction
+	 * 
+	 * @param index Where the instruction is
+	 * @param operation Its operation, eg. "add"
+	 * @param operands Its operands, eg. {"$s0", "$a0", "1"}
+	 * @throws IllegalArgumentException if the operation isn't one the architecture has, or the operands aren't right for it
+	 */
+	protected abstract Instruction decode(int index, String operation, String[] operands);
+	
+	/** Executes instructions from position on until the run stops: at STOP, off the end of the code, when the main
+	 * program runs off its end (into the function declarations), or when executed reaches the limit.
+	 * It also stops at the start of a translated block (see blocks), other than the one it starts at.
+	 * position and executed are kept up to date, so they say where it stopped even if it faults,
+	 * and every instruction executed adds 1 to its hits.
+	 * 
+	 * @param limit The most instructions to have executed
+	 * @throws ExecutionFault if an instruction can't be executed, at position
+	 */
+	protected abstract void dispatch(long limit) throws ExecutionFault;
+	
+	/** Fuses pairs of instructions into superinstructions, so dispatch() can run both in one go round its loop,
+	 * unless FUSE is false. Each pattern is a superinstruction and the opcodes of the two instructions it runs:
+	 * from the first instruction on, a pair is fused into the first pattern it matches, as long as nothing jumps
+	 * to the second instruction, it isn't past the end of the main program, and fusible() says so.
+	 * Every subclass calls this once it has decoded the code.
+	 * 
+	 * A superinstruction works on the operands of both instructions, and executes them one after the other
+	 * the way they would be on their own, so the second one's hits, and where a fault in it stops the run, are the same.
+	 * dispatch() only runs one when the limit leaves room for both instructions, and otherwise runs the first one's opcode.
+	 * Fusing can leave an opcode's own case seldom run, and the JIT doesn't inline a call it seldom sees, which slows
+	 * the whole loop, so what the cases call (read(), write(), and Memory's) is kept small enough to inline anyway.
+	 * 
+	 * @param patterns {superinstruction, first opcode, second opcode} for each pair, in order of preference
+	 */
+	protected final void fuse(int[][] patterns) {
+		handlers = opcodes.clone();
+		if (!FUSE) {
+			return;
+		}
+		for (int pc = 0; pc + 1 < opcodes.length; pc++) {
+			if (pc + 1 == mainEnd || leaders[pc + 1]) {
+				continue;
+			}
+			for (int[] pattern : patterns) {
+				if (opcodes[pc] == pattern[1] && opcodes[pc + 1] == pattern[2] && fusible(pattern[0], pc)) {
+					handlers[pc] = pattern[0];
+					// the second instruction is part of it
+					pc++;
+					break;
+				}
+			}
+		}
+	}
+	
+	/** Returns whether the instruction at pc and the one after it can be run as the given superinstruction,
+	 * when their opcodes match it. By default they can.
+	 * 
+	 */
+	protected boolean fusible(int superinstruction, int pc) {
+		return true;
+	}
+	
+	/** Returns how many times dispatch() went round its loop in the last run: the instructions executed, less the ones
+	 * executed as the second of a fused pair. It's only exact with TRANSLATE_THRESHOLD 0, as translated blocks
+	 * don't go round the loop at all.
+	 * 
+	 */
+	protected final long dispatches() {
+		long fused = 0;
+		for (int i = 0; i + 1 < handlers.length; i++) {
+			if (handlers[i] != opcodes[i]) {
+				fused += hits[i + 1];
+			}
+		}
+		return executed - fused;
+	}
+	
+	/** Describes the instruction at pc to a BlockTranslator, so it can be translated into bytecode that does the same,
+	 * or returns false if it can't be, which leaves it to dispatch(). Nothing can be translated by default.
+	 * 
+	 * @param pc The instruction
+	 * @param translator The translator of the block the instruction is in, which begin() has been called on for it
+	 */
+	protected boolean translate(int pc, BlockTranslator translator) {
+		return false;
+	}
+	
+	/** Sets up the registers or memory for a run, in memory that's all 0
+	 * 
+	 * @param arguments The arguments the function being run is called with
+	 */
+	protected abstract void start(int[] arguments);
+	
+	/** Returns what the program left as its return value
+	 * 
+	 */
+	protected abstract int returnValue();
+	
+	/** Adds the counts of the architecture's own for the last run, by what they count, which are worked out from hits
+	 * 
+	 */
+	protected void addCounts(Map<String, Long> counts) {
+		// none by default
+	}
+	
+	/** Runs the main program
+	 * 
+	 * @param limit The most instructions to execute
+	 */
+	public ExecutionResult run(long limit) {
+		return run(null, new int[0], limit);
+	}
+	
+	/** Runs the main program, or a function as if it were called from outside the program
+	 * 
+	 * @param entry The name of the function to run, or null for the main program
+	 * @param arguments The arguments to call the function with
+	 * @param limit The most instructions to execute
+	 * @throws IllegalArgumentException if the code has no function called entry
+	 */
+	public ExecutionResult run(String entry, int[] arguments, long limit) {
+		int pc = 0;
+		if (entry != null) {
+			int[] at = labels.get(entry);
+			if (at == null) {
+				throw new IllegalArgumentException("There is no function called " + entry);
+			}
+			pc = at[0];
+		}
+		memory = Memory.take();
+		try {
+			Arrays.fill(registers, 0);
+			Arrays.fill(hits, 0);
+			start(arguments);
+			
+			ExecutionResult.Outcome outcome = ExecutionResult.Outcome.FINISHED;
+			String message = null;
+			int returned = 0;
+			position = pc;
+			executed = 0;
+			long start = System.nanoTime();
+			try {
+				execute(limit);
+				if (position != STOP && position < opcodes.length) {
+					outcome = ExecutionResult.Outcome.LIMIT;
+				}
+				returned = returnValue();
+			} catch (ExecutionFault ef) {
+				outcome = ExecutionResult.Outcome.FAULT;
+				message = ef.getMessage() + " in instruction " + position + " (" + texts[position] + ")";
+			}
+			long nanos = System.nanoTime() - start;
+			
+			long memoryReads = 0, memoryWrites = 0;
+			for (int i = 0; i < hits.length; i++) {
+				memoryReads += hits[i] * reads[i];
+				memoryWrites += hits[i] * writes[i];
+			}
+			Map<String, Long> counts = new LinkedHashMap<String, Long>();
+			addCounts(counts);
+			return new ExecutionResult(outcome, message, returned, executed, memoryReads, memoryWrites, nanos, counts);
+		} finally {
+			memory.giveBack();
+			memory = null;
+		}
+	}
+	
+	/** Executes the run, in dispatch() and the blocks translated so far, translating more as they get hot
+	 * 
+	 */
+	private void execute(long limit) throws ExecutionFault {
+		if (TRANSLATE_THRESHOLD <= 0) {
+			dispatch(limit);
+			return;
+		}
+		long profiled = executed + PROFILE_INTERVAL;
+		while (position != STOP && position < opcodes.length && executed < limit) {
+			TranslatedBlock block = blocks[position];
+			if (block != null && limit - executed >= block.length) {
+				int next = block.run(memory, registers, hits, (int) Math.min(limit - executed, Integer.MAX_VALUE));
+				executed += block.executed;
+				if (block.executed > 0) {
+					position = next;
+					continue;
+				}
+				// its first instruction faults, which the interpreter executes to say how
+			}
+			dispatch(Math.min(limit, profiled));
+			if (executed >= profiled) {
+				for (int i = 0; i < leaders.length; i++) {
+					if (leaders[i] && hits[i] >= TRANSLATE_THRESHOLD) {
+						leaders[i] = false;
+						blocks[i] = translate(i);
+					}
+				}
+				profiled = executed + PROFILE_INTERVAL;
+			}
+		}
+	}
+	
+	/** Returns the block starting at the given instruction, translated as far as translate() can describe it,
+	 * or null if it can't describe the first instruction
+	 * 
+	 */
+	private TranslatedBlock translate(int entry) {
+		BlockTranslator translator = new BlockTranslator(entry, mainEnd, hits);
+		for (int pc = entry; pc < opcodes.length && translator.continues(); pc = translator.next()) {
+			translator.begin(pc);
+			if (!translate(pc, translator)) {
+				translator.rollBack();
+				break;
+			}
+			translator.end();
+		}
+		return translator.finish();
+	}
+	
+	/** Sets up a run for the architectures that keep everything in memory: the arguments go in arg0, arg1, etc.
+	 * and the return address in returnAddress0, which is where the compilers have a function look for them
+	 * 
+	 */
+	protected final void startInMemory(int[] arguments) {
+		for (int i = 0; i < arguments.length; i++) {
+			set(ARGUMENT + i, arguments[i]);
+		}
+		set(RETURN_ADDRESS, HOST_ADDRESS);
+	}
+	
+	/** Returns the value of a variable, without counting it as a memory access
+	 * 
+	 */
+	protected final int get(String name) {
+		try {
+			return memory.read(variable(name));
+		} catch (ExecutionFault ef) {
+			// every variable has an address in memory
+			throw new IllegalStateException(ef);
+		}
+	}
+	
+	/** Changes the value of a variable, without counting it as a memory access
+	 * 
+	 */
+	protected final void set(String name, int value) {
+		try {
+			memory.write(variable(name), value);
+		} catch (ExecutionFault ef) {
+			throw new IllegalStateException(ef);
+		}
+	}
+	
+	/** Returns where dispatch() goes after the instruction at pc, when it would go on to next:
+	 * STOP if that's the main program running off its end, into the function declarations, otherwise next
+	 * 
+	 */
+	protected final int after(int pc, int next) {
+		return next == mainEnd && pc == mainEnd - 1 ? STOP : next;
+	}
+	
+	/** Returns the value of an operand. A variable, the usual kind in memory, is read here, and the others in readOther(),
+	 * which keeps this small enough for the JIT to inline even where it's seldom called.
+	 * 
+	 * @param slot Where the operand is in the operand arrays
+	 */
+	protected final int read(int slot) throws ExecutionFault {
+		return kinds[slot] == Operand.VARIABLE ? memory.read(values[slot]) : readOther(slot);
+	}
+	
+	private int readOther(int slot) throws ExecutionFault {
+		int value = values[slot];
+		switch (kinds[slot]) {
+		case Operand.REGISTER:
+			return registers[value];
+		case Operand.INDEXED:
+			return memory.read(address(value));
+		default:
+			return value;
+		}
+	}
+	
+	/** Changes the value of an operand. Register 0 is always 0, so writing to it does nothing.
+	 * As in read(), a variable is written here and the others in writeOther().
+	 * 
+	 * @param slot Where the operand is in the operand arrays
+	 * @throws ExecutionFault if the operand is a number or a label
+	 */
+	protected final void write(int slot, int value) throws ExecutionFault {
+		if (kinds[slot] == Operand.VARIABLE) {
+			memory.write(values[slot], value);
+		} else {
+			writeOther(slot, value);
+		}
+	}
+	
+	private void writeOther(int slot, int value) throws ExecutionFault {
+		int to = values[slot];
+		switch (kinds[slot]) {
+		case Operand.REGISTER:
+			if (to != 0) {
+				registers[to] = value;
+			}
+			break;
+		case Operand.INDEXED:
+			memory.write(address(to), value);
+			break;
+		default:
+			throw new ExecutionFault("Can't change " + operand(slot).name);
+		}
+	}
+	
+	/** Returns the address of an INDEXED operand, the sum of its offset and base
+	 * 
+	 * @param at Where the operand's offset and base are in indexed
+	 */
+	private int address(int at) throws ExecutionFault {
+		return part(indexed[at], indexed[at + 1]) + part(indexed[at + 2], indexed[at + 3]);
+	}
+	
+	private int part(int kind, int value) throws ExecutionFault {
+		switch (kind) {
+		case Operand.REGISTER:
+			return registers[value];
+		case Operand.VARIABLE:
+			return memory.read(value);
+		default:
+			return value;
+		}
+	}
+	
+	/** Describes reading an operand to a BlockTranslator, the way read() does it, which pushes its value
+	 * 
+	 * @param slot Where the operand is in the operand arrays
+	 */
+	protected final void translateRead(int slot, BlockTranslator translator) {
+		int value = values[slot];
+		switch (kinds[slot]) {
+		case Operand.REGISTER:
+			translator.register(value);
+			break;
+		case Operand.VARIABLE:
+			translator.word(value);
+			break;
+		case Operand.INDEXED:
+			translateAddress(value, translator);
+			translator.wordAt();
+			break;
+		default:
+			translator.number(value);
+		}
+	}
+	
+	/** Describes writing an operand to a BlockTranslator, the way write() does it, which pops the value written,
+	 * or returns false if it's a number or a label, which write() faults on
+	 * 
+	 * @param slot Where the operand is in the operand arrays
+	 */
+	protected final boolean translateWrite(int slot, BlockTranslator translator) {
+		int to = values[slot];
+		switch (kinds[slot]) {
+		case Operand.REGISTER:
+			if (to == 0) {
+				translator.discard();
+			} else {
+				translator.toRegister(to);
+			}
+			return true;
+		case Operand.VARIABLE:
+			translator.toWord(to);
+			return true;
+		case Operand.INDEXED:
+			// the value's worked out before the address, as in write()
+			translateAddress(to, translator);
+			translator.swap();
+			translator.toWordAt();
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	private void translateAddress(int at, BlockTranslator translator) {
+		for (int part = at; part <= at + 2; part += 2) {
+			if (indexed[part] == Operand.REGISTER) {
+				translator.register(indexed[part + 1]);
+			} else if (indexed[part] == Operand.VARIABLE) {
+				translator.word(indexed[part + 1]);
+			} else {
+				translator.number(indexed[part + 1]);
+			}
+		}
+		translator.add();
+	}
+	
+	/** Adds the words of memory reading an operand takes to what its instruction reads: one for a variable,
+	 * and for a word found by adding two operands, that word and any of the two in memory
+	 * 
+	 * @param slot Where the operand is in the operand arrays
+	 */
+	protected final void countRead(int slot) {
+		int i = slot / SLOTS;
+		if (kinds[slot] == Operand.VARIABLE) {
+			reads[i]++;
+		} else if (kinds[slot] == Operand.INDEXED) {
+			reads[i] += 1 + addressReads(values[slot]);
+		}
+	}
+	
+	/** Adds the words of memory writing an operand takes to what its instruction reads and writes:
+	 * one written for a variable or a word found by adding two operands, and any of the two in memory read
+	 * 
+	 * @param slot Where the operand is in the operand arrays
+	 */
+	protected final void countWrite(int slot) {
+		int i = slot / SLOTS;
+		if (kinds[slot] == Operand.VARIABLE) {
+			writes[i]++;
+		} else if (kinds[slot] == Operand.INDEXED) {
+			writes[i]++;
+			reads[i] += addressReads(values[slot]);
+		}
+	}
+	
+	private int addressReads(int at) {
+		return (indexed[at] == Operand.VARIABLE ? 1 : 0) + (indexed[at + 2] == Operand.VARIABLE ? 1 : 0);
+	}
+	
+	/** Returns the total hits of the instructions with the given opcode
+	 * 
+	 */
+	protected final long hits(int opcode) {
+		long total = 0;
+		for (int i = 0; i < hits.length; i++) {
+			if (opcodes[i] == opcode) {
+				total += hits[i];
+			}
+		}
+		return total;
+	}
+	
+	/** Returns where a jump to the operand goes: to its label, or if it isn't one, to the address it holds
+	 * 
+	 * @param slot Where the operand is in the operand arrays
+	 */
+	protected final int jump(int slot) throws ExecutionFault {
+		if (kinds[slot] != Operand.LABEL) {
+			return indexOf(read(slot));
+		} else if (targets[slot] < 0) {
+			throw new ExecutionFault("There is no label " + operand(slot).name);
+		}
+		return targets[slot];
+	}
+	
+	/** Returns the operand as it was decoded, for saying what went wrong with it
+	 * 
+	 */
+	private Operand operand(int slot) {
+		return instructions[slot / SLOTS].operands[slot % SLOTS];
+	}
+	
+	/** Returns the instruction at a code address, or STOP for HOST_ADDRESS
+	 * 
+	 * @throws ExecutionFault if there's no instruction at the address
+	 */
+	protected int indexOf(int address) throws ExecutionFault {
+		if (address == HOST_ADDRESS) {
+			return STOP;
+		} else if (address < 0 || address >= instructions.length) {
+			throw new ExecutionFault("Jump to address " + address + ", where there is no instruction");
+		}
+		return address;
+	}
+	
+	/** Returns the code address of an instruction, which a jump to it uses
+	 * 
+	 */
+	protected int addressOf(int index) {
+		return index;
+	}
+	
+	/** Returns whether a label is written anywhere in the code. The compilers without registers also write
+	 * labels called returnAddress1, returnAddress2, etc. where calls return to, but used as an operand
+	 * that name is always the variable holding a return address, so those don't count.
+	 * 
+	 */
+	protected boolean isLabel(String name) {
+		return labels.containsKey(name) && !name.startsWith(RETURN_ADDRESS_PREFIX);
+	}
+	
+	/** Returns where a jump from the given instruction to a label goes (see the class comment), or -1 if there's no such label
+	 * 
+	 */
+	protected int resolve(String label, int from) {
+		int[] at = labels.get(label);
+		if (at == null) {
+			return -1;
+		}
+		for (int i : at) {
+			if (i > from) {
+				return i;
+			}
+		}
+		return at[at.length - 1];
+	}
+	
+	/** Returns the address of a variable, giving it one if it hasn't got one yet
+	 * 
+	 */
+	protected int variable(String name) {
+		Integer address = variables.get(name);
+		if (address == null) {
+			address = DATA_START + variables.size();
+			variables.put(name, address);
+		}
+		return address;
+	}
+	
+	/** Returns which of the operations an operation is
+	 * 
+	 * @throws IllegalArgumentException if it isn't one of them
+	 */
+	protected static int opcode(String[] operations, String operation) {
+		for (int i = 0; i < operations.length; i++) {
+			if (operations[i].contentEquals(operation)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown operation " + operation);
+	}
+	
+	/** Checks an instruction has as many operands as its operation takes
+	 * 
+	 * @throws IllegalArgumentException if it has too few or too many
+	 */
+	protected static void expect(String[] operands, int least, int most) {
+		if (operands.length < least || operands.length > most) {
+			throw new IllegalArgumentException("Expected " + (least == most ? "" + least : least + " to " + most)
+					+ " operands, not " + operands.length);
+		}
+	}
+	
+	/** Returns whether an operand is written as a number, eg. "12" or "-3"
+	 * 
+	 */
+	protected static boolean isNumber(String text) {
+		return text.matches("[-+]?\\d*\\.?\\d+");
+	}
+	
+	/** Returns the value of a number as the machine holds it, a whole word
+	 * 
+	 */
+	protected static int toNumber(String text) {
+		try {
+			return Integer.parseInt(text.startsWith("+") ? text.substring(1) : text);
+		} catch (NumberFormatException nfe) {
+			// too long, or not whole
+			return (int) Double.parseDouble(text);
+		}
+	}
+	
+	/** Returns the operand for a number, a variable, or nothing (which is 0)
+	 * 
+	 */
+	protected Operand data(String text) {
+		if (text.isEmpty()) {
+			return new Operand(Operand.IMMEDIATE, 0, text);
+		} else if (isNumber(text)) {
+			return new Operand(Operand.IMMEDIATE, toNumber(text), text);
+		}
+		return new Operand(Operand.VARIABLE, variable(text), text);
+	}
+	
+	/** Returns the operand for a label the instruction at the given place jumps to.
+	 * A label that isn't in the code is kept, and only faults if the jump is executed.
+	 * 
+	 */
+	protected Operand label(String name, int from) {
+		int target = resolve(name, from);
+		return new Operand(Operand.LABEL, target < 0 ? -1 : addressOf(target), target, name);
+	}
+	
+	/** One instruction, decoded
+	 * 
+	 */
+	protected static class Instruction {
+		/** Which of the architecture's operations it is */
+		final int opcode;
+		final Operand[] operands;
+		
+		Instruction(int opcode, Operand... operands) {
+			this.opcode = opcode;
+			this.operands = operands;
+		}
+	}
+	
+	/** An operand, decoded: a number, a register, a variable in memory, a word in memory found by adding
+	 * two other operands (eg. "4($sp)"), or a label
+	 * 
+	 */
+	protected static class Operand {
+		static final int IMMEDIATE = 0, REGISTER = 1, VARIABLE = 2, INDEXED = 3, LABEL = 4;
+		
+		final int kind;
+		/** The number, the register, the variable's address, or the label's code address */
+		final int value;
+		/** For a label, the instruction it's on, or -1 if it isn't in the code */
+		final int target;
+		/** For a word found by adding two operands, the two operands */
+		final Operand offset, base;
+		/** How the operand was written */
+		final String name;
+		
+		Operand(int kind, int value, String name) {
+			this(kind, value, -1, name);
+		}
+		
+		Operand(int kind, int value, int target, String name) {
+			this.kind = kind;
+			this.value = value;
+			this.target = target;
+			this.offset = null;
+			this.base = null;
+			this.name = name;
+		}
+		
+		/** A word in memory, at the sum of the two operands
+		 * 
+		 */
+		Operand(Operand offset, Operand base, String name) {
+			this.kind = INDEXED;
+			this.value = 0;
+			this.target = -1;
+			this.offset = offset;
+			this.base = base;
+			this.name = name;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Measures how many simulated instructions per second each architecture's Interpreter executes.
+ * 
+ * Usage: java InterpreterBenchmark [INSTRUCTIONS [REPEATS [FILES]]]
+ * 
+ * Each architecture runs the main program of every file (or by default, a loop in the style of the sample inputs)
+ * over and over until it has executed at least INSTRUCTIONS instructions (50 million by default), REPEATS times (5 by default).
+ * A run that faults (eg. StackCompiler's code fills the stack after a few thousand times round the loop) just ends early,
+ * and the next one starts. The code is compiled and decoded, and the interpreter warmed up, before the timing starts,
+ * so what's measured is the interpreter alone, including taking memory for every run and clearing what it wrote.
+ * It prints the median of the repeats.
+ * 
+ * Every architecture is measured in a JVM of its own (started with -Dbenchmark.isa=ISA and the same arguments),
+ * so what the JIT learns running one doesn't slow down the next, as it would in -run -isa ALL.
+ * The simulator's system properties (eg. -Dsimulator.translate=0, or -Dsimulator.fuse=false to run without superinstructions)
+ * are passed on to them. With translation off, the dispatches column is how many times the interpreter went round
+ * its dispatch loop, which superinstructions make fewer than the instructions.
+ * 
+ */
+public class InterpreterBenchmark {
+	
+	/** A loop every compiler turns into one that runs a million times, adding, multiplying, comparing, and branching */
+	private static final String PROGRAM = "a = 0;\ni = 0;\n"
+			+ "Top: b = i * 3;\na = a + b;\nc = a - i;\ni = i + 1;\n"
+			+ "if (i < 1000000) goto Top;\n";
+	
+	/** How many times the last measurement ran a program, and went round the interpreters' dispatch loops */
+	private static int runs;
+	private static long dispatches;
+	
+	public static void main(String[] args) throws IOException, InterruptedException, StringNotFoundException {
+		String isa = System.getProperty("benchmark.isa");
+		if (isa != null) {
+			measure(ISA.valueOf(isa), args);
+			return;
+		}
+		
+		System.out.println("architecture\tinstructions\tdispatches\truns\tms\tMIPS");
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		for (ISA architecture : Interpreter.ARCHITECTURES) {
+			List<String> command = new ArrayList<String>(Arrays.asList(java, "-cp", System.getProperty("java.class.path"),
+					"-Dbenchmark.isa=" + architecture));
+			for (String property : System.getProperties().stringPropertyNames()) {
+				// eg. simulator.translate
+				if (property.startsWith("simulator.")) {
+					command.add("-D" + property + "=" + System.getProperty(property));
+				}
+			}
+			command.add(InterpreterBenchmark.class.getName());
+			command.addAll(Arrays.asList(args));
+			int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+			if (exit != 0) {
+				System.out.println(architecture + "\tfailed (" + exit + ")");
+			}
+		}
+	}
+	
+	/** Measures one architecture, and prints a line for it
+	 * 
+	 */
+	private static void measure(ISA architecture, String[] args) throws IOException, StringNotFoundException {
+		long instructions = args.length > 0 ? Long.parseLong(args[0]) : 50000000L;
+		int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		List<String> sources = new ArrayList<String>();
+		for (int f = 2; f < args.length; f++) {
+			sources.add(FileHelper.readContents(args[f]));
+		}
+		if (sources.isEmpty()) {
+			sources.add(PROGRAM);
+		}
+		
+		Interpreter[] programs = new Interpreter[sources.size()];
+		for (int p = 0; p < programs.length; p++) {
+			programs[p] = Interpreter.create(architecture, Compiler.getCompiler(architecture).compileProgram(sources.get(p), null).getCode());
+		}
+		// warm up, so the JIT has compiled the interpreter before anything is timed
+		run(programs, instructions);
+		
+		double[] mips = new double[repeats];
+		long[] executed = new long[repeats], dispatched = new long[repeats], times = new long[repeats];
+		int[] ran = new int[repeats];
+		for (int r = 0; r < repeats; r++) {
+			long start = System.nanoTime();
+			executed[r] = run(programs, instructions);
+			times[r] = System.nanoTime() - start;
+			ran[r] = runs;
+			dispatched[r] = dispatches;
+			mips[r] = executed[r] * 1000.0 / times[r];
+		}
+		double[] sorted = mips.clone();
+		Arrays.sort(sorted);
+		double median = sorted[repeats / 2];
+		int r = 0;
+		while (mips[r] != median) {
+			r++;
+		}
+		System.out.println(architecture + "\t" + (architecture.name().length() < 8 ? "\t" : "")
+				+ executed[r] + "\t" + dispatched[r] + "\t" + ran[r] + "\t" + times[r] / 1000000 + "\t" + String.format("%.1f", median));
+	}
+	
+	/** Runs the programs one after the other until they've executed at least the given number of instructions,
+	 * and returns how many they executed. Counts the runs in runs, and the times round the dispatch loops in dispatches.
+	 * 
+	 */
+	private static long run(Interpreter[] programs, long instructions) {
+		long executed = 0;
+		runs = 0;
+		dispatches = 0;
+		while (executed < instructions) {
+			for (Interpreter program : programs) {
+				executed += program.run(null, new int[0], instructions - executed).getInstructions();
+				dispatches += program.dispatches();
+				runs++;
+			}
+		}
+		return executed;
+	}
+}
@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Puts object units (see Compiler.compileUnit) for one architecture together into a single program.
+ * 
+ * The units are linked in the order they were added: their main programs one after the other, then "...",
+ * then the function declarations. Each function is taken from the first unit that defines it, and the
+ * other units' definitions of it are left out (along with the code compiling them left in their main programs),
+ * so a call in one file can use a function declared in another.
+ * A call to a function that no unit defines is left as it is, and logged (see getUndefined()).
+ * A label of a unit's own that an earlier unit (or a function) already uses is renamed everywhere in that unit.
+ * Finally the whole program is laid out at once, so MM4ADDRESS's next-instruction addresses are those of the final image.
+ * 
+ * Linking a single unit gives the same code and counts as compiling its file with Compiler.compileProgram.
+ * 
+ */
+public class Linker {
+	
+	private static final Logger logger = Logger.getLogger(Linker.class.getName());
+	private static final List<ObjectUnit.Section> NONE = Collections.emptyList();
+	
+	private final ISA architecture;
+	private final List<ObjectUnit> units = new ArrayList<ObjectUnit>();
+	private final Set<String> undefined = new LinkedHashSet<String>();
+	private int duplicates = 0;
+	
+	/**
+	 * @param architecture The architecture of the units that will be linked
+	 */
+	public Linker(ISA architecture) {
+		this.architecture = architecture;
+	}
+	
+	/** Adds a unit to the end of the program
+	 * 
+	 * @throws IllegalArgumentException if the unit was compiled for another architecture
+	 */
+	public void add(ObjectUnit unit) {
+		if (unit.architecture != architecture) {
+			throw new IllegalArgumentException(unit.file + " was compiled for " + unit.architecture + ", not " + architecture);
+		}
+		units.add(unit);
+	}
+	
+	/** Returns how many function declarations the last link() left out because an earlier unit defined them
+	 * 
+	 */
+	public int getDuplicates() {
+		return duplicates;
+	}
+	
+	/** Returns the functions the last link() found called but not defined in any unit
+	 * 
+	 */
+	public Set<String> getUndefined() {
+		return Collections.unmodifiableSet(undefined);
+	}
+	
+	/** Links the units added so far into one program
+	 * 
+	 * @return The program, in the same form as Compiler.compileProgram returns
+	 */
+	public CompilationResult link() {
+		// which unit each function comes from
+		Map<String, Integer> definedBy = new LinkedHashMap<String, Integer>();
+		Map<String, ObjectUnit.Section> firstDefinition = new HashMap<String, ObjectUnit.Section>();
+		for (int u = 0; u < units.size(); u++) {
+			for (ObjectUnit.Section s : units.get(u).sections) {
+				if (s.name != null && !definedBy.containsKey(s.name)) {
+					definedBy.put(s.name, u);
+					firstDefinition.put(s.name, s);
+				}
+			}
+		}
+		undefined.clear();
+		for (ObjectUnit unit : units) {
+			for (String external : unit.externals) {
+				if (!definedBy.containsKey(external) && undefined.add(external)) {
+					logger.warning("Undefined function " + external + " called in " + unit.file + " (" + architecture + ")");
+				}
+			}
+		}
+		
+		CompilationContext image = CompilationContext.acquire();
+		try {
+			StringBuffer functions = new StringBuffer();
+			Set<String> taken = new HashSet<String>(definedBy.keySet());
+			duplicates = 0;
+			for (int u = 0; u < units.size(); u++) {
+				ObjectUnit unit = units.get(u);
+				Map<String, String> renamed = new HashMap<String, String>();
+				for (String label : unit.labels) {
+					String name = label;
+					for (int n = u + 1; taken.contains(name); n++) {
+						name = label + "_" + n;
+					}
+					taken.add(name);
+					if (!name.equals(label)) {
+						renamed.put(label, name);
+					}
+				}
+				
+				// the duplicate declarations, whose code in the main program is left out with them
+				List<ObjectUnit.Section> leftOut = new ArrayList<ObjectUnit.Section>();
+				for (int i = 1; i < unit.sections.length; i++) {
+					if (definedBy.get(unit.sections[i].name) != u) {
+						leftOut.add(unit.sections[i]);
+					}
+				}
+				
+				for (int i = 0; i < unit.sections.length; i++) {
+					ObjectUnit.Section s = unit.sections[i];
+					if (s.name != null && definedBy.get(s.name) != u) {
+						duplicates++;
+						if (logger.isLoggable(Level.FINE)
+								&& !relocate(unit, i, renamed, NONE).equals(firstDefinition.get(s.name).getCode())) {
+							logger.fine(s.name + " in " + unit.file + " is different from the one used, from "
+									+ units.get(definedBy.get(s.name)).file);
+						}
+						continue;
+					}
+					(i == 0 ? image.output : functions).append(relocate(unit, i, renamed, i == 0 ? leftOut : NONE));
+					image.numInstructions += s.numInstructions;
+					image.programBits += s.programBits;
+					image.memAccesses += s.memAccesses;
+				}
+			}
+			
+			if (functions.length() > 0) {
+				image.output.append("...\n");
+				image.output.append(functions);
+			}
+			Compiler.getCompiler(architecture).layout(image);
+			image.output.append("\nInstruction count:\t"+image.numInstructions+"\n"
+					+ "Size of resulting code:\t"+image.programBits+" bits\n"
+					+ "# of memory accesses:\t"+image.memAccesses+"\n");
+			return new CompilationResult(image.output.toString(), image.numInstructions, image.programBits, image.memAccesses);
+		} finally {
+			CompilationContext.release(image);
+		}
+	}
+	
+	/** Returns a section's code with the unit's renamed labels replaced
+	 * 
+	 * @param leftOut For the main program, the function sections whose code in it is left out, in order
+	 */
+	private static String relocate(ObjectUnit unit, int section, Map<String, String> renamed, List<ObjectUnit.Section> leftOut) {
+		String code = unit.sections[section].getCode();
+		if (renamed.isEmpty() && leftOut.isEmpty()) {
+			return code;
+		}
+		StringBuffer relocated = new StringBuffer(code.length() + 16);
+		int copied = 0;
+		for (ObjectUnit.Relocation r : unit.relocations) {
+			String name = renamed.get(r.symbol);
+			if (r.section != section || name == null || isLeftOut(r.offset, leftOut)) {
+				continue;
+			}
+			copy(code, copied, r.offset, leftOut, relocated);
+			relocated.append(name);
+			copied = r.offset + r.symbol.length();
+		}
+		copy(code, copied, code.length(), leftOut, relocated);
+		return relocated.toString();
+	}
+	
+	/** Appends the code from start to end, apart from the parts left out
+	 * 
+	 */
+	private static void copy(String code, int start, int end, List<ObjectUnit.Section> leftOut, StringBuffer into) {
+		for (ObjectUnit.Section s : leftOut) {
+			if (s.mainEnd <= start || s.mainStart >= end) {
+				continue;
+			}
+			into.append(code, start, Math.max(start, s.mainStart));
+			start = Math.min(end, s.mainEnd);
+		}
+		into.append(code, start, end);
+	}
+	
+	private static boolean isLeftOut(int offset, List<ObjectUnit.Section> leftOut) {
+		for (ObjectUnit.Section s : leftOut) {
+			if (offset >= s.mainStart && offset < s.mainEnd) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -1,5 +1,4 @@
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 
 
@@ -14,13 +13,6 @@ import java.util.LinkedList;
  */
 public class LoadStoreCompiler extends Compiler {
 	
-	protected LinkedList<String> sRegisters = new LinkedList<String>();
-	
-	protected void clear() {
-		super.clear();
-		sRegisters.clear();
-	}
-	
 	/** Returns the ISA version of the variable. 
 	 * In the case of LoadStore, it's the register that holds the variable var.
 	 * If the input is already in ISA format, returns var unchanged.
@@ -28,15 +20,15 @@ public class LoadStoreCompiler extends Compiler {
 	 * @param var The name of a variable to translate to a register
 	 * @return The name of the register where the variable is stored
 	 */
-	protected String varToISAVar(String var) {
+	protected String varToISAVar(CompilationContext ctx, String var) {
 		if (var.length() < 1 || var.charAt(0) == '$' || isNumeric(var)) {
 			return var;
-		} else if (tempAddrs.contains(var)) {
-			return "$t"+tempAddrs.indexOf(var);
-		} else if (sRegisters.contains(var)) {
-			return "$s"+sRegisters.indexOf(var);
-		} else if (currentArgs.contains(var)) {
-			return "$a"+currentArgs.indexOf(var);
+		} else if (ctx.tempAddrs.contains(var)) {
+			return "$t"+ctx.tempAddrs.indexOf(var);
+		} else if (ctx.sRegisters.contains(var)) {
+			return "$s"+ctx.sRegisters.indexOf(var);
+		} else if (ctx.currentArgs.contains(var)) {
+			return "$a"+ctx.currentArgs.indexOf(var);
 		} else {
 			return var;
 		}
@@ -49,16 +41,16 @@ public class LoadStoreCompiler extends Compiler {
 	 * @param reg The name of a register to translate to a variable
 	 * @return The name of the variable held in reg
 	 */
-	protected String ISAVarToVar(String isaVar) {
+	protected String ISAVarToVar(CompilationContext ctx, String isaVar) {
 		String[] parts = isaVar.split("(?=[a-zA-Z])|(?<=[a-zA-Z])");
 		if (isaVar.charAt(0) != '$') {
 			return isaVar;
 		} else if (parts[1].matches("t")) {
-			return tempAddrs.get(Integer.parseInt(parts[2]));
+			return ctx.tempAddrs.get(Integer.parseInt(parts[2]));
 		} else if (parts[1].matches("s")) {
-			return sRegisters.get(Integer.parseInt(parts[2]));
+			return ctx.sRegisters.get(Integer.parseInt(parts[2]));
 		} else if (parts[1].matches("a")) {
-			return currentArgs.get(Integer.parseInt(parts[2]));
+			return ctx.currentArgs.get(Integer.parseInt(parts[2]));
 		} else {
 			return isaVar;
 		}
@@ -69,9 +61,9 @@ public class LoadStoreCompiler extends Compiler {
 	 * 
 	 * @param code C-like code
 	 */
-	protected void loadVars(String line) {
+	protected void loadVars(CompilationContext ctx, String line) {
 		String[] words = line.split("\\s+|(?<=\\W)(?=\\w)|\\s+|(?<=\\w)(?=\\W)|\\s+");
-		vars = new HashSet<String>();
+		ctx.vars.clear();
 		boolean nextIsArg = false;
 		
 		for (String w : words) {
@@ -80,24 +72,24 @@ public class LoadStoreCompiler extends Compiler {
 				break;
 			} else if (nextIsArg && w.matches("\\w")) {
 				nextIsArg = false;
-				String areg = "$a"+currentArgs.size();
-				writeLine("lw", areg, w+"($zero)");
-				currentArgs.add(w);
+				String areg = "$a"+ctx.currentArgs.size();
+				writeLine(ctx, "lw", areg, w+"($zero)");
+				ctx.currentArgs.add(w);
 			} else if (isKeyword(w)) {
 				continue;
 			} else if (isIdentifier(w)) {
 				nextIsArg = true;
-			} else if (w.matches("[a-zA-Z]") && !sRegisters.contains(w) && !currentArgs.contains(w)) { 
-				vars.add(w); 
+			} else if (w.matches("[a-zA-Z]") && !ctx.sRegisters.contains(w) && !ctx.currentArgs.contains(w)) { 
+				ctx.vars.add(w); 
 			}
 		}
 		
-		for (String v : vars) {
-			String sreg = "$s"+sRegisters.size();
-			writeLine("lw", sreg, v+"($zero)");
-			sRegisters.add(v);
+		for (String v : ctx.vars) {
+			String sreg = "$s"+ctx.sRegisters.size();
+			writeLine(ctx, "lw", sreg, v+"($zero)");
+			ctx.sRegisters.add(v);
 		}
-		vars.clear();
+		ctx.vars.clear();
 	}
 
 		
@@ -106,22 +98,22 @@ public class LoadStoreCompiler extends Compiler {
 	 * @param operation The operation of the line
 	 * @param oper	The operands for an assignment
 	 */
-	protected void writeLine(String operation, String... operands) {
+	protected void writeLine(CompilationContext ctx, String operation, String... operands) {
 		StringBuffer toWrite = new StringBuffer();
-		if (!labelsToPrepend.isEmpty()) { // add a label if we have one saved
-			toWrite.append(labelsToPrepend.pollLast()+":\t");
+		if (!ctx.labelsToPrepend.isEmpty()) { // add a label if we have one saved
+			toWrite.append(ctx.labelsToPrepend.pollLast()+":\t");
 		} else {
 			toWrite.append("\t");
 		}
 
-		programBits += 6; // 6 opcode
+		ctx.programBits += 6; // 6 opcode
 		toWrite.append(operation+" ");
 		
 		for (int i=0; i<operands.length; i++) {
-			if (!isLabel(operands[i])) {
-				memAccesses++;
+			if (!isLabel(ctx, operands[i])) {
+				ctx.memAccesses++;
 			}
-			programBits += 24;
+			ctx.programBits += 24;
 			if (i > 0) {
 				toWrite.append(", ");
 			}
@@ -129,12 +121,12 @@ public class LoadStoreCompiler extends Compiler {
 		}
 		
 		toWrite.append("\n");
-		numInstructions++;
+		ctx.numInstructions++;
 		
-		if (insideFunctionDeclaration) {
-			functionsToAdd.append(toWrite.toString());
+		if (ctx.insideFunctionDeclaration) {
+			ctx.functionsToAdd.append(toWrite.toString());
 		} else {
-			output.append(toWrite);
+			ctx.output.append(toWrite);
 		}
 	}
 	
@@ -144,23 +136,23 @@ public class LoadStoreCompiler extends Compiler {
 	 * @param tempName The name of the temporary address that will replace the array name in the current line 
 	 * @return the new programCounter after adding the lines
 	 */
-	protected void addArrayLoadingLine(String token, String tempName) {
+	protected void addArrayLoadingLine(CompilationContext ctx, String token, String tempName) {
 		String[] tokenParts = token.split("[\\[\\]]");
-		String index = tokenParts[1], tokenReg = varToISAVar(tokenParts[0]), tempReg;
-		tempAddrs.add(token);
+		String index = tokenParts[1], tokenReg = varToISAVar(ctx, tokenParts[0]), tempReg;
+		ctx.tempAddrs.add(token);
 		
 		if (index.matches("-?\\d+")) {
 			// index is an integer
-			writeLine("lw", tempName, String.valueOf(4 * Integer.parseInt(index))+"("+tokenReg+")");
+			writeLine(ctx, "lw", tempName, String.valueOf(4 * Integer.parseInt(index))+"("+tokenReg+")");
 		} else {
 			// index is a variable
-			String indexReg = varToISAVar(tokenParts[1]);
-			tempReg = getTempAddr();
-			writeLine("load", tempReg, indexReg);
-			writeLine("add", tempReg, tempReg);
-			writeLine("add", tempReg, tempReg);
-			writeLine("add", tempReg, tokenReg);
-			writeLine("lw", tempName, "$zero("+tempReg+")");
+			String indexReg = varToISAVar(ctx, tokenParts[1]);
+			tempReg = getTempAddr(ctx);
+			writeLine(ctx, "load", tempReg, indexReg);
+			writeLine(ctx, "add", tempReg, tempReg);
+			writeLine(ctx, "add", tempReg, tempReg);
+			writeLine(ctx, "add", tempReg, tokenReg);
+			writeLine(ctx, "lw", tempName, "$zero("+tempReg+")");
 		}
 	}
 	
@@ -169,11 +161,11 @@ public class LoadStoreCompiler extends Compiler {
 	 * @param line An if statement
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleIfStatement(String line) throws StringNotFoundException {
+	protected void handleIfStatement(CompilationContext ctx, String line) throws StringNotFoundException {
 		// get the variables we need to compare
 		int conditionStart = line.indexOf("("), conditionEnd = line.indexOf(")");
 		String part1 = line.substring(conditionStart, conditionEnd), part2 = line.substring(conditionEnd+1);
-		LinkedList<String> operands = getOperandsToCompare(part1);
+		LinkedList<String> operands = getOperandsToCompare(ctx, part1);
 		
 		String oper1 = operands.poll(), oper2 = operands.poll(), label = "", temp;
 		boolean hasGoto = (getOperation(line) == Operation.GOTO)? true : false;
@@ -187,36 +179,36 @@ public class LoadStoreCompiler extends Compiler {
 				}
 			}
 		} else {
-			label = "True"+ifLabels.size(); 
-			ifLabels.add(label);
-			labels.add(ifLabels.peekLast());
+			label = "True"+ctx.ifLabels.size(); 
+			ctx.ifLabels.add(label);
+			ctx.labels.add(ctx.ifLabels.peekLast());
 		}
 		
 		switch (getIfCondition(part1)) {
 		case EQ: // equal
-			writeLine("beq", oper1, oper2); 
-			writeLine("j", label); break;
+			writeLine(ctx, "beq", oper1, oper2); 
+			writeLine(ctx, "j", label); break;
 		case NE: // not equal  
-			writeLine("bne", oper1, oper2);  
-			writeLine("j", label); break;
+			writeLine(ctx, "bne", oper1, oper2);  
+			writeLine(ctx, "j", label); break;
 		case LE: // less than  
-			temp = getTempAddr();
-			writeLine("load", temp, oper1);
-			writeLine("slt", temp, oper2);
-			writeLine("bne", temp, "$zero");  
-			writeLine("j", label); break;
+			temp = getTempAddr(ctx);
+			writeLine(ctx, "load", temp, oper1);
+			writeLine(ctx, "slt", temp, oper2);
+			writeLine(ctx, "bne", temp, "$zero");  
+			writeLine(ctx, "j", label); break;
 		}
 		
-		handleElse(line);
+		handleElse(ctx, line);
 		
-		if (!ifLabels.isEmpty()) {
-			labelsToPrepend.add(ifLabels.pollLast());
+		if (!ctx.ifLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.ifLabels.pollLast());
 		}
 		if (!hasGoto) {
-			translateAndAppendLine(part2);
+			translateAndAppendLine(ctx, part2);
 		}
-		if (!jumpLabels.isEmpty()) {
-			labelsToPrepend.add(jumpLabels.pollLast());
+		if (!ctx.jumpLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 		}
 	}
 	
@@ -225,16 +217,16 @@ public class LoadStoreCompiler extends Compiler {
 	 * @param line A while statement
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleWhileStatement(String line) throws StringNotFoundException {
+	protected void handleWhileStatement(CompilationContext ctx, String line) throws StringNotFoundException {
 		// create a loop label
-		String loopLabel = "Loop"+labelsToPrepend.size();
-		labelsToPrepend.add(loopLabel);
-		labels.add(labelsToPrepend.peekLast());
+		String loopLabel = "Loop"+ctx.labelsToPrepend.size();
+		ctx.labelsToPrepend.add(loopLabel);
+		ctx.labels.add(ctx.labelsToPrepend.peekLast());
 		
 		// get the variables we need to compare
 		int conditionStart = line.indexOf("("), conditionEnd = line.indexOf(")");
 		String part1 = line.substring(conditionStart, conditionEnd), part2 = line.substring(conditionEnd+1);
-		LinkedList<String> operands = getOperandsToCompare(part1);
+		LinkedList<String> operands = getOperandsToCompare(ctx, part1);
 		
 		String oper1 = operands.poll(), oper2 = operands.poll(), label = "";
 		boolean hasGoto = (getOperation(line) == Operation.GOTO)? true : false;
@@ -248,9 +240,9 @@ public class LoadStoreCompiler extends Compiler {
 				}
 			}
 		} else {
-			label = "Exit"+jumpLabels.size(); 
-			jumpLabels.add(label);
-			labels.add(jumpLabels.peekLast());
+			label = "Exit"+ctx.jumpLabels.size(); 
+			ctx.jumpLabels.add(label);
+			ctx.labels.add(ctx.jumpLabels.peekLast());
 		}
 		
 		switch (getIfCondition(part1)) { 
@@ -258,24 +250,24 @@ public class LoadStoreCompiler extends Compiler {
 		// because failing the original condition breaks the loop 
 		// (so succeeding the opposite jumps to outside the loop)
 		case EQ: // equal
-			writeLine("bne", oper1, oper2); 
-			writeLine("j", label); break;
+			writeLine(ctx, "bne", oper1, oper2); 
+			writeLine(ctx, "j", label); break;
 		case NE: // not equal  
-			writeLine("beq", oper1, oper2); 
-			writeLine("j", label); break;
+			writeLine(ctx, "beq", oper1, oper2); 
+			writeLine(ctx, "j", label); break;
 		case LE: // less than
-			String temp = getTempAddr();
-			writeLine("load", temp, oper1);
-			writeLine("slt", temp, oper2);
-			writeLine("beq", temp, "$zero");  
-			writeLine("j", label); break;
+			String temp = getTempAddr(ctx);
+			writeLine(ctx, "load", temp, oper1);
+			writeLine(ctx, "slt", temp, oper2);
+			writeLine(ctx, "beq", temp, "$zero");  
+			writeLine(ctx, "j", label); break;
 		}
 
 		if (!hasGoto) {
-			translateAndAppendLine(part2);
+			translateAndAppendLine(ctx, part2);
 		}
-		if (!jumpLabels.isEmpty()) {
-			labelsToPrepend.add(jumpLabels.pollLast());
+		if (!ctx.jumpLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 		}
 	}
 	
@@ -285,7 +277,7 @@ public class LoadStoreCompiler extends Compiler {
 	 * @param line A switch statement
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleSwitchStatement(String line) throws StringNotFoundException {
+	protected void handleSwitchStatement(CompilationContext ctx, String line) throws StringNotFoundException {
 		// count the number of cases
 		String[] cases = line.split("case |default");
 		int numCases = cases.length;
@@ -295,26 +287,26 @@ public class LoadStoreCompiler extends Compiler {
 		
 		// add the lines for the switch variable
 		String switchVar = line.substring(line.indexOf('(')+1, line.indexOf(')'));
-		String tempAddr = getTempAddr(), exitLabel = "Exit"+jumpLabels.size(); 
-		jumpLabels.add(exitLabel);
-		labels.add(jumpLabels.peekLast());
-		writeLine("load", tempAddr, switchVar);
-		writeLine("slti", tempAddr, switchVar);
-		writeLine("bne", tempAddr, "$zero");
-		writeLine("j", exitLabel);
-		writeLine("load", tempAddr, switchVar);
-		writeLine("slti", tempAddr, String.valueOf(numCases));
-		writeLine("beq", tempAddr, "$zero");
-		writeLine("j", exitLabel);
-		writeLine("load", tempAddr, switchVar);
-		writeLine("add", tempAddr, tempAddr);
-		writeLine("add", tempAddr, tempAddr);
-		String sreg = "$s"+sRegisters.size();
-		writeLine("lw", sreg, "addrJumpTable($zero)");
-		sRegisters.add("addrJumpTable");
-		writeLine("add", tempAddr, sreg);
-		writeLine("lw", tempAddr, "$zero("+tempAddr+")");
-		writeLine("jr", tempAddr);
+		String tempAddr = getTempAddr(ctx), exitLabel = "Exit"+ctx.jumpLabels.size(); 
+		ctx.jumpLabels.add(exitLabel);
+		ctx.labels.add(ctx.jumpLabels.peekLast());
+		writeLine(ctx, "load", tempAddr, switchVar);
+		writeLine(ctx, "slti", tempAddr, switchVar);
+		writeLine(ctx, "bne", tempAddr, "$zero");
+		writeLine(ctx, "j", exitLabel);
+		writeLine(ctx, "load", tempAddr, switchVar);
+		writeLine(ctx, "slti", tempAddr, String.valueOf(numCases));
+		writeLine(ctx, "beq", tempAddr, "$zero");
+		writeLine(ctx, "j", exitLabel);
+		writeLine(ctx, "load", tempAddr, switchVar);
+		writeLine(ctx, "add", tempAddr, tempAddr);
+		writeLine(ctx, "add", tempAddr, tempAddr);
+		String sreg = "$s"+ctx.sRegisters.size();
+		writeLine(ctx, "lw", sreg, "addrJumpTable($zero)");
+		ctx.sRegisters.add("addrJumpTable");
+		writeLine(ctx, "add", tempAddr, sreg);
+		writeLine(ctx, "lw", tempAddr, "$zero("+tempAddr+")");
+		writeLine(ctx, "jr", tempAddr);
 		
 		int i = 0;
 		for (String caseLine : cases) {
@@ -322,16 +314,16 @@ public class LoadStoreCompiler extends Compiler {
 				continue;
 			}
 			caseLine = caseLine.substring(caseLine.indexOf(":")+1, caseLine.indexOf("break;"));
-			labelsToPrepend.add("L"+i++);
-			translateAndAppendLine(caseLine);
+			ctx.labelsToPrepend.add("L"+i++);
+			translateAndAppendLine(ctx, caseLine);
 			if (i < numCases) { // don't append the last jump, because we already go to the exit
-				writeLine("j", exitLabel);
+				writeLine(ctx, "j", exitLabel);
 			}
 			
 		}
 		
-		if (!jumpLabels.isEmpty()) {
-			labelsToPrepend.add(jumpLabels.pollLast());
+		if (!ctx.jumpLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 		}
 	}
 	
@@ -340,19 +332,19 @@ public class LoadStoreCompiler extends Compiler {
 	 * @param line A function call
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleFunctionCall(String line) throws StringNotFoundException {
-		if (insideFunctionDeclaration) {
+	protected void handleFunctionCall(CompilationContext ctx, String line) throws StringNotFoundException {
+		if (ctx.insideFunctionDeclaration) {
 			// store local variables
-			writeLine("subi", getStackPointerName(), getStackPointerName(), "12");
+			writeLine(ctx, "subi", getStackPointerName(), getStackPointerName(), "12");
 			int i = 0;
-			for (String a : currentArgs) {
-				writeLine("sw", varToISAVar(a), "$ "+(4*i)+"("+getStackPointerName()+")");
+			for (String a : ctx.currentArgs) {
+				writeLine(ctx, "sw", varToISAVar(ctx, a), "$ "+(4*i)+"("+getStackPointerName()+")");
 				i++;
-				stack.add(a);
+				ctx.stack.add(a);
 			}
-			writeLine("sw", getReturnAddressName(), "$ "+(4*i)+"("+getStackPointerName()+")");
-			stack.add(getReturnAddressName());
-			returns.add(getReturnAddressName());
+			writeLine(ctx, "sw", getReturnAddressName(ctx), "$ "+(4*i)+"("+getStackPointerName()+")");
+			ctx.stack.add(getReturnAddressName(ctx));
+			ctx.returns.add(getReturnAddressName(ctx));
 		}
 		
 		// Get function name
@@ -365,7 +357,7 @@ public class LoadStoreCompiler extends Compiler {
 			}
 			prev = t;
 		}
-		functions.put(name, new LinkedList<String>());
+		ctx.functions.put(name, new LinkedList<String>());
 		
 		// Get the arguments and replace them with "$a0", "$a1" etc
 		String[] argsPart = line.substring(line.indexOf("(")+1, line.indexOf(")")).split("[,\\s]");
@@ -373,19 +365,19 @@ public class LoadStoreCompiler extends Compiler {
 			if (a.isEmpty()) {
 				continue;
 			}
-			argLabel = "$a"+functions.get(name).size();
-			functions.get(name).add(a);
-			if (!argLabel.contentEquals(varToISAVar(a))) { // unless they already match
-				writeLine("addi", argLabel, varToISAVar(a), "$zero");
+			argLabel = "$a"+ctx.functions.get(name).size();
+			ctx.functions.get(name).add(a);
+			if (!argLabel.contentEquals(varToISAVar(ctx, a))) { // unless they already match
+				writeLine(ctx, "addi", argLabel, varToISAVar(ctx, a), "$zero");
 			}
 		}
 		// add the function call in ISA code
-		writeLine("jal", name);
-		if (insideFunctionDeclaration) {
+		writeLine(ctx, "jal", name);
+		if (ctx.insideFunctionDeclaration) {
 			// load the stored local variables after function call
-			returns.poll();
-			for (String s : stack) {
-				writeLine("lw", varToISAVar(s), "$ "+(4*stack.indexOf(s))+"("+getStackPointerName()+")");
+			ctx.returns.poll();
+			for (String s : ctx.stack) {
+				writeLine(ctx, "lw", varToISAVar(ctx, s), "$ "+(4*ctx.stack.indexOf(s))+"("+getStackPointerName()+")");
 			}
 		}
 	}
@@ -395,8 +387,8 @@ public class LoadStoreCompiler extends Compiler {
 	 * @param line A function declaration, including the body of the function
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleFunctionDeclaration(String line) throws StringNotFoundException {
-		insideFunctionDeclaration = true;
+	protected void handleFunctionDeclaration(CompilationContext ctx, String line) throws StringNotFoundException {
+		ctx.insideFunctionDeclaration = true;
 		
 		// add function name to first line as a label
 		String[] tokens = line.split("\\s|(?=[-+*/()=:;])|(?<=[^-+*/=:;][-+*/=:;])|(?<=[()])");
@@ -408,7 +400,7 @@ public class LoadStoreCompiler extends Compiler {
 			}
 			prev = t;
 		}
-		labelsToPrepend.add(name);
+		ctx.labelsToPrepend.add(name);
 		
 		// replace argument names with addresses
 		HashMap<String, String> argReplacements = new HashMap<String, String>();
@@ -416,13 +408,13 @@ public class LoadStoreCompiler extends Compiler {
 		String[] argsPart = line.substring(line.indexOf("(")+1, line.indexOf(")")).split("[,\\s]");
 		int argsNum = 0; 
 		for (String a : argsPart) {
-			if (a.isEmpty() || isIdentifier(a) || currentArgs.contains(a)) {
+			if (a.isEmpty() || isIdentifier(a) || ctx.currentArgs.contains(a)) {
 				continue;
 			}
 			args.add(a);
 			String replacement = "$a"+(argsNum++);
 			argReplacements.put(a, replacement);
-			currentArgs.add(replacement);
+			ctx.currentArgs.add(replacement);
 		}
 		String functionBody = line.substring(line.indexOf("{")+1, line.indexOf("}"));
 		for (String arg : argReplacements.keySet()) {
@@ -432,17 +424,17 @@ public class LoadStoreCompiler extends Compiler {
 		
 		String[] bodyLines = functionBody.split("(?<=;)");
 		for (String b : bodyLines) {
-			translateAndAppendLine(b);
+			translateAndAppendLine(ctx, b);
 		}
 		
 		// go back to old function
-		if (stack.size() > 0) {
-			writeLine("addi", getStackPointerName(), getStackPointerName(), String.valueOf(4*stack.size()));
-			stack.removeAll(stack);
+		if (ctx.stack.size() > 0) {
+			writeLine(ctx, "addi", getStackPointerName(), getStackPointerName(), String.valueOf(4*ctx.stack.size()));
+			ctx.stack.removeAll(ctx.stack);
 		}
-		writeLine("jr", getReturnAddressName());
-		insideFunctionDeclaration = false;
-		currentArgs.clear();
+		writeLine(ctx, "jr", getReturnAddressName(ctx));
+		ctx.insideFunctionDeclaration = false;
+		ctx.currentArgs.clear();
 	}
 	
 	/** Adds the name of the "return value" variable in ISA code to the output.
@@ -457,7 +449,7 @@ public class LoadStoreCompiler extends Compiler {
 	 * Eg. in LoadStore it would be $ra, or in MM 4 Address it would be returnAddress 
 	 * 
 	 */
-	protected String getReturnAddressName() {
+	protected String getReturnAddressName(CompilationContext ctx) {
 		return "$ra";
 	}
 	
@@ -474,7 +466,7 @@ public class LoadStoreCompiler extends Compiler {
 	 * @param line a line containing a while/if statement and a condition in parenthesis
 	 * @return the operands to compare
 	 */
-	protected LinkedList<String> getOperandsToCompare(String line) {
+	protected LinkedList<String> getOperandsToCompare(CompilationContext ctx, String line) {
 		String[] tokens = line.split("\\s|(?=[-+*/()=:;])|(?<=[^-+*/=:;][-+*/=:;])|(?<=[()])");
 		LinkedList<String> operands = new LinkedList<String>(), temps = new LinkedList<String>();
 		
@@ -484,22 +476,22 @@ public class LoadStoreCompiler extends Compiler {
 				// a word, presumably array
 				if (tokens[i].contains("[")) {
 					// an array index
-					temps.add(getTempAddr()); 
-					tempAddrs.add(tokens[i]);
+					temps.add(getTempAddr(ctx)); 
+					ctx.tempAddrs.add(tokens[i]);
 					
 					// add lines to load the indexed value
-					addArrayLoadingLine(tokens[i], temps.peekLast());
+					addArrayLoadingLine(ctx, tokens[i], temps.peekLast());
 					operands.add(temps.peekLast());
 				} else if (tokens[i].charAt(0) == '=') {
 					// we have '=var', fix it and try again
 					tokens[i] = tokens[i].substring(1);
 					i--;
 				} else {
-					operands.add(varToISAVar(tokens[i]));
+					operands.add(varToISAVar(ctx, tokens[i]));
 				}
 			} else if (tokens[i].length() > 0 && Character.isLetter(tokens[i].charAt(0))) {
 				// a letter (a variable)
-				operands.add(varToISAVar(tokens[i]));
+				operands.add(varToISAVar(ctx, tokens[i]));
 			} 
 		}
 		return operands;
@@ -509,16 +501,16 @@ public class LoadStoreCompiler extends Compiler {
 	 * 
 	 * @return
 	 */
-	protected String getTempAddr() {
-		return "$t"+tempAddrs.size();
+	protected String getTempAddr(CompilationContext ctx) {
+		return "$t"+ctx.tempAddrs.size();
 	}
 	
 	/** Adds a store command in ISA code for the given variable 
 	 * 
 	 */
-	protected void store(String word) {
+	protected void store(CompilationContext ctx, String word) {
 		if (!word.contentEquals(getReturnValueName())) {
-			writeLine("store", ISAVarToVar(word), varToISAVar(word));
+			writeLine(ctx, "store", ISAVarToVar(ctx, word), varToISAVar(ctx, word));
 		}
 	}
 	
@@ -526,22 +518,22 @@ public class LoadStoreCompiler extends Compiler {
 	 * 
 	 * @param address
 	 */
-	protected void jump(String address) {
-		writeLine("j", jumpLabels.peekLast());
+	protected void jump(CompilationContext ctx, String address) {
+		writeLine(ctx, "j", ctx.jumpLabels.peekLast());
 	}
 	
 	/** Adds a return address label to the line if needed by the architecture
 	 * 
 	 */
-	protected void addReturnAddressLabel() {
+	protected void addReturnAddressLabel(CompilationContext ctx) {
 		// we don't need this because we already have $ra embedded
 	}
 	
 	/** Loads the result of the operation in the return value
 	 * Note: operands should have exactly 1 value
 	 */
-	protected void setReturnValue(String result, LinkedList<String> operands) {
-		writeLine("add", result, operands.poll(), "$zero");
+	protected void setReturnValue(CompilationContext ctx, String result, LinkedList<String> operands) {
+		writeLine(ctx, "add", result, operands.poll(), "$zero");
 	}
 	
 	/** Adds a line for result = operand statements
@@ -549,7 +541,7 @@ public class LoadStoreCompiler extends Compiler {
 	 * @param result
 	 * @param operand
 	 */
-	protected void addOneOperLine(String result, String operand) {
-		writeLine("add", result, operand, "$zero");
+	protected void addOneOperLine(CompilationContext ctx, String result, String operand) {
+		writeLine(ctx, "add", result, operand, "$zero");
 	}
 }
@@ -0,0 +1,536 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Runs LoadStoreCompiler's code on a machine with 32 registers, numbered the way MIPS numbers them:
+ * $zero (always 0), $v0 (the return value), $a0-$a3 (arguments), $t0-$t9, $s0-$s7, $sp (the stack pointer,
+ * which starts near the top of memory) and $ra (the return address). The compiler can also use names MIPS doesn't have,
+ * eg. $s9 or $a4, and those get the registers MIPS keeps for the assembler and the kernel, as long as there are some left.
+ * 
+ * Memory is addressed in words, and only lw, sw, and operands naming a variable (eg. "store d, $s0") go to it.
+ * Each operation works the way the compiler uses it:
+ * 	add, sub, mul, div, slt (and addi, subi, slti)	d, a, b sets d to a op b, and d, a sets d to d op a
+ * 	load d, a / store v, a	copy a into d or v
+ * 	lw d, offset(base) / sw s, offset(base)	load from or store to the word at offset+base, where an offset
+ * 			can be a number (also written "$ 4"), a register, or a variable (meaning its address)
+ * 	beq a, b / bne a, b	execute the next instruction (the jump the compiler always puts after them) only if the condition holds
+ * 	j label / jal label / jr register	jump, call (with the return address in $ra), return
+ * 
+ */
+public class LoadStoreInterpreter extends Interpreter {
+	
+	private static final String[] OPERATIONS = {"add", "addi", "sub", "subi", "mul", "div", "slt", "slti",
+		"load", "store", "lw", "sw", "beq", "bne", "j", "jal", "jr"};
+	private static final int ADD = 0, ADDI = 1, SUB = 2, SUBI = 3, MUL = 4, DIV = 5, SLT = 6, SLTI = 7,
+			LOAD = 8, STORE = 9, LW = 10, SW = 11, BEQ = 12, BNE = 13, J = 14, JAL = 15, JR = 16;
+	/** The operations with only registers and numbers for operands, which quicken() turns the common ones into */
+	private static final int ADD_REGISTERS = 17, SUB_REGISTERS = 18, MUL_REGISTERS = 19, SLT_REGISTERS = 20,
+			COPY_REGISTER = 21, STORE_REGISTER = 22, LW_REGISTER = 23, SW_REGISTER = 24;
+	/** The superinstructions (see fuse()): a branch and the jump after it, two additions, and a copy and a comparison */
+	private static final int BRANCH_JUMP = 25, ADD_ADD = 26, COPY_SLT = 27;
+	private static final int[][] SUPERINSTRUCTIONS = {{BRANCH_JUMP, BEQ, J}, {BRANCH_JUMP, BNE, J},
+		{ADD_ADD, ADD_REGISTERS, ADD_REGISTERS}, {COPY_SLT, COPY_REGISTER, SLT_REGISTERS}};
+	/** Which of those each operation becomes, or -1 */
+	private static final int[] REGISTER_OPERATIONS = {ADD_REGISTERS, ADD_REGISTERS, SUB_REGISTERS, SUB_REGISTERS, MUL_REGISTERS, -1,
+		SLT_REGISTERS, SLT_REGISTERS, COPY_REGISTER, STORE_REGISTER, LW_REGISTER, SW_REGISTER, -1, -1, -1, -1, -1};
+	private static final int V0 = 2, SP = 29, RA = 31;
+	/** The register writes to $zero go to, so they needn't be checked for, and after it the registers that hold numbers */
+	private static final int SINK = REGISTERS;
+	/** How far below the top of memory the stack starts */
+	private static final int STACK_MARGIN = 16;
+	private static final Map<String, Integer> MIPS_REGISTERS = new HashMap<String, Integer>();
+	static {
+		String[] names = {"$zero", "$at", "$v0", "$v1", "$a0", "$a1", "$a2", "$a3",
+			"$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7",
+			"$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7",
+			"$t8", "$t9", "$k0", "$k1", "$gp", "$sp", "$s8", "$ra"};
+		for (int i = 0; i < names.length; i++) {
+			MIPS_REGISTERS.put(names[i], i);
+		}
+		MIPS_REGISTERS.put("$fp", 30);
+	}
+	/** The registers given to names MIPS doesn't have, in order */
+	private static final int[] SPARE_REGISTERS = {3, 26, 27, 28, 1};
+	
+	/** The registers this program uses, by name */
+	private final Map<String, Integer> registerNames = new HashMap<String, Integer>(MIPS_REGISTERS);
+	private int sparesUsed = 0;
+	/** The numbers the registers after SINK hold */
+	private final List<Integer> numbers = new ArrayList<Integer>();
+	
+	/**
+	 * @param code Code written by LoadStoreCompiler
+	 * @throws IllegalArgumentException if the code uses an operation LoadStoreCompiler doesn't write, or more than 32 registers
+	 */
+	public LoadStoreInterpreter(String code) {
+		super(ISA.LOADSTORE, code);
+		decode();
+		for (int i = 0; i < opcodes.length; i++) {
+			int o = i * SLOTS, n = operandCounts[i];
+			switch (opcodes[i]) {
+			case LOAD:
+			case STORE:
+			case LW:
+				countWrite(o);
+				countRead(o + 1);
+				break;
+			case SW:
+				countRead(o);
+				countWrite(o + 1);
+				break;
+			case BEQ:
+			case BNE:
+				for (int operand = o; operand < o + n; operand++) {
+					countRead(operand);
+				}
+				break;
+			case J:
+			case JAL:
+			case JR:
+				countRead(o);
+				break;
+			default:
+				countWrite(o);
+				countRead(o + (n == 2 ? 0 : 1));
+				countRead(o + n - 1);
+			}
+		}
+		quicken();
+		registers = new int[SINK + 1 + numbers.size()];
+		fuse(SUPERINSTRUCTIONS);
+	}
+	
+	protected boolean fusible(int superinstruction, int pc) {
+		// only a branch comparing registers that skips the jump after it, and a jump that doesn't fault
+		int jump = (pc + 1) * SLOTS;
+		return superinstruction != BRANCH_JUMP || operandCounts[pc] == 2 && kinds[pc * SLOTS] == Operand.REGISTER
+				&& kinds[pc * SLOTS + 1] == Operand.REGISTER && kinds[jump] == Operand.LABEL && targets[jump] >= 0;
+	}
+	
+	/** Turns the operations whose operands are only registers, numbers, and words at a number plus a register
+	 * (eg. "add $s0, $s0, 1", "store a, $s0", "lw $s0, 4($sp)") into ones that read and write them directly.
+	 * Each number gets a register of its own that holds it, and every operand is written into the operand arrays
+	 * as the register it reads or writes: a destination first, then what the operation works on.
+	 * 
+	 */
+	private void quicken() {
+		for (int i = 0; i < opcodes.length; i++) {
+			int o = i * SLOTS, n = operandCounts[i];
+			switch (opcodes[i]) {
+			case ADD:
+			case ADDI:
+			case SUB:
+			case SUBI:
+			case MUL:
+			case SLT:
+			case SLTI:
+				if (kinds[o] == Operand.REGISTER && isRegisterOrNumber(o + 1) && isRegisterOrNumber(o + n - 1)) {
+					int first = register(o + (n == 2 ? 0 : 1)), last = register(o + n - 1);
+					values[o] = destination(o);
+					values[o + 1] = first;
+					values[o + 2] = last;
+					opcodes[i] = REGISTER_OPERATIONS[opcodes[i]];
+				}
+				break;
+			case LOAD:
+				if (kinds[o] == Operand.REGISTER && isRegisterOrNumber(o + 1)) {
+					values[o] = destination(o);
+					values[o + 1] = register(o + 1);
+					opcodes[i] = COPY_REGISTER;
+				}
+				break;
+			case STORE:
+				if (kinds[o] == Operand.VARIABLE && isRegisterOrNumber(o + 1)) {
+					values[o + 1] = register(o + 1);
+					opcodes[i] = STORE_REGISTER;
+				}
+				break;
+			case LW:
+			case SW:
+				// lw d, offset(base) or sw s, offset(base), which become d or s, base, offset
+				int at = values[o + 1];
+				if ((opcodes[i] == LW ? kinds[o] == Operand.REGISTER : isRegisterOrNumber(o)) && kinds[o + 1] == Operand.INDEXED
+						&& indexed[at] == Operand.IMMEDIATE && indexed[at + 2] == Operand.REGISTER) {
+					values[o] = opcodes[i] == LW ? destination(o) : register(o);
+					values[o + 1] = indexed[at + 3];
+					values[o + 2] = indexed[at + 1];
+					opcodes[i] = REGISTER_OPERATIONS[opcodes[i]];
+				}
+				break;
+			}
+		}
+	}
+	
+	private boolean isRegisterOrNumber(int slot) {
+		return kinds[slot] == Operand.REGISTER || kinds[slot] == Operand.IMMEDIATE;
+	}
+	
+	/** Returns the register an operand that's a register or a number reads from
+	 * 
+	 */
+	private int register(int slot) {
+		if (kinds[slot] == Operand.REGISTER) {
+			return values[slot];
+		}
+		int number = numbers.indexOf(values[slot]);
+		if (number < 0) {
+			number = numbers.size();
+			numbers.add(values[slot]);
+		}
+		return SINK + 1 + number;
+	}
+	
+	/** Returns the register an operand that's a register is written to
+	 * 
+	 */
+	private int destination(int slot) {
+		return values[slot] == 0 ? SINK : values[slot];
+	}
+	
+	protected Instruction decode(int index, String operation, String[] operands) {
+		int opcode = opcode(OPERATIONS, operation);
+		switch (opcode) {
+		case J:
+		case JAL:
+			expect(operands, 1, 1);
+			return new Instruction(opcode, target(operands[0], index));
+		case JR:
+			expect(operands, 1, 1);
+			return new Instruction(opcode, operand(operands[0]));
+		case BEQ:
+		case BNE:
+			expect(operands, 2, 3);
+			if (operands.length == 3) {
+				return new Instruction(opcode, operand(operands[0]), operand(operands[1]), target(operands[2], index));
+			}
+			return new Instruction(opcode, operand(operands[0]), operand(operands[1]));
+		case LOAD:
+		case STORE:
+		case LW:
+		case SW:
+			expect(operands, 2, 2);
+			return new Instruction(opcode, operand(operands[0]), operand(operands[1]));
+		default:
+			expect(operands, 2, 3);
+			Operand[] decoded = new Operand[operands.length];
+			for (int i = 0; i < operands.length; i++) {
+				decoded[i] = operand(operands[i]);
+			}
+			return new Instruction(opcode, decoded);
+		}
+	}
+	
+	protected void dispatch(long limit) throws ExecutionFault {
+		int[] opcodes = this.opcodes, handlers = this.handlers, operandCounts = this.operandCounts, kinds = this.kinds, targets = this.targets;
+		int[] values = this.values, registers = this.registers;
+		long[] hits = this.hits;
+		Memory memory = this.memory;
+		int pc = position;
+		long count = executed, started = count, fusable = limit - 1;
+		TranslatedBlock[] blocks = this.blocks;
+		try {
+			while (pc != STOP && pc < opcodes.length && count < limit) {
+				if (TRANSLATE_THRESHOLD > 0 && blocks[pc] != null && count != started) {
+					// the block runs it
+					break;
+				}
+				int next = pc + 1, o = pc * SLOTS, n = operandCounts[pc];
+				// an arithmetic operation works on its last two operands, or with only two, on both
+				int first = o + (n == 2 ? 0 : 1), last = o + n - 1;
+				switch (count < fusable ? handlers[pc] : opcodes[pc]) {
+				case BRANCH_JUMP:
+					if ((registers[values[o]] == registers[values[o + 1]]) != (opcodes[pc] == BEQ)) {
+						next = pc + 2;
+					} else {
+						hits[pc++]++;
+						count++;
+						next = targets[o + SLOTS];
+					}
+					break;
+				case ADD_ADD:
+					registers[values[o]] = registers[values[o + 1]] + registers[values[o + 2]];
+					hits[pc++]++;
+					count++;
+					o += SLOTS;
+					registers[values[o]] = registers[values[o + 1]] + registers[values[o + 2]];
+					next = pc + 1;
+					break;
+				case COPY_SLT:
+					registers[values[o]] = registers[values[o + 1]];
+					hits[pc++]++;
+					count++;
+					o += SLOTS;
+					registers[values[o]] = registers[values[o + 1]] < registers[values[o + 2]] ? 1 : 0;
+					next = pc + 1;
+					break;
+				case ADD_REGISTERS:
+					registers[values[o]] = registers[values[o + 1]] + registers[values[o + 2]];
+					break;
+				case SUB_REGISTERS:
+					registers[values[o]] = registers[values[o + 1]] - registers[values[o + 2]];
+					break;
+				case MUL_REGISTERS:
+					registers[values[o]] = registers[values[o + 1]] * registers[values[o + 2]];
+					break;
+				case SLT_REGISTERS:
+					registers[values[o]] = registers[values[o + 1]] < registers[values[o + 2]] ? 1 : 0;
+					break;
+				case COPY_REGISTER:
+					registers[values[o]] = registers[values[o + 1]];
+					break;
+				case STORE_REGISTER:
+					memory.write(values[o], registers[values[o + 1]]);
+					break;
+				case LW_REGISTER:
+					registers[values[o]] = memory.read(values[o + 2] + registers[values[o + 1]]);
+					break;
+				case SW_REGISTER:
+					memory.write(values[o + 2] + registers[values[o + 1]], registers[values[o]]);
+					break;
+				case ADD:
+				case ADDI:
+					write(o, read(first) + read(last));
+					break;
+				case SUB:
+				case SUBI:
+					write(o, read(first) - read(last));
+					break;
+				case MUL:
+					write(o, read(first) * read(last));
+					break;
+				case DIV:
+					int dividend = read(first), divisor = read(last);
+					if (divisor == 0) {
+						throw new ExecutionFault("Division by zero");
+					}
+					write(o, dividend / divisor);
+					break;
+				case SLT:
+				case SLTI:
+					write(o, read(first) < read(last) ? 1 : 0);
+					break;
+				case LOAD:
+				case STORE:
+				case LW:
+					write(o, read(o + 1));
+					break;
+				case SW:
+					write(o + 1, read(o));
+					break;
+				case BEQ:
+				case BNE:
+					boolean holds = (read(o) == read(o + 1)) == (opcodes[pc] == BEQ);
+					if (n == 3) {
+						next = holds ? jump(o + 2) : pc + 1;
+					} else if (!holds) {
+						// skip the jump after it
+						next = pc + 2;
+					}
+					break;
+				case J:
+					next = jump(o);
+					break;
+				case JAL:
+					if (kinds[o] != Operand.LABEL || targets[o] >= 0) {
+						registers[RA] = addressOf(pc + 1);
+						next = jump(o);
+					}
+					break;
+				default:
+					next = indexOf(read(o));
+				}
+				hits[pc]++;
+				count++;
+				pc = after(pc, next);
+			}
+		} finally {
+			position = pc;
+			executed = count;
+		}
+	}
+	
+	protected boolean translate(int pc, BlockTranslator translator) {
+		int o = pc * SLOTS, n = operandCounts[pc], opcode = opcodes[pc];
+		switch (opcode) {
+		case ADD_REGISTERS:
+		case SUB_REGISTERS:
+		case MUL_REGISTERS:
+		case SLT_REGISTERS:
+			translator.register(values[o + 1]);
+			translator.register(values[o + 2]);
+			operate(opcode, translator);
+			translator.toRegister(values[o]);
+			return true;
+		case COPY_REGISTER:
+			translator.register(values[o + 1]);
+			translator.toRegister(values[o]);
+			return true;
+		case STORE_REGISTER:
+			translator.register(values[o + 1]);
+			translator.toWord(values[o]);
+			return true;
+		case LW_REGISTER:
+			translator.number(values[o + 2]);
+			translator.register(values[o + 1]);
+			translator.add();
+			translator.wordAt();
+			translator.toRegister(values[o]);
+			return true;
+		case SW_REGISTER:
+			translator.number(values[o + 2]);
+			translator.register(values[o + 1]);
+			translator.add();
+			translator.register(values[o]);
+			translator.toWordAt();
+			return true;
+		case ADD:
+		case ADDI:
+		case SUB:
+		case SUBI:
+		case MUL:
+		case SLT:
+		case SLTI:
+			translateRead(o + (n == 2 ? 0 : 1), translator);
+			translateRead(o + n - 1, translator);
+			operate(opcode, translator);
+			return translateWrite(o, translator);
+		case LOAD:
+		case STORE:
+		case LW:
+			translateRead(o + 1, translator);
+			return translateWrite(o, translator);
+		case SW:
+			translateRead(o, translator);
+			return translateWrite(o + 1, translator);
+		case BEQ:
+		case BNE:
+			if (n == 3 && (kinds[o + 2] != Operand.LABEL || targets[o + 2] < 0)) {
+				return false;
+			}
+			translateRead(o, translator);
+			translateRead(o + 1, translator);
+			if (n == 3) {
+				translator.branch(opcode == BEQ, targets[o + 2]);
+			} else {
+				// skip the jump after it
+				translator.branch(opcode == BNE, pc + 2);
+			}
+			return true;
+		case J:
+		case JAL:
+			if (kinds[o] != Operand.LABEL || (opcode == J && targets[o] < 0)) {
+				return false;
+			} else if (targets[o] >= 0) {
+				if (opcode == JAL) {
+					translator.number(addressOf(pc + 1));
+					translator.toRegister(RA);
+				}
+				translator.jump(targets[o]);
+			}
+			return true;
+		default:
+			// jr and div, which can fault in ways a block doesn't
+			return false;
+		}
+	}
+	
+	/** Describes the arithmetic of an operation, on the two values it works on, to a BlockTranslator
+	 * 
+	 */
+	private static void operate(int opcode, BlockTranslator translator) {
+		switch (opcode) {
+		case ADD:
+		case ADDI:
+		case ADD_REGISTERS:
+			translator.add();
+			break;
+		case SUB:
+		case SUBI:
+		case SUB_REGISTERS:
+			translator.subtract();
+			break;
+		case MUL:
+		case MUL_REGISTERS:
+			translator.multiply();
+			break;
+		default:
+			translator.lessThan();
+		}
+	}
+	
+	protected void start(int[] arguments) {
+		for (int i = 0; i < numbers.size(); i++) {
+			registers[SINK + 1 + i] = numbers.get(i);
+		}
+		// a little below the top, as the code sometimes stores one word past the space it takes on the stack
+		registers[SP] = memory.size() - STACK_MARGIN;
+		registers[RA] = HOST_ADDRESS;
+		for (int i = 0; i < arguments.length; i++) {
+			Integer register = registerNames.get("$a" + i);
+			if (register != null) {
+				registers[register] = arguments[i];
+			}
+		}
+	}
+	
+	protected int returnValue() {
+		return registers[V0];
+	}
+	
+	protected void addCounts(Map<String, Long> counts) {
+		long externalCalls = 0;
+		for (int i = 0; i < hits.length; i++) {
+			if (opcodes[i] == JAL && kinds[i * SLOTS] == Operand.LABEL && targets[i * SLOTS] < 0) {
+				externalCalls += hits[i];
+			}
+		}
+		counts.put("Calls to undeclared functions", externalCalls);
+	}
+	
+	/** Decodes a register, a word in memory (eg. "4($sp)"), a number, or a variable
+	 * 
+	 */
+	private Operand operand(String text) {
+		int open = text.indexOf('(');
+		if (open >= 0 && text.endsWith(")")) {
+			String offset = text.substring(0, open).trim(), base = text.substring(open + 1, text.length() - 1).trim();
+			if (offset.startsWith("$ ")) {
+				// eg. "$ 4($sp)"
+				offset = offset.substring(2).trim();
+			}
+			Operand decodedOffset;
+			if (offset.startsWith("$")) {
+				decodedOffset = register(offset);
+			} else if (offset.isEmpty() || isNumber(offset)) {
+				decodedOffset = data(offset);
+			} else {
+				// a variable's address, eg. "d($zero)"
+				decodedOffset = new Operand(Operand.IMMEDIATE, variable(offset), offset);
+			}
+			return new Operand(decodedOffset, base.startsWith("$") ? register(base) : data(base), text);
+		} else if (text.startsWith("$")) {
+			return register(text);
+		}
+		return data(text);
+	}
+	
+	/** Decodes where a jump or call goes: a label, or a register holding the address
+	 * 
+	 */
+	private Operand target(String text, int index) {
+		return text.startsWith("$") ? register(text) : label(text, index);
+	}
+	
+	private Operand register(String name) {
+		Integer register = registerNames.get(name);
+		if (register == null) {
+			if (sparesUsed == SPARE_REGISTERS.length) {
+				throw new IllegalArgumentException("No register left for " + name);
+			}
+			register = SPARE_REGISTERS[sparesUsed++];
+			registerNames.put(name, register);
+		}
+		return new Operand(Operand.REGISTER, register, name);
+	}
+}
@@ -1,6 +1,5 @@
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 
 
@@ -18,7 +17,7 @@ public class MM2AddressCompiler extends Compiler {
 	 * @param var The name of a variable to translate to a register
 	 * @return The name of the register where the variable is stored
 	 */
-	protected String varToISAVar(String var) {
+	protected String varToISAVar(CompilationContext ctx, String var) {
 		return var;
 	}
 	
@@ -29,7 +28,7 @@ public class MM2AddressCompiler extends Compiler {
 	 * @param reg The name of a register to translate to a variable
 	 * @return The name of the variable held in reg
 	 */
-	protected String ISAVarToVar(String isaVar) {
+	protected String ISAVarToVar(CompilationContext ctx, String isaVar) {
 		int addrLoc = isaVar.indexOf("Temp");
 		if (addrLoc > -1) {
 			return isaVar.substring(addrLoc+4);
@@ -43,9 +42,9 @@ public class MM2AddressCompiler extends Compiler {
 	 * 
 	 * @param code C-like code
 	 */
-	protected void loadVars(String line) {
+	protected void loadVars(CompilationContext ctx, String line) {
 		String[] words = line.split("\\s+|(?<=\\W)(?=\\w)|\\s+|(?<=\\w)(?=\\W)|\\s+");
-		vars = new HashSet<String>();
+		ctx.vars.clear();
 		
 		for (String w : words) {
 			if (w.toLowerCase().contentEquals("goto")) {
@@ -54,11 +53,11 @@ public class MM2AddressCompiler extends Compiler {
 			} else if (isKeyword(w)) {
 				continue;
 			} else if (w.matches("[a-zA-Z]+")) { 
-				vars.add(w);
+				ctx.vars.add(w);
 			}
 		}
 		
-		vars.clear();
+		ctx.vars.clear();
 	}
 	
 	/** Writes the line to the output in the ISA language
@@ -66,33 +65,33 @@ public class MM2AddressCompiler extends Compiler {
 	 * @param operation The operation of the line
 	 * @param oper	The operands for an assignment
 	 */
-	protected void writeLine(String operation, String... operands) {
+	protected void writeLine(CompilationContext ctx, String operation, String... operands) {
 		// reduce the line to 2 addresses
 		// first get the number of addresses
 		LinkedList<String> operandsList = new LinkedList<String>();
 		operandsList.addAll(Arrays.asList(operands));
-		while (operandsList.size() > 2 && !isLabel(operandsList.get(2))) {
+		while (operandsList.size() > 2 && !isLabel(ctx, operandsList.get(2))) {
 			// remove extra addresses
 			String arg = operandsList.remove(1);
-			writeLine("load", operandsList.peek(), arg);
+			writeLine(ctx, "load", operandsList.peek(), arg);
 		}
 		
 		// add label
 		StringBuffer toWrite = new StringBuffer();
-		if (!labelsToPrepend.isEmpty()) { // add a label if we have one saved
-			toWrite.append(labelsToPrepend.pollLast()+":\t");
+		if (!ctx.labelsToPrepend.isEmpty()) { // add a label if we have one saved
+			toWrite.append(ctx.labelsToPrepend.pollLast()+":\t");
 		} else {
 			toWrite.append("\t");
 		}
 
-		programBits += 6; // 6 opcode
+		ctx.programBits += 6; // 6 opcode
 		toWrite.append(operation+" ");
 		
 		for (int i=0; i<operandsList.size(); i++) {
-			if (!isLabel(operandsList.get(i))) {
-				memAccesses++;
+			if (!isLabel(ctx, operandsList.get(i))) {
+				ctx.memAccesses++;
 			}
-			programBits += 24;
+			ctx.programBits += 24;
 			if (i > 0) {
 				toWrite.append(", ");
 			}
@@ -100,12 +99,12 @@ public class MM2AddressCompiler extends Compiler {
 		}
 		
 		toWrite.append("\n");
-		numInstructions++;
+		ctx.numInstructions++;
 		
-		if (insideFunctionDeclaration) {
-			functionsToAdd.append(toWrite.toString());
+		if (ctx.insideFunctionDeclaration) {
+			ctx.functionsToAdd.append(toWrite.toString());
 		} else {
-			output.append(toWrite);
+			ctx.output.append(toWrite);
 		}
 	}
 	
@@ -115,23 +114,23 @@ public class MM2AddressCompiler extends Compiler {
 	 * @param tempName The name of the temporary address that will replace the array name in the current line 
 	 * @return the new programCounter after adding the lines
 	 */
-	protected void addArrayLoadingLine(String token, String tempName) {
+	protected void addArrayLoadingLine(CompilationContext ctx, String token, String tempName) {
 		String[] tokenParts = token.split("[\\[\\]]");
-		String index = tokenParts[1], tokenReg = varToISAVar(tokenParts[0]), tempReg;
-		tempAddrs.add(token);
+		String index = tokenParts[1], tokenReg = varToISAVar(ctx, tokenParts[0]), tempReg;
+		ctx.tempAddrs.add(token);
 		
 		if (index.matches("-?\\d+")) {
 			// index is an integer
-			writeLine("lw", tempName, String.valueOf(4 * Integer.parseInt(index))+"("+tokenReg+")");
+			writeLine(ctx, "lw", tempName, String.valueOf(4 * Integer.parseInt(index))+"("+tokenReg+")");
 		} else {
 			// index is a variable
-			String indexReg = varToISAVar(tokenParts[1]);
-			tempReg = getTempAddr();
-			writeLine("load", tempReg, indexReg);
-			writeLine("add", tempReg, tempReg);
-			writeLine("add", tempReg, tempReg);
-			writeLine("add", tempReg, tokenReg);
-			writeLine("lw", tempName, "0("+tempReg+")");
+			String indexReg = varToISAVar(ctx, tokenParts[1]);
+			tempReg = getTempAddr(ctx);
+			writeLine(ctx, "load", tempReg, indexReg);
+			writeLine(ctx, "add", tempReg, tempReg);
+			writeLine(ctx, "add", tempReg, tempReg);
+			writeLine(ctx, "add", tempReg, tokenReg);
+			writeLine(ctx, "lw", tempName, "0("+tempReg+")");
 		}
 	}
 	
@@ -140,11 +139,11 @@ public class MM2AddressCompiler extends Compiler {
 	 * @param line An if statement
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleIfStatement(String line) throws StringNotFoundException {
+	protected void handleIfStatement(CompilationContext ctx, String line) throws StringNotFoundException {
 		// get the variables we need to compare
 		int conditionStart = line.indexOf("("), conditionEnd = line.indexOf(")");
 		String part1 = line.substring(conditionStart, conditionEnd), part2 = line.substring(conditionEnd+1);
-		LinkedList<String> operands = getOperandsToCompare(part1);
+		LinkedList<String> operands = getOperandsToCompare(ctx, part1);
 		
 		String oper1 = operands.poll(), oper2 = operands.poll(), label = "", temp;
 		boolean hasGoto = (getOperation(line) == Operation.GOTO)? true : false;
@@ -158,36 +157,36 @@ public class MM2AddressCompiler extends Compiler {
 				}
 			}
 		} else {
-			label = "True"+ifLabels.size(); 
-			ifLabels.add(label);
-			labels.add(ifLabels.peekLast());
+			label = "True"+ctx.ifLabels.size(); 
+			ctx.ifLabels.add(label);
+			ctx.labels.add(ctx.ifLabels.peekLast());
 		}
 		
 		switch (getIfCondition(part1)) {
 		case EQ: // equal
-			writeLine("beq", oper1, oper2); 
-			writeLine("j", label); break;
+			writeLine(ctx, "beq", oper1, oper2); 
+			writeLine(ctx, "j", label); break;
 		case NE: // not equal  
-			writeLine("bne", oper1, oper2);  
-			writeLine("j", label); break;
+			writeLine(ctx, "bne", oper1, oper2);  
+			writeLine(ctx, "j", label); break;
 		case LE: // less than  
-			temp = getTempAddr();
-			writeLine("load", temp, oper1);
-			writeLine("slt", temp, oper2);
-			writeLine("bne", temp, "0");  
-			writeLine("j", label); break;
+			temp = getTempAddr(ctx);
+			writeLine(ctx, "load", temp, oper1);
+			writeLine(ctx, "slt", temp, oper2);
+			writeLine(ctx, "bne", temp, "0");  
+			writeLine(ctx, "j", label); break;
 		}
 		
-		handleElse(line);
+		handleElse(ctx, line);
 		
-		if (!ifLabels.isEmpty()) {
-			labelsToPrepend.add(ifLabels.pollLast());
+		if (!ctx.ifLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.ifLabels.pollLast());
 		}
 		if (!hasGoto) {
-			translateAndAppendLine(part2);
+			translateAndAppendLine(ctx, part2);
 		}
-		if (!jumpLabels.isEmpty()) {
-			labelsToPrepend.add(jumpLabels.pollLast());
+		if (!ctx.jumpLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 		}
 	}
 	
@@ -196,16 +195,16 @@ public class MM2AddressCompiler extends Compiler {
 	 * @param line A while statement
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleWhileStatement(String line) throws StringNotFoundException {
+	protected void handleWhileStatement(CompilationContext ctx, String line) throws StringNotFoundException {
 		// create a loop label
-		String loopLabel = "Loop"+labelsToPrepend.size();
-		labelsToPrepend.add(loopLabel);
-		labels.add(labelsToPrepend.peekLast());
+		String loopLabel = "Loop"+ctx.labelsToPrepend.size();
+		ctx.labelsToPrepend.add(loopLabel);
+		ctx.labels.add(ctx.labelsToPrepend.peekLast());
 		
 		// get the variables we need to compare
 		int conditionStart = line.indexOf("("), conditionEnd = line.indexOf(")");
 		String part1 = line.substring(conditionStart, conditionEnd), part2 = line.substring(conditionEnd+1);
-		LinkedList<String> operands = getOperandsToCompare(part1);
+		LinkedList<String> operands = getOperandsToCompare(ctx, part1);
 		
 		String oper1 = operands.poll(), oper2 = operands.poll(), label = "";
 		boolean hasGoto = (getOperation(line) == Operation.GOTO)? true : false;
@@ -219,9 +218,9 @@ public class MM2AddressCompiler extends Compiler {
 				}
 			}
 		} else {
-			label = "Exit"+jumpLabels.size(); 
-			jumpLabels.add(label);
-			labels.add(jumpLabels.peekLast());
+			label = "Exit"+ctx.jumpLabels.size(); 
+			ctx.jumpLabels.add(label);
+			ctx.labels.add(ctx.jumpLabels.peekLast());
 		}
 		
 		switch (getIfCondition(part1)) { 
@@ -229,24 +228,24 @@ public class MM2AddressCompiler extends Compiler {
 		// because failing the original condition breaks the loop 
 		// (so succeeding the opposite jumps to outside the loop)
 		case EQ: // equal
-			writeLine("bne", oper1, oper2); 
-			writeLine("j", label); break;
+			writeLine(ctx, "bne", oper1, oper2); 
+			writeLine(ctx, "j", label); break;
 		case NE: // not equal  
-			writeLine("beq", oper1, oper2); 
-			writeLine("j", label); break;
+			writeLine(ctx, "beq", oper1, oper2); 
+			writeLine(ctx, "j", label); break;
 		case LE: // less than
-			String temp = getTempAddr();
-			writeLine("load", temp, oper1);
-			writeLine("slt", temp, oper2);
-			writeLine("beq", temp, "0");  
-			writeLine("j", label); break;
+			String temp = getTempAddr(ctx);
+			writeLine(ctx, "load", temp, oper1);
+			writeLine(ctx, "slt", temp, oper2);
+			writeLine(ctx, "beq", temp, "0");  
+			writeLine(ctx, "j", label); break;
 		}
 
 		if (!hasGoto) {
-			translateAndAppendLine(part2);
+			translateAndAppendLine(ctx, part2);
 		}
-		if (!jumpLabels.isEmpty()) {
-			labelsToPrepend.add(jumpLabels.pollLast());
+		if (!ctx.jumpLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 		}
 	}
 	
@@ -256,7 +255,7 @@ public class MM2AddressCompiler extends Compiler {
 	 * @param line A switch statement
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleSwitchStatement(String line) throws StringNotFoundException {
+	protected void handleSwitchStatement(CompilationContext ctx, String line) throws StringNotFoundException {
 		// count the number of cases
 		String[] cases = line.split("case |default");
 		int numCases = cases.length;
@@ -266,23 +265,23 @@ public class MM2AddressCompiler extends Compiler {
 		
 		// add the lines for the switch variable
 		String switchVar = line.substring(line.indexOf('(')+1, line.indexOf(')'));
-		String tempAddr = getTempAddr(), exitLabel = "Exit"+jumpLabels.size(); 
-		jumpLabels.add(exitLabel);
-		labels.add(jumpLabels.peekLast());
-		writeLine("load", tempAddr, switchVar);
-		writeLine("slti", tempAddr, switchVar);
-		writeLine("bne", tempAddr, "0");
-		writeLine("j", exitLabel);
-		writeLine("load", tempAddr, switchVar);
-		writeLine("slti", tempAddr, String.valueOf(numCases));
-		writeLine("beq", tempAddr, "0");
-		writeLine("j", exitLabel);
-		writeLine("load", tempAddr, switchVar);
-		writeLine("add", tempAddr, tempAddr);
-		writeLine("add", tempAddr, tempAddr);
-		writeLine("add", tempAddr, "addrJumpTable");
-		writeLine("lw", tempAddr, "0("+tempAddr+")");
-		writeLine("jr", tempAddr);
+		String tempAddr = getTempAddr(ctx), exitLabel = "Exit"+ctx.jumpLabels.size(); 
+		ctx.jumpLabels.add(exitLabel);
+		ctx.labels.add(ctx.jumpLabels.peekLast());
+		writeLine(ctx, "load", tempAddr, switchVar);
+		writeLine(ctx, "slti", tempAddr, switchVar);
+		writeLine(ctx, "bne", tempAddr, "0");
+		writeLine(ctx, "j", exitLabel);
+		writeLine(ctx, "load", tempAddr, switchVar);
+		writeLine(ctx, "slti", tempAddr, String.valueOf(numCases));
+		writeLine(ctx, "beq", tempAddr, "0");
+		writeLine(ctx, "j", exitLabel);
+		writeLine(ctx, "load", tempAddr, switchVar);
+		writeLine(ctx, "add", tempAddr, tempAddr);
+		writeLine(ctx, "add", tempAddr, tempAddr);
+		writeLine(ctx, "add", tempAddr, "addrJumpTable");
+		writeLine(ctx, "lw", tempAddr, "0("+tempAddr+")");
+		writeLine(ctx, "jr", tempAddr);
 		
 		int i = 0;
 		for (String caseLine : cases) {
@@ -290,16 +289,16 @@ public class MM2AddressCompiler extends Compiler {
 				continue;
 			}
 			caseLine = caseLine.substring(caseLine.indexOf(":")+1, caseLine.indexOf("break;"));
-			labelsToPrepend.add("L"+i++);
-			translateAndAppendLine(caseLine);
+			ctx.labelsToPrepend.add("L"+i++);
+			translateAndAppendLine(ctx, caseLine);
 			if (i < numCases) { // don't append the last jump, because we already go to the exit
-				writeLine("j", exitLabel);
+				writeLine(ctx, "j", exitLabel);
 			}
 			
 		}
 		
-		if (!jumpLabels.isEmpty()) {
-			labelsToPrepend.add(jumpLabels.pollLast());
+		if (!ctx.jumpLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 		}
 	}
 	
@@ -308,18 +307,18 @@ public class MM2AddressCompiler extends Compiler {
 	 * @param line A function call
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleFunctionCall(String line) throws StringNotFoundException {
-		if (insideFunctionDeclaration) {
+	protected void handleFunctionCall(CompilationContext ctx, String line) throws StringNotFoundException {
+		if (ctx.insideFunctionDeclaration) {
 			// store local variables 
 			int i=0;
-			writeLine("load", "stackAddr"+i, getReturnAddressName());
-			stack.add(getReturnAddressName());
-			for (String a : currentArgs) {
+			writeLine(ctx, "load", "stackAddr"+i, getReturnAddressName(ctx));
+			ctx.stack.add(getReturnAddressName(ctx));
+			for (String a : ctx.currentArgs) {
 				i++;
-				writeLine("load", "stackAddr"+i, a);
-				stack.add(a);
+				writeLine(ctx, "load", "stackAddr"+i, a);
+				ctx.stack.add(a);
 			}
-			returns.add(getReturnAddressName());
+			ctx.returns.add(getReturnAddressName(ctx));
 		}
 		
 		// Get function name
@@ -332,7 +331,7 @@ public class MM2AddressCompiler extends Compiler {
 			}
 			prev = t;
 		}
-		functions.put(name, new LinkedList<String>());
+		ctx.functions.put(name, new LinkedList<String>());
 		
 		// Get the arguments and replace them with "arg0", "arg1" etc
 		String[] argsPart = line.substring(line.indexOf("(")+1, line.indexOf(")")).split("[,\\s]");
@@ -340,22 +339,22 @@ public class MM2AddressCompiler extends Compiler {
 			if (a.isEmpty()) {
 				continue;
 			}
-			argLabel = "arg"+functions.get(name).size();
-			functions.get(name).add(a);
+			argLabel = "arg"+ctx.functions.get(name).size();
+			ctx.functions.get(name).add(a);
 			if (!argLabel.matches(a)) { // unless they already match
-				writeLine("load", argLabel, a);
+				writeLine(ctx, "load", argLabel, a);
 			}
 		}
-		writeLine("jal", name);
-		jumpLabels.add(getReturnAddressName());
-		if (insideFunctionDeclaration) {
-			labelsToPrepend.add(jumpLabels.pollLast());
+		writeLine(ctx, "jal", name);
+		ctx.jumpLabels.add(getReturnAddressName(ctx));
+		if (ctx.insideFunctionDeclaration) {
+			ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 			// load the stored local variables
-			returns.poll();
-			for (String s : stack) {
-				writeLine("load", s, "stackAddr"+stack.indexOf(s));
+			ctx.returns.poll();
+			for (String s : ctx.stack) {
+				writeLine(ctx, "load", s, "stackAddr"+ctx.stack.indexOf(s));
 			}
-			stack.removeAll(stack);
+			ctx.stack.removeAll(ctx.stack);
 		}
 	}
 	
@@ -364,8 +363,8 @@ public class MM2AddressCompiler extends Compiler {
 	 * @param line A function declaration, including the body of the function
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleFunctionDeclaration(String line) throws StringNotFoundException {
-		insideFunctionDeclaration = true;
+	protected void handleFunctionDeclaration(CompilationContext ctx, String line) throws StringNotFoundException {
+		ctx.insideFunctionDeclaration = true;
 		
 		// add function name to first line as a label
 		String[] tokens = line.split("\\s|(?=[-+*/()=:;])|(?<=[^-+*/=:;][-+*/=:;])|(?<=[()])");
@@ -377,7 +376,7 @@ public class MM2AddressCompiler extends Compiler {
 			}
 			prev = t;
 		}
-		labelsToPrepend.add(name);
+		ctx.labelsToPrepend.add(name);
 		
 		// replace argument names with addresses
 		HashMap<String, String> argReplacements = new HashMap<String, String>();
@@ -391,7 +390,7 @@ public class MM2AddressCompiler extends Compiler {
 			args.add(a);
 			String replacement = "arg"+(argsNum++);
 			argReplacements.put(a, replacement);
-			currentArgs.add(replacement);
+			ctx.currentArgs.add(replacement);
 		}
 		String functionBody = line.substring(line.indexOf("{")+1, line.indexOf("}"));
 		for (String arg : argReplacements.keySet()) {
@@ -401,12 +400,12 @@ public class MM2AddressCompiler extends Compiler {
 		
 		String[] bodyLines = functionBody.split("(?<=;)");
 		for (String b : bodyLines) {
-			translateAndAppendLine(b);
+			translateAndAppendLine(ctx, b);
 		}
 		
-		writeLine("jr", getReturnAddressName());
-		insideFunctionDeclaration = false;
-		currentArgs.clear();
+		writeLine(ctx, "jr", getReturnAddressName(ctx));
+		ctx.insideFunctionDeclaration = false;
+		ctx.currentArgs.clear();
 	}
 	
 	/** Adds the name of the "return value" variable in ISA code to the output.
@@ -421,8 +420,8 @@ public class MM2AddressCompiler extends Compiler {
 	 * Eg. in LoadStore it would be $ra, or in MM 4 Address it would be returnAddress 
 	 * 
 	 */
-	protected String getReturnAddressName() {
-		return "returnAddress"+returns.size();
+	protected String getReturnAddressName(CompilationContext ctx) {
+		return "returnAddress"+ctx.returns.size();
 	}
 	
 	/** Returns the operands in parenthesis to be compared in a while/if statement
@@ -430,7 +429,7 @@ public class MM2AddressCompiler extends Compiler {
 	 * @param line a line containing a while/if statement and a condition in parenthesis
 	 * @return the operands to compare
 	 */
-	protected LinkedList<String> getOperandsToCompare(String line) {
+	protected LinkedList<String> getOperandsToCompare(CompilationContext ctx, String line) {
 		String[] tokens = line.split("\\s|(?=[-+*/()=:;])|(?<=[^-+*/=:;][-+*/=:;])|(?<=[()])");
 		LinkedList<String> operands = new LinkedList<String>(), temps = new LinkedList<String>();
 		
@@ -440,22 +439,22 @@ public class MM2AddressCompiler extends Compiler {
 				// a word, presumably array
 				if (tokens[i].contains("[")) {
 					// an array index
-					temps.add(getTempAddr()); 
-					tempAddrs.add(tokens[i]);
+					temps.add(getTempAddr(ctx)); 
+					ctx.tempAddrs.add(tokens[i]);
 					
 					// add lines to load the indexed value
-					addArrayLoadingLine(tokens[i], temps.peekLast());
+					addArrayLoadingLine(ctx, tokens[i], temps.peekLast());
 					operands.add(temps.peekLast());
 				} else if (tokens[i].charAt(0) == '=') {
 					// we have '=var', fix it and try again
 					tokens[i] = tokens[i].substring(1);
 					i--;
 				} else {
-					operands.add(varToISAVar(tokens[i]));
+					operands.add(varToISAVar(ctx, tokens[i]));
 				}
 			} else if (tokens[i].length() > 0 && Character.isLetter(tokens[i].charAt(0))) {
 				// a letter (a variable)
-				operands.add(varToISAVar(tokens[i]));
+				operands.add(varToISAVar(ctx, tokens[i]));
 			} 
 		}
 		return operands;
@@ -465,14 +464,14 @@ public class MM2AddressCompiler extends Compiler {
 	 * 
 	 * @return
 	 */
-	protected String getTempAddr() {
-		return "Temp"+tempAddrs.size();
+	protected String getTempAddr(CompilationContext ctx) {
+		return "Temp"+ctx.tempAddrs.size();
 	}
 	
 	/** Adds a store command in ISA code for the given variable 
 	 * 
 	 */
-	protected void store(String word) {
+	protected void store(CompilationContext ctx, String word) {
 		// do nothing because this is 2-address ISA
 	}
 	
@@ -480,23 +479,23 @@ public class MM2AddressCompiler extends Compiler {
 	 * 
 	 * @param address
 	 */
-	protected void jump(String address) {
-		writeLine("j", jumpLabels.peekLast());
-		numInstructions++;
+	protected void jump(CompilationContext ctx, String address) {
+		writeLine(ctx, "j", ctx.jumpLabels.peekLast());
+		ctx.numInstructions++;
 	}
 	
 	/** Adds a return address label to the line if needed by the architecture
 	 * 
 	 */
-	protected void addReturnAddressLabel() {
-		jumpLabels.add(getReturnAddressName());
+	protected void addReturnAddressLabel(CompilationContext ctx) {
+		ctx.jumpLabels.add(getReturnAddressName(ctx));
 	}
 	
 	/** Loads the result of the operation in the return value
 	 * Note: operands should have exactly 1 value
 	 */
-	protected void setReturnValue(String result, LinkedList<String> operands) {
-		writeLine("add", result, operands.poll());
+	protected void setReturnValue(CompilationContext ctx, String result, LinkedList<String> operands) {
+		writeLine(ctx, "add", result, operands.poll());
 	}
 	
 	/** Adds a line for result = operand statements
@@ -504,7 +503,7 @@ public class MM2AddressCompiler extends Compiler {
 	 * @param result
 	 * @param operand
 	 */
-	protected void addOneOperLine(String result, String operand) {
-		writeLine("load", result, operand);
+	protected void addOneOperLine(CompilationContext ctx, String result, String operand) {
+		writeLine(ctx, "load", result, operand);
 	}
 }
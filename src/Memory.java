@@ -0,0 +1,125 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** The memory a program runs in, for an Interpreter: one 32-bit word at each address,
+ * with every address the compiler's 24 bits can reach (see Compiler).
+ * 
+ * That's 64 MB, so the words are kept off the heap, in a direct buffer, where the garbage collector never has to
+ * copy or scan them. A run writes to few of them (its variables, and the top of its stack), so memory keeps track
+ * of which pages (PAGE words each) have been written, and clear() only zeroes those. An interpreter takes a memory
+ * for each run from the ones earlier runs gave back (see take()), so running many programs one after the other,
+ * or at the same time, needs only as many as are in use at once, and never zeroes the whole space again.
+ * 
+ */
+public class Memory {
+	
+	/** How many words 24-bit addresses can reach */
+	public static final int WORDS = 1 << 24;
+	/** How many words clear() zeroes at a time, a power of 2 */
+	public static final int PAGE = 1 << 10;
+	private static final int PAGE_BITS = Integer.numberOfTrailingZeros(PAGE);
+	private static final int[] ZEROS = new int[PAGE];
+	
+	/** The memories of WORDS words given back, all cleared, for take() */
+	private static final Queue<Memory> free = new ConcurrentLinkedQueue<Memory>();
+	
+	private final IntBuffer words;
+	private final int size;
+	/** Which pages have been written since the last clear() */
+	private final boolean[] dirty;
+	
+	public Memory() {
+		this(WORDS);
+	}
+	
+	/**
+	 * @param size The number of words, addressed from 0 to size-1
+	 */
+	public Memory(int size) {
+		// allocateDirect zeroes them; native order, so a word is read and written the way an int[]'s is
+		words = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		this.size = size;
+		dirty = new boolean[(size + PAGE - 1) >>> PAGE_BITS];
+	}
+	
+	/** Returns a memory of WORDS words, all 0: one given back, or a new one if none are free
+	 * 
+	 */
+	public static Memory take() {
+		Memory memory = free.poll();
+		return memory != null ? memory : new Memory();
+	}
+	
+	/** Clears the memory and makes it free for take() again. Nothing may use it after that.
+	 * 
+	 */
+	public void giveBack() {
+		clear();
+		if (size == WORDS) {
+			free.add(this);
+		}
+	}
+	
+	/** Returns the word at the given address
+	 * 
+	 * @throws ExecutionFault if the address is outside of memory
+	 */
+	public int read(int address) throws ExecutionFault {
+		if (address < 0 || address >= size) {
+			throw outside("Read from", address);
+		}
+		return words.get(address);
+	}
+	
+	/** Changes the word at the given address
+	 * 
+	 * @throws ExecutionFault if the address is outside of memory
+	 */
+	public void write(int address, int value) throws ExecutionFault {
+		if (address < 0 || address >= size) {
+			throw outside("Write to", address);
+		}
+		put(address, value);
+	}
+	
+	/** Writes a word inside memory and marks its page as written, apart from write() to keep that small
+	 * 
+	 */
+	private void put(int address, int value) {
+		words.put(address, value);
+		dirty[address >>> PAGE_BITS] = true;
+	}
+	
+	/** Returns the fault for an address outside of memory, built out of line so read() and write() stay small enough
+	 * for the JIT to inline wherever they're called, however seldom
+	 * 
+	 */
+	private static ExecutionFault outside(String access, int address) {
+		return new ExecutionFault(access + " address " + address + ", outside of memory");
+	}
+	
+	/** Returns the number of words
+	 * 
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/** Sets every word back to 0, for the next run, by zeroing the pages written since the last time
+	 * 
+	 */
+	public void clear() {
+		for (int page = 0; page < dirty.length; page++) {
+			if (dirty[page]) {
+				dirty[page] = false;
+				int start = page << PAGE_BITS;
+				words.position(start);
+				words.put(ZEROS, 0, Math.min(PAGE, size - start));
+			}
+		}
+		words.clear();
+	}
+}
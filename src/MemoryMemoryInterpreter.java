@@ -0,0 +1,448 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Runs the code of the three memory-memory architectures, which have no registers: every operand
+ * an instruction names is a word in memory, numbers included, as the compilers count them.
+ * Each number gets a word of its own that holds it, set up before a run starts and read like any variable.
+ * 
+ * The three write the same operations with a different number of addresses:
+ * 	MM2ADDRESS	op d, a sets d to d op a, and load d, a copies a into d
+ * 	MM3ADDRESS	op d, a, b sets d to a op b
+ * 	MM4ADDRESS	op d, a, b, next sets d to a op b, then goes on at the address next
+ * where op is add, sub, mul, div, slt or slti, and lw d, offset(base) loads the word at offset plus the value of base.
+ * beq a, b and bne a, b execute the jump after them only if the condition holds, or on MM4ADDRESS
+ * (eg. bne a, b, label, next) jump to label if it does and go to next if it doesn't.
+ * j label, jal label (with the return address in returnAddress0) and jr a work the same on all three.
+ * 
+ * MM4ADDRESS code is addressed the way MM4AddressCompiler lays it out, so every jump, call, and return
+ * goes by the addresses it wrote rather than by which instruction is next.
+ * 
+ * Besides the totals, runs count the instructions of each class (see CLASSES) and the memory accesses they made.
+ * 
+ */
+public class MemoryMemoryInterpreter extends Interpreter {
+	
+	/** The classes of instruction runs are counted by */
+	public static final String[] CLASSES = {"Arithmetic", "Load word", "Branch", "Jump"};
+	private static final int ARITHMETIC = 0, LOAD_WORD = 1, BRANCH = 2, JUMP = 3;
+	private static final String[] OPERATIONS = {"add", "sub", "mul", "div", "slt", "slti", "load", "lw",
+		"beq", "bne", "j", "jal", "jr"};
+	private static final int ADD = 0, SUB = 1, MUL = 2, DIV = 3, SLT = 4, SLTI = 5, LOAD = 6, LW = 7,
+			BEQ = 8, BNE = 9, J = 10, JAL = 11, JR = 12;
+	/** The superinstructions (see fuse()): a branch and the jump after it, two additions, and two loads */
+	private static final int BRANCH_JUMP = 13, ADD_ADD = 14, LOAD_LOAD = 15;
+	private static final int[][] SUPERINSTRUCTIONS = {{BRANCH_JUMP, BEQ, J}, {BRANCH_JUMP, BNE, J},
+		{ADD_ADD, ADD, ADD}, {LOAD_LOAD, LOAD, LOAD}};
+	/** The class of each operation */
+	private static final int[] CLASS_OF = {ARITHMETIC, ARITHMETIC, ARITHMETIC, ARITHMETIC, ARITHMETIC, ARITHMETIC, ARITHMETIC,
+		LOAD_WORD, BRANCH, BRANCH, JUMP, JUMP, JUMP};
+	
+	/** Whether instructions end with the address of the next one, as on MM4ADDRESS */
+	private final boolean nextAddresses;
+	/** For MM4ADDRESS, the address of each instruction, and after them where the code ends */
+	private final int[] addresses;
+	/** For MM4ADDRESS, the instruction at each of those addresses, which a jump to an address it has worked out
+	 * (a return) looks up every time it's executed */
+	private final AddressMap instructionsAt;
+	/** Where each instruction goes on to unless it jumps: the next one, or on MM4ADDRESS the one its last operand is the address of */
+	private final int[] onward;
+	/** Where returnAddress0 is, so a call doesn't have to look it up */
+	private final int returnAddress;
+	/** The words that hold numbers, and the numbers they hold */
+	private final int[] constantAddresses, constantValues;
+	private final Map<Integer, Integer> constants = new LinkedHashMap<Integer, Integer>();
+	
+	/**
+	 * @param architecture MM2ADDRESS, MM3ADDRESS, or MM4ADDRESS
+	 * @param code Code written by the architecture's compiler
+	 * @throws IllegalArgumentException if the architecture isn't a memory-memory one, or the code uses an operation it doesn't have
+	 */
+	public MemoryMemoryInterpreter(ISA architecture, String code) {
+		super(architecture, code);
+		if (architecture != ISA.MM2ADDRESS && architecture != ISA.MM3ADDRESS && architecture != ISA.MM4ADDRESS) {
+			throw new IllegalArgumentException(architecture + " isn't a memory-memory architecture");
+		}
+		nextAddresses = architecture == ISA.MM4ADDRESS;
+		addresses = nextAddresses ? layout(texts) : null;
+		instructionsAt = nextAddresses ? new AddressMap(addresses.length) : null;
+		for (int i = 0; nextAddresses && i < addresses.length; i++) {
+			instructionsAt.put(addresses[i], i);
+		}
+		returnAddress = variable(RETURN_ADDRESS);
+		decode();
+		onward = new int[opcodes.length];
+		for (int i = 0; i < opcodes.length; i++) {
+			int o = i * SLOTS;
+			switch (opcodes[i]) {
+			case J:
+				break;
+			case JAL:
+				// a call saves the return address, unless it's to a function that isn't declared
+				writes[i] = targets[o] < 0 ? 0 : 1;
+				break;
+			case JR:
+				countRead(o);
+				break;
+			case BEQ:
+			case BNE:
+				countRead(o);
+				countRead(o + 1);
+				break;
+			case LOAD:
+			case LW:
+				countWrite(o);
+				countRead(o + 1);
+				break;
+			default:
+				countWrite(o);
+				countRead(o + 1);
+				countRead(o + 2);
+			}
+			boolean jumps = opcodes[i] == J || opcodes[i] == JAL || opcodes[i] == JR;
+			onward[i] = nextAddresses && !jumps ? targets[o + operandCounts[i] - 1] : i + 1;
+		}
+		constantAddresses = new int[constants.size()];
+		constantValues = new int[constants.size()];
+		int i = 0;
+		for (Map.Entry<Integer, Integer> constant : constants.entrySet()) {
+			constantAddresses[i] = constant.getKey();
+			constantValues[i++] = constant.getValue();
+		}
+		fuse(SUPERINSTRUCTIONS);
+	}
+	
+	protected boolean fusible(int superinstruction, int pc) {
+		// only instructions that go on to the next one, a branch that skips the jump after it, and a jump that doesn't fault
+		int jump = (pc + 1) * SLOTS;
+		return onward[pc] == pc + 1 && (superinstruction != BRANCH_JUMP
+				|| operandCounts[pc] == 2 && kinds[jump] == Operand.LABEL && targets[jump] >= 0);
+	}
+	
+	/** Returns the address of each instruction and, after them, where the code ends, laid out the way
+	 * MM4AddressCompiler does it: 1 for the opcode and 3 for every address the instruction holds
+	 * 
+	 */
+	private static int[] layout(String[] texts) {
+		int[] laidOut = new int[texts.length + 1];
+		for (int i = 0; i < texts.length; i++) {
+			int fields = 1;
+			for (int c = 0; c < texts[i].length(); c++) {
+				if (texts[i].charAt(c) == ',') {
+					fields++;
+				}
+			}
+			laidOut[i + 1] = laidOut[i] + 1 + 3 * fields;
+		}
+		return laidOut;
+	}
+	
+	protected Instruction decode(int index, String operation, String[] operands) {
+		int opcode = opcode(OPERATIONS, operation);
+		switch (opcode) {
+		case J:
+		case JAL:
+			expect(operands, 1, 1);
+			return new Instruction(opcode, label(operands[0], index));
+		case JR:
+			expect(operands, 1, 1);
+			return new Instruction(opcode, word(operands[0]));
+		}
+		
+		int extra = nextAddresses ? 1 : 0;
+		Operand next = nextAddresses && operands.length > 0 ? next(operands[operands.length - 1]) : null;
+		Operand[] decoded;
+		switch (opcode) {
+		case BEQ:
+		case BNE:
+			// on MM4ADDRESS a branch always names its label, elsewhere it's usually the jump after it
+			expect(operands, nextAddresses ? 4 : 2, 3 + extra);
+			decoded = new Operand[operands.length];
+			decoded[0] = word(operands[0]);
+			decoded[1] = word(operands[1]);
+			if (operands.length - extra == 3) {
+				decoded[2] = label(operands[2], index);
+			}
+			break;
+		case LOAD:
+		case LW:
+			expect(operands, 2 + extra, 2 + extra);
+			decoded = new Operand[operands.length];
+			decoded[0] = word(operands[0]);
+			decoded[1] = opcode == LW ? indexed(operands[1]) : word(operands[1]);
+			break;
+		default:
+			expect(operands, 2 + extra, 3 + extra);
+			// d, a is d, d, a, so both forms execute the same way
+			decoded = new Operand[3 + extra];
+			decoded[0] = word(operands[0]);
+			decoded[1] = operands.length - extra == 2 ? decoded[0] : word(operands[1]);
+			decoded[2] = word(operands[operands.length - extra - 1]);
+		}
+		if (next != null) {
+			decoded[decoded.length - 1] = next;
+		}
+		return new Instruction(opcode, decoded);
+	}
+	
+	/** Every operand but a label is a word in memory (numbers included), so the loop reads and writes memory directly
+	 * 
+	 */
+	protected void dispatch(long limit) throws ExecutionFault {
+		int[] opcodes = this.opcodes, handlers = this.handlers, operandCounts = this.operandCounts, values = this.values, targets = this.targets,
+				indexed = this.indexed, onward = this.onward;
+		long[] hits = this.hits;
+		Memory memory = this.memory;
+		int pc = position;
+		long count = executed, started = count, fusable = limit - 1;
+		TranslatedBlock[] blocks = this.blocks;
+		try {
+			while (pc != STOP && pc < opcodes.length && count < limit) {
+				if (TRANSLATE_THRESHOLD > 0 && blocks[pc] != null && count != started) {
+					// the block runs it
+					break;
+				}
+				int next = onward[pc], o = pc * SLOTS;
+				switch (count < fusable ? handlers[pc] : opcodes[pc]) {
+				case BRANCH_JUMP:
+					if ((memory.read(values[o]) == memory.read(values[o + 1])) != (opcodes[pc] == BEQ)) {
+						next = pc + 2;
+					} else {
+						hits[pc++]++;
+						count++;
+						next = targets[o + SLOTS];
+					}
+					break;
+				case ADD_ADD:
+					memory.write(values[o], memory.read(values[o + 1]) + memory.read(values[o + 2]));
+					hits[pc++]++;
+					count++;
+					o += SLOTS;
+					memory.write(values[o], memory.read(values[o + 1]) + memory.read(values[o + 2]));
+					next = onward[pc];
+					break;
+				case LOAD_LOAD:
+					memory.write(values[o], memory.read(values[o + 1]));
+					hits[pc++]++;
+					count++;
+					o += SLOTS;
+					memory.write(values[o], memory.read(values[o + 1]));
+					next = onward[pc];
+					break;
+				case ADD:
+					memory.write(values[o], memory.read(values[o + 1]) + memory.read(values[o + 2]));
+					break;
+				case SUB:
+					memory.write(values[o], memory.read(values[o + 1]) - memory.read(values[o + 2]));
+					break;
+				case MUL:
+					memory.write(values[o], memory.read(values[o + 1]) * memory.read(values[o + 2]));
+					break;
+				case DIV:
+					int dividend = memory.read(values[o + 1]), divisor = memory.read(values[o + 2]);
+					if (divisor == 0) {
+						throw new ExecutionFault("Division by zero");
+					}
+					memory.write(values[o], dividend / divisor);
+					break;
+				case SLT:
+				case SLTI:
+					memory.write(values[o], memory.read(values[o + 1]) < memory.read(values[o + 2]) ? 1 : 0);
+					break;
+				case LOAD:
+					memory.write(values[o], memory.read(values[o + 1]));
+					break;
+				case LW:
+					int at = values[o + 1];
+					memory.write(values[o], memory.read(indexed[at + 1] + memory.read(indexed[at + 3])));
+					break;
+				case BEQ:
+				case BNE:
+					boolean holds = (memory.read(values[o]) == memory.read(values[o + 1])) == (opcodes[pc] == BEQ);
+					if (operandCounts[pc] == 2) {
+						// skip the jump after it
+						next = holds ? pc + 1 : pc + 2;
+					} else if (holds) {
+						next = jump(o + 2);
+					}
+					break;
+				case J:
+					next = jump(o);
+					break;
+				case JAL:
+					if (targets[o] >= 0) {
+						memory.write(returnAddress, addressOf(pc + 1));
+						next = targets[o];
+					}
+					break;
+				default:
+					next = indexOf(memory.read(values[o]));
+				}
+				hits[pc]++;
+				count++;
+				pc = after(pc, next);
+			}
+		} finally {
+			position = pc;
+			executed = count;
+		}
+	}
+	
+	protected boolean translate(int pc, BlockTranslator translator) {
+		int o = pc * SLOTS, opcode = opcodes[pc];
+		switch (opcode) {
+		case ADD:
+		case SUB:
+		case MUL:
+		case SLT:
+		case SLTI:
+			translator.word(values[o + 1]);
+			translator.word(values[o + 2]);
+			if (opcode == ADD) {
+				translator.add();
+			} else if (opcode == SUB) {
+				translator.subtract();
+			} else if (opcode == MUL) {
+				translator.multiply();
+			} else {
+				translator.lessThan();
+			}
+			translator.toWord(values[o]);
+			break;
+		case LOAD:
+			translator.word(values[o + 1]);
+			translator.toWord(values[o]);
+			break;
+		case LW:
+			int at = values[o + 1];
+			translator.number(indexed[at + 1]);
+			translator.word(indexed[at + 3]);
+			translator.add();
+			translator.wordAt();
+			translator.toWord(values[o]);
+			break;
+		case BEQ:
+		case BNE:
+			if (operandCounts[pc] > 2 && targets[o + 2] < 0) {
+				return false;
+			}
+			translator.word(values[o]);
+			translator.word(values[o + 1]);
+			if (operandCounts[pc] == 2) {
+				// skip the jump after it
+				translator.branch(opcode == BNE, pc + 2);
+			} else {
+				translator.branch(opcode == BEQ, targets[o + 2]);
+			}
+			break;
+		case J:
+			if (targets[o] < 0) {
+				return false;
+			}
+			translator.jump(targets[o]);
+			return true;
+		case JAL:
+			if (targets[o] >= 0) {
+				translator.number(addressOf(pc + 1));
+				translator.toWord(returnAddress);
+				translator.jump(targets[o]);
+			}
+			return true;
+		default:
+			// jr and div, which can fault in ways a block doesn't
+			return false;
+		}
+		if (onward[pc] != pc + 1) {
+			translator.jump(onward[pc]);
+		}
+		return true;
+	}
+	
+	protected void start(int[] arguments) {
+		// the numbers are part of the program, so putting them in memory isn't counted
+		for (int i = 0; i < constantAddresses.length; i++) {
+			try {
+				memory.write(constantAddresses[i], constantValues[i]);
+			} catch (ExecutionFault ef) {
+				throw new IllegalStateException(ef);
+			}
+		}
+		startInMemory(arguments);
+	}
+	
+	protected int returnValue() {
+		return get(RETURN_VALUE);
+	}
+	
+	protected void addCounts(Map<String, Long> counts) {
+		long[] classInstructions = new long[CLASSES.length], classAccesses = new long[CLASSES.length];
+		long externalCalls = 0;
+		for (int i = 0; i < hits.length; i++) {
+			int c = CLASS_OF[opcodes[i]];
+			classInstructions[c] += hits[i];
+			classAccesses[c] += hits[i] * (reads[i] + writes[i]);
+			if (opcodes[i] == JAL && targets[i * SLOTS] < 0) {
+				externalCalls += hits[i];
+			}
+		}
+		for (int c = 0; c < CLASSES.length; c++) {
+			counts.put(CLASSES[c] + " instructions", classInstructions[c]);
+			counts.put("# of memory accesses by " + CLASSES[c].toLowerCase() + " instructions", classAccesses[c]);
+		}
+		counts.put("Calls to undeclared functions", externalCalls);
+	}
+	
+	protected int indexOf(int address) throws ExecutionFault {
+		if (!nextAddresses || address == HOST_ADDRESS) {
+			return super.indexOf(address);
+		}
+		int index = instructionsAt.get(address);
+		if (index == AddressMap.NONE) {
+			throw new ExecutionFault("Jump to address " + address + ", where there is no instruction");
+		}
+		// the address after the last instruction is the end of the code
+		return index;
+	}
+	
+	protected int addressOf(int index) {
+		return nextAddresses ? addresses[index] : index;
+	}
+	
+	/** Decodes the address of the next instruction at the end of an MM4ADDRESS instruction, finding which instruction it is
+	 * 
+	 */
+	private Operand next(String text) {
+		if (!isNumber(text)) {
+			throw new IllegalArgumentException("Expected the address of the next instruction, not " + text);
+		}
+		int address = toNumber(text), index = instructionsAt.get(address);
+		if (index == AddressMap.NONE) {
+			throw new IllegalArgumentException("There is no instruction at address " + address);
+		}
+		return new Operand(Operand.LABEL, address, index, text);
+	}
+	
+	/** Decodes an operand, which is always a word in memory: a variable's, or the one that holds a number
+	 * 
+	 */
+	private Operand word(String text) {
+		Operand decoded = data(text);
+		if (decoded.kind == Operand.IMMEDIATE) {
+			int address = variable(String.valueOf(decoded.value));
+			constants.put(address, decoded.value);
+			return new Operand(Operand.VARIABLE, address, text);
+		}
+		return decoded;
+	}
+	
+	/** Decodes the word lw loads, eg. "4(sum)", at a number plus the value of a variable
+	 * 
+	 */
+	private Operand indexed(String text) {
+		int open = text.indexOf('(');
+		String offset = open < 0 ? "" : text.substring(0, open).trim();
+		if (open < 0 || !text.endsWith(")") || !(offset.isEmpty() || isNumber(offset))) {
+			throw new IllegalArgumentException("Expected a number and a variable, eg. 4(sum), not " + text);
+		}
+		return new Operand(data(offset), word(text.substring(open + 1, text.length() - 1).trim()), text);
+	}
+}
@@ -0,0 +1,381 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** Reads and writes object units (see ObjectUnit) in a compact binary file, so that a compiled file
+ * can be linked again later without compiling it.
+ * 
+ * A file holds the units of one source file, for any of the architectures:
+ * 	header		"PISAOBJ2", the number of strings, the number of units
+ * 	units		the offset of each unit in the file
+ * 	strings		the offset of each string in the file, then the strings (length and UTF-8 bytes)
+ * 	unit		architecture, file name, then for each section its name, counts, where it left code in the main program,
+ * 				number of lines and size,
+ * 				then the externals, labels, and relocations, then the sections' instruction streams
+ * Everything after the offset tables is a variable length int (7 bits a byte): a string is stored once and
+ * referred to by its number. Each line of code is stored as its label, operation, and operands,
+ * all as string numbers, so a 20 character instruction usually takes 4 or 5 bytes.
+ * A line that wouldn't come back exactly as it was written that way is stored whole.
+ * 
+ * load() maps the file into memory and only reads the tables it needs to find its way around.
+ * A section's code is decoded straight out of the mapping when it is asked for, and strings as they are used.
+ * 
+ */
+public class ObjectFile {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long MAGIC = 0x504953414f424a32L; // "PISAOBJ2"
+	private static final int HEADER = 16;
+	/** How a line's operation is stored: not there (a label on its own), the whole line, or a string number plus this */
+	private static final int NO_OPERATION = 0, RAW_LINE = 1, OPERATION = 2;
+	
+	/** Writes the units to a file, replacing it if it exists
+	 * 
+	 * @param units The units to write, null ones are left out
+	 * @param path Where to write them
+	 * @throws IOException if the file can't be written
+	 */
+	public static void write(ObjectUnit[] units, Path path) throws IOException {
+		HashMap<String, Integer> numbers = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		List<byte[]> blocks = new ArrayList<byte[]>();
+		for (ObjectUnit unit : units) {
+			if (unit != null) {
+				blocks.add(encode(unit, numbers, strings));
+			}
+		}
+		
+		ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+		int stringsStart = HEADER + 4*blocks.size() + 4*strings.size();
+		int[] stringOffsets = new int[strings.size()];
+		for (int i = 0; i < strings.size(); i++) {
+			stringOffsets[i] = stringsStart + stringData.size();
+			byte[] bytes = strings.get(i).getBytes(UTF8);
+			putVarint(stringData, bytes.length);
+			stringData.write(bytes, 0, bytes.length);
+		}
+		
+		ByteBuffer file = ByteBuffer.allocate(stringsStart + stringData.size() + totalLength(blocks));
+		file.putLong(MAGIC).putInt(strings.size()).putInt(blocks.size());
+		int offset = stringsStart + stringData.size();
+		for (byte[] block : blocks) {
+			file.putInt(offset);
+			offset += block.length;
+		}
+		for (int o : stringOffsets) {
+			file.putInt(o);
+		}
+		file.put(stringData.toByteArray());
+		for (byte[] block : blocks) {
+			file.put(block);
+		}
+		file.flip();
+		
+		// written next to the file then moved over it, so a reader never sees half of it
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			while (file.hasRemaining()) {
+				channel.write(file);
+			}
+		} finally {
+			channel.close();
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/** Maps an object file into memory
+	 * 
+	 * @param path A file written by write()
+	 * @return The units in the file, indexed by the ordinal of their architecture (null for the ones it doesn't have)
+	 * @throws IOException if the file can't be read or isn't an object file
+	 */
+	public static ObjectUnit[] load(Path path) throws IOException {
+		MappedByteBuffer map;
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			// the mapping stays valid after the channel is closed
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+		if (map.capacity() < HEADER || map.getLong(0) != MAGIC) {
+			throw new IOException(path + " is not an object file");
+		}
+		
+		try {
+			int stringCount = map.getInt(8), unitCount = map.getInt(12);
+			Strings strings = new Strings(map, HEADER + 4*unitCount, stringCount);
+			ObjectUnit[] units = new ObjectUnit[ISA.values().length];
+			for (int u = 0; u < unitCount; u++) {
+				ObjectUnit unit = decode(map, map.getInt(HEADER + 4*u), strings);
+				units[unit.architecture.ordinal()] = unit;
+			}
+			return units;
+		} catch (RuntimeException re) {
+			// eg. an offset past the end of a truncated file
+			throw new IOException(path + " is damaged", re);
+		}
+	}
+	
+	/** Encodes a unit, adding the strings it uses to strings
+	 * 
+	 */
+	private static byte[] encode(ObjectUnit unit, HashMap<String, Integer> numbers, List<String> strings) {
+		ByteArrayOutputStream header = new ByteArrayOutputStream(), streams = new ByteArrayOutputStream();
+		putVarint(header, unit.architecture.ordinal());
+		putVarint(header, number(unit.file, numbers, strings));
+		putVarint(header, unit.sections.length);
+		for (ObjectUnit.Section s : unit.sections) {
+			int start = streams.size();
+			String[] lines = s.getCode().split("\n", -1);
+			for (String line : lines) {
+				encodeLine(line, streams, numbers, strings);
+			}
+			putVarint(header, s.name == null ? 0 : number(s.name, numbers, strings) + 1);
+			putVarint(header, s.numInstructions);
+			putVarint(header, s.programBits);
+			putVarint(header, s.memAccesses);
+			putVarint(header, s.mainStart);
+			putVarint(header, s.mainEnd);
+			putVarint(header, lines.length);
+			putVarint(header, streams.size() - start);
+		}
+		for (String[] symbols : new String[][] {unit.externals, unit.labels}) {
+			putVarint(header, symbols.length);
+			for (String symbol : symbols) {
+				putVarint(header, number(symbol, numbers, strings));
+			}
+		}
+		putVarint(header, unit.relocations.length);
+		for (ObjectUnit.Relocation r : unit.relocations) {
+			putVarint(header, r.section);
+			putVarint(header, r.offset);
+			putVarint(header, number(r.symbol, numbers, strings));
+		}
+		
+		byte[] block = new byte[header.size() + streams.size()];
+		System.arraycopy(header.toByteArray(), 0, block, 0, header.size());
+		System.arraycopy(streams.toByteArray(), 0, block, header.size(), streams.size());
+		return block;
+	}
+	
+	/** Encodes a line as its label, operation and operands, eg. "Loop0:\tadd a, b, c", or whole if it isn't in that form
+	 * 
+	 */
+	private static void encodeLine(String line, ByteArrayOutputStream out, HashMap<String, Integer> numbers, List<String> strings) {
+		String label = ObjectUnit.label(line);
+		String instruction = label == null ? line : line.substring(label.length() + 1);
+		String operation = null;
+		String[] operands = null;
+		if (instruction.startsWith("\t") && instruction.indexOf(' ') > 0) {
+			int space = instruction.indexOf(' ');
+			operation = instruction.substring(1, space);
+			String rest = instruction.substring(space + 1);
+			operands = rest.isEmpty() ? new String[0] : rest.split(", ", -1);
+			if (!line.equals(decodeLine(label, operation, operands))) {
+				operation = null;
+			}
+		}
+		
+		if (operation == null && !instruction.isEmpty()) {
+			putVarint(out, 0);
+			putVarint(out, RAW_LINE);
+			putVarint(out, number(line, numbers, strings));
+			return;
+		}
+		putVarint(out, label == null ? 0 : number(label, numbers, strings) + 1);
+		if (operation == null) {
+			putVarint(out, NO_OPERATION);
+			return;
+		}
+		putVarint(out, number(operation, numbers, strings) + OPERATION);
+		putVarint(out, operands.length);
+		for (String operand : operands) {
+			putVarint(out, number(operand, numbers, strings));
+		}
+	}
+	
+	private static String decodeLine(String label, String operation, String[] operands) {
+		StringBuilder line = new StringBuilder();
+		appendLine(line, label, operation, operands);
+		return line.toString();
+	}
+	
+	private static void appendLine(StringBuilder line, String label, String operation, String[] operands) {
+		if (label != null) {
+			line.append(label).append(':');
+		}
+		if (operation != null) {
+			line.append('\t').append(operation).append(' ');
+			for (int i = 0; i < operands.length; i++) {
+				if (i > 0) {
+					line.append(", ");
+				}
+				line.append(operands[i]);
+			}
+		}
+	}
+	
+	/** Reads the unit at the given offset, leaving its code in the mapping
+	 * 
+	 */
+	private static ObjectUnit decode(ByteBuffer map, int offset, Strings strings) {
+		ByteBuffer in = map.duplicate();
+		in.position(offset);
+		ISA architecture = ISA.values()[getVarint(in)];
+		String file = strings.get(getVarint(in));
+		
+		ObjectUnit.Section[] sections = new ObjectUnit.Section[getVarint(in)];
+		int[] streamLengths = new int[sections.length];
+		for (int i = 0; i < sections.length; i++) {
+			int name = getVarint(in);
+			int numInstructions = getVarint(in), programBits = getVarint(in), memAccesses = getVarint(in);
+			int mainStart = getVarint(in), mainEnd = getVarint(in), lines = getVarint(in);
+			streamLengths[i] = getVarint(in);
+			sections[i] = new MappedSection(name == 0 ? null : strings.get(name - 1), numInstructions, programBits, memAccesses,
+					mainStart, mainEnd, map, lines, strings);
+		}
+		String[] externals = new String[getVarint(in)];
+		for (int i = 0; i < externals.length; i++) {
+			externals[i] = strings.get(getVarint(in));
+		}
+		String[] labels = new String[getVarint(in)];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = strings.get(getVarint(in));
+		}
+		ObjectUnit.Relocation[] relocations = new ObjectUnit.Relocation[getVarint(in)];
+		for (int i = 0; i < relocations.length; i++) {
+			int section = getVarint(in), at = getVarint(in);
+			relocations[i] = new ObjectUnit.Relocation(section, at, strings.get(getVarint(in)));
+		}
+		
+		// the instruction streams follow the tables
+		int stream = in.position();
+		for (int i = 0; i < sections.length; i++) {
+			((MappedSection) sections[i]).stream = stream;
+			stream += streamLengths[i];
+		}
+		return new ObjectUnit(file, architecture, sections, externals, labels, relocations);
+	}
+	
+	private static int totalLength(List<byte[]> blocks) {
+		int length = 0;
+		for (byte[] block : blocks) {
+			length += block.length;
+		}
+		return length;
+	}
+	
+	private static int number(String s, HashMap<String, Integer> numbers, List<String> strings) {
+		Integer n = numbers.get(s);
+		if (n == null) {
+			n = strings.size();
+			numbers.put(s, n);
+			strings.add(s);
+		}
+		return n;
+	}
+	
+	private static void putVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+	
+	private static int getVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+	
+	/** The strings of a mapped file, each decoded the first time it's needed
+	 * 
+	 */
+	private static class Strings {
+		private final ByteBuffer map;
+		private final int offsets;
+		private final String[] decoded;
+		
+		Strings(ByteBuffer map, int offsets, int count) {
+			this.map = map;
+			this.offsets = offsets;
+			decoded = new String[count];
+		}
+		
+		String get(int n) {
+			String s = decoded[n];
+			if (s == null) {
+				ByteBuffer in = map.duplicate();
+				in.position(map.getInt(offsets + 4*n));
+				int length = getVarint(in);
+				in.limit(in.position() + length);
+				s = UTF8.decode(in).toString();
+				// another thread may decode the same string, but it will be an equal one
+				decoded[n] = s;
+			}
+			return s;
+		}
+	}
+	
+	/** A section whose code stays in the mapped file until it's asked for
+	 * 
+	 */
+	private static class MappedSection extends ObjectUnit.Section {
+		private final ByteBuffer map;
+		private final int lines;
+		private final Strings strings;
+		private int stream;
+		
+		MappedSection(String name, int numInstructions, int programBits, int memAccesses, int mainStart, int mainEnd,
+				ByteBuffer map, int lines, Strings strings) {
+			super(name, null, numInstructions, programBits, memAccesses, mainStart, mainEnd);
+			this.map = map;
+			this.lines = lines;
+			this.strings = strings;
+		}
+		
+		String getCode() {
+			ByteBuffer in = map.duplicate();
+			in.position(stream);
+			StringBuilder code = new StringBuilder();
+			for (int l = 0; l < lines; l++) {
+				if (l > 0) {
+					code.append('\n');
+				}
+				int label = getVarint(in), operation = getVarint(in);
+				if (operation == RAW_LINE) {
+					code.append(strings.get(getVarint(in)));
+					continue;
+				}
+				String[] operands = null;
+				if (operation >= OPERATION) {
+					operands = new String[getVarint(in)];
+					for (int i = 0; i < operands.length; i++) {
+						operands[i] = strings.get(getVarint(in));
+					}
+				}
+				appendLine(code, label == 0 ? null : strings.get(label - 1),
+						operation == NO_OPERATION ? null : strings.get(operation - OPERATION), operands);
+			}
+			return code.toString();
+		}
+	}
+}
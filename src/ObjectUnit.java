@@ -0,0 +1,224 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/** One file compiled for one architecture, but not yet laid out: what a Linker puts together into a program.
+ * 
+ * The code is kept in sections: the main program first, then one section per function declaration,
+ * each with what it adds to the instruction count, size, and memory accesses, and where the code compiling it
+ * left in the main program is (so a linker that leaves the declaration out can leave that out too). Next-instruction addresses
+ * (in MM4ADDRESS) are still symbolic, so the code can go anywhere in the final image.
+ * 
+ * The symbol table says which functions the unit defines (the names of its function sections), which ones it
+ * calls without defining (its externals), and which labels are its own (eg. the labels of loops and return addresses).
+ * The relocation table says where in the code each of those names is used, so that the linker can rename a label
+ * that another unit already uses.
+ * 
+ */
+public class ObjectUnit {
+	
+	final String file;
+	final ISA architecture;
+	/** The main program, then the function declarations in the order they were written */
+	final Section[] sections;
+	final String[] externals, labels;
+	final Relocation[] relocations;
+	
+	public ObjectUnit(String file, ISA architecture, Section[] sections, String[] externals, String[] labels, Relocation[] relocations) {
+		this.file = file;
+		this.architecture = architecture;
+		this.sections = sections;
+		this.externals = externals;
+		this.labels = labels;
+		this.relocations = relocations;
+	}
+	
+	/** Copies a translated program out of its context, see Compiler.compileUnit
+	 * 
+	 * @param file The name of the file the program came from
+	 * @param architecture The architecture it was translated for
+	 * @param ctx The context holding the main program in output and the function declarations in functionsToAdd
+	 */
+	public ObjectUnit(String file, ISA architecture, CompilationContext ctx) {
+		this.file = file;
+		this.architecture = architecture;
+		
+		String functions = ctx.functionsToAdd.toString();
+		List<CompilationContext.Definition> definitions = new ArrayList<CompilationContext.Definition>(ctx.definitions);
+		if (definitions.isEmpty() && functions.length() > 0) {
+			definitions.add(new CompilationContext.Definition("", 0, 0, 0, 0));
+		}
+		sections = new Section[definitions.size() + 1];
+		int numInstructions = ctx.numInstructions, programBits = ctx.programBits, memAccesses = ctx.memAccesses;
+		for (int i = 0; i < definitions.size(); i++) {
+			CompilationContext.Definition d = definitions.get(i);
+			int start = i == 0 ? 0 : d.start, end = i+1 < definitions.size() ? definitions.get(i+1).start : functions.length();
+			sections[i+1] = new Section(d.name, functions.substring(start, end), d.numInstructions, d.programBits, d.memAccesses,
+					d.mainStart, d.mainEnd);
+			numInstructions -= d.numInstructions;
+			programBits -= d.programBits;
+			memAccesses -= d.memAccesses;
+		}
+		sections[0] = new Section(null, ctx.output.toString(), numInstructions, programBits, memAccesses, 0, 0);
+		
+		// every label defined in the code that isn't a function is the unit's own
+		Set<String> defined = new LinkedHashSet<String>(), local = new LinkedHashSet<String>();
+		for (int i = 1; i < sections.length; i++) {
+			defined.add(sections[i].name);
+		}
+		for (Section s : sections) {
+			for (String line : s.getCode().split("\n")) {
+				String label = label(line);
+				if (label != null && !defined.contains(label)) {
+					local.add(label);
+				}
+			}
+		}
+		Set<String> external = new LinkedHashSet<String>(ctx.calls);
+		external.removeAll(defined);
+		externals = external.toArray(new String[external.size()]);
+		labels = local.toArray(new String[local.size()]);
+		
+		Set<String> symbols = new LinkedHashSet<String>(local);
+		symbols.addAll(defined);
+		symbols.addAll(external);
+		List<Relocation> found = new ArrayList<Relocation>();
+		for (int i = 0; i < sections.length; i++) {
+			findRelocations(i, sections[i].getCode(), symbols, found);
+		}
+		relocations = found.toArray(new Relocation[found.size()]);
+	}
+	
+	public String getFile() {
+		return file;
+	}
+	
+	public ISA getArchitecture() {
+		return architecture;
+	}
+	
+	/** Returns the names of the functions this unit defines, in order (a name can be defined more than once)
+	 * 
+	 */
+	public String[] getFunctions() {
+		String[] names = new String[sections.length - 1];
+		for (int i = 1; i < sections.length; i++) {
+			names[i-1] = sections[i].name;
+		}
+		return names;
+	}
+	
+	/** Returns the functions this unit calls but doesn't define
+	 * 
+	 */
+	public String[] getExternals() {
+		return externals.clone();
+	}
+	
+	public String toString() {
+		return file + " (" + architecture + "): " + (sections.length - 1) + " function(s) " + Arrays.toString(getFunctions())
+				+ ", " + externals.length + " external(s) " + Arrays.toString(externals) + ", " + labels.length + " label(s), "
+				+ relocations.length + " relocation(s)";
+	}
+	
+	/** Returns the label a line of code defines, or null if it doesn't start with one
+	 * 
+	 */
+	static String label(String line) {
+		if (line.isEmpty() || line.charAt(0) == '\t') {
+			return null;
+		}
+		int colon = line.indexOf(':');
+		return colon > 0 ? line.substring(0, colon) : null;
+	}
+	
+	/** Adds a relocation for every place in the code that a symbol is defined or used
+	 * 
+	 */
+	private static void findRelocations(int section, String code, Set<String> symbols, List<Relocation> found) {
+		int lineStart = 0;
+		while (lineStart < code.length()) {
+			int lineEnd = code.indexOf('\n', lineStart);
+			if (lineEnd < 0) {
+				lineEnd = code.length();
+			}
+			int i = lineStart;
+			String label = label(code.substring(lineStart, lineEnd));
+			if (label != null) {
+				if (symbols.contains(label)) {
+					found.add(new Relocation(section, lineStart, label));
+				}
+				i += label.length() + 1;
+			}
+			
+			// the operands, skipping the operation
+			boolean operation = true;
+			while (i < lineEnd) {
+				while (i < lineEnd && isSeparator(code.charAt(i))) {
+					i++;
+				}
+				int tokenStart = i;
+				while (i < lineEnd && !isSeparator(code.charAt(i))) {
+					i++;
+				}
+				if (i > tokenStart) {
+					if (!operation && symbols.contains(code.substring(tokenStart, i))) {
+						found.add(new Relocation(section, tokenStart, code.substring(tokenStart, i)));
+					}
+					operation = false;
+				}
+			}
+			lineStart = lineEnd + 1;
+		}
+	}
+	
+	private static boolean isSeparator(char c) {
+		return c == ' ' || c == '\t' || c == ',' || c == '(' || c == ')';
+	}
+	
+	/** The code of the main program or of one function declaration, and what it adds to the counts
+	 * 
+	 */
+	public static class Section {
+		/** The function's name, or null for the main program */
+		final String name;
+		private final String code;
+		final int numInstructions, programBits, memAccesses;
+		/** Where the code the function's declaration left in the main program's section is, from mainStart up to mainEnd
+		 * (its counts are in this section's) */
+		final int mainStart, mainEnd;
+		
+		public Section(String name, String code, int numInstructions, int programBits, int memAccesses, int mainStart, int mainEnd) {
+			this.name = name;
+			this.code = code;
+			this.numInstructions = numInstructions;
+			this.programBits = programBits;
+			this.memAccesses = memAccesses;
+			this.mainStart = mainStart;
+			this.mainEnd = mainEnd;
+		}
+		
+		/** Returns the section's code, lines separated by new lines
+		 * 
+		 */
+		String getCode() {
+			return code;
+		}
+	}
+	
+	/** A place in a section's code where a symbol is defined or used
+	 * 
+	 */
+	public static class Relocation {
+		final int section, offset;
+		final String symbol;
+		
+		public Relocation(int section, int offset, String symbol) {
+			this.section = section;
+			this.offset = offset;
+			this.symbol = symbol;
+		}
+	}
+}
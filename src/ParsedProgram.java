@@ -0,0 +1,84 @@
+import java.util.Arrays;
+
+/** A program split up the way every compiler reads it: into lines, with where its function declarations
+ * and elses are. None of this depends on the architecture, so it can be done once and handed to
+ * each compiler (see Compiler.compileProgram(ParsedProgram, ForkJoinPool)).
+ * 
+ */
+public class ParsedProgram {
+	
+	private final String code;
+	private final ElseIndex elses;
+	private final String[] lines;
+	/** For each line that starts a function declaration, the line holding its closing bracket, otherwise -1 */
+	private final int[] functionEnds;
+	
+	/**
+	 * @param code A string of code written in a C-like language
+	 */
+	public ParsedProgram(String code) {
+		this.code = code;
+		String fullCode = code.replaceAll("\n", "");
+		elses = new ElseIndex(fullCode);
+		lines = fullCode.split("(?<=[;}])"); // split lines by semi-colon
+		functionEnds = findFunctionDeclarations(lines);
+	}
+	
+	/** Returns the code as it was given
+	 * 
+	 */
+	public String getCode() {
+		return code;
+	}
+	
+	/** Returns the code without its line breaks, with where its elses are
+	 * 
+	 */
+	public ElseIndex getElses() {
+		return elses;
+	}
+	
+	/** Returns the program split into lines at each semi-colon and closing bracket.
+	 * The array is shared, so it must not be changed.
+	 * 
+	 */
+	public String[] getLines() {
+		return lines;
+	}
+	
+	/** Returns the last line of the function declaration starting at the given line, or -1 if none starts there
+	 * 
+	 */
+	public int getFunctionEnd(int line) {
+		return functionEnds[line];
+	}
+	
+	/** Finds the top-level function declarations in the program,
+	 * eg. "int f(int x) {" up to the line holding the closing bracket.
+	 * 
+	 * @param lines The program split into lines
+	 * @return An array parallel to lines, holding the end of each declaration at the index of the line it starts on
+	 */
+	private static int[] findFunctionDeclarations(String[] lines) {
+		int[] ends = new int[lines.length];
+		Arrays.fill(ends, -1);
+		boolean insideBrackets = false;
+		
+		for (int i=0; i<lines.length; i++) {
+			if (insideBrackets) {
+				// eg. the body of a switch statement
+				insideBrackets = !lines[i].contains("}");
+			} else if (Compiler.FUNCTION_DECLARATION.matcher(lines[i]).find()) {
+				int end = i;
+				while (end < lines.length-1 && !lines[end].contains("}")) {
+					end++;
+				}
+				ends[i] = end;
+				i = end;
+			} else if (lines[i].contains("{")) {
+				insideBrackets = !lines[i].contains("}");
+			}
+		}
+		return ends;
+	}
+}
@@ -0,0 +1,110 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/** Streams the simulator's report to a file as it is produced, instead of building it all in memory first.
+ * Every appended piece is encoded into its own buffer, and the pending buffers are written to the file
+ * in one gathering write once enough of them have built up (or on flush/close).
+ * 
+ * The file is only created once something is written to it, so an empty report leaves no file behind.
+ * 
+ */
+public class ResultWriter implements Appendable, Closeable {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int FLUSH_THRESHOLD = 64 * 1024;
+	
+	private final String filename;
+	private final PrintStream echo;
+	private String echoPrefix;
+	private FileChannel channel;
+	private final ArrayList<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+	private long pendingBytes = 0, bytesWritten = 0;
+	
+	/**
+	 * @param filename The file to write the report to
+	 * @param echo A stream that gets a copy of everything written, or null
+	 * @param echoPrefix Written to echo before the first piece of the report, or null
+	 */
+	public ResultWriter(String filename, PrintStream echo, String echoPrefix) {
+		this.filename = filename;
+		this.echo = echo;
+		this.echoPrefix = echoPrefix;
+	}
+	
+	public synchronized ResultWriter append(CharSequence csq) throws IOException {
+		if (csq.length() == 0) {
+			return this;
+		}
+		ByteBuffer bytes = UTF8.encode(csq.toString());
+		if (echo != null) {
+			if (echoPrefix != null) {
+				echo.print(echoPrefix);
+				echoPrefix = null;
+			}
+			echo.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		}
+		pending.add(bytes);
+		pendingBytes += bytes.remaining();
+		if (pendingBytes >= FLUSH_THRESHOLD) {
+			flush();
+		}
+		return this;
+	}
+	
+	public ResultWriter append(CharSequence csq, int start, int end) throws IOException {
+		return append(csq.subSequence(start, end));
+	}
+	
+	public ResultWriter append(char c) throws IOException {
+		return append(String.valueOf(c));
+	}
+	
+	/** Writes all of the pending buffers to the file
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (pending.isEmpty()) {
+			return;
+		}
+		if (channel == null) {
+			channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		ByteBuffer[] buffers = pending.toArray(new ByteBuffer[pending.size()]);
+		long remaining = pendingBytes;
+		while (remaining > 0) {
+			remaining -= channel.write(buffers);
+		}
+		bytesWritten += pendingBytes;
+		pending.clear();
+		pendingBytes = 0;
+		if (echo != null) {
+			echo.flush();
+		}
+	}
+	
+	/** Returns the number of bytes written (or waiting to be written) so far
+	 * 
+	 */
+	public synchronized long length() {
+		return bytesWritten + pendingBytes;
+	}
+	
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			if (channel != null) {
+				channel.close();
+			}
+		}
+	}
+}
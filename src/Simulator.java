@@ -1,37 +1,407 @@
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Timestamp;
-import java.util.logging.FileHandler;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
 
 
 public class Simulator {
-
+	
 	public final Logger logger = Logger.getLogger(Simulator.class.getName());
 	
-	FileHandler fh;
+	/** How many compile tasks each thread can have queued or running at once. This bounds how many finished
+	 * results wait to be written while an earlier one is still compiling; the number isn't tuned for speed,
+	 * and whether more threads compile faster hasn't been measured on more than one processor.
+	 * 
+	 */
+	private static final int TASKS_PER_THREAD = 4;
+	/** How often a batch logs its progress, in files */
+	static final int PROGRESS_INTERVAL = 1000;
+	/** How many files -virtual has in flight at once, on virtual threads or (before Java 21) platform threads */
+	private static final int VIRTUAL_WINDOW = 1024, PLATFORM_WINDOW = 256;
+	
+	AsyncLogHandler fh;
 	
 	public Simulator() {
 		initializeLogFile();
 	}
 	
+	/** The first line of main()'s usage, logged when an option's value is bad */
+	private static final String USAGE = "Usage: java Simulator [-threads N] [-incremental] [-cache DIR] [-batch [-virtual] | -link [-objects DIR]"
+			+ " | -serve | -watch [-isa LIST] | -run [-entry NAME] [-args LIST] [-limit N] [-isa LIST]] FILES";
+	
+	/** Usage: java Simulator [-threads N] [-incremental] [-cache DIR] [-batch [-virtual] | -link [-objects DIR] | -serve | -watch [-isa LIST]
+	 * 			| -run [-entry NAME] [-args LIST] [-limit N] [-isa LIST]] FILES
+	 * 
+	 * FILES can be files, directories, glob patterns, or @manifest files (see InputFiles)
+	 * -threads N	compile on N worker threads (defaults to the number of available processors, 
+	 * 				or the simulator.threads system property if it is set)
+	 * -batch		stream the files through a pipeline that reads, parses, compiles, and writes them at the same time (see BatchPipeline),
+	 * 				and write a metrics CSV next to the report instead of echoing the report to the console
+	 * -virtual		with -batch, give every file a thread of its own (a virtual thread on Java 21+, see TaskScope)
+	 * 				and only let N of them compile at once
+	 * -link		compile each file into an object unit, then link all of them into one program per architecture (see Linker)
+	 * -objects DIR	with -link, keep each file's object units in DIR (see ObjectFile) and load them instead of compiling
+	 * 				the file again until it changes. FILES can also be object files (.o)
+	 * -serve		warm up, then compile requests read from stdin until it closes (see CompileServer)
+	 * -incremental	reuse compiled function declarations that haven't changed (see FunctionCache), 
+	 * 				keeping up to simulator.cache.mb (default 64) megabytes of them
+	 * -cache DIR	keep compiled programs and functions in DIR between runs (see DiskCache)
+	 * -watch		compile FILES, then recompile each one whenever it is saved and print how its metrics changed (see Watcher),
+	 * 				for the architectures in -isa LIST (eg. MM4ADDRESS,STACK, default all of them)
+	 * -run		compile FILES, then run them (see Interpreter) and print what they actually did, for the architectures in -isa LIST
+	 * 				(default all of the ones there's an interpreter for). -entry NAME runs the function NAME instead of the main program,
+	 * 				with the arguments in -args LIST (eg. 5,3), and -limit N stops a run after N instructions (default 100 million)
+	 */
 	public static void main(String[] args) {
 		Simulator ms = new Simulator();
-		StringBuffer output = new StringBuffer();
+		int threads = Integer.getInteger("simulator.threads", Runtime.getRuntime().availableProcessors());
+		boolean batch = false, perFile = false, link = false, serve = false, watch = false, execute = false;
+		String cacheDirectory = null, objectDirectory = null, architectures = "ALL", entry = null, arguments = "";
+		long limit = Interpreter.DEFAULT_LIMIT;
+		LinkedList<String> files = new LinkedList<String>();
+		
+		for (int i=0; i<args.length; i++) {
+			if (args[i].contentEquals("-threads") && i+1 < args.length) {
+				long n = atLeastOne(args[++i]);
+				if (n < 0 || n > Integer.MAX_VALUE) {
+					ms.logger.severe("Bad -threads " + args[i] + ": it has to be a whole number, at least 1\n" + USAGE);
+					return;
+				}
+				threads = (int) n;
+			} else if (args[i].contentEquals("-batch")) {
+				batch = true;
+			} else if (args[i].contentEquals("-virtual")) {
+				perFile = true;
+			} else if (args[i].contentEquals("-link")) {
+				link = true;
+			} else if (args[i].contentEquals("-objects") && i+1 < args.length) {
+				objectDirectory = args[++i];
+			} else if (args[i].contentEquals("-serve")) {
+				serve = true;
+			} else if (args[i].contentEquals("-watch")) {
+				watch = true;
+			} else if (args[i].contentEquals("-run")) {
+				execute = true;
+			} else if (args[i].contentEquals("-entry") && i+1 < args.length) {
+				entry = args[++i];
+			} else if (args[i].contentEquals("-args") && i+1 < args.length) {
+				arguments = args[++i];
+			} else if (args[i].contentEquals("-limit") && i+1 < args.length) {
+				limit = atLeastOne(args[++i]);
+				if (limit < 0) {
+					ms.logger.severe("Bad -limit " + args[i] + ": it has to be a whole number, at least 1\n" + USAGE);
+					return;
+				}
+			} else if (args[i].contentEquals("-isa") && i+1 < args.length) {
+				architectures = args[++i];
+			} else if (args[i].contentEquals("-cache") && i+1 < args.length) {
+				cacheDirectory = args[++i];
+			} else if (args[i].contentEquals("-incremental")) {
+				Compiler.setFunctionCache(new FunctionCache(Integer.getInteger("simulator.cache.mb", 64) * 1024L * 1024L));
+			} else {
+				files.add(args[i]);
+			}
+		}
+		
+		CompilationContext.setPoolSize(threads);
+		
+		DiskCache cache = null;
+		if (cacheDirectory != null) {
+			try {
+				cache = new DiskCache(cacheDirectory);
+				Compiler.setDiskCache(cache);
+			} catch (IOException ioe) {
+				ms.logger.log(Level.WARNING, "Not using the cache: "+ioe.getMessage(), ioe);
+			}
+		}
+		try {
+			if (watch) {
+				ms.watch(files, architectures);
+			} else if (execute) {
+				ms.execute(files, architectures, entry, arguments, limit);
+			} else {
+				ms.run(files, threads, batch, perFile, link, objectDirectory, serve);
+			}
+		} finally {
+			if (cache != null) {
+				ms.logger.info(cache.toString());
+				Compiler.setDiskCache(null);
+				try {
+					cache.close();
+				} catch (IOException ioe) {
+					ms.logger.log(Level.SEVERE, ioe.getMessage(), ioe);
+				}
+			}
+		}
+	}
+	
+	/** Returns an option's value as a number, or -1 if it isn't a whole number of at least 1
+	 * 
+	 */
+	private static long atLeastOne(String value) {
+		try {
+			long n = Long.parseLong(value.trim());
+			return n >= 1 ? n : -1;
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+	
+	/** Compiles the files, then keeps recompiling them as they change until the simulator is stopped
+	 * 
+	 */
+	private void watch(List<String> files, String architectures) {
+		try {
+			EnumSet<ISA> selected = CompileServer.parseArchitectures(architectures);
+			CompileServer.warmUp(logger);
+			new Watcher(logger, System.out, files, selected).watch();
+		} catch (IllegalArgumentException iae) {
+			logger.log(Level.SEVERE, "Unknown architecture in "+architectures, iae);
+		} catch (IOException ioe) {
+			logger.log(Level.SEVERE, ioe.getMessage(), ioe);
+		}
+	}
+	
+	/** Compiles each file and runs it in each of the architectures, writing what it did to "Simulator Output <timestamp>" and the console
+	 * 
+	 * @param entry The function to run, or null for the main program
+	 * @param arguments The arguments to call it with, separated by commas
+	 * @param limit The most instructions a run can execute
+	 */
+	private void execute(List<String> files, String architectures, String entry, String arguments, long limit) {
+		EnumSet<ISA> selected;
+		int[] values;
+		try {
+			selected = architectures.equalsIgnoreCase("ALL") ? Interpreter.ARCHITECTURES : CompileServer.parseArchitectures(architectures);
+			String[] words = arguments.isEmpty() ? new String[0] : arguments.split(",");
+			values = new int[words.length];
+			for (int i = 0; i < words.length; i++) {
+				values[i] = Integer.parseInt(words[i].trim());
+			}
+		} catch (IllegalArgumentException iae) {
+			logger.log(Level.SEVERE, "Bad -isa or -args: "+iae.getMessage(), iae);
+			return;
+		}
 		
+		String timestamp = String.valueOf(new Timestamp(System.currentTimeMillis()));
+		ResultWriter output = new ResultWriter("Simulator Output "+timestamp, System.out, "Output:\n");
 		try {
-			output.append(ms.simulate(args) + "\n");
+			for (String file : InputFiles.list(files)) {
+				String input = FileHelper.readContents(file);
+				for (ISA i : selected) {
+					output.append("File: "+file+"\nArchitecture: "+i+"\nRun: "+(entry == null ? "main program" : entry+"("+arguments+")")+"\n");
+					try {
+						CompilationResult program = Compiler.getCompiler(i).compileProgram(input, null);
+						output.append(Interpreter.create(i, program.getCode()).run(entry, values, limit)+"\n");
+					} catch (Exception e) {
+						output.append("Not run: "+e.getMessage()+"\n\n");
+						logger.log(Level.SEVERE, file+" ("+i+"): "+e.getMessage(), e);
+					}
+				}
+			}
+		} catch (IOException ioe) {
+			logger.log(Level.SEVERE, ioe.getMessage(), ioe);
+		} finally {
+			try {
+				output.close();
+			} catch (IOException ioe) {
+				logger.log(Level.SEVERE, ioe.getMessage(), ioe);
+			}
+		}
+	}
+	
+	/** Runs the simulator in the mode picked on the command line, see main()
+	 * 
+	 */
+	private void run(List<String> files, int threads, boolean batch, boolean perFile, boolean link, String objectDirectory, boolean serve) {
+		if (serve) {
+			CompileServer server = new CompileServer(logger, System.out, threads);
+			CompileServer.warmUp(logger);
+			try {
+				server.serve(System.in);
+			} catch (IOException ioe) {
+				logger.log(Level.SEVERE, ioe.getMessage(), ioe);
+			}
+			return;
+		}
+		
+		String timestamp = String.valueOf(new Timestamp(System.currentTimeMillis()));
+		if (batch) {
+			batch(files, threads, perFile, timestamp);
+			return;
+		} else if (link) {
+			link(files, threads, objectDirectory, timestamp);
+			return;
+		}
+		List<String> inputs = InputFiles.list(files);
+		
+		// the report is written to the file (and echoed to the console) as each file is compiled
+		ResultWriter output = new ResultWriter("Simulator Output "+timestamp, System.out, "Output:\n");
+		try {
+			long start = System.nanoTime();
+			simulate(inputs.toArray(new String[inputs.size()]), threads, output);
+			output.append("\n");
+			logger.info("Compiled "+inputs.size()+" file(s) for "+ISA.values().length+" architectures on "
+					+threads+" thread(s) in "+((System.nanoTime()-start)/1000000)+" ms");
 		} catch (Exception e) {
-			ms.logger.log(Level.SEVERE, e.getMessage(), e);
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			try {
+				output.close();
+			} catch (IOException ioe) {
+				logger.log(Level.SEVERE, ioe.getMessage(), ioe);
+			}
 		}
 		
-		if (output.length() > args.length) { // there's at least 1 \n for each arg, so this is the minimum
-			System.out.println("Output:\n"+output);
-			FileHelper.writeFile("Simulator Output "+(new Timestamp(System.currentTimeMillis())), output.toString()); //TODO: create file
+		if (output.length() > 0) {
+			System.out.println();
 		} else {
-			ms.logger.info("Output was empty. No output file created.");
+			logger.info("Output was empty. No output file created.");
+		}
+	}
+	
+	/** Runs the files through a BatchPipeline (or simulateBatch with a thread per file), writing the report to "Simulator Output <timestamp>"
+	 * and the metrics to "Simulator Metrics <timestamp>.csv", and logs the totals.
+	 * 
+	 */
+	private void batch(List<String> args, int threads, boolean perFile, String timestamp) {
+		ResultWriter report = new ResultWriter("Simulator Output "+timestamp, null, null),
+				metrics = new ResultWriter("Simulator Metrics "+timestamp+".csv", null, null);
+		try {
+			BatchMetrics totals;
+			String stages = "";
+			if (perFile) {
+				totals = simulateBatch(new InputFiles(args), threads, true, report, metrics);
+			} else {
+				BatchPipeline pipeline = new BatchPipeline(logger, threads);
+				totals = pipeline.run(new InputFiles(args), report, metrics);
+				stages = "\n"+pipeline;
+			}
+			report.append("\n" + totals);
+			logger.info("Batch finished on "+threads+" thread(s)"
+					+(perFile ? ", a "+(TaskScope.usesVirtualThreads() ? "virtual" : "platform")+" thread per file" : "")+"\n"+totals+stages
+					+(Compiler.getFunctionCache() != null ? "\n"+Compiler.getFunctionCache() : ""));
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			try {
+				report.close();
+				metrics.close();
+			} catch (IOException ioe) {
+				logger.log(Level.SEVERE, ioe.getMessage(), ioe);
+			}
+		}
+	}
+	
+	/** Compiles every file into an object unit for every architecture, on the given number of threads,
+	 * then links each architecture's units in the order the files were given, 
+	 * writing the linked programs to "Simulator Output <timestamp>" and the console.
+	 * 
+	 * @param objectDirectory Where to keep the files' object units between runs, or null to always compile them
+	 */
+	private void link(List<String> args, int threads, String objectDirectory, String timestamp) {
+		final List<String> inputs = InputFiles.list(args);
+		ResultWriter output = new ResultWriter("Simulator Output "+timestamp, System.out, "Output:\n");
+		ForkJoinPool pool = new ForkJoinPool(Math.max(threads, 1));
+		final ISA[] architectures = ISA.values();
+		final AtomicInteger loaded = new AtomicInteger();
+		try {
+			final Path objects = objectDirectory == null ? null : Files.createDirectories(Paths.get(objectDirectory));
+			long start = System.nanoTime();
+			List<Future<ObjectUnit[]>> compiled = new ArrayList<Future<ObjectUnit[]>>(inputs.size());
+			for (final String file : inputs) {
+				compiled.add(pool.submit(new Callable<ObjectUnit[]>() {
+					public ObjectUnit[] call() throws IOException, StringNotFoundException {
+						if (file.endsWith(".o")) {
+							loaded.incrementAndGet();
+							return ObjectFile.load(Paths.get(file));
+						}
+						Path object = objects == null ? null : objects.resolve(objectName(file));
+						ObjectUnit[] units = object == null ? null : loadObjects(file, object);
+						if (units != null) {
+							loaded.incrementAndGet();
+							return units;
+						}
+						
+						ParsedProgram program = new ParsedProgram(FileHelper.readContents(file));
+						units = new ObjectUnit[architectures.length];
+						for (ISA i : architectures) {
+							units[i.ordinal()] = Compiler.getCompiler(i).compileUnit(file, program, null);
+						}
+						if (object != null) {
+							try {
+								ObjectFile.write(units, object);
+							} catch (IOException ioe) {
+								logger.log(Level.WARNING, "Couldn't write "+object+": "+ioe.getMessage(), ioe);
+							}
+						}
+						return units;
+					}
+				}));
+			}
+			Linker[] linkers = new Linker[architectures.length];
+			for (ISA i : architectures) {
+				linkers[i.ordinal()] = new Linker(i);
+			}
+			for (int f = 0; f < inputs.size(); f++) {
+				try {
+					ObjectUnit[] units = compiled.get(f).get();
+					for (ISA i : architectures) {
+						if (units[i.ordinal()] == null) {
+							logger.severe(inputs.get(f)+" has no object unit for "+i);
+						} else {
+							linkers[i.ordinal()].add(units[i.ordinal()]);
+						}
+					}
+				} catch (ExecutionException ee) {
+					// leave the file out of the program
+					logger.log(Level.SEVERE, inputs.get(f)+": "+ee.getCause().getMessage(), ee.getCause());
+				}
+			}
+			long compiledAt = System.nanoTime();
+			
+			for (ISA i : architectures) {
+				Linker linker = linkers[i.ordinal()];
+				CompilationResult program = linker.link();
+				output.append("Architecture: " + i + "\nLinked: " + inputs.size() + " file(s), " 
+						+ linker.getDuplicates() + " duplicate function declaration(s) left out"
+						+ (linker.getUndefined().isEmpty() ? "" : ", undefined: " + linker.getUndefined()) + "\nCode:\n");
+				output.append(program.getCode() + "\n\n");
+			}
+			logger.info("Compiled "+(inputs.size()-loaded.get())+" file(s) and loaded "+loaded.get()+" on "+threads+" thread(s) in "
+					+((compiledAt-start)/1000000)+" ms, linked "
+					+architectures.length+" architectures in "+((System.nanoTime()-compiledAt)/1000000)+" ms");
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			logger.log(Level.SEVERE, "Interrupted while compiling", ie);
+		} catch (IOException ioe) {
+			logger.log(Level.SEVERE, ioe.getMessage(), ioe);
+		} finally {
+			pool.shutdownNow();
+			try {
+				output.close();
+			} catch (IOException ioe) {
+				logger.log(Level.SEVERE, ioe.getMessage(), ioe);
+			}
 		}
+		System.out.println();
 	}
 	
 	/** Creates a file to store the log output and attaches a file writer to the log.
@@ -41,10 +411,10 @@ public class Simulator {
 		try {
 			// credit for this try block to Sri Harsha Chilakapati on StackOverflow
 	        // This block configure the logger with handler and formatter  
-	        fh = new FileHandler("SimulatorLogFile.log", true);  
-	        logger.addHandler(fh);
-	        fh.setFormatter(new SimpleFormatter());
-
+	        // The handler writes on a thread of its own, and goes on the root logger so the compilers' errors are logged too
+	        fh = new AsyncLogHandler("SimulatorLogFile.log");
+	        Logger.getLogger("").addHandler(fh);
+	
 	        // the following statement is used to log any messages  
 	        logger.info("Simulator started.");
 	    } catch (SecurityException e) {  
@@ -63,28 +433,314 @@ public class Simulator {
 	 * @return The compiled forms of the file's code under different ISAs 
 	 */
 	public String simulate(String[] files) {
-		StringBuffer input, output = new StringBuffer();
-		Compiler c;
+		return simulate(files, 1);
+	}
+	
+	/** Same as simulate(files), but compiled on the given number of threads.
+	 * 
+	 * @param files The paths to files containing C-like code
+	 * @param threads The number of worker threads to compile on
+	 * @return The compiled forms of the files' code under different ISAs 
+	 */
+	public String simulate(String[] files, int threads) {
+		StringBuffer output = new StringBuffer();
+		try {
+			simulate(files, threads, output);
+		} catch (IOException ioe) {
+			// a StringBuffer never throws
+			throw new IllegalStateException(ioe);
+		}
+		return output.toString();
+	}
+	
+	/** Compiles every file in every architecture and writes the compiled codes to output
+	 * as soon as each one is ready, by architecture and then by file.
+	 * 
+	 * With more than 1 thread, every (architecture, file) pair is compiled as a separate task
+	 * on a work-stealing pool. Only a few tasks per thread are in flight at once, so the results
+	 * waiting to be written stay small no matter how many files there are.
+	 * 
+	 * @param files The paths to files containing C-like code
+	 * @param threads The number of worker threads to compile on
+	 * @param output Where to write the compiled codes, eg. a ResultWriter
+	 * @throws IOException if output can't be written to
+	 */
+	public void simulate(String[] files, int threads, Appendable output) throws IOException {
+		if (threads <= 1) {
+			for (ISA i : ISA.values()) {
+				output.append("Architecture: " + i + "\n");
+				try {
+					Compiler c = Compiler.getCompiler(i);
+					for (String file : files) {
+						String input = FileHelper.readContents(file);
+						output.append("File: " + file + "\nCode:\n");
+						output.append(c.compile(input) + "\n");
+					}
+				} catch (RuntimeException re) {
+					throw re;
+				} catch (IOException ioe) {
+					throw ioe;
+				} catch (Exception e) {
+					output.append(e.getMessage());
+					logger.log(Level.SEVERE, e.getMessage(), e);
+				}
+				output.append("\n");
+			}
+			return;
+		}
+		
+		ISA[] architectures = ISA.values();
+		int total = architectures.length * files.length, window = threads * TASKS_PER_THREAD, submitted = 0;
+		ArrayDeque<Future<String>> inFlight = new ArrayDeque<Future<String>>(window);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			boolean failed = false;
+			for (int r=0; r<total; r++) {
+				// keep the window full, in the order the results are written
+				for (; submitted < total && submitted < r + window; submitted++) {
+					ISA i = architectures[submitted / files.length];
+					inFlight.add(pool.submit(new CompileTask(i, files[submitted % files.length], pool)));
+				}
+				
+				String file = files[r % files.length];
+				if (r % files.length == 0) {
+					output.append("Architecture: " + architectures[r / files.length] + "\n");
+					failed = false;
+				}
+				Future<String> result = inFlight.poll();
+				if (failed) {
+					// the sequential version stops at the first error for an architecture
+					result.cancel(false);
+				} else {
+					try {
+						output.append(result.get());
+					} catch (ExecutionException ee) {
+						Throwable cause = ee.getCause();
+						if (cause instanceof RuntimeException) {
+							throw (RuntimeException) cause;
+						} else if (cause instanceof Error) {
+							throw (Error) cause;
+						}
+						output.append("File: " + file + "\nCode:\n");
+						output.append(cause.getMessage());
+						logger.log(Level.SEVERE, cause.getMessage(), cause);
+						failed = true;
+					}
+				}
+				if (r % files.length == files.length-1) {
+					output.append("\n");
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for compile tasks", ie);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/** Compiles every file in every architecture, one file at a time, for corpora too big to hold in memory.
+	 * Files are pulled from the iterator only as room opens up in a window of a few tasks per thread, 
+	 * so neither the list of files nor the results ever have to be held all at once. 
+	 * 
+	 * Each file's report is written to report as soon as it is next in order: 
+	 * the file name, then the code for every architecture. A CSV row per (file, architecture) goes to metrics.
+	 * An error in one file or architecture is reported and counted, and the batch carries on.
+	 * 
+	 * @param files The paths to files containing C-like code
+	 * @param threads The number of worker threads to compile on
+	 * @param report Where to write the compiled codes
+	 * @param metrics Where to write the metrics for each compiled file, or null
+	 * @return The totals for the whole batch
+	 * @throws IOException if report or metrics can't be written to
+	 */
+	public BatchMetrics simulateBatch(Iterator<String> files, int threads, Appendable report, Appendable metrics) throws IOException {
+		return simulateBatch(files, threads, false, report, metrics);
+	}
+	
+	/** Compiles every file in every architecture like simulateBatch(files, threads, report, metrics), 
+	 * optionally giving every file a thread of its own instead of queueing them for a pool.
+	 * 
+	 * With perFile, each file is read and compiled on its own thread in a TaskScope: a virtual thread when the JVM has them,
+	 * so a file waiting on the disk doesn't hold up a worker, or a platform thread otherwise. A lot more files are 
+	 * in flight than there are threads, but a semaphore only lets threads of them compile at once. 
+	 * If a file's thread fails outright (with an Error), the rest are cancelled and the error is thrown from here.
+	 * 
+	 * @param files The paths to files containing C-like code
+	 * @param threads The number of threads to compile on
+	 * @param perFile Whether to run a thread per file rather than a pool of threads
+	 * @param report Where to write the compiled codes
+	 * @param metrics Where to write the metrics for each compiled file, or null
+	 * @return The totals for the whole batch
+	 * @throws IOException if report or metrics can't be written to
+	 */
+	public BatchMetrics simulateBatch(Iterator<String> files, int threads, boolean perFile, Appendable report, Appendable metrics) throws IOException {
+		BatchMetrics totals = new BatchMetrics();
+		ForkJoinPool pool = threads > 1 && !perFile ? new ForkJoinPool(threads) : null;
+		TaskScope scope = perFile ? new TaskScope() : null;
+		Semaphore compiling = perFile ? new Semaphore(Math.max(threads, 1)) : null;
+		int window = !perFile ? Math.max(threads, 1) * TASKS_PER_THREAD 
+				: TaskScope.usesVirtualThreads() ? VIRTUAL_WINDOW : PLATFORM_WINDOW;
+		ArrayDeque<Future<BatchResult>> inFlight = new ArrayDeque<Future<BatchResult>>(window);
+		
+		if (metrics != null) {
+			metrics.append(BatchMetrics.CSV_HEADER);
+		}
+		try {
+			while (files.hasNext() || !inFlight.isEmpty()) {
+				// keep the window full
+				while (files.hasNext() && inFlight.size() < window) {
+					BatchTask task = new BatchTask(files.next(), pool, compiling);
+					if (scope != null) {
+						inFlight.add(scope.fork(task));
+					} else if (pool != null) {
+						inFlight.add(pool.submit(task));
+					} else {
+						inFlight.add(new FutureTask<BatchResult>(task));
+						((FutureTask<BatchResult>) inFlight.peekLast()).run();
+					}
+				}
+				
+				BatchResult result;
+				try {
+					result = inFlight.poll().get();
+				} catch (ExecutionException ee) {
+					// BatchTask catches everything but Errors
+					throw failure(ee.getCause());
+				} catch (CancellationException ce) {
+					// another file's thread failed, and the scope cancelled the rest
+					throw failure(scope != null && scope.getFailure() != null ? scope.getFailure() : ce);
+				}
+				result.writeTo(report, metrics, totals);
+				
+				if (totals.getFiles() % PROGRESS_INTERVAL == 0) {
+					logger.info(totals.getFiles()+" files compiled ("+String.format("%.1f", totals.getFilesPerSecond())+" files/s)");
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for compile tasks", ie);
+		} finally {
+			if (pool != null) {
+				pool.shutdownNow();
+			}
+			if (scope != null) {
+				scope.close();
+			}
+		}
+		
+		return totals;
+	}
+	
+	/** Returns the name a file's object units are kept under in the -objects directory,
+	 * which has the file's full path in it so files with the same name in different directories don't clash
+	 * 
+	 */
+	private static String objectName(String file) {
+		Path path = Paths.get(file).toAbsolutePath().normalize();
+		return path.getFileName() + "." + Integer.toHexString(path.toString().hashCode()) + ".o";
+	}
+	
+	/** Loads a file's object units if they were written since the file last changed
+	 * 
+	 * @return The units, or null if the file has to be compiled
+	 */
+	private ObjectUnit[] loadObjects(String file, Path object) {
+		try {
+			if (!Files.exists(object)
+					|| Files.getLastModifiedTime(object).compareTo(Files.getLastModifiedTime(Paths.get(file))) < 0) {
+				return null;
+			}
+			ObjectUnit[] units = ObjectFile.load(object);
+			for (ObjectUnit unit : units) {
+				if (unit == null) {
+					return null;
+				}
+			}
+			return units;
+		} catch (IOException ioe) {
+			logger.log(Level.WARNING, "Compiling "+file+" again: "+ioe.getMessage(), ioe);
+			return null;
+		}
+	}
+	
+	private static RuntimeException failure(Throwable cause) {
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new IllegalStateException(cause);
+	}
+	
+	/** Compiles one file in every architecture for simulateBatch
+	 * 
+	 */
+	private class BatchTask implements Callable<BatchResult> {
+		private final String file;
+		private final ForkJoinPool pool;
+		private final Semaphore compiling;
+		
+		/**
+		 * @param pool The pool to compile function declarations on, or null to compile them in this thread
+		 * @param compiling A permit is held from this while compiling (but not while reading the file), or null
+		 */
+		BatchTask(String file, ForkJoinPool pool, Semaphore compiling) {
+			this.file = file;
+			this.pool = pool;
+			this.compiling = compiling;
+		}
 		
-		for (ISA i : ISA.values()) {
-			output.append("Architecture: " + i + "\n");
+		public BatchResult call() throws InterruptedException {
+			ISA[] architectures = ISA.values();
+			BatchResult result = new BatchResult(file, architectures.length);
+			// each file is only read once in a batch, so don't fill up the cache with it
+			String input = FileHelper.readContents(file, false);
+			
+			if (compiling != null) {
+				compiling.acquire();
+			}
 			try {
-				c = Compiler.getCompiler(i);
-				for (String file : files) {
-					input = FileHelper.readFile(file);
-					output.append("File: " + file + "\nCode:\n");
-					output.append(c.compile(input.toString()) + "\n");
-				}
-			} catch (RuntimeException re) {
-				throw re;
-			} catch (Exception e) {
-				output.append(e.getMessage());
-				logger.log(Level.SEVERE, e.getMessage(), e);
+				compile(input, architectures, result);
+			} finally {
+				if (compiling != null) {
+					compiling.release();
+				}
 			}
-			output.append("\n");
+			return result;
 		}
 		
-		return output.toString();
+		private void compile(String input, ISA[] architectures, BatchResult result) {
+			for (ISA i : architectures) {
+				long start = System.nanoTime();
+				try {
+					result.results[i.ordinal()] = Compiler.getCompiler(i).compileProgram(input, pool);
+				} catch (Exception e) {
+					result.errors[i.ordinal()] = String.valueOf(e.getMessage());
+					logger.log(Level.SEVERE, file+" ("+i+"): "+e.getMessage(), e);
+				}
+				result.nanos[i.ordinal()] = System.nanoTime() - start;
+			}
+		}
+	}
+	
+	/** Compiles one file for one architecture, and returns the same text simulate(files) 
+	 * appends for that pair. The file's function declarations are compiled as subtasks on the same pool.
+	 * 
+	 */
+	private static class CompileTask implements Callable<String> {
+		private final ISA architecture;
+		private final String file;
+		private final ForkJoinPool pool;
+		
+		CompileTask(ISA architecture, String file, ForkJoinPool pool) {
+			this.architecture = architecture;
+			this.file = file;
+			this.pool = pool;
+		}
+		
+		public String call() throws Exception {
+			String input = FileHelper.readContents(file);
+			return "File: " + file + "\nCode:\n" + Compiler.getCompiler(architecture).compile(input, pool) + "\n";
+		}
 	}
 
 }
@@ -1,6 +1,5 @@
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 
 
@@ -22,7 +21,7 @@ public class StackCompiler extends Compiler {
 	 * @param var The name of a variable to translate to a register
 	 * @return The name of the register where the variable is stored
 	 */
-	protected String varToISAVar(String var) {
+	protected String varToISAVar(CompilationContext ctx, String var) {
 		return var;
 	}
 	
@@ -33,7 +32,7 @@ public class StackCompiler extends Compiler {
 	 * @param reg The name of a register to translate to a variable
 	 * @return The name of the variable held in reg
 	 */
-	protected String ISAVarToVar(String isaVar) {
+	protected String ISAVarToVar(CompilationContext ctx, String isaVar) {
 		int addrLoc = isaVar.indexOf("Temp");
 		if (addrLoc > -1) {
 			return isaVar.substring(addrLoc+4);
@@ -47,9 +46,9 @@ public class StackCompiler extends Compiler {
 	 * 
 	 * @param code C-like code
 	 */
-	protected void loadVars(String line) {
+	protected void loadVars(CompilationContext ctx, String line) {
 		String[] words = line.split("\\s+|(?<=\\W)(?=\\w)|\\s+|(?<=\\w)(?=\\W)|\\s+");
-		vars = new HashSet<String>();
+		ctx.vars.clear();
 		boolean nextIsArg = false, insideParens = false;
 		
 		for (String w : words) {
@@ -58,10 +57,10 @@ public class StackCompiler extends Compiler {
 				break;
 			} else if (nextIsArg && insideParens && w.matches("\\w+")) {
 				nextIsArg = false;
-				String areg = "arg"+currentArgs.size();
-				load(w);
-				store(areg);
-				currentArgs.add(w);
+				String areg = "arg"+ctx.currentArgs.size();
+				load(ctx, w);
+				store(ctx, areg);
+				ctx.currentArgs.add(w);
 			} else if (isKeyword(w)) {
 				continue;
 			} else if (insideParens && isIdentifier(w)) {
@@ -71,11 +70,11 @@ public class StackCompiler extends Compiler {
 			} else if (w.contentEquals(")")) {
 				insideParens = false;
 			} else if (w.matches("[a-zA-Z]+")) { 
-				vars.add(w); 
+				ctx.vars.add(w); 
 			}
 		}
 		
-		vars.clear();
+		ctx.vars.clear();
 	}
 	
 	/** Writes the line to the output in the ISA language
@@ -83,12 +82,12 @@ public class StackCompiler extends Compiler {
 	 * @param operation The operation of the line
 	 * @param oper	The operands for an assignment
 	 */
-	protected void writeLine(String operation, String... operands) {
+	protected void writeLine(CompilationContext ctx, String operation, String... operands) {
 		StringBuffer toWrite = new StringBuffer();
 		
 		// add label
-		if (!labelsToPrepend.isEmpty()) { // add a label if we have one saved
-			toWrite.append(labelsToPrepend.pollLast()+":\t");
+		if (!ctx.labelsToPrepend.isEmpty()) { // add a label if we have one saved
+			toWrite.append(ctx.labelsToPrepend.pollLast()+":\t");
 		} else {
 			toWrite.append("\t");
 		}
@@ -106,22 +105,22 @@ public class StackCompiler extends Compiler {
 		while (operandsList.size() > 0) {
 			// remove extra addresses
 			toWrite.append("push "+operandsList.poll()+"\n\t");
-			programBits += 30;
-			numInstructions++;
-			memAccesses++;
+			ctx.programBits += 30;
+			ctx.numInstructions++;
+			ctx.memAccesses++;
 		}
 
-		programBits += 6; // 6 opcode
+		ctx.programBits += 6; // 6 opcode
 		toWrite.append(operation+"\n");
-		numInstructions++;
+		ctx.numInstructions++;
 		
 		if (!result.isEmpty()) {
-			store(result);
+			store(ctx, result);
 		}
-		if (insideFunctionDeclaration) {
-			functionsToAdd.append(toWrite.toString());
+		if (ctx.insideFunctionDeclaration) {
+			ctx.functionsToAdd.append(toWrite.toString());
 		} else {
-			output.append(toWrite);
+			ctx.output.append(toWrite);
 		}
 	}
 	
@@ -131,24 +130,24 @@ public class StackCompiler extends Compiler {
 	 * @param tempName The name of the temporary address that will replace the array name in the current line 
 	 * @return the new programCounter after adding the lines
 	 */
-	protected void addArrayLoadingLine(String token, String tempName) {
+	protected void addArrayLoadingLine(CompilationContext ctx, String token, String tempName) {
 		String[] tokenParts = token.split("[\\[\\]]");
-		String index = tokenParts[1], tokenReg = varToISAVar(tokenParts[0]);
+		String index = tokenParts[1], tokenReg = varToISAVar(ctx, tokenParts[0]);
 		
 		if (index.matches("-?\\d+")) {
 			// index is an integer
-			load(String.valueOf(4 * Integer.parseInt(index))+"("+tokenReg+")");
-			writeLine("lw");
+			load(ctx, String.valueOf(4 * Integer.parseInt(index))+"("+tokenReg+")");
+			writeLine(ctx, "lw");
 		} else {
 			// index is a variable
-			String indexReg = varToISAVar(tokenParts[1]);
-			load(indexReg);
-			load("4");
-			writeLine("muli");
-			load(tokenReg);
-			writeLine("add");
-			writeLine("lw");
-			store(tempName);
+			String indexReg = varToISAVar(ctx, tokenParts[1]);
+			load(ctx, indexReg);
+			load(ctx, "4");
+			writeLine(ctx, "muli");
+			load(ctx, tokenReg);
+			writeLine(ctx, "add");
+			writeLine(ctx, "lw");
+			store(ctx, tempName);
 		}
 	}
 	
@@ -157,11 +156,11 @@ public class StackCompiler extends Compiler {
 	 * @param line An if statement
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleIfStatement(String line) throws StringNotFoundException {
+	protected void handleIfStatement(CompilationContext ctx, String line) throws StringNotFoundException {
 		// get the variables we need to compare
 		int conditionStart = line.indexOf("("), conditionEnd = line.indexOf(")");
 		String part1 = line.substring(conditionStart, conditionEnd), part2 = line.substring(conditionEnd+1);
-		LinkedList<String> operands = getOperandsToCompare(part1);
+		LinkedList<String> operands = getOperandsToCompare(ctx, part1);
 		
 		String oper1 = operands.poll(), oper2 = operands.poll(), label = "";
 		boolean hasGoto = (getOperation(line) == Operation.GOTO)? true : false;
@@ -175,41 +174,41 @@ public class StackCompiler extends Compiler {
 				}
 			}
 		} else {
-			label = "True"+ifLabels.size(); 
-			ifLabels.add(label);
-			labels.add(ifLabels.peekLast());
+			label = "True"+ctx.ifLabels.size(); 
+			ctx.ifLabels.add(label);
+			ctx.labels.add(ctx.ifLabels.peekLast());
 		}
 		
 		switch (getIfCondition(part1)) { 
 		case EQ: // equal
-			load(label); // assuming beq compares the top 2 elements of the stack, and if they're the same grabs the next one down
-			load(oper1);
-			load(oper2);
-			writeLine("beq"); break;
+			load(ctx, label); // assuming beq compares the top 2 elements of the stack, and if they're the same grabs the next one down
+			load(ctx, oper1);
+			load(ctx, oper2);
+			writeLine(ctx, "beq"); break;
 		case NE: // not equal 
-			load(label); 
-			load(oper1);
-			load(oper2);
-			writeLine("bne"); break;
+			load(ctx, label); 
+			load(ctx, oper1);
+			load(ctx, oper2);
+			writeLine(ctx, "bne"); break;
 		case LE: // less than
-			load(label); 
-			load(oper1);
-			load(oper2);
-			writeLine("slt"); 
-			load("0");
-			writeLine("bne"); break;
+			load(ctx, label); 
+			load(ctx, oper1);
+			load(ctx, oper2);
+			writeLine(ctx, "slt"); 
+			load(ctx, "0");
+			writeLine(ctx, "bne"); break;
 		}
 		
-		handleElse(line);
+		handleElse(ctx, line);
 		
-		if (!ifLabels.isEmpty()) {
-			labelsToPrepend.add(ifLabels.pollLast());
+		if (!ctx.ifLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.ifLabels.pollLast());
 		}
 		if (!hasGoto) {
-			translateAndAppendLine(part2);
+			translateAndAppendLine(ctx, part2);
 		}
-		if (!jumpLabels.isEmpty()) {
-			labelsToPrepend.add(jumpLabels.pollLast());
+		if (!ctx.jumpLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 		}
 	}
 	
@@ -218,16 +217,16 @@ public class StackCompiler extends Compiler {
 	 * @param line A while statement
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleWhileStatement(String line) throws StringNotFoundException {
+	protected void handleWhileStatement(CompilationContext ctx, String line) throws StringNotFoundException {
 		// create a loop label
-		String loopLabel = "Loop"+labelsToPrepend.size();
-		labelsToPrepend.add(loopLabel);
-		labels.add(labelsToPrepend.peekLast());
+		String loopLabel = "Loop"+ctx.labelsToPrepend.size();
+		ctx.labelsToPrepend.add(loopLabel);
+		ctx.labels.add(ctx.labelsToPrepend.peekLast());
 		
 		// get the variables we need to compare
 		int conditionStart = line.indexOf("("), conditionEnd = line.indexOf(")");
 		String part1 = line.substring(conditionStart, conditionEnd), part2 = line.substring(conditionEnd+1);
-		LinkedList<String> operands = getOperandsToCompare(part1);
+		LinkedList<String> operands = getOperandsToCompare(ctx, part1);
 		
 		String oper1 = operands.poll(), oper2 = operands.poll(), label = "";
 		boolean hasGoto = (getOperation(line) == Operation.GOTO)? true : false;
@@ -241,9 +240,9 @@ public class StackCompiler extends Compiler {
 				}
 			}
 		} else {
-			label = "Exit"+jumpLabels.size(); 
-			jumpLabels.add(label);
-			labels.add(jumpLabels.peekLast());
+			label = "Exit"+ctx.jumpLabels.size(); 
+			ctx.jumpLabels.add(label);
+			ctx.labels.add(ctx.jumpLabels.peekLast());
 		}
 		
 		switch (getIfCondition(part1)) { 
@@ -251,29 +250,29 @@ public class StackCompiler extends Compiler {
 		// because failing the original condition breaks the loop 
 		// (so succeeding the opposite jumps to outside the loop)
 		case EQ: // equal
-			load(label);
-			load(oper1);
-			load(oper2);
-			writeLine("bne"); break;
+			load(ctx, label);
+			load(ctx, oper1);
+			load(ctx, oper2);
+			writeLine(ctx, "bne"); break;
 		case NE: // not equal
-			load(label);
-			load(oper1);
-			load(oper2);
-			writeLine("beq"); break;
+			load(ctx, label);
+			load(ctx, oper1);
+			load(ctx, oper2);
+			writeLine(ctx, "beq"); break;
 		case LE: // less than
-			load(label); 
-			load(oper1);
-			load(oper2);
-			writeLine("slt"); 
-			load("0");
-			writeLine("beq"); break;
+			load(ctx, label); 
+			load(ctx, oper1);
+			load(ctx, oper2);
+			writeLine(ctx, "slt"); 
+			load(ctx, "0");
+			writeLine(ctx, "beq"); break;
 		}
 
 		if (!hasGoto) {
-			translateAndAppendLine(part2);
+			translateAndAppendLine(ctx, part2);
 		}
-		if (!jumpLabels.isEmpty()) {
-			labelsToPrepend.add(jumpLabels.pollLast());
+		if (!ctx.jumpLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 		}
 	}
 	
@@ -283,7 +282,7 @@ public class StackCompiler extends Compiler {
 	 * @param line A switch statement
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleSwitchStatement(String line) throws StringNotFoundException {
+	protected void handleSwitchStatement(CompilationContext ctx, String line) throws StringNotFoundException {
 		// count the number of cases
 		String[] cases = line.split("case |default");
 		int numCases = cases.length;
@@ -293,28 +292,28 @@ public class StackCompiler extends Compiler {
 		
 		// add the lines for the switch variable
 		String switchVar = line.substring(line.indexOf('(')+1, line.indexOf(')'));
-		String exitLabel = "Exit"+jumpLabels.size(); 
-		jumpLabels.add(exitLabel);
-		labels.add(jumpLabels.peekLast());
-		load(exitLabel);
-		load(switchVar);
-		load("0");
-		writeLine("slti");
-		load("0");
-		writeLine("bne");
-		load(exitLabel);
-		load(switchVar);
-		load(String.valueOf(numCases));
-		writeLine("slti");
-		load("0");
-		writeLine("beq");
-		load(switchVar);
-		load("4");
-		writeLine("mul");
-		load("addrJumpTable");
-		writeLine("add");
-		writeLine("lw");
-		writeLine("jr");
+		String exitLabel = "Exit"+ctx.jumpLabels.size(); 
+		ctx.jumpLabels.add(exitLabel);
+		ctx.labels.add(ctx.jumpLabels.peekLast());
+		load(ctx, exitLabel);
+		load(ctx, switchVar);
+		load(ctx, "0");
+		writeLine(ctx, "slti");
+		load(ctx, "0");
+		writeLine(ctx, "bne");
+		load(ctx, exitLabel);
+		load(ctx, switchVar);
+		load(ctx, String.valueOf(numCases));
+		writeLine(ctx, "slti");
+		load(ctx, "0");
+		writeLine(ctx, "beq");
+		load(ctx, switchVar);
+		load(ctx, "4");
+		writeLine(ctx, "mul");
+		load(ctx, "addrJumpTable");
+		writeLine(ctx, "add");
+		writeLine(ctx, "lw");
+		writeLine(ctx, "jr");
 		
 		int i = 0;
 		for (String caseLine : cases) {
@@ -322,17 +321,17 @@ public class StackCompiler extends Compiler {
 				continue;
 			}
 			caseLine = caseLine.substring(caseLine.indexOf(":")+1, caseLine.indexOf("break;"));
-			labelsToPrepend.add("L"+i++);
-			translateAndAppendLine(caseLine);
+			ctx.labelsToPrepend.add("L"+i++);
+			translateAndAppendLine(ctx, caseLine);
 			if (i < numCases) { // don't append the last jump, because we already go to the exit
-				load(exitLabel);
-				writeLine("j");
+				load(ctx, exitLabel);
+				writeLine(ctx, "j");
 			}
 			
 		}
 		
-		if (!jumpLabels.isEmpty()) {
-			labelsToPrepend.add(jumpLabels.pollLast());
+		if (!ctx.jumpLabels.isEmpty()) {
+			ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 		}
 	}
 	
@@ -341,20 +340,20 @@ public class StackCompiler extends Compiler {
 	 * @param line A function call
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleFunctionCall(String line) throws StringNotFoundException {
-		if (insideFunctionDeclaration) {
+	protected void handleFunctionCall(CompilationContext ctx, String line) throws StringNotFoundException {
+		if (ctx.insideFunctionDeclaration) {
 			// store local variables 
 			int i=0;
-			load(getReturnAddressName());
-			store("stackAddr"+i);
-			stack.add(getReturnAddressName());
-			for (String a : currentArgs) {
+			load(ctx, getReturnAddressName(ctx));
+			store(ctx, "stackAddr"+i);
+			ctx.stack.add(getReturnAddressName(ctx));
+			for (String a : ctx.currentArgs) {
 				i++;
-				load(a);
-				store("stackAddr"+i);
-				stack.add(a);
+				load(ctx, a);
+				store(ctx, "stackAddr"+i);
+				ctx.stack.add(a);
 			}
-			returns.add(getReturnAddressName());
+			ctx.returns.add(getReturnAddressName(ctx));
 		}
 		
 		// Get function name
@@ -367,7 +366,7 @@ public class StackCompiler extends Compiler {
 			}
 			prev = t;
 		}
-		functions.put(name, new LinkedList<String>());
+		ctx.functions.put(name, new LinkedList<String>());
 		
 		// Get the arguments and replace them with "arg0", "arg1" etc
 		String[] argsPart = line.substring(line.indexOf("(")+1, line.indexOf(")")).split("[,\\s]");
@@ -375,25 +374,25 @@ public class StackCompiler extends Compiler {
 			if (a.isEmpty()) {
 				continue;
 			}
-			argLabel = "arg"+functions.get(name).size();
-			functions.get(name).add(a);
+			argLabel = "arg"+ctx.functions.get(name).size();
+			ctx.functions.get(name).add(a);
 			if (!argLabel.matches(a)) { // unless they already match
-				load(a);
-				store(argLabel);
+				load(ctx, a);
+				store(ctx, argLabel);
 			}
 		}
-		load(name);
-		writeLine("jal");
-		jumpLabels.add(getReturnAddressName());
-		if (insideFunctionDeclaration) {
-			labelsToPrepend.add(jumpLabels.pollLast());
+		load(ctx, name);
+		writeLine(ctx, "jal");
+		ctx.jumpLabels.add(getReturnAddressName(ctx));
+		if (ctx.insideFunctionDeclaration) {
+			ctx.labelsToPrepend.add(ctx.jumpLabels.pollLast());
 			// load the stored local variables
-			returns.add(getReturnAddressName());
-			for (String s : stack) {
-				load("stackAddr"+stack.indexOf(s));
-				store(s);
+			ctx.returns.add(getReturnAddressName(ctx));
+			for (String s : ctx.stack) {
+				load(ctx, "stackAddr"+ctx.stack.indexOf(s));
+				store(ctx, s);
 			}
-			stack.removeAll(stack);
+			ctx.stack.removeAll(ctx.stack);
 		}
 	}
 	
@@ -402,8 +401,8 @@ public class StackCompiler extends Compiler {
 	 * @param line A function declaration, including the body of the function
 	 * @throws StringNotFoundException 
 	 */
-	protected void handleFunctionDeclaration(String line) throws StringNotFoundException {
-		insideFunctionDeclaration = true;
+	protected void handleFunctionDeclaration(CompilationContext ctx, String line) throws StringNotFoundException {
+		ctx.insideFunctionDeclaration = true;
 		
 		// add function name to first line as a label
 		String[] tokens = line.split("\\s|(?=[-+*/()=:;])|(?<=[^-+*/=:;][-+*/=:;])|(?<=[()])");
@@ -415,7 +414,7 @@ public class StackCompiler extends Compiler {
 			}
 			prev = t;
 		}
-		labelsToPrepend.add(name);
+		ctx.labelsToPrepend.add(name);
 		
 		// replace argument names with addresses
 		HashMap<String, String> argReplacements = new HashMap<String, String>();
@@ -429,7 +428,7 @@ public class StackCompiler extends Compiler {
 			args.add(a);
 			String replacement = "arg"+(argsNum++);
 			argReplacements.put(a, replacement);
-			currentArgs.add(replacement);
+			ctx.currentArgs.add(replacement);
 		}
 		String functionBody = line.substring(line.indexOf("{")+1, line.indexOf("}"));
 		for (String arg : argReplacements.keySet()) {
@@ -439,13 +438,13 @@ public class StackCompiler extends Compiler {
 		
 		String[] bodyLines = functionBody.split("(?<=;)");
 		for (String b : bodyLines) {
-			translateAndAppendLine(b);
+			translateAndAppendLine(ctx, b);
 		}
 		
-		load(getReturnAddressName());
-		writeLine("jr");
-		insideFunctionDeclaration = false;
-		currentArgs.clear();
+		load(ctx, getReturnAddressName(ctx));
+		writeLine(ctx, "jr");
+		ctx.insideFunctionDeclaration = false;
+		ctx.currentArgs.clear();
 	}
 	
 	/** Adds the name of the "return value" variable in ISA code to the output.
@@ -460,8 +459,8 @@ public class StackCompiler extends Compiler {
 	 * Eg. in LoadStore it would be $ra, or in MM 4 Address it would be returnAddress 
 	 * 
 	 */
-	protected String getReturnAddressName() {
-		return "returnAddress"+returns.size();
+	protected String getReturnAddressName(CompilationContext ctx) {
+		return "returnAddress"+ctx.returns.size();
 	}
 	
 	/** Returns the operands in parenthesis to be compared in a while/if statement
@@ -469,7 +468,7 @@ public class StackCompiler extends Compiler {
 	 * @param line a line containing a while/if statement and a condition in parenthesis
 	 * @return the operands to compare
 	 */
-	protected LinkedList<String> getOperandsToCompare(String line) {
+	protected LinkedList<String> getOperandsToCompare(CompilationContext ctx, String line) {
 		String[] tokens = line.split("\\s|(?=[-+*/()=:;])|(?<=[^-+*/=:;][-+*/=:;])|(?<=[()])");
 		LinkedList<String> operands = new LinkedList<String>(), temps = new LinkedList<String>();
 		
@@ -479,22 +478,22 @@ public class StackCompiler extends Compiler {
 				// a word, presumably array
 				if (tokens[i].contains("[")) {
 					// an array index
-					temps.add(getTempAddr()); 
-					tempAddrs.add(tokens[i]);
+					temps.add(getTempAddr(ctx)); 
+					ctx.tempAddrs.add(tokens[i]);
 					
 					// add lines to load the indexed value
-					addArrayLoadingLine(tokens[i], temps.peekLast());
+					addArrayLoadingLine(ctx, tokens[i], temps.peekLast());
 					operands.add(temps.peekLast());
 				} else if (tokens[i].charAt(0) == '=') {
 					// we have '=var', fix it and try again
 					tokens[i] = tokens[i].substring(1);
 					i--;
 				} else {
-					operands.add(varToISAVar(tokens[i]));
+					operands.add(varToISAVar(ctx, tokens[i]));
 				}
 			} else if (tokens[i].length() > 0 && Character.isLetter(tokens[i].charAt(0))) {
 				// a letter (a variable)
-				operands.add(varToISAVar(tokens[i]));
+				operands.add(varToISAVar(ctx, tokens[i]));
 			} 
 		}
 		return operands;
@@ -504,29 +503,29 @@ public class StackCompiler extends Compiler {
 	 * 
 	 * @return
 	 */
-	protected String getTempAddr() {
-		return "Temp"+tempAddrs.size();
+	protected String getTempAddr(CompilationContext ctx) {
+		return "Temp"+ctx.tempAddrs.size();
 	}
 	
 	/** Adds a store command in ISA code for the given variable 
 	 * 
 	 */
-	protected void store(String word) {
+	protected void store(CompilationContext ctx, String word) {
 		StringBuffer toWrite = new StringBuffer();
-		programBits += 30; // 6 opcode + 24 address
-		numInstructions++;
-		memAccesses++;
+		ctx.programBits += 30; // 6 opcode + 24 address
+		ctx.numInstructions++;
+		ctx.memAccesses++;
 		// add label
-		if (!labelsToPrepend.isEmpty()) { // add a label if we have one saved
-			toWrite.append(labelsToPrepend.pollLast()+":\t");
+		if (!ctx.labelsToPrepend.isEmpty()) { // add a label if we have one saved
+			toWrite.append(ctx.labelsToPrepend.pollLast()+":\t");
 		} else {
 			toWrite.append("\t");
 		}
 		toWrite.append("pop "+word+"\n");
-		if (insideFunctionDeclaration) {
-			functionsToAdd.append(toWrite);
+		if (ctx.insideFunctionDeclaration) {
+			ctx.functionsToAdd.append(toWrite);
 		} else {
-			output.append(toWrite);
+			ctx.output.append(toWrite);
 		}
 	}
 	
@@ -534,22 +533,22 @@ public class StackCompiler extends Compiler {
 	 *  
 	 * @param address
 	 */
-	protected void load(String address) {
+	protected void load(CompilationContext ctx, String address) {
 		StringBuffer toWrite = new StringBuffer();
-		programBits += 30; // 6 opcode + 24 address
-		numInstructions++;
-		memAccesses++;
+		ctx.programBits += 30; // 6 opcode + 24 address
+		ctx.numInstructions++;
+		ctx.memAccesses++;
 		// add label
-		if (!labelsToPrepend.isEmpty()) { // add a label if we have one saved
-			toWrite.append(labelsToPrepend.pollLast()+":\t");
+		if (!ctx.labelsToPrepend.isEmpty()) { // add a label if we have one saved
+			toWrite.append(ctx.labelsToPrepend.pollLast()+":\t");
 		} else {
 			toWrite.append("\t");
 		}
 		toWrite.append("push "+address+"\n");
-		if (insideFunctionDeclaration) {
-			functionsToAdd.append(toWrite);
+		if (ctx.insideFunctionDeclaration) {
+			ctx.functionsToAdd.append(toWrite);
 		} else {
-			output.append(toWrite);
+			ctx.output.append(toWrite);
 		}
 	}
 	
@@ -557,24 +556,24 @@ public class StackCompiler extends Compiler {
 	 * 
 	 * @param address
 	 */
-	protected void jump(String address) {
-		load(jumpLabels.peekLast());
-		writeLine("j");
+	protected void jump(CompilationContext ctx, String address) {
+		load(ctx, ctx.jumpLabels.peekLast());
+		writeLine(ctx, "j");
 	}
 	
 	/** Adds a return address label to the line if needed by the architecture
 	 * 
 	 */
-	protected void addReturnAddressLabel() {
-		jumpLabels.add(getReturnAddressName());
+	protected void addReturnAddressLabel(CompilationContext ctx) {
+		ctx.jumpLabels.add(getReturnAddressName(ctx));
 	}
 	
 	/** Loads the result of the operation in the return value
 	 * Note: operands should have exactly 1 value
 	 */
-	protected void setReturnValue(String result, LinkedList<String> operands) {
-		load(operands.poll());
-		store(result);
+	protected void setReturnValue(CompilationContext ctx, String result, LinkedList<String> operands) {
+		load(ctx, operands.poll());
+		store(ctx, result);
 	}
 	
 	/** Adds a line for result = operand statements
@@ -582,8 +581,8 @@ public class StackCompiler extends Compiler {
 	 * @param result
 	 * @param operand
 	 */
-	protected void addOneOperLine(String result, String operand) {
-		load(operand);
-		store(result);
+	protected void addOneOperLine(CompilationContext ctx, String result, String operand) {
+		load(ctx, operand);
+		store(ctx, result);
 	}
 }
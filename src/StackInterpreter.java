@@ -0,0 +1,250 @@
+import java.util.Map;
+
+/** Runs StackCompiler's code on a machine whose operations take their operands off a stack of words,
+ * and put their results back on it. Only push and pop name anything, and only they and lw go to memory:
+ * 	push x	push a number, the address of a label, or the value of a variable (nothing pushes 0)
+ * 	pop x	pop into a variable (or, with nothing after it, throw the top away)
+ * 	add, sub, mul, muli, div, slt, slti	pop b, pop a, push a op b
+ * 	lw	pop an address, push the word there
+ * 	beq, bne	pop b, pop a, then pop the label pushed before them, and jump to it if the condition holds
+ * 	j, jr	pop an address and jump to it
+ * 	jal	pop a function's address and call it, with the return address in returnAddress0
+ * 
+ * The compiler doesn't always pop what it pushed, or push what it pops (eg. "pop a" twice after one push),
+ * so popping an empty stack gives 0 and is counted rather than stopping the run.
+ * The stack is an array of words made once per interpreter, and overflowing it is a fault.
+ * 
+ */
+public class StackInterpreter extends Interpreter {
+	
+	/** The most words the operand stack holds */
+	public static final int STACK_SIZE = 1 << 16;
+	private static final String[] OPERATIONS = {"push", "pop", "add", "sub", "mul", "muli", "div", "slt", "slti", "lw",
+		"beq", "bne", "j", "jal", "jr"};
+	private static final int PUSH = 0, POP = 1, ADD = 2, SUB = 3, MUL = 4, MULI = 5, DIV = 6, SLT = 7, SLTI = 8, LW = 9,
+			BEQ = 10, BNE = 11, J = 12, JAL = 13, JR = 14;
+	/** The superinstructions (see fuse()): two pushes, a pop into a variable and a push, and a push and a pop into a variable */
+	private static final int PUSH_PUSH = 15, POP_PUSH = 16, PUSH_POP = 17;
+	private static final int[][] SUPERINSTRUCTIONS = {{PUSH_PUSH, PUSH, PUSH}, {POP_PUSH, POP, PUSH}, {PUSH_POP, PUSH, POP}};
+	
+	private final int[] stack = new int[STACK_SIZE];
+	private int depth;
+	private long underflows;
+	private int maxDepth;
+	/** What the last push decoded pushed, so a jal knows what it calls */
+	private Operand lastPushed;
+	
+	/**
+	 * @param code Code written by StackCompiler
+	 * @throws IllegalArgumentException if the code uses an operation StackCompiler doesn't write
+	 */
+	public StackInterpreter(String code) {
+		super(ISA.STACK, code);
+		decode();
+		for (int i = 0; i < opcodes.length; i++) {
+			if (opcodes[i] == PUSH) {
+				countRead(i * SLOTS);
+			} else if (opcodes[i] == POP && operandCounts[i] > 0) {
+				countWrite(i * SLOTS);
+			} else if (opcodes[i] == LW) {
+				reads[i] = 1;
+			} else if (opcodes[i] == JAL && operandCounts[i] == 0) {
+				// the return address
+				writes[i] = 1;
+			}
+		}
+		fuse(SUPERINSTRUCTIONS);
+	}
+	
+	protected boolean fusible(int superinstruction, int pc) {
+		// a pop that throws the top away is left on its own
+		int pop = superinstruction == POP_PUSH ? pc : pc + 1;
+		return superinstruction == PUSH_PUSH || operandCounts[pop] > 0;
+	}
+	
+	protected Instruction decode(int index, String operation, String[] operands) {
+		int opcode = opcode(OPERATIONS, operation);
+		switch (opcode) {
+		case PUSH:
+			expect(operands, 0, 1);
+			String pushed = operands.length == 0 ? "" : operands[0];
+			lastPushed = isLabel(pushed) ? label(pushed, index) : data(pushed);
+			return new Instruction(opcode, lastPushed);
+		case POP:
+			expect(operands, 0, 1);
+			return operands.length == 0 ? new Instruction(opcode) : new Instruction(opcode, data(operands[0]));
+		case JAL:
+			expect(operands, 0, 0);
+			// a call to a function that isn't declared pushes its name, which is a variable rather than a label
+			boolean declared = lastPushed == null || lastPushed.kind != Operand.VARIABLE;
+			return declared ? new Instruction(opcode) : new Instruction(opcode, lastPushed);
+		default:
+			expect(operands, 0, 0);
+			return new Instruction(opcode);
+		}
+	}
+	
+	protected void dispatch(long limit) throws ExecutionFault {
+		int[] opcodes = this.opcodes, handlers = this.handlers, operandCounts = this.operandCounts;
+		long[] hits = this.hits;
+		int pc = position, a, b, target;
+		long count = executed, fusable = limit - 1;
+		try {
+			while (pc != STOP && pc < opcodes.length && count < limit) {
+				int next = pc + 1;
+				switch (count < fusable ? handlers[pc] : opcodes[pc]) {
+				case PUSH_PUSH:
+					push(read(pc * SLOTS));
+					hits[pc++]++;
+					count++;
+					push(read(pc * SLOTS));
+					next = pc + 1;
+					break;
+				case POP_PUSH:
+					write(pc * SLOTS, pop());
+					hits[pc++]++;
+					count++;
+					push(read(pc * SLOTS));
+					next = pc + 1;
+					break;
+				case PUSH_POP:
+					push(read(pc * SLOTS));
+					hits[pc++]++;
+					count++;
+					write(pc * SLOTS, pop());
+					next = pc + 1;
+					break;
+				case PUSH:
+					push(read(pc * SLOTS));
+					break;
+				case POP:
+					if (operandCounts[pc] == 0) {
+						pop();
+					} else {
+						write(pc * SLOTS, pop());
+					}
+					break;
+				case ADD:
+					b = pop();
+					push(pop() + b);
+					break;
+				case SUB:
+					b = pop();
+					push(pop() - b);
+					break;
+				case MUL:
+				case MULI:
+					b = pop();
+					push(pop() * b);
+					break;
+				case DIV:
+					b = pop();
+					a = pop();
+					if (b == 0) {
+						throw new ExecutionFault("Division by zero");
+					}
+					push(a / b);
+					break;
+				case SLT:
+				case SLTI:
+					b = pop();
+					push(pop() < b ? 1 : 0);
+					break;
+				case LW:
+					push(memory.read(pop()));
+					break;
+				case BEQ:
+				case BNE:
+					b = pop();
+					a = pop();
+					target = pop();
+					if ((a == b) == (opcodes[pc] == BEQ)) {
+						next = indexOf(target);
+					}
+					break;
+				case JAL:
+					target = pop();
+					if (operandCounts[pc] == 0) {
+						set(RETURN_ADDRESS, addressOf(pc + 1));
+						next = indexOf(target);
+					}
+					break;
+				default:
+					next = indexOf(pop());
+				}
+				hits[pc]++;
+				count++;
+				pc = after(pc, next);
+			}
+		} finally {
+			position = pc;
+			executed = count;
+		}
+	}
+	
+	protected void start(int[] arguments) {
+		startInMemory(arguments);
+		depth = 0;
+		maxDepth = 0;
+		underflows = 0;
+	}
+	
+	protected int returnValue() {
+		return get(RETURN_VALUE);
+	}
+	
+	protected void addCounts(Map<String, Long> counts) {
+		long pushes = 0, pops = 0, externalCalls = 0;
+		for (int i = 0; i < hits.length; i++) {
+			switch (opcodes[i]) {
+			case PUSH:
+				pushes += hits[i];
+				break;
+			case POP:
+			case J:
+			case JR:
+				pops += hits[i];
+				break;
+			case JAL:
+				pops += hits[i];
+				externalCalls += operandCounts[i] > 0 ? hits[i] : 0;
+				break;
+			case LW:
+				pops += hits[i];
+				pushes += hits[i];
+				break;
+			case BEQ:
+			case BNE:
+				pops += 3 * hits[i];
+				break;
+			default:
+				// the arithmetic
+				pops += 2 * hits[i];
+				pushes += hits[i];
+			}
+		}
+		counts.put("Pushes", pushes);
+		counts.put("Pops", pops);
+		counts.put("Pops from an empty stack", underflows);
+		counts.put("Most words on the stack", (long) maxDepth);
+		counts.put("Calls to undeclared functions", externalCalls);
+	}
+	
+	private void push(int value) throws ExecutionFault {
+		if (depth == stack.length) {
+			throw new ExecutionFault("The stack is full, at " + stack.length + " words");
+		}
+		stack[depth++] = value;
+		if (depth > maxDepth) {
+			maxDepth = depth;
+		}
+	}
+	
+	private int pop() {
+		if (depth == 0) {
+			underflows++;
+			return 0;
+		}
+		return stack[--depth];
+	}
+}
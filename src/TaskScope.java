@@ -0,0 +1,147 @@
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Runs each task on a thread of its own, and doesn't let any of them outlive the scope:
+ * close() waits for every thread that was forked. If a task fails, the scope shuts down,
+ * cancelling (interrupting) everything still running, and the first failure is kept for the owner to rethrow.
+ * 
+ * Threads are virtual threads when the JVM has them (Java 21+), looked up by reflection since the simulator
+ * still builds for 1.7. Otherwise they are ordinary daemon threads, so the caller should bound how many are
+ * forked at once.
+ * 
+ */
+public class TaskScope implements AutoCloseable {
+	
+	private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+	private static final AtomicInteger scopes = new AtomicInteger();
+	
+	private final ThreadFactory factory;
+	private final Set<FutureTask<?>> running = Collections.newSetFromMap(new ConcurrentHashMap<FutureTask<?>, Boolean>());
+	private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private volatile boolean shutdown = false;
+	
+	public TaskScope() {
+		if (VIRTUAL_THREADS != null) {
+			factory = VIRTUAL_THREADS;
+		} else {
+			final String name = "TaskScope-" + scopes.incrementAndGet() + "-";
+			final AtomicInteger count = new AtomicInteger();
+			factory = new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, name + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			};
+		}
+	}
+	
+	/** Returns true if tasks run on virtual threads rather than platform threads
+	 * 
+	 */
+	public static boolean usesVirtualThreads() {
+		return VIRTUAL_THREADS != null;
+	}
+	
+	/** Starts the task on a new thread
+	 * 
+	 * @return The task's result, once it's done
+	 * @throws IllegalStateException if the scope has been shut down
+	 */
+	public <T> Future<T> fork(Callable<T> task) {
+		if (shutdown) {
+			throw new IllegalStateException("The scope has been shut down");
+		}
+		final FutureTask<T> future = new FutureTask<T>(task) {
+			protected void done() {
+				running.remove(this);
+				if (!isCancelled()) {
+					try {
+						get();
+					} catch (Exception e) {
+						fail(e.getCause() != null ? e.getCause() : e);
+					}
+				}
+			}
+		};
+		running.add(future);
+		Thread thread = factory.newThread(new Runnable() {
+			public void run() {
+				try {
+					future.run();
+				} finally {
+					threads.remove(Thread.currentThread());
+				}
+			}
+		});
+		threads.add(thread);
+		thread.start();
+		return future;
+	}
+	
+	/** Cancels every task that is still running, and stops any more from being forked
+	 * 
+	 */
+	public void shutdown() {
+		shutdown = true;
+		for (FutureTask<?> f : running) {
+			f.cancel(true);
+		}
+	}
+	
+	/** Returns the first failure of a task in this scope, or null
+	 * 
+	 */
+	public Throwable getFailure() {
+		return failure.get();
+	}
+	
+	/** Shuts the scope down and waits for all of its threads to finish
+	 * 
+	 */
+	public void close() {
+		shutdown();
+		boolean interrupted = false;
+		while (!threads.isEmpty()) {
+			for (Thread t : threads) {
+				try {
+					t.join();
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void fail(Throwable t) {
+		if (failure.compareAndSet(null, t)) {
+			shutdown();
+		}
+	}
+	
+	/** Returns Thread.ofVirtual().factory() if there is such a thing, or null
+	 * 
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (Exception e) {
+			// older than Java 21 (or 19/20 without preview features turned on)
+			return null;
+		}
+	}
+}
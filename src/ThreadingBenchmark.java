@@ -0,0 +1,99 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Measures how fast a batch of small files compiles with a pool of threads (-batch)
+ * against a thread per file (-batch -virtual), see Simulator.simulateBatch.
+ * 
+ * Usage: java ThreadingBenchmark [FILES [THREADS [REPEATS]]]
+ * 
+ * The files (10000 by default) are written to a temporary directory first, and deleted afterwards.
+ * 
+ */
+public class ThreadingBenchmark {
+	
+	public static void main(String[] args) throws IOException {
+		int files = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		
+		File directory = File.createTempFile("threading", "");
+		directory.delete();
+		directory.mkdir();
+		List<String> paths = new ArrayList<String>(files);
+		try {
+			for (int f = 0; f < files; f++) {
+				File file = new File(directory, "input" + f + ".txt");
+				Writer out = new FileWriter(file);
+				try {
+					out.write(program(f));
+				} finally {
+					out.close();
+				}
+				paths.add(file.getPath());
+			}
+			
+			Simulator simulator = new Simulator();
+			// warm up the compilers before timing anything
+			run(simulator, paths.subList(0, Math.min(files, 500)), threads, false);
+			run(simulator, paths.subList(0, Math.min(files, 500)), threads, true);
+			
+			System.out.println(files + " files on " + threads + " thread(s), a thread per file uses "
+					+ (TaskScope.usesVirtualThreads() ? "virtual" : "platform") + " threads");
+			System.out.println("mode\t\tms\tfiles/s");
+			for (boolean perFile : new boolean[] {false, true}) {
+				long[] times = new long[repeats];
+				for (int r = 0; r < repeats; r++) {
+					times[r] = run(simulator, paths, threads, perFile);
+				}
+				Arrays.sort(times);
+				long median = times[repeats / 2];
+				System.out.println((perFile ? "per file" : "pool") + "\t\t" + median + "\t" + String.format("%.0f", files * 1000.0 / median));
+			}
+		} finally {
+			for (File f : directory.listFiles()) {
+				f.delete();
+			}
+			directory.delete();
+		}
+	}
+	
+	/** Compiles the files in a batch, throwing the report away, and returns how long it took in milliseconds
+	 * 
+	 */
+	private static long run(Simulator simulator, List<String> files, int threads, boolean perFile) throws IOException {
+		long start = System.nanoTime();
+		BatchMetrics totals = simulator.simulateBatch(files.iterator(), threads, perFile, new Discard(), null);
+		if (totals.getFiles() != files.size()) {
+			throw new IllegalStateException("Only " + totals.getFiles() + " of " + files.size() + " files were compiled");
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+	
+	/** Returns a small program in the style of the sample inputs, different for each file
+	 * 
+	 */
+	private static String program(int f) {
+		return "int square(int x) {\n\td = x * x;\n\treturn d;\n}\n"
+				+ "a = " + f + ";\nb = square(a);\nif (b < " + (f % 97) + ") \n\tc = b + 1;\nelse \n\tc = b - 1;\n"
+				+ "while (a < " + (f % 13 + 20) + ") a = a + c;\n";
+	}
+	
+	/** A writer that forgets everything written to it
+	 * 
+	 */
+	private static class Discard extends Writer {
+		public void write(char[] buffer, int offset, int length) {
+		}
+		
+		public void flush() {
+		}
+		
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,26 @@
+/** A block of a program's instructions that BlockTranslator has turned into JVM bytecode, which the JIT compiles
+ * like any other method. The subclass it makes runs the instructions from where the block starts until one jumps
+ * out of it, the block runs off its end, or an instruction faults, and returns where the interpreter goes on from.
+ * 
+ * It's public, as are the ones of Memory it calls, because the class it makes may be in a class loader of its own.
+ * 
+ */
+public abstract class TranslatedBlock {
+	
+	/** How many instructions the block has, and so the most one time through it executes */
+	protected int length;
+	/** How many instructions the last run() executed, which the subclass sets before it returns */
+	protected int executed;
+	
+	/** Runs the block, adding 1 to the hits of every instruction it executes, and going round again while
+	 * it jumps back to its start and has the budget for another time through. An instruction that faults
+	 * isn't executed: the block returns that instruction instead, so the interpreter executes it and faults the same way.
+	 * 
+	 * @param memory The program's memory
+	 * @param registers The interpreter's registers
+	 * @param hits How many times each instruction has been executed
+	 * @param budget The most instructions to execute, which is at least length
+	 * @return The instruction to go on from, or Interpreter.STOP
+	 */
+	public abstract int run(Memory memory, int[] registers, long[] hits, int budget);
+}
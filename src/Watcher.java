@@ -0,0 +1,251 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Watches the simulator's input files and recompiles each one as soon as it is saved,
+ * printing how its instruction count, size, and memory accesses changed in each architecture.
+ * 
+ * The directories holding the inputs are registered with a WatchService. Events are collected
+ * until none have arrived for QUIET_MS, then only the inputs that were touched, and whose contents
+ * actually changed, are recompiled. That's only long enough for the steps of one save to arrive together
+ * (eg. Files.write truncates the file, then writes it in pieces), so a half written file isn't compiled first.
+ * New files that match the arguments are picked up, and deleted ones are dropped.
+ * 
+ * The compilers stay loaded between saves, and unless a function cache has already been set up
+ * one is, so a save only recompiles the functions that changed.
+ * 
+ */
+public class Watcher {
+	
+	/** How long the inputs have to be quiet before recompiling, in milliseconds */
+	private static final long QUIET_MS = 1;
+	
+	private final Logger logger;
+	private final PrintStream out;
+	private final List<String> args;
+	private final EnumSet<ISA> architectures;
+	private final WatchService watchService;
+	private final HashMap<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+	/** The inputs as of the last compile, with their contents and results */
+	private Set<Path> inputs = new LinkedHashSet<Path>();
+	private final HashMap<Path, String> contents = new HashMap<Path, String>();
+	private final HashMap<Path, CompilationResult[]> results = new HashMap<Path, CompilationResult[]>();
+	
+	/**
+	 * @param logger Where to log errors
+	 * @param out Where to print the results
+	 * @param args Files, directories, glob patterns, and @manifests, as for InputFiles
+	 * @param architectures The architectures to compile for
+	 * @throws IOException if a WatchService can't be created
+	 */
+	public Watcher(Logger logger, PrintStream out, List<String> args, EnumSet<ISA> architectures) throws IOException {
+		this.logger = logger;
+		this.out = out;
+		this.args = args;
+		this.architectures = architectures;
+		watchService = FileSystems.getDefault().newWatchService();
+	}
+	
+	/** Compiles every input, then recompiles them as they change until the thread is interrupted
+	 * 
+	 * @throws IOException if a directory can't be watched
+	 */
+	public void watch() throws IOException {
+		if (Compiler.getFunctionCache() == null) {
+			Compiler.setFunctionCache(new FunctionCache(Integer.getInteger("simulator.cache.mb", 64) * 1024L * 1024L));
+		}
+		for (String arg : args) {
+			register(arg);
+		}
+		Set<Path> changed = expandInputs();
+		recompile(changed, System.currentTimeMillis());
+		out.println("Watching " + inputs.size() + " file(s) for changes");
+		
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				long firstEvent = System.currentTimeMillis();
+				Set<Path> touched = new HashSet<Path>();
+				boolean filesAddedOrRemoved = false;
+				
+				// keep collecting until the events stop for a moment
+				while (key != null) {
+					Path dir = directories.get(key);
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+							filesAddedOrRemoved = true;
+							touched.addAll(inputs);
+							continue;
+						}
+						Path path = dir.resolve((Path) event.context());
+						touched.add(path);
+						if (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY) {
+							filesAddedOrRemoved = true;
+							if (Files.isDirectory(path)) {
+								registerAll(path);
+							}
+						}
+					}
+					if (!key.reset()) {
+						directories.remove(key);
+					}
+					key = watchService.poll(QUIET_MS, TimeUnit.MILLISECONDS);
+				}
+				
+				if (filesAddedOrRemoved || !inputs.containsAll(touched)) {
+					// new files might match the arguments, or a manifest might have changed
+					touched.addAll(expandInputs());
+				}
+				touched.retainAll(inputs);
+				recompile(touched, firstEvent);
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} finally {
+			watchService.close();
+		}
+	}
+	
+	/** Updates the inputs from the arguments, forgets the ones that are gone, and returns the new ones
+	 * 
+	 */
+	private Set<Path> expandInputs() {
+		Set<Path> expanded = new LinkedHashSet<Path>();
+		for (String file : InputFiles.list(args)) {
+			Path p = Paths.get(file).toAbsolutePath().normalize();
+			if (Files.isRegularFile(p)) {
+				expanded.add(p);
+			}
+		}
+		
+		for (Path p : inputs) {
+			if (!expanded.contains(p)) {
+				out.println(relative(p) + " removed");
+				contents.remove(p);
+				results.remove(p);
+			}
+		}
+		Set<Path> added = new LinkedHashSet<Path>(expanded);
+		added.removeAll(inputs);
+		inputs = expanded;
+		return added;
+	}
+	
+	/** Recompiles the files whose contents changed, and prints how their metrics moved
+	 * 
+	 * @param files The files that might have changed
+	 * @param since When the first change was seen, in milliseconds
+	 */
+	private void recompile(Set<Path> files, long since) {
+		for (Path file : files) {
+			String code = FileHelper.readContents(file.toString(), false);
+			if (code.equals(contents.get(file))) {
+				// saved without changes
+				continue;
+			}
+			contents.put(file, code);
+			
+			long start = System.nanoTime();
+			CompilationResult[] previous = results.get(file), current = new CompilationResult[ISA.values().length];
+			StringBuffer report = new StringBuffer();
+			for (ISA i : architectures) {
+				report.append(relative(file) + "\t" + i + "\t");
+				try {
+					CompilationResult r = Compiler.getCompiler(i).compileProgram(code, null);
+					current[i.ordinal()] = r;
+					CompilationResult p = previous != null ? previous[i.ordinal()] : null;
+					report.append("instructions " + r.getNumInstructions() + delta(r.getNumInstructions(), p == null ? null : p.getNumInstructions())
+							+ "\tbits " + r.getProgramBits() + delta(r.getProgramBits(), p == null ? null : p.getProgramBits())
+							+ "\tmemory accesses " + r.getMemAccesses() + delta(r.getMemAccesses(), p == null ? null : p.getMemAccesses()) + "\n");
+				} catch (Exception e) {
+					report.append("error: " + e.getMessage() + "\n");
+					logger.log(Level.SEVERE, file + " (" + i + "): " + e.getMessage(), e);
+				}
+			}
+			results.put(file, current);
+			
+			long compileMicros = (System.nanoTime() - start) / 1000;
+			report.append(relative(file) + " compiled in " + String.format("%.1f", compileMicros / 1000.0) + " ms, "
+					+ (System.currentTimeMillis() - since) + " ms after the change was seen\n");
+			out.print(report);
+			out.flush();
+		}
+	}
+	
+	private static String delta(int now, Integer before) {
+		if (before == null) {
+			return "";
+		}
+		int d = now - before;
+		return " (" + (d >= 0 ? "+" : "") + d + ")";
+	}
+	
+	private static String relative(Path file) {
+		Path cwd = Paths.get("").toAbsolutePath();
+		return file.startsWith(cwd) ? cwd.relativize(file).toString() : file.toString();
+	}
+	
+	/** Watches whatever directories an argument's files could appear in
+	 * 
+	 */
+	private void register(String arg) throws IOException {
+		if (arg.startsWith("@")) {
+			Path manifest = Paths.get(arg.substring(1)).toAbsolutePath();
+			register(manifest.getParent());
+			for (String file : InputFiles.list(Collections.singletonList(arg))) {
+				register(Paths.get(file).toAbsolutePath().getParent());
+			}
+		} else if (InputFiles.isPattern(arg)) {
+			Path base = Paths.get(arg.replaceAll("[*?\\[{].*", "") + "x").toAbsolutePath().getParent();
+			registerAll(base);
+		} else {
+			Path p = Paths.get(arg).toAbsolutePath();
+			if (Files.isDirectory(p)) {
+				registerAll(p);
+			} else {
+				register(p.getParent());
+			}
+		}
+	}
+	
+	private void registerAll(Path dir) throws IOException {
+		register(dir);
+		DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+		try {
+			for (Path p : stream) {
+				if (Files.isDirectory(p)) {
+					registerAll(p);
+				}
+			}
+		} finally {
+			stream.close();
+		}
+	}
+	
+	private void register(Path dir) throws IOException {
+		if (dir == null || !Files.isDirectory(dir) || directories.containsValue(dir.normalize())) {
+			return;
+		}
+		WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		directories.put(key, dir.normalize());
+	}
+}